@@ -39,6 +39,14 @@ public class InfrastructureStack extends Stack {
 
   private static final String BACKEND_SERVICE_1_HOST_NAME = "backend-service-1.com";
   private static final String BACKEND_SERVICE_2_HOST_NAME = "backend-service-2.com";
+  // same variable as scripts/1-create-certificates.sh, so the functions know the key algorithm of their certificates
+  private static final String KEY_PROFILE = System.getenv().getOrDefault("KEY_PROFILE", "rsa");
+  // the parameter-store function reads its keystores from Parameter Store instead of the certificate layer
+  private static final boolean KEYSTORES_IN_PARAMETER_STORE =
+    Boolean.parseBoolean(System.getenv().getOrDefault("KEYSTORES_IN_PARAMETER_STORE", "false"));
+
+  // the layer functions resume TLS 1.2 sessions with tickets too; JSSE reads the property once, before the handler runs
+  private static final String SESSION_TICKETS = "-Djdk.tls.client.enableSessionTicketExtension=true";
 
   public InfrastructureStack(final Construct scope, final String id, final StackProps props) {
     super(scope, id, props);
@@ -207,15 +215,39 @@ public class InfrastructureStack extends Stack {
       PolicyStatement.Builder.create()
         .effect(Effect.ALLOW)
         .actions(List.of("ssm:GetParameters", "ssm:GetParameter", "ssm:GetParametersByPath"))
-        .resources(List.of(String.format("arn:%s:ssm:%s:%s:parameter/%s", getPartition(), getRegion(), getAccount(), "DEV/APP/CLIENT")))
+        .resources(List.of(
+          String.format("arn:%s:ssm:%s:%s:parameter/%s", getPartition(), getRegion(), getAccount(), "DEV/APP/CLIENT"),
+          String.format("arn:%s:ssm:%s:%s:parameter/%s", getPartition(), getRegion(), getAccount(), "DEV/APP/CLIENT/*")))
         .build()
     );
 
+    LayerVersion lambdaLayerForService1cert = new LayerVersion(this, "LambdaLayerForService1Cert", LayerVersionProps.builder()
+      .layerVersionName("LambdaLayerForService1Cert")
+      .compatibleArchitectures(List.of(X86_64, ARM_64))
+      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
+      .code(Code.fromAsset("../software/lambda-layer-service-1-cert/target/service-1-cert-layer.zip"))
+      .build());
+
+    LayerVersion lambdaLayerForService2cert = new LayerVersion(this, "LambdaLayerForService2Cert", LayerVersionProps.builder()
+      .layerVersionName("LambdaLayerForService2Cert")
+      .compatibleArchitectures(List.of(X86_64, ARM_64))
+      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
+      .code(Code.fromAsset("../software/lambda-layer-service-2-cert/target/service-2-cert-layer.zip"))
+      .build());
+
+    LayerVersion lambdaLayerForSSLUtility = new LayerVersion(this, "LambdaLayerForSSLUtility", LayerVersionProps.builder()
+      .layerVersionName("LambdaLayerForSSLUtility")
+      .compatibleArchitectures(List.of(X86_64, ARM_64))
+      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
+      .code(Code.fromAsset("../software/lambda-ssl-utility-layer/target/ssl-utility-layer.zip"))
+      .build());
+
     Function lambdaNoMTLSFunction = new Function(this, "LambdaNoMTLSFunction", FunctionProps.builder()
       .functionName("lambda-no-mtls")
       .handler("com.amazon.aws.example.AppClient::handleRequest")
       .runtime(Runtime.JAVA_11)
       .architecture(ARM_64)
+      .layers(singletonList(lambdaLayerForSSLUtility))
       .vpc(vpc)
       .code(Code.fromAsset("../software/0-lambda-no-mtls/target/lambda-no-mtls.jar"))
       .memorySize(1024)
@@ -229,6 +261,7 @@ public class InfrastructureStack extends Stack {
       .handler("com.amazon.aws.example.AppClient::handleRequest")
       .runtime(Runtime.JAVA_11)
       .architecture(ARM_64)
+      .layers(singletonList(lambdaLayerForSSLUtility))
       .vpc(vpc)
       .code(Code.fromAsset("../software/1-lambda-only/target/lambda-only.jar"))
       .memorySize(1024)
@@ -241,33 +274,12 @@ public class InfrastructureStack extends Stack {
       .logRetention(RetentionDays.ONE_WEEK)
       .build());
 
-    LayerVersion lambdaLayerForService1cert = new LayerVersion(this, "LambdaLayerForService1Cert", LayerVersionProps.builder()
-      .layerVersionName("LambdaLayerForService1Cert")
-      .compatibleArchitectures(List.of(X86_64, ARM_64))
-      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
-      .code(Code.fromAsset("../software/lambda-layer-service-1-cert/target/service-1-cert-layer.zip"))
-      .build());
-
-    LayerVersion lambdaLayerForService2cert = new LayerVersion(this, "LambdaLayerForService2Cert", LayerVersionProps.builder()
-      .layerVersionName("LambdaLayerForService2Cert")
-      .compatibleArchitectures(List.of(X86_64, ARM_64))
-      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
-      .code(Code.fromAsset("../software/lambda-layer-service-2-cert/target/service-2-cert-layer.zip"))
-      .build());
-
-    LayerVersion lambdaLayerForSSLUtility = new LayerVersion(this, "LambdaLayerForSSLUtility", LayerVersionProps.builder()
-      .layerVersionName("LambdaLayerForSSLUtility")
-      .compatibleArchitectures(List.of(X86_64, ARM_64))
-      .compatibleRuntimes(Arrays.asList(Runtime.JAVA_11, Runtime.JAVA_8_CORRETTO, Runtime.JAVA_8, Runtime.PROVIDED_AL2))
-      .code(Code.fromAsset("../software/lambda-ssl-utility-layer/target/ssl-utility-layer.zip"))
-      .build());
-
     Function lambdaLayerFunction = new Function(this, "LambdaLayerFunction", FunctionProps.builder()
       .functionName("lambda-layer")
       .handler("com.amazon.aws.example.AppClient::handleRequest")
       .runtime(Runtime.JAVA_11)
       .architecture(ARM_64)
-      .layers(singletonList(lambdaLayerForService1cert))
+      .layers(List.of(lambdaLayerForService1cert, lambdaLayerForSSLUtility))
       .vpc(vpc)
       .code(Code.fromAsset("../software/2-lambda-using-separate-layer/target/lambda-using-separate-layer.jar"))
       .memorySize(1024)
@@ -285,13 +297,23 @@ public class InfrastructureStack extends Stack {
       .handler("com.amazon.aws.example.AppClient::handleRequest")
       .runtime(Runtime.JAVA_11)
       .architecture(ARM_64)
-      .layers(singletonList(lambdaLayerForService1cert))
+      .layers(KEYSTORES_IN_PARAMETER_STORE
+        ? List.of(lambdaLayerForSSLUtility)
+        : List.of(lambdaLayerForService1cert, lambdaLayerForSSLUtility))
       .vpc(vpc)
       .code(Code.fromAsset("../software/3-lambda-using-parameter-store/target/lambda-using-parameter-store.jar"))
       .memorySize(1024)
-      .environment(Map.of(
-        "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME
-      ))
+      .environment(KEYSTORES_IN_PARAMETER_STORE
+        ? Map.of(
+          "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
+          "KEYSTORE_PARAMETER", "/DEV/APP/CLIENT/KEYSTORE/1",
+          "TRUSTSTORE_PARAMETER", "/DEV/APP/CLIENT/TRUSTSTORE",
+          "JAVA_TOOL_OPTIONS", SESSION_TICKETS
+        )
+        : Map.of(
+          "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
+          "JAVA_TOOL_OPTIONS", SESSION_TICKETS
+        ))
       .timeout(Duration.seconds(10))
       .logRetention(RetentionDays.ONE_WEEK)
       .initialPolicy(ssmPermissions)
@@ -308,7 +330,71 @@ public class InfrastructureStack extends Stack {
       .memorySize(1024)
       .environment(Map.of(
         "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
-        "BACKEND_SERVICE_2_HOST_NAME", BACKEND_SERVICE_2_HOST_NAME
+        "BACKEND_SERVICE_2_HOST_NAME", BACKEND_SERVICE_2_HOST_NAME,
+        "KEY_PROFILE", KEY_PROFILE,
+        "JAVA_TOOL_OPTIONS", SESSION_TICKETS
+      ))
+      .timeout(Duration.seconds(10))
+      .logRetention(RetentionDays.ONE_WEEK)
+      .initialPolicy(ssmPermissions)
+      .build());
+
+    Function lambdaMultipleCertificatesStreamingFunction = new Function(this, "LambdaMultipleCertificatesStreamingFunction", FunctionProps.builder()
+      .functionName("lambda-multiple-certificates-streaming")
+      .handler("com.amazon.aws.example.StreamingAppClient::handleRequest")
+      .runtime(Runtime.JAVA_11)
+      .architecture(ARM_64)
+      .layers(List.of(lambdaLayerForService1cert, lambdaLayerForService2cert, lambdaLayerForSSLUtility))
+      .vpc(vpc)
+      .code(Code.fromAsset("../software/4-lambda-using-multiple-certificates/target/lambda-using-multiple-certificates.jar"))
+      .memorySize(1024)
+      .environment(Map.of(
+        "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
+        "BACKEND_SERVICE_2_HOST_NAME", BACKEND_SERVICE_2_HOST_NAME,
+        "KEY_PROFILE", KEY_PROFILE,
+        "JAVA_TOOL_OPTIONS", SESSION_TICKETS
+      ))
+      .timeout(Duration.seconds(10))
+      .logRetention(RetentionDays.ONE_WEEK)
+      .initialPolicy(ssmPermissions)
+      .build());
+
+    // GET ?path=/backend-service-1/..&path=/backend-service-2/.. calls every path in one invocation, over the
+    // connections of the execution environment
+    Function lambdaMultipleCertificatesBatchFunction = new Function(this, "LambdaMultipleCertificatesBatchFunction", FunctionProps.builder()
+      .functionName("lambda-multiple-certificates-batch")
+      .handler("com.amazon.aws.example.BatchAppClient::handleRequest")
+      .runtime(Runtime.JAVA_11)
+      .architecture(ARM_64)
+      .layers(List.of(lambdaLayerForService1cert, lambdaLayerForService2cert, lambdaLayerForSSLUtility))
+      .vpc(vpc)
+      .code(Code.fromAsset("../software/4-lambda-using-multiple-certificates/target/lambda-using-multiple-certificates.jar"))
+      .memorySize(1024)
+      .environment(Map.of(
+        "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
+        "BACKEND_SERVICE_2_HOST_NAME", BACKEND_SERVICE_2_HOST_NAME,
+        "KEY_PROFILE", KEY_PROFILE,
+        "JAVA_TOOL_OPTIONS", SESSION_TICKETS
+      ))
+      .timeout(Duration.seconds(10))
+      .logRetention(RetentionDays.ONE_WEEK)
+      .initialPolicy(ssmPermissions)
+      .build());
+
+    // the client certificate of the tenant in the path or the X-Tenant-Id header, from the parameter
+    // /DEV/APP/CLIENT/KEYSTORE/TENANT/{tenant}, loaded on the first request of the tenant
+    Function lambdaMultipleCertificatesTenantFunction = new Function(this, "LambdaMultipleCertificatesTenantFunction", FunctionProps.builder()
+      .functionName("lambda-multiple-certificates-tenant")
+      .handler("com.amazon.aws.example.TenantAppClient::handleRequest")
+      .runtime(Runtime.JAVA_11)
+      .architecture(ARM_64)
+      .layers(List.of(lambdaLayerForService1cert, lambdaLayerForSSLUtility))
+      .vpc(vpc)
+      .code(Code.fromAsset("../software/4-lambda-using-multiple-certificates/target/lambda-using-multiple-certificates.jar"))
+      .memorySize(1024)
+      .environment(Map.of(
+        "BACKEND_SERVICE_1_HOST_NAME", BACKEND_SERVICE_1_HOST_NAME,
+        "JAVA_TOOL_OPTIONS", SESSION_TICKETS
       ))
       .timeout(Duration.seconds(10))
       .logRetention(RetentionDays.ONE_WEEK)
@@ -340,6 +426,23 @@ public class InfrastructureStack extends Stack {
       .addResource("lambda-multiple-certificates")
       .addMethod(GET.toString(), LambdaIntegration.Builder.create(lambdaMultipleCertificatesFunction).build());
 
+    restApi.getRoot()
+      .addResource("lambda-multiple-certificates-streaming")
+      .addMethod(GET.toString(), LambdaIntegration.Builder.create(lambdaMultipleCertificatesStreamingFunction).build());
+
+    restApi.getRoot()
+      .addResource("lambda-multiple-certificates-batch")
+      .addMethod(GET.toString(), LambdaIntegration.Builder.create(lambdaMultipleCertificatesBatchFunction).build());
+
+    LambdaIntegration tenantIntegration = LambdaIntegration.Builder.create(lambdaMultipleCertificatesTenantFunction).build();
+    restApi.getRoot()
+      .addResource("lambda-multiple-certificates-tenant")
+      .addMethod(GET.toString(), tenantIntegration);
+    restApi.getRoot()
+      .getResource("lambda-multiple-certificates-tenant")
+      .addResource("{tenant}")
+      .addMethod(GET.toString(), tenantIntegration);
+
     PrivateHostedZone zoneBackendService1 = PrivateHostedZone.Builder.create(this, "PrivateHostedZoneBackendService1")
       .zoneName(BACKEND_SERVICE_1_HOST_NAME)
       .vpc(vpc)
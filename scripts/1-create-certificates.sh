@@ -3,17 +3,55 @@ set -euo pipefail
 
 BASEDIR=$(dirname "$0")
 
+# Key algorithm of all certificates: rsa (default), ecdsa-p256, ecdsa-p384 or ed25519.
+# ECDSA and Ed25519 keys make the mutual handshake cheaper for the Lambda function, Ed25519 needs Java 15 or later.
+KEY_PROFILE=${KEY_PROFILE:-rsa}
+
+case $KEY_PROFILE in
+  rsa)
+    OPENSSL_KEY="-algorithm RSA -pkeyopt rsa_keygen_bits:2048"
+    DIGEST="-sha256"
+    KEYTOOL_KEY="-keyalg RSA -keysize 2048"
+    KEYTOOL_SIGALG="SHA256withRSA"
+    ;;
+  ecdsa-p256)
+    OPENSSL_KEY="-algorithm EC -pkeyopt ec_paramgen_curve:P-256 -pkeyopt ec_param_enc:named_curve"
+    DIGEST="-sha256"
+    KEYTOOL_KEY="-keyalg EC -groupname secp256r1"
+    KEYTOOL_SIGALG="SHA256withECDSA"
+    ;;
+  ecdsa-p384)
+    OPENSSL_KEY="-algorithm EC -pkeyopt ec_paramgen_curve:P-384 -pkeyopt ec_param_enc:named_curve"
+    DIGEST="-sha384"
+    KEYTOOL_KEY="-keyalg EC -groupname secp384r1"
+    KEYTOOL_SIGALG="SHA384withECDSA"
+    ;;
+  ed25519)
+    # Ed25519 signatures hash internally, so no digest is passed to openssl
+    OPENSSL_KEY="-algorithm ED25519"
+    DIGEST=""
+    KEYTOOL_KEY="-keyalg Ed25519"
+    KEYTOOL_SIGALG="Ed25519"
+    ;;
+  *)
+    echo "Unknown KEY_PROFILE $KEY_PROFILE, expected one of rsa, ecdsa-p256, ecdsa-p384, ed25519" >&2
+    exit 1
+    ;;
+esac
+
+echo "Creating certificates with key profile $KEY_PROFILE"
+
 #######################################################
 # GENERATE ROOT CA CERTIFICATES for Backend Service 1 #
 #######################################################
 
 # Generate the root CA private key
-openssl genrsa -out $BASEDIR/certs/rootCA-service-1.key 2048
+openssl genpkey $OPENSSL_KEY -out $BASEDIR/certs/rootCA-service-1.key
 
 # Create and self sign the root CA public key
 openssl req -x509 -new -nodes \
   -key $BASEDIR/certs/rootCA-service-1.key \
-  -sha256 \
+  $DIGEST \
   -days 365 \
   -subj "/C=US/ST=Washington/L=Seattle/O=Root CA Inc./OU=CA" \
   -out $BASEDIR/certs/rootCA-service-1.crt
@@ -23,12 +61,12 @@ openssl req -x509 -new -nodes \
 #######################################################
 
 # Generate the root CA private key
-openssl genrsa -out $BASEDIR/certs/rootCA-service-2.key 2048
+openssl genpkey $OPENSSL_KEY -out $BASEDIR/certs/rootCA-service-2.key
 
 # Create and self sign the root CA public key
 openssl req -x509 -new -nodes \
   -key $BASEDIR/certs/rootCA-service-2.key \
-  -sha256 \
+  $DIGEST \
   -days 365 \
   -subj "/C=US/ST=Ohio/L=Columbus/O=Root CA Inc./OU=CA" \
   -out $BASEDIR/certs/rootCA-service-2.crt
@@ -38,10 +76,10 @@ openssl req -x509 -new -nodes \
 ###########################################
 
 # Create the backend service 1 private key
-openssl genrsa -out $BASEDIR/certs/backend_service_1.key 2048
+openssl genpkey $OPENSSL_KEY -out $BASEDIR/certs/backend_service_1.key
 
 # Create the backend service 1 signing request
-openssl req -new -sha256 \
+openssl req -new $DIGEST \
   -key $BASEDIR/certs/backend_service_1.key \
   -subj "/C=US/ST=Washington/L=Seattle/O=The Cloud Company/OU=Backend Service 1/CN=backend-service-1.com" \
   -out $BASEDIR/certs/backend_service_1.csr
@@ -49,7 +87,7 @@ openssl req -new -sha256 \
 # Create the backend service 1 sign public key, by signing the backend service 1 signing request with the root CA private and public key
 openssl x509 -req \
   -in $BASEDIR/certs/backend_service_1.csr \
-  -days 365 -sha256 \
+  -days 365 $DIGEST \
   -CA $BASEDIR/certs/rootCA-service-1.crt \
   -CAkey $BASEDIR/certs/rootCA-service-1.key \
   -CAserial $BASEDIR/certs/rootCA-service-1.srl \
@@ -62,10 +100,10 @@ openssl x509 -req \
 ###########################################
 
 # Create the backend service 2 private key
-openssl genrsa -out $BASEDIR/certs/backend_service_2.key 2048
+openssl genpkey $OPENSSL_KEY -out $BASEDIR/certs/backend_service_2.key
 
 # Create the backend service 2 signing request
-openssl req -new -sha256 \
+openssl req -new $DIGEST \
   -key $BASEDIR/certs/backend_service_2.key \
   -subj "/C=US/ST=Ohio/L=Columbus/O=The Cloud Company/OU=Backend Service 2/CN=backend-service-2.com" \
   -out $BASEDIR/certs/backend_service_2.csr
@@ -73,7 +111,7 @@ openssl req -new -sha256 \
 # Create the backend service 2 sign public key, by signing the backend service 2 signing request with the root CA private and public key
 openssl x509 -req \
   -in $BASEDIR/certs/backend_service_2.csr \
-  -days 365 -sha256 \
+  -days 365 $DIGEST \
   -CA $BASEDIR/certs/rootCA-service-2.crt \
   -CAkey $BASEDIR/certs/rootCA-service-2.key \
   -CAserial $BASEDIR/certs/rootCA-service-2.srl \
@@ -129,20 +167,19 @@ keytool -importcert \
 
 # Generate the lambda keystore for backend service 1 which contains the rootCA-service-1 certificate
 keytool -genkeypair \
-  -keyalg RSA \
-  -sigalg SHA256withRSA \
+  $KEYTOOL_KEY \
+  -sigalg $KEYTOOL_SIGALG \
   -alias lambda \
   -keystore $BASEDIR/certs/client_keystore_1.jks \
   -storepass secret \
   -keypass secret \
   -validity 365 \
-  -keysize 2048 \
   -dname "CN=Lambda for Backend Service 1, OU=S-Team, O=The Cloud Company, L=Seattle, S=Washington, C=US"
 
 # Create a signing request for the client keystore backend service 1
 keytool -certreq \
   -keystore $BASEDIR/certs/client_keystore_1.jks \
-  -sigalg SHA256withRSA \
+  -sigalg $KEYTOOL_SIGALG \
   -alias lambda \
   -file $BASEDIR/certs/client_1.csr \
   -keypass secret \
@@ -159,7 +196,7 @@ openssl x509 -req \
   -CAkey $BASEDIR/certs/rootCA-service-1.key \
   -in $BASEDIR/certs/client_1.csr \
   -out $BASEDIR/certs/client_1.crt \
-  -sha256 \
+  $DIGEST \
   -days 365 \
   -CAcreateserial \
   -CAserial $BASEDIR/certs/client_1.srl \
@@ -196,20 +233,19 @@ keytool -importcert \
 
 # Generate the lambda keystore for backend service 2 which contains the rootCA-service-2 certificate
 keytool -genkeypair \
-  -keyalg RSA \
-  -sigalg SHA256withRSA \
+  $KEYTOOL_KEY \
+  -sigalg $KEYTOOL_SIGALG \
   -alias lambda \
   -keystore $BASEDIR/certs/client_keystore_2.jks \
   -storepass secret \
   -keypass secret \
   -validity 365 \
-  -keysize 2048 \
   -dname "CN=Lambda for Backend Service 2, OU=S-Team, O=The Cloud Company, L=Columbus, S=Ohio, C=US"
 
 # Create s signing request for the client keystore backend service 2
 keytool -certreq \
   -keystore $BASEDIR/certs/client_keystore_2.jks \
-  -sigalg SHA256withRSA \
+  -sigalg $KEYTOOL_SIGALG \
   -alias lambda \
   -file $BASEDIR/certs/client_2.csr \
   -keypass secret \
@@ -226,7 +262,7 @@ openssl x509 -req \
   -CAkey $BASEDIR/certs/rootCA-service-2.key \
   -in $BASEDIR/certs/client_2.csr \
   -out $BASEDIR/certs/client_2.crt \
-  -sha256 \
+  $DIGEST \
   -days 365 \
   -CAcreateserial \
   -CAserial $BASEDIR/certs/client_2.srl \
@@ -13,6 +13,33 @@ aws ssm put-parameter \
   --value 'secret' \
   --overwrite
 
+# optional: keep the keystores of the parameter-store function in Parameter Store instead of a layer; a base64
+# encoded keystore exceeds the 4 KB of a standard parameter, so this uses the advanced tier
+if [ "${KEYSTORES_IN_PARAMETER_STORE:-false}" = "true" ]; then
+  aws ssm put-parameter \
+    --type SecureString \
+    --tier Advanced \
+    --name '/DEV/APP/CLIENT/KEYSTORE/1' \
+    --value "$(openssl base64 -A -in software/lambda-layer-service-1-cert/src/main/resources/client_keystore_1.jks)" \
+    --overwrite
+
+  aws ssm put-parameter \
+    --type SecureString \
+    --tier Advanced \
+    --name '/DEV/APP/CLIENT/TRUSTSTORE' \
+    --value "$(openssl base64 -A -in software/lambda-layer-service-1-cert/src/main/resources/client_truststore.jks)" \
+    --overwrite
+fi
+
+# a tenant of the tenant function, which is always deployed; more tenants are more parameters under
+# /DEV/APP/CLIENT/KEYSTORE/TENANT/
+aws ssm put-parameter \
+  --type SecureString \
+  --tier Advanced \
+  --name '/DEV/APP/CLIENT/KEYSTORE/TENANT/partner-1' \
+  --value "$(openssl base64 -A -in software/lambda-layer-service-1-cert/src/main/resources/client_keystore_1.jks)" \
+  --overwrite
+
 cd infrastructure
 cdk synth
 cdk deploy --outputs-file target/outputs.json
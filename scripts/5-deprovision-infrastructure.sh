@@ -6,4 +6,14 @@ aws ssm delete-parameter \
 aws ssm delete-parameter \
   --name '/DEV/APP/CLIENT/TRUSTSTORE/PASSWORD'
 
+aws ssm delete-parameter \
+  --name '/DEV/APP/CLIENT/KEYSTORE/TENANT/partner-1'
+
+# only present with KEYSTORES_IN_PARAMETER_STORE=true
+aws ssm delete-parameter \
+  --name '/DEV/APP/CLIENT/KEYSTORE/1' 2>/dev/null
+
+aws ssm delete-parameter \
+  --name '/DEV/APP/CLIENT/TRUSTSTORE' 2>/dev/null
+
 cd infrastructure && cdk destroy
@@ -3,47 +3,34 @@
 
 package com.amazon.aws.example;
 
+import com.amazon.aws.example.handler.ProxyHandler;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Map;
 
-public class AppClient implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class AppClient extends ProxyHandler {
   private static final String BACKEND_SERVICE_1_HOST_NAME = System.getenv("BACKEND_SERVICE_1_HOST_NAME");
+  private static final HttpRequest BACKEND_SERVICE_1_REQUEST =
+    getRequest(URI.create(String.format("https://%s", BACKEND_SERVICE_1_HOST_NAME)));
   private static final HttpClient client = HttpClient.newBuilder()
     .version(HttpClient.Version.HTTP_2)
     .connectTimeout(Duration.ofSeconds(5))
     .build();
 
-  public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
-    context.getLogger().log(input.toString());
-
-    HttpRequest httpRequest = HttpRequest.newBuilder()
-      .uri(URI.create(String.format("https://%s", BACKEND_SERVICE_1_HOST_NAME)))
-      .timeout(Duration.ofSeconds(5))
-      .GET()
-      .build();
-
-    try {
-      HttpResponse<String> httpResponse = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    return forward(client, BACKEND_SERVICE_1_REQUEST, context);
+  }
 
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(200)
-        .withHeaders(Map.of("Content-Type", "application/json"))
-        .withBody(httpResponse.body());
-    } catch (Exception e) {
-      context.getLogger().log(e.getMessage());
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(500)
-        .withHeaders(Map.of("Content-Type", "text/plain"))
-        .withBody(e.getMessage());
-    }
+  @Override
+  protected APIGatewayProxyResponseEvent error(final Exception e) {
+    // without a client certificate the handshake fails, the message shows why
+    return text(500, e.getMessage());
   }
 }
@@ -3,48 +3,52 @@
 
 package com.amazon.aws.example;
 
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.CachingHttpClient;
+import com.amazon.aws.lambda.layer.EmbeddedMetrics;
+import com.amazon.aws.lambda.layer.HedgingHttpClient;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Map;
 
-public class AppClient implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class AppClient extends ProxyHandler {
 
   private static final String BACKEND_SERVICE_1_HOST_NAME = System.getenv("BACKEND_SERVICE_1_HOST_NAME");
-  private static final HttpClient client = HttpClient.newBuilder()
-    .version(HttpClient.Version.HTTP_2)
-    .connectTimeout(Duration.ofSeconds(5))
+  private static final HttpRequest BACKEND_SERVICE_1_REQUEST =
+    getRequest(URI.create(String.format("https://%s", BACKEND_SERVICE_1_HOST_NAME)));
+  // a request without a response after the p95 latency is sent again over a connection of its own
+  private static final HedgingHttpClient client = HedgingHttpClient.builder()
+    .primary(newHttpClient())
+    .hedge(newHttpClient())
     .build();
+  // off unless RESPONSE_CACHE_MAX_BYTES is set, then repeated requests are answered from memory or by a 304
+  private static final CachingHttpClient responseCache = withResponseCache(client);
+
+  public AppClient() {
+    // handshake with the backend during init, the first invocation then reuses the pooled connections
+    long start = System.nanoTime();
+    client.prime(BACKEND_SERVICE_1_REQUEST);
+    EmbeddedMetrics.getInstance().initStage("priming", Duration.ofNanos(System.nanoTime() - start));
+  }
 
-  public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
-    context.getLogger().log(input.toString());
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    if (debug) {
+      context.getLogger().log(responseCache.toString());
+    }
+    return forward(responseCache, BACKEND_SERVICE_1_REQUEST, context);
+  }
 
-    HttpRequest httpRequest = HttpRequest.newBuilder()
-      .uri(URI.create(String.format("https://%s", BACKEND_SERVICE_1_HOST_NAME)))
-      .timeout(Duration.ofSeconds(5))
-      .GET()
+  private static HttpClient newHttpClient() {
+    return HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(Duration.ofSeconds(5))
       .build();
-
-    try {
-      HttpResponse<String> httpResponse = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(200)
-        .withHeaders(Map.of("Content-Type", "application/json"))
-        .withBody(httpResponse.body());
-    } catch (Exception e) {
-      context.getLogger().log(e.getMessage());
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(500)
-        .withHeaders(Map.of("Content-Type", "text/plain"))
-        .withBody("error");
-    }
   }
 }
@@ -3,95 +3,122 @@
 
 package com.amazon.aws.example;
 
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.CachingHttpClient;
+import com.amazon.aws.lambda.layer.EmbeddedMetrics;
+import com.amazon.aws.lambda.layer.HedgingHttpClient;
+import com.amazon.aws.lambda.layer.KeyStoreContent;
+import com.amazon.aws.lambda.layer.ParameterStoreLoader;
+import com.amazon.aws.lambda.layer.SecretCache;
+import com.amazon.aws.lambda.layer.TrustAndKeyStore;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.ssm.SsmClient;
-import software.amazon.lambda.powertools.parameters.ParamManager;
-import software.amazon.lambda.powertools.parameters.SSMProvider;
 
-import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.security.*;
-import java.security.cert.CertificateException;
+import java.security.GeneralSecurityException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.Optional;
 
-public class AppClient implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class AppClient extends ProxyHandler implements TrustAndKeyStore {
   private static final String BACKEND_SERVICE_1_HOST_NAME = System.getenv("BACKEND_SERVICE_1_HOST_NAME");
-  private final HttpClient httpClient;
-  private static final SsmClient ssmClient = SsmClient.builder()
-    .region(Region.of(System.getenv("AWS_REGION")))
+  private static final HttpRequest BACKEND_SERVICE_1_REQUEST =
+    getRequest(URI.create(String.format("https://%s:%s", BACKEND_SERVICE_1_HOST_NAME,
+      Optional.ofNullable(System.getenv("BACKEND_SERVICE_1_PORT")).orElse("443"))));
+  private final HedgingHttpClient httpClient;
+  private final CachingHttpClient responseCache;
+  private static final String KEYSTORE_PASSWORD = "/DEV/APP/CLIENT/KEYSTORE/PASSWORD";
+  private static final String TRUSTSTORE_PASSWORD = "/DEV/APP/CLIENT/TRUSTSTORE/PASSWORD";
+  // names of parameters holding the base64 of the stores; without them the stores come from the certificate layer
+  private static final Optional<String> KEYSTORE_PARAMETER = Optional.ofNullable(System.getenv("KEYSTORE_PARAMETER"));
+  private static final Optional<String> TRUSTSTORE_PARAMETER =
+    Optional.ofNullable(System.getenv("TRUSTSTORE_PARAMETER"));
+  // both passwords in one GetParameters call, kept encrypted in /tmp for a re-init of the runtime when
+  // SECRET_CACHE_KEY is set
+  private static final SecretCache secretCache = SecretCache.builder()
+    .loader(new ParameterStoreLoader(ParameterStoreLoader.newSsmClient()))
+    .ttl(Duration.ofMinutes(5))
+    .fileFromEnvironment(Paths.get("/tmp/secrets.bin"))
     .build();
-  private static final SSMProvider ssmProvider = ParamManager.getSsmProvider(ssmClient);
 
-  public AppClient() throws NoSuchAlgorithmException, UnrecoverableKeyException, KeyStoreException,
-    CertificateException, IOException, KeyManagementException {
-
-    Map<String, String> values = ssmProvider.recursive().withDecryption().getMultiple("/DEV/APP/CLIENT");
-    String keyStorePassword = values.get("KEYSTORE/PASSWORD");
-    String trustStorePassword = values.get("TRUSTSTORE/PASSWORD");
-
-    KeyStore keyStore = KeyStore.getInstance(
-      Paths.get("/opt/client_keystore_1.jks").toFile(),
-      keyStorePassword.toCharArray()
-    );
-
-    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-    kmf.init(keyStore, keyStorePassword.toCharArray());
-
-    KeyStore trustStore = KeyStore.getInstance(
-      Paths.get("/opt/client_truststore.jks").toFile(),
-      trustStorePassword.toCharArray()
-    );
+  public AppClient() throws GeneralSecurityException, IOException {
+    EmbeddedMetrics metrics = EmbeddedMetrics.getInstance();
+    long start = System.nanoTime();
+
+    // passwords and stores in the same GetParameters call
+    List<String> names = new ArrayList<>(List.of(KEYSTORE_PASSWORD, TRUSTSTORE_PASSWORD));
+    KEYSTORE_PARAMETER.ifPresent(names::add);
+    TRUSTSTORE_PARAMETER.ifPresent(names::add);
+    Map<String, String> values = secretCache.getAll(names);
+    String keyStorePassword = values.get(KEYSTORE_PASSWORD);
+    String trustStorePassword = values.get(TRUSTSTORE_PASSWORD);
+    start = initStage(metrics, "secrets", start);
+
+    KeyStoreContent keyStore = keyStoreContent(KEYSTORE_PARAMETER, values, "/opt/client_keystore_1.jks");
+    KeyStoreContent trustStore = keyStoreContent(TRUSTSTORE_PARAMETER, values, "/opt/client_truststore.jks");
+    start = initStage(metrics, "keystores", start);
+
+    // through the SSLContextRegistry, with the TlsPolicy of KEY_PROFILE, the trust index and REVOCATION_CHECK, and
+    // the handshake metrics and session resumption of the layer
+    SSLContext sslContext = getSSLContext(keyStore, keyStorePassword, trustStore, trustStorePassword);
+
+    // a request without a response after the p95 latency is sent again over a connection of its own
+    httpClient = HedgingHttpClient.builder()
+      .primary(newHttpClient(sslContext))
+      .hedge(newHttpClient(sslContext))
+      .build();
+    // off unless RESPONSE_CACHE_MAX_BYTES is set, then repeated requests are answered from memory or by a 304
+    responseCache = withResponseCache(httpClient);
+    start = initStage(metrics, "ssl context", start);
 
-    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-    tmf.init(trustStore);
+    // handshake with the backend during init, the first invocation then reuses the pooled connections
+    httpClient.prime(BACKEND_SERVICE_1_REQUEST);
+    initStage(metrics, "priming", start);
+  }
 
-    SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-    sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    if (debug) {
+      context.getLogger().log(responseCache.toString());
+    }
+    return forward(responseCache, BACKEND_SERVICE_1_REQUEST, context);
+  }
 
-    httpClient = HttpClient.newBuilder()
+  private static HttpClient newHttpClient(final SSLContext sslContext) {
+    return HttpClient.newBuilder()
       .version(HttpClient.Version.HTTP_2)
       .connectTimeout(Duration.ofSeconds(5))
       .sslContext(sslContext)
       .build();
   }
 
-  public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
-    context.getLogger().log(input.toString());
-
-    HttpRequest httpRequestBackendService1 = HttpRequest.newBuilder()
-      .uri(URI.create(String.format("https://%s:443", BACKEND_SERVICE_1_HOST_NAME)))
-      .timeout(Duration.ofSeconds(5))
-      .GET()
-      .build();
-
-    try {
-      CompletableFuture<HttpResponse<String>> httpResponseBackendService1 = httpClient.sendAsync(
-        httpRequestBackendService1,
-        HttpResponse.BodyHandlers.ofString());
+  /**
+   * @return the end of the stage, the start of the next one
+   */
+  private static long initStage(final EmbeddedMetrics metrics, final String name, final long start) {
+    long end = System.nanoTime();
+    metrics.initStage(name, Duration.ofNanos(end - start));
+    return end;
+  }
 
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(200)
-        .withHeaders(Map.of("Content-Type", "application/json"))
-        .withBody(httpResponseBackendService1.get().body());
-    } catch (Exception e) {
-      context.getLogger().log(e.getMessage());
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(500)
-        .withHeaders(Map.of("Content-Type", "text/plain"))
-        .withBody("error");
+  /**
+   * Decodes the store in memory if it is kept in Parameter Store, and reads it from the layer otherwise.
+   */
+  private static KeyStoreContent keyStoreContent(final Optional<String> parameter, final Map<String, String> values,
+                                                 final String pathInLayer) throws IOException {
+    if (parameter.isPresent()) {
+      return KeyStoreContent.decode(parameter.get(), StandardCharsets.US_ASCII.encode(values.get(parameter.get())));
     }
+    return KeyStoreContent.read(pathInLayer);
   }
 }
@@ -3,107 +3,233 @@
 
 package com.amazon.aws.example;
 
+import com.amazon.aws.example.handler.HandlerLog;
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.BackendResult;
+import com.amazon.aws.lambda.layer.CachingHttpClient;
+import com.amazon.aws.lambda.layer.CheckpointListener;
+import com.amazon.aws.lambda.layer.Checkpoints;
+import com.amazon.aws.lambda.layer.ConnectionPool;
+import com.amazon.aws.lambda.layer.EmbeddedMetrics;
+import com.amazon.aws.lambda.layer.HandshakeMetrics;
+import com.amazon.aws.lambda.layer.HedgingHttpClient;
+import com.amazon.aws.lambda.layer.InitPipeline;
+import com.amazon.aws.lambda.layer.KeyMaterialReloader;
+import com.amazon.aws.lambda.layer.KeyStoreContent;
+import com.amazon.aws.lambda.layer.ParameterStoreLoader;
+import com.amazon.aws.lambda.layer.ReloadableKeyManager;
+import com.amazon.aws.lambda.layer.ReloadableTrustManager;
+import com.amazon.aws.lambda.layer.RoutingKeyManager;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import com.amazon.aws.lambda.layer.ScatterGather;
+import com.amazon.aws.lambda.layer.SecretCache;
+import com.amazon.aws.lambda.layer.SessionResumption;
 import com.amazon.aws.lambda.layer.TrustAndKeyStore;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ssm.SsmClient;
-import software.amazon.lambda.powertools.parameters.ParamManager;
-import software.amazon.lambda.powertools.parameters.SSMProvider;
 
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
-public class AppClient implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>, TrustAndKeyStore {
+public class AppClient extends ProxyHandler implements TrustAndKeyStore, CheckpointListener {
   private static final String BACKEND_SERVICE_1_HOST_NAME = System.getenv("BACKEND_SERVICE_1_HOST_NAME");
   private static final String BACKEND_SERVICE_2_HOST_NAME = System.getenv("BACKEND_SERVICE_2_HOST_NAME");
-  private final HttpClient clientBackendService1, clientBackendService2;
-  private static final SsmClient ssmClient = SsmClient.builder()
-    .region(Region.of(System.getenv("AWS_REGION")))
+  // the ports and the directory of the certificate layers can be changed to run the function locally
+  private static final int BACKEND_SERVICE_1_PORT = Integer.parseInt(
+    Optional.ofNullable(System.getenv("BACKEND_SERVICE_1_PORT")).orElse("443"));
+  private static final int BACKEND_SERVICE_2_PORT = Integer.parseInt(
+    Optional.ofNullable(System.getenv("BACKEND_SERVICE_2_PORT")).orElse("444"));
+  private static final String CERTIFICATE_DIRECTORY =
+    Optional.ofNullable(System.getenv("CERTIFICATE_DIRECTORY")).orElse("/opt");
+  static final URI BACKEND_SERVICE_1 =
+    URI.create(String.format("https://%s:%d", BACKEND_SERVICE_1_HOST_NAME, BACKEND_SERVICE_1_PORT));
+  static final URI BACKEND_SERVICE_2 =
+    URI.create(String.format("https://%s:%d", BACKEND_SERVICE_2_HOST_NAME, BACKEND_SERVICE_2_PORT));
+  private static final String KEYSTORE_1 = CERTIFICATE_DIRECTORY + "/client_keystore_1.jks";
+  private static final String KEYSTORE_2 = CERTIFICATE_DIRECTORY + "/client_keystore_2.jks";
+  static final String TRUSTSTORE = CERTIFICATE_DIRECTORY + "/client_truststore.jks";
+  static final String KEYSTORE_PASSWORD = "/DEV/APP/CLIENT/KEYSTORE/PASSWORD";
+  static final String TRUSTSTORE_PASSWORD = "/DEV/APP/CLIENT/TRUSTSTORE/PASSWORD";
+  private static final int BACKEND_CONNECTIONS = Integer.parseInt(
+    Optional.ofNullable(System.getenv("BACKEND_CONNECTIONS")).orElse("1"));
+  private final SSLContext sslContext;
+  private final ConnectionPool connectionPool;
+  private final ScatterGather backends = ScatterGather.builder()
+    .backend("backend-service-1", BACKEND_SERVICE_1, Duration.ofSeconds(5))
+    .backend("backend-service-2", BACKEND_SERVICE_2, Duration.ofSeconds(5))
+    .build();
+  private final KeyMaterialReloader keyMaterialReloader;
+  private final HttpClient httpClient;
+  private final HedgingHttpClient hedgingClient;
+  private final CachingHttpClient responseCache;
+  static final SsmClient ssmClient = ParameterStoreLoader.newSsmClient();
+  // both passwords in one GetParameters call, refreshed in the background and kept encrypted in /tmp for a
+  // re-init of the runtime when SECRET_CACHE_KEY is set
+  static final SecretCache secretCache = SecretCache.builder()
+    .loader(new ParameterStoreLoader(ssmClient))
+    .ttl(Duration.ofMinutes(5))
+    .fileFromEnvironment(Paths.get("/tmp/secrets.bin"))
     .build();
-  private static final SSMProvider ssmProvider = ParamManager.getSsmProvider(ssmClient);
-
-  public AppClient() throws NoSuchAlgorithmException, UnrecoverableKeyException, KeyStoreException,
-    CertificateException, IOException, KeyManagementException {
-
-    Map<String, String> values = ssmProvider.recursive().withDecryption().getMultiple("/DEV/APP/CLIENT");
-    String keyStorePassword = values.get("KEYSTORE/PASSWORD");
-    String trustStorePassword = values.get("TRUSTSTORE/PASSWORD");
-
-    SSLContext sslContextBackendService1 = getSSLContext(
-      "/opt/client_keystore_1.jks",
-      keyStorePassword,
-      "/opt/client_truststore.jks",
-      trustStorePassword
-    );
-
-    SSLContext sslContextBackendService2 = getSSLContext(
-      "/opt/client_keystore_2.jks",
-      keyStorePassword,
-      "/opt/client_truststore.jks",
-      trustStorePassword
-    );
-
-    clientBackendService1 = HttpClient.newBuilder()
-      .version(HttpClient.Version.HTTP_2)
-      .connectTimeout(Duration.ofSeconds(5))
-      .sslContext(sslContextBackendService1)
-      .build();
 
-    clientBackendService2 = HttpClient.newBuilder()
-      .version(HttpClient.Version.HTTP_2)
-      .connectTimeout(Duration.ofSeconds(5))
-      .sslContext(sslContextBackendService2)
-      .build();
+  static {
+    // only read during init, watched so every background refresh fetches them and a rotation changes the generation
+    secretCache.watch(List.of(KEYSTORE_PASSWORD, TRUSTSTORE_PASSWORD));
   }
 
-  public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
-    context.getLogger().log(input.toString());
+  public AppClient() throws GeneralSecurityException, IOException {
 
-    HttpRequest httpRequestBackendService1 = HttpRequest.newBuilder()
-      .uri(URI.create(String.format("https://%s:443", BACKEND_SERVICE_1_HOST_NAME)))
-      .timeout(Duration.ofSeconds(5))
-      .GET()
-      .build();
+    // the Parameter Store lookup, the file reads and the parsing of each store overlap, a store only waits for the
+    // password it needs
+    try (InitPipeline init = new InitPipeline(4)) {
+      CompletableFuture<Map<String, String>> secrets = init.stage("secrets",
+        () -> secretCache.getAll(List.of(KEYSTORE_PASSWORD, TRUSTSTORE_PASSWORD)));
+      CompletableFuture<KeyStoreContent> keyStore1 = init.stage("read client_keystore_1",
+        () -> KeyStoreContent.read(KEYSTORE_1));
+      CompletableFuture<KeyStoreContent> keyStore2 = init.stage("read client_keystore_2",
+        () -> KeyStoreContent.read(KEYSTORE_2));
+      CompletableFuture<KeyStoreContent> trustStore = init.stage("read client_truststore",
+        () -> KeyStoreContent.read(TRUSTSTORE));
+
+      // the reloadable managers parse the content read ahead, only later reloads read the files again
+      CompletableFuture<ReloadableKeyManager> keyManagerBackendService1 = init.stage("parse client_keystore_1",
+        () -> new ReloadableKeyManager(keyStore1.join(), () -> secretCache.get(KEYSTORE_PASSWORD)), secrets,
+        keyStore1);
+      CompletableFuture<ReloadableKeyManager> keyManagerBackendService2 = init.stage("parse client_keystore_2",
+        () -> new ReloadableKeyManager(keyStore2.join(), () -> secretCache.get(KEYSTORE_PASSWORD)), secrets,
+        keyStore2);
+      CompletableFuture<ReloadableTrustManager> trustManager = init.stage("parse client_truststore",
+        () -> new ReloadableTrustManager(trustStore.join(), () -> secretCache.get(TRUSTSTORE_PASSWORD)), secrets,
+        trustStore);
+
+      // one SSLContext presents client_keystore_1.jks to backend service 1 and client_keystore_2.jks to service 2
+      CompletableFuture<SSLContext> context = init.stage("ssl context", () -> getSSLContext(
+        RoutingKeyManager.builder()
+          .route(BACKEND_SERVICE_1_HOST_NAME, BACKEND_SERVICE_1_PORT, new KeyManager[]{keyManagerBackendService1.join()})
+          .route(BACKEND_SERVICE_2_HOST_NAME, BACKEND_SERVICE_2_PORT, new KeyManager[]{keyManagerBackendService2.join()})
+          .build(),
+        trustManager.join()), keyManagerBackendService1, keyManagerBackendService2, trustManager);
+
+      // rotated certificates or passwords are picked up in the background, without a redeployment or cold start;
+      // the generation of the secret cache changes when its background refresh finds a rotated password
+      CompletableFuture<KeyMaterialReloader> reloader = init.stage("key material reloader", () ->
+        KeyMaterialReloader.builder()
+          .watch(keyManagerBackendService1.join(), keyManagerBackendService2.join(), trustManager.join())
+          .version(secretCache::getGeneration)
+          .invalidate(context.join().getClientSessionContext())
+          .interval(Duration.ofMinutes(1))
+          .log(this::warn)
+          .start(), context);
+
+      // handshake with both backends during init and keep the connections alive, aligned with the nginx
+      // keepalive_timeout, the invocations then reuse them instead of reconnecting
+      CompletableFuture<ConnectionPool> pool = init.stage("connection pool", () -> ConnectionPool.builder()
+        .backend(BACKEND_SERVICE_1)
+        .backend(BACKEND_SERVICE_2)
+        .connections(BACKEND_CONNECTIONS)
+        .idleTimeout(Duration.ofSeconds(75))
+        .sslContext(context.join())
+        .clientFactory(AppClient::newHttpClient)
+        .start(), context);
+
+      sslContext = init.await(context);
+      keyMaterialReloader = init.await(reloader);
+      connectionPool = init.await(pool);
+      httpClient = connectionPool.getHttpClient();
+      // a backend request without a response after the p95 latency is sent again over a client with connections of
+      // its own; it is not primed, so none of its connections ends up in a snapshot, the first hedge connects
+      hedgingClient = HedgingHttpClient.builder()
+        .primary(httpClient)
+        .hedge(newHttpClient(sslContext))
+        .build();
+      // off unless RESPONSE_CACHE_MAX_BYTES is set, then repeated requests are answered from memory or by a 304
+      responseCache = withResponseCache(hedgingClient);
+
+      LambdaRuntime.getLogger().log(init.toString());
+      EmbeddedMetrics.getInstance().initStages(init);
+    }
+
+    LambdaRuntime.getLogger().log(SSLContextRegistry.getInstance().toString());
+    LambdaRuntime.getLogger().log(secretCache.toString());
+
+    // no-op unless the function runs with SnapStart or on a CRaC JDK
+    Checkpoints.register(this);
+  }
+
+  @Override
+  public void beforeCheckpoint() {
+    // keep connections and sessions out of the snapshot, every restored copy negotiates its own
+    connectionPool.reset();
+    SessionResumption.invalidate(sslContext.getClientSessionContext());
+  }
+
+  @Override
+  public void afterRestore() {
+    // the layer has reseeded the SecureRandom of the SSLContext at this point
+    SessionResumption.invalidate(sslContext.getClientSessionContext());
+    connectionPool.reset();
+    connectionPool.warm();
+  }
 
-    HttpRequest httpRequestBackendService2 = HttpRequest.newBuilder()
-      .uri(URI.create(String.format("https://%s:444", BACKEND_SERVICE_2_HOST_NAME)))
-      .timeout(Duration.ofSeconds(5))
-      .GET()
+  private void warn(final String message) {
+    if (getLog().isEnabled(HandlerLog.Level.WARN)) {
+      LambdaRuntime.getLogger().log(message);
+    }
+  }
+
+  /**
+   * @return the client of the connection pool, without hedging, e.g. for body handlers that can only run once
+   */
+  HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * @return the client of the invocations, the response cache in front of hedging over the connection pool
+   */
+  HttpClient getBackendClient() {
+    return responseCache;
+  }
+
+  static HttpClient newHttpClient(final SSLContext sslContext) {
+    return HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(Duration.ofSeconds(5))
+      .sslContext(sslContext)
       .build();
+  }
+
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    StringBuilder body = new StringBuilder();
+    List<BackendResult> results = backends.writeJsonArray(responseCache, deadline(context), body);
+    if (debug) {
+      context.getLogger().log(results.toString());
+      // full versus resumed handshakes per backend, warm environments should almost only resume
+      context.getLogger().log(HandshakeMetrics.getInstance().toString());
+      context.getLogger().log(connectionPool.toString());
+      context.getLogger().log(hedgingClient.toString());
+      context.getLogger().log(responseCache.toString());
+    }
 
-    try {
-      CompletableFuture<HttpResponse<String>> httpResponseBackendService1 = clientBackendService1.sendAsync(
-        httpRequestBackendService1,
-        HttpResponse.BodyHandlers.ofString());
-      CompletableFuture<HttpResponse<String>> httpResponseBackendService2 = clientBackendService2.sendAsync(
-        httpRequestBackendService2,
-        HttpResponse.BodyHandlers.ofString());
-
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(200)
-        .withHeaders(Map.of("Content-Type", "application/json"))
-        .withBody(String.format("[%s,%s]", httpResponseBackendService1.get().body(), httpResponseBackendService2.get().body()));
-    } catch (Exception e) {
-      context.getLogger().log(e.getMessage());
-      return new APIGatewayProxyResponseEvent()
-        .withStatusCode(500)
-        .withHeaders(Map.of("Content-Type", "text/plain"))
-        .withBody("error");
+    // partial results are still a success, the status of every backend is part of the body
+    boolean anyOk = false;
+    for (BackendResult result : results) {
+      anyOk |= result.isOk();
     }
+    return json(anyOk ? 200 : 502, body.toString());
   }
 }
@@ -0,0 +1,94 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example;
+
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.BackendResult;
+import com.amazon.aws.lambda.layer.ScatterGather;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers many backend paths with one invocation: GET /lambda-multiple-certificates-batch?path=/backend-service-1/
+ * &amp;path=/backend-service-2/demo.json returns a JSON array with one {@link BackendResult} per path, in completion
+ * order, each with its own status. Init, key material and priming are shared with {@link AppClient}.
+ * <p>
+ * The calls run concurrently over the connections the pool handshaked during init; over HTTP/2 the calls to one
+ * backend are streams of one connection, so a batch costs one invocation and no handshake instead of one of each per
+ * path. Every path names its backend as its first segment, other hosts cannot be reached. Repeated paths are called
+ * once, at most BATCH_MAX_ITEMS (20 by default) paths are accepted and BATCH_MAX_CONCURRENCY (16 by default) calls
+ * are in flight at the same time.
+ */
+public class BatchAppClient extends ProxyHandler {
+  private static final int MAX_ITEMS = Integer.parseInt(
+    Optional.ofNullable(System.getenv("BATCH_MAX_ITEMS")).orElse("20"));
+  private static final int MAX_CONCURRENCY = Integer.parseInt(
+    Optional.ofNullable(System.getenv("BATCH_MAX_CONCURRENCY")).orElse("16"));
+  private static final Duration ITEM_TIMEOUT = Duration.ofSeconds(5);
+  // the backend, then a path of non-empty segments, without a query or a fragment
+  private static final Pattern ITEM = Pattern.compile(
+    "/(backend-service-[12])((?:/(?:[A-Za-z0-9._~!$&'()*+,;=:@-]|%[0-9A-Fa-f]{2})+)*/?)");
+  private static final Pattern DOT_SEGMENT = Pattern.compile("/\\.\\.?(?:/|$)");
+  private static final Map<String, URI> BACKENDS = Map.of(
+    "backend-service-1", AppClient.BACKEND_SERVICE_1,
+    "backend-service-2", AppClient.BACKEND_SERVICE_2);
+  private final AppClient appClient;
+
+  public BatchAppClient() throws GeneralSecurityException, IOException {
+    appClient = new AppClient();
+  }
+
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    List<String> paths = Optional.ofNullable(input.getMultiValueQueryStringParameters())
+      .map(parameters -> parameters.get("path"))
+      .orElse(List.of());
+    Set<String> items = new LinkedHashSet<>(paths);
+    if (items.isEmpty()) {
+      return text(400, "no path");
+    }
+    if (items.size() > MAX_ITEMS) {
+      return text(400, "more than " + MAX_ITEMS + " paths");
+    }
+
+    // the requests depend on the paths, so they are built per invocation instead of once during init
+    ScatterGather.Builder batch = ScatterGather.builder().maxConcurrency(MAX_CONCURRENCY);
+    for (String item : items) {
+      Matcher matcher = ITEM.matcher(item);
+      if (!matcher.matches() || DOT_SEGMENT.matcher(item).find()) {
+        return text(400, "invalid path");
+      }
+      String path = matcher.group(2).isEmpty() ? "/" : matcher.group(2);
+      batch.backend(item, URI.create(BACKENDS.get(matcher.group(1)) + path), ITEM_TIMEOUT);
+    }
+
+    StringBuilder body = new StringBuilder(256 * items.size());
+    List<BackendResult> results = batch.build().writeJsonArray(appClient.getBackendClient(), deadline(context), body);
+    if (debug) {
+      context.getLogger().log(results.toString());
+      context.getLogger().log(appClient.getBackendClient().toString());
+    }
+
+    // partial results are still a success, the status of every path is part of the body
+    boolean anyOk = false;
+    for (BackendResult result : results) {
+      anyOk |= result.isOk();
+    }
+    return json(anyOk ? 200 : 502, body.toString());
+  }
+}
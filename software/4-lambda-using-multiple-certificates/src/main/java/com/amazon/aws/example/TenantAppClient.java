@@ -0,0 +1,110 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example;
+
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.KeyStoreContent;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import com.amazon.aws.lambda.layer.TenantClients;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
+import software.amazon.awssdk.services.ssm.model.ParameterNotFoundException;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Calls backend service 1 with the client certificate of the tenant of the request, from the path
+ * (/lambda-multiple-certificates-tenant/{tenant}) or the X-Tenant-Id header, instead of one certificate per layer.
+ * <p>
+ * The keystore of a tenant is the base64 in the Parameter Store parameter /DEV/APP/CLIENT/KEYSTORE/TENANT/{tenant},
+ * or the file {tenant}.jks in TENANT_KEYSTORE_DIRECTORY if that is set, e.g. to run the function locally. It is
+ * loaded on the first request of the tenant, and its client is kept in {@link TenantClients}, at most
+ * TENANT_MAX_CLIENTS (100 by default) and TENANT_MAX_BYTES (32 MiB by default) of them. The truststore and the
+ * keystore password are shared with {@link AppClient}.
+ */
+public class TenantAppClient extends ProxyHandler {
+  private static final String TENANT_HEADER = "X-Tenant-Id";
+  private static final String TENANT_PARAMETER_PREFIX = "/DEV/APP/CLIENT/KEYSTORE/TENANT/";
+  private static final Optional<String> TENANT_KEYSTORE_DIRECTORY =
+    Optional.ofNullable(System.getenv("TENANT_KEYSTORE_DIRECTORY"));
+  private static final int TENANT_MAX_CLIENTS = Integer.parseInt(
+    Optional.ofNullable(System.getenv("TENANT_MAX_CLIENTS")).orElse("100"));
+  private static final long TENANT_MAX_BYTES = Long.parseLong(
+    Optional.ofNullable(System.getenv("TENANT_MAX_BYTES")).orElse(Long.toString(32L * 1024 * 1024)));
+  // the tenant names a parameter or a file, nothing else
+  private static final Pattern TENANT = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+  private static final HttpRequest BACKEND_SERVICE_1_REQUEST = getRequest(AppClient.BACKEND_SERVICE_1);
+  private final TenantClients tenantClients;
+
+  public TenantAppClient() throws GeneralSecurityException, IOException {
+    // only the trust material is loaded during init, the key material of a tenant on its first request
+    tenantClients = TenantClients.builder()
+      .keyStoreLoader(TenantAppClient::keyStore)
+      .keyStorePassword(() -> AppClient.secretCache.get(AppClient.KEYSTORE_PASSWORD))
+      .trustManagers(SSLContextRegistry.getInstance().getTrustManagers(AppClient.TRUSTSTORE,
+        AppClient.secretCache.get(AppClient.TRUSTSTORE_PASSWORD)))
+      .clientFactory(AppClient::newHttpClient)
+      .maxTenants(TENANT_MAX_CLIENTS)
+      .maxBytes(TENANT_MAX_BYTES)
+      .build();
+  }
+
+  @Override
+  protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                 final boolean debug) throws Exception {
+    String tenant = Optional.ofNullable(input.getPathParameters())
+      .map(parameters -> parameters.get("tenant"))
+      .or(() -> Optional.ofNullable(input.getHeaders()).map(headers -> header(headers, TENANT_HEADER)))
+      .orElse(null);
+    if (tenant == null || !TENANT.matcher(tenant).matches()) {
+      return text(400, "invalid tenant");
+    }
+    try {
+      APIGatewayProxyResponseEvent response =
+        forward(tenantClients.getHttpClient(tenant), BACKEND_SERVICE_1_REQUEST, context);
+      if (debug) {
+        context.getLogger().log(tenantClients.toString());
+      }
+      return response;
+    } catch (ParameterNotFoundException | NoSuchFileException e) {
+      return text(404, "unknown tenant");
+    }
+  }
+
+  private static KeyStoreContent keyStore(final String tenant) throws IOException {
+    if (TENANT_KEYSTORE_DIRECTORY.isPresent()) {
+      return KeyStoreContent.read(TENANT_KEYSTORE_DIRECTORY.get() + "/" + tenant + ".jks");
+    }
+    // read per tenant and not kept by the secret cache, the tenant clients bound the memory of the key material
+    String name = TENANT_PARAMETER_PREFIX + tenant;
+    String value = AppClient.ssmClient.getParameter(GetParameterRequest.builder()
+        .name(name)
+        .withDecryption(true)
+        .build())
+      .parameter()
+      .value();
+    return KeyStoreContent.decode(name, StandardCharsets.US_ASCII.encode(value));
+  }
+
+  /**
+   * @return the value of the header, API Gateway passes header names as the client sent them
+   */
+  private static String header(final Map<String, String> headers, final String name) {
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+}
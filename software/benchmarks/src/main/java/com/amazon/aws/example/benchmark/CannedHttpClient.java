@@ -0,0 +1,154 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Answers every request with the same response without any I/O, so a benchmark measures only the handler around the
+ * client.
+ */
+final class CannedHttpClient extends HttpClient {
+
+  private final CannedResponse response;
+  private final CompletableFuture<HttpResponse<String>> completed;
+
+  CannedHttpClient(final String body) {
+    this.response = new CannedResponse(body);
+    this.completed = CompletableFuture.completedFuture(response);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return (HttpResponse<T>) response;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return (CompletableFuture<HttpResponse<T>>) (CompletableFuture<?>) completed;
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                          final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+    return sendAsync(request, responseBodyHandler);
+  }
+
+  @Override
+  public Optional<CookieHandler> cookieHandler() {
+    return Optional.empty();
+  }
+
+  @Override
+  public Optional<Duration> connectTimeout() {
+    return Optional.empty();
+  }
+
+  @Override
+  public Redirect followRedirects() {
+    return Redirect.NEVER;
+  }
+
+  @Override
+  public Optional<ProxySelector> proxy() {
+    return Optional.empty();
+  }
+
+  @Override
+  public SSLContext sslContext() {
+    return null;
+  }
+
+  @Override
+  public SSLParameters sslParameters() {
+    return new SSLParameters();
+  }
+
+  @Override
+  public Optional<Authenticator> authenticator() {
+    return Optional.empty();
+  }
+
+  @Override
+  public Version version() {
+    return Version.HTTP_2;
+  }
+
+  @Override
+  public Optional<Executor> executor() {
+    return Optional.empty();
+  }
+
+  private static final class CannedResponse implements HttpResponse<String> {
+
+    private static final HttpHeaders HEADERS = HttpHeaders.of(
+      Map.of("content-type", List.of("application/json")), (name, value) -> true);
+
+    private final String body;
+
+    private CannedResponse(final String body) {
+      this.body = body;
+    }
+
+    @Override
+    public int statusCode() {
+      return 200;
+    }
+
+    @Override
+    public HttpRequest request() {
+      return null;
+    }
+
+    @Override
+    public Optional<HttpResponse<String>> previousResponse() {
+      return Optional.empty();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+      return HEADERS;
+    }
+
+    @Override
+    public String body() {
+      return body;
+    }
+
+    @Override
+    public Optional<SSLSession> sslSession() {
+      return Optional.empty();
+    }
+
+    @Override
+    public URI uri() {
+      return null;
+    }
+
+    @Override
+    public HttpClient.Version version() {
+      return HttpClient.Version.HTTP_2;
+    }
+  }
+}
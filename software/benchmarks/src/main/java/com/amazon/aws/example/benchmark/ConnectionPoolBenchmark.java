@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.ConnectionPool;
+import com.amazon.aws.lambda.layer.HandshakeMetrics;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a request after the connections were idle for longer than the server keep-alive, with a plain
+ * HttpClient and with a {@link ConnectionPool} aligned to the server idle timeout. The server closes idle connections
+ * after one second, like nginx does after its keepalive_timeout; the plain client reconnects on every request, the
+ * pool keeps its connections alive. The counters of both are printed at the end of the trial.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar ConnectionPoolBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+
+  private static final Duration SERVER_IDLE_TIMEOUT = Duration.ofSeconds(1);
+  private static final long IDLE_BETWEEN_REQUESTS_MILLIS = 1500;
+
+  @Param({"true", "false"})
+  public boolean pool;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private ConnectionPool connectionPool;
+  private HttpClient httpClient;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServer.start(fixture, SERVER_IDLE_TIMEOUT);
+    URI uri = URI.create(String.format("https://%s:%d/", CertificateFixture.SERVER_HOST_NAME, server.getPort()));
+
+    SSLContext sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+    HttpClient.Builder builder = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(5))
+      .sslContext(sslContext);
+
+    if (pool) {
+      connectionPool = ConnectionPool.builder()
+        .backend(uri)
+        .connections(2)
+        .idleTimeout(SERVER_IDLE_TIMEOUT)
+        .refreshMargin(Duration.ofMillis(200))
+        .sslContext(sslContext)
+        .clientFactory(context -> builder.sslContext(context).build())
+        .start();
+      httpClient = connectionPool.getHttpClient();
+    } else {
+      httpClient = builder.build();
+    }
+    request = HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(Duration.ofSeconds(5))
+      .GET()
+      .build();
+  }
+
+  @Setup(Level.Invocation)
+  public void idle() throws InterruptedException {
+    // a warm Lambda environment between two invocations, minus the freeze
+    Thread.sleep(IDLE_BETWEEN_REQUESTS_MILLIS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println(HandshakeMetrics.getInstance());
+    if (connectionPool != null) {
+      System.out.println(connectionPool);
+      connectionPool.close();
+    }
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public String requestAfterIdle() throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Minimal DER encoding and decoding for the certificates, OCSP responses and CRLs the benchmarks generate themselves,
+ * since the JDK has no public API to create them.
+ */
+final class DerCodec {
+
+  static final int SEQUENCE = 0x30;
+  private static final DateTimeFormatter UTC_TIME = DateTimeFormatter.ofPattern("yyMMddHHmmss'Z'");
+  private static final DateTimeFormatter GENERALIZED_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'");
+
+  private DerCodec() {
+  }
+
+  static byte[] sequence(final byte[]... elements) {
+    return tagged(SEQUENCE, elements);
+  }
+
+  static byte[] integer(final BigInteger value) {
+    return tagged(0x02, value.toByteArray());
+  }
+
+  static byte[] utcTime(final ZonedDateTime time) {
+    return tagged(0x17, UTC_TIME.format(time.withZoneSameInstant(ZoneOffset.UTC)).getBytes(StandardCharsets.US_ASCII));
+  }
+
+  static byte[] generalizedTime(final ZonedDateTime time) {
+    return tagged(0x18,
+      GENERALIZED_TIME.format(time.withZoneSameInstant(ZoneOffset.UTC)).getBytes(StandardCharsets.US_ASCII));
+  }
+
+  static byte[] oid(final String oid) {
+    String[] arcs = oid.split("\\.");
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    content.write(Integer.parseInt(arcs[0]) * 40 + Integer.parseInt(arcs[1]));
+    for (int i = 2; i < arcs.length; i++) {
+      long arc = Long.parseLong(arcs[i]);
+      // base 128, most significant group first, every group but the last with the high bit set
+      int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(arc) + 6) / 7);
+      for (int group = groups - 1; group >= 0; group--) {
+        content.write((int) (arc >>> (7 * group) & 0x7f) | (group > 0 ? 0x80 : 0));
+      }
+    }
+    return tagged(0x06, content.toByteArray());
+  }
+
+  /**
+   * @return the AlgorithmIdentifier of the SHA-256 signature, or the EdDSA one, made with the key
+   */
+  static byte[] signatureAlgorithm(final PrivateKey key) {
+    switch (key.getAlgorithm()) {
+      case "RSA":
+        return sequence(oid("1.2.840.113549.1.1.11"), new byte[]{0x05, 0x00});
+      case "EC":
+        return sequence(oid("1.2.840.10045.4.3.2"));
+      case "Ed25519":
+      case "EdDSA":
+        return sequence(oid("1.3.101.112"));
+      default:
+        throw new IllegalArgumentException("unsupported key algorithm " + key.getAlgorithm());
+    }
+  }
+
+  /**
+   * @return a BIT STRING with the signature of the data made with the key, matching {@link #signatureAlgorithm}
+   */
+  static byte[] signature(final PrivateKey key, final byte[] data) throws Exception {
+    String algorithm;
+    switch (key.getAlgorithm()) {
+      case "RSA":
+        algorithm = "SHA256withRSA";
+        break;
+      case "EC":
+        algorithm = "SHA256withECDSA";
+        break;
+      default:
+        algorithm = "Ed25519";
+    }
+    Signature signature = Signature.getInstance(algorithm);
+    signature.initSign(key);
+    signature.update(data);
+    byte[] signed = signature.sign();
+    byte[] bits = new byte[signed.length + 1];
+    System.arraycopy(signed, 0, bits, 1, signed.length);
+    return tagged(0x03, bits);
+  }
+
+  static byte[] tagged(final int tag, final byte[]... contents) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (byte[] bytes : contents) {
+      content.writeBytes(bytes);
+    }
+    int length = content.size();
+    ByteArrayOutputStream der = new ByteArrayOutputStream(length + 4);
+    der.write(tag);
+    if (length < 0x80) {
+      der.write(length);
+    } else if (length < 0x100) {
+      der.write(0x81);
+      der.write(length);
+    } else {
+      der.write(0x82);
+      der.write(length >>> 8);
+      der.write(length);
+    }
+    der.writeBytes(content.toByteArray());
+    return der.toByteArray();
+  }
+
+  /**
+   * @return the tag of the DER element at the position of the buffer
+   */
+  static int tag(final ByteBuffer der) {
+    return der.get(der.position()) & 0xff;
+  }
+
+  /**
+   * @return the whole DER element at the position of the buffer, tag and length included; the position moves past it
+   */
+  static ByteBuffer next(final ByteBuffer der) {
+    int start = der.position();
+    content(der);
+    ByteBuffer element = der.duplicate();
+    element.position(start).limit(der.position());
+    return element.slice();
+  }
+
+  /**
+   * @return the content of the DER element at the position of the buffer; the position moves past the element
+   */
+  static ByteBuffer content(final ByteBuffer der) {
+    der.get();
+    int length = der.get() & 0xff;
+    if (length > 0x80) {
+      int bytes = length & 0x7f;
+      length = 0;
+      for (int i = 0; i < bytes; i++) {
+        length = length << 8 | der.get() & 0xff;
+      }
+    }
+    ByteBuffer content = der.slice();
+    content.limit(length);
+    der.position(der.position() + length);
+    return content;
+  }
+
+  static byte[] bytes(final ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.Priming;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the first request of a fresh JVM, the first invocation after a cold start, with and without
+ * {@link Priming} during init. Every fork is one cold start; the server runs in a child JVM so that no JSSE class is
+ * loaded before the client starts.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar FirstRequestBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class FirstRequestBenchmark {
+
+  @Param({"true", "false"})
+  public boolean priming;
+
+  private CertificateFixture fixture;
+  private MtlsServerProcess server;
+  private HttpClient httpClient;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServerProcess.start(fixture);
+    URI uri = URI.create(String.format("https://%s:%d/", CertificateFixture.SERVER_HOST_NAME, server.getPort()));
+
+    // function init, as in the AppClient of 4-lambda-using-multiple-certificates
+    SSLContext sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+    httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(Duration.ofSeconds(5))
+      .sslContext(sslContext)
+      .build();
+    request = HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(Duration.ofSeconds(5))
+      .GET()
+      .build();
+
+    if (priming) {
+      Priming.builder()
+        .uri(uri)
+        .build()
+        .prime(httpClient);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public String firstRequest() throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.example.handler.HandlerLog;
+import com.amazon.aws.example.handler.ProxyHandler;
+import com.amazon.aws.lambda.layer.EmbeddedMetrics;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocated bytes of an invocation of the handler around the backend call, with a client that answers
+ * without I/O: the copy-pasted handler the functions used before, which logs the event and builds the request and the
+ * headers on every invocation, and a {@link ProxyHandler} that does neither unless the invocation is sampled, without
+ * and with the {@link EmbeddedMetrics} document it writes at the end of every invocation.
+ * <p>
+ * Before the measurement the trial fails if a {@link ProxyHandler} invocation allocates more than
+ * {@value #ALLOCATION_BUDGET_BYTES} bytes, with metrics more than that plus the String of the metrics line it hands to
+ * the logger, so a change that brings allocations back to the success path or the flush shows up as a failed
+ * benchmark. Run with the GC profiler to see gc.alloc.rate.norm of both handlers:
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar HandlerAllocationBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerAllocationBenchmark {
+
+  /**
+   * Bytes a {@link ProxyHandler} invocation may allocate on the success path, besides what the client allocates: the
+   * response event is expected, 48 bytes on a 64-bit JVM with compressed oops, with headroom for JIT differences.
+   */
+  static final long ALLOCATION_BUDGET_BYTES = 128;
+  // object header, hash, coder and array reference of a String, and the header of its byte array
+  private static final long STRING_OVERHEAD_BYTES = 24 + 16;
+  private static final URI BACKEND = URI.create("https://backend-service-1.example.com:443");
+  private static final String BODY = "{\"id\":1,\"name\":\"backend-service-1\"}";
+
+  @Param({"copy-pasted", "proxy-handler", "proxy-handler-emf"})
+  public String handler;
+
+  private RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> requestHandler;
+  private APIGatewayProxyRequestEvent event;
+  private Context context;
+  private int longestLine;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    HttpClient client = new CannedHttpClient(BODY);
+    HandlerLog log = HandlerLog.of(HandlerLog.Level.INFO, 0);
+    switch (handler) {
+      case "copy-pasted":
+        requestHandler = new CopyPastedHandler(client);
+        break;
+      case "proxy-handler":
+        requestHandler = new BaseHandler(client, log, null);
+        break;
+      default:
+        requestHandler = new BaseHandler(client, log, EmbeddedMetrics.getInstance());
+    }
+    event = LocalContext.proxyEvent();
+    // a timeout longer than the trial, the deadline of the invocations must not pass while measuring
+    context = LocalContext.start(Duration.ofHours(1), new LambdaLogger() {
+      @Override
+      public void log(final String message) {
+        longestLine = Math.max(longestLine, message.length());
+      }
+
+      @Override
+      public void log(final byte[] message) {
+        longestLine = Math.max(longestLine, message.length);
+      }
+    });
+
+    long allocated = allocatedBytesPerInvocation(requestHandler, event, context);
+    System.out.println();
+    System.out.println(handler + " allocates " + allocated + " bytes per invocation");
+    if ("copy-pasted".equals(handler)) {
+      return;
+    }
+    // the logger of the runtime takes a String, a Latin-1 line of the metrics costs its length rounded up to 8
+    long budget = ALLOCATION_BUDGET_BYTES
+      + (longestLine == 0 ? 0 : STRING_OVERHEAD_BYTES + (longestLine + 7) / 8 * 8);
+    if (allocated > budget) {
+      throw new IllegalStateException(String.format("%s allocates %d bytes per invocation, budget is %d", handler,
+        allocated, budget));
+    }
+  }
+
+  @Benchmark
+  public APIGatewayProxyResponseEvent invoke() {
+    return requestHandler.handleRequest(event, context);
+  }
+
+  /**
+   * @return bytes allocated by the calling thread per invocation, after enough invocations for the JIT to compile
+   * the handler
+   */
+  static long allocatedBytesPerInvocation(
+    final RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> requestHandler,
+    final APIGatewayProxyRequestEvent event, final Context context) {
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    int invocations = 100_000;
+    for (int i = 0; i < invocations; i++) {
+      requestHandler.handleRequest(event, context);
+    }
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < invocations; i++) {
+      requestHandler.handleRequest(event, context);
+    }
+    return (threads.getThreadAllocatedBytes(thread) - before) / invocations;
+  }
+
+  /**
+   * The handler of 1-lambda-only before the shared base.
+   */
+  private static final class CopyPastedHandler
+    implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private final HttpClient client;
+
+    private CopyPastedHandler(final HttpClient client) {
+      this.client = client;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
+      context.getLogger().log(input.toString());
+
+      try {
+        HttpResponse<String> httpResponse = client.send(backendRequest(), HttpResponse.BodyHandlers.ofString());
+
+        return new APIGatewayProxyResponseEvent()
+          .withStatusCode(200)
+          .withHeaders(Map.of("Content-Type", "application/json"))
+          .withBody(httpResponse.body());
+      } catch (Exception e) {
+        context.getLogger().log(e.getMessage());
+        return new APIGatewayProxyResponseEvent()
+          .withStatusCode(500)
+          .withHeaders(Map.of("Content-Type", "text/plain"))
+          .withBody("error");
+      }
+    }
+
+    private static HttpRequest backendRequest() {
+      return HttpRequest.newBuilder()
+        .uri(URI.create(String.format("https://%s", BACKEND.getAuthority())))
+        .timeout(Duration.ofSeconds(5))
+        .GET()
+        .build();
+    }
+  }
+
+  private static final class BaseHandler extends ProxyHandler {
+
+    private static final HttpRequest REQUEST = getRequest(BACKEND);
+
+    private final HttpClient client;
+
+    private BaseHandler(final HttpClient client, final HandlerLog log, final EmbeddedMetrics metrics) {
+      super(log, metrics);
+      this.client = client;
+    }
+
+    @Override
+    protected APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final Context context,
+                                                   final boolean debug) throws Exception {
+      return forward(client, REQUEST, context);
+    }
+  }
+}
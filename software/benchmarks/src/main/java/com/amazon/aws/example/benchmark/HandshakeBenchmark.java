@@ -0,0 +1,73 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import com.amazon.aws.lambda.layer.TlsPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full mutual TLS handshakes per second, including the demo.json request, against an in-process server per key
+ * algorithm. Sessions are invalidated after each request so that every operation signs and verifies certificates
+ * again. The client uses the {@link TlsPolicy} of the matching key profile, as a function deployed with KEY_PROFILE.
+ * <p>
+ * Pin the JVM to the CPU share of the function, e.g. taskset -c 0 for 1024 MB, to compare profiles the way Lambda
+ * runs them:
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar HandshakeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+
+  @Param({"RSA_2048", "RSA_4096", "EC_P256", "EC_P384", "ED25519"})
+  public KeyMaterial keyMaterial;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private SSLContext sslContext;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(keyMaterial);
+    server = MtlsServer.start(fixture);
+    sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD,
+      TlsPolicy.forKeyProfile(keyMaterial.getKeyProfile()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public SSLSession fullHandshake() throws Exception {
+    return Handshakes.fetch(sslContext, server.getPort(), false);
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Opens a new mTLS connection to the {@link MtlsServer} and fetches demo.json, the unit of work of the handshake
+ * benchmarks.
+ */
+final class Handshakes {
+
+  private static final byte[] REQUEST = ("GET / HTTP/1.1\r\nHost: " + CertificateFixture.SERVER_HOST_NAME
+    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+  private Handshakes() {
+  }
+
+  /**
+   * The response is read to the end, because TLS 1.3 delivers the session ticket needed for resumption after the
+   * handshake.
+   *
+   * @param sslContext Client SSLContext
+   * @param port       Port of the server on localhost
+   * @param resume     Keep the session for resumption, otherwise invalidate it so the next call does a full handshake
+   * @return session of the connection
+   */
+  static SSLSession fetch(final SSLContext sslContext, final int port, final boolean resume) throws IOException {
+    try (SSLSocket socket = (SSLSocket) sslContext.getSocketFactory()
+      .createSocket(CertificateFixture.SERVER_HOST_NAME, port)) {
+      socket.setTcpNoDelay(true);
+      socket.setSSLParameters(sslContext.getDefaultSSLParameters());
+      socket.startHandshake();
+      socket.getOutputStream().write(REQUEST);
+      socket.getInputStream().readAllBytes();
+
+      SSLSession session = socket.getSession();
+      if (!resume) {
+        session.invalidate();
+      }
+      return session;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.HedgingHttpClient;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of requests to a backend that stalls now and then, with a plain HttpClient and with a
+ * {@link HedgingHttpClient}. The server delays 2% of its responses by 200 milliseconds; the plain client waits for
+ * every one of them, the hedging client sends a stalled request again over its second connection after the p95 of
+ * the latencies, bounded by the minimum hedge delay. Compare p0.99 and p0.999 of the sample time output; the counters
+ * of the hedging client are printed at the end of the trial.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar HedgingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class HedgingBenchmark {
+
+  private static final double SLOW_SHARE = 0.02;
+  private static final Duration SLOW_DELAY = Duration.ofMillis(200);
+
+  @Param({"false", "true"})
+  public boolean hedging;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private HttpClient httpClient;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServer.start(fixture, SLOW_SHARE, SLOW_DELAY);
+    URI uri = URI.create(String.format("https://%s:%d/", CertificateFixture.SERVER_HOST_NAME, server.getPort()));
+    request = HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(Duration.ofSeconds(5))
+      .GET()
+      .build();
+
+    SSLContext sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+
+    if (hedging) {
+      HedgingHttpClient hedgingClient = HedgingHttpClient.builder()
+        .primary(newHttpClient(sslContext))
+        .hedge(newHttpClient(sslContext))
+        .minHedgeDelay(Duration.ofMillis(5))
+        .build();
+      hedgingClient.prime(request);
+      httpClient = hedgingClient;
+    } else {
+      httpClient = newHttpClient(sslContext);
+      httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println(httpClient);
+    if (httpClient instanceof HedgingHttpClient) {
+      ((HedgingHttpClient) httpClient).close();
+    }
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public int request() throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body().length();
+  }
+
+  private static HttpClient newHttpClient(final SSLContext sslContext) {
+    return HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(5))
+      .sslContext(sslContext)
+      .build();
+  }
+}
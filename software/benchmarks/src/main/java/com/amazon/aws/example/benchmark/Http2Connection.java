@@ -0,0 +1,178 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Server side of one HTTP/2 connection of {@link MtlsServer}, just enough for the java.net.http client: every request
+ * stream is answered with 200 and the body, from a task of its own, so concurrent streams of one connection are
+ * answered concurrently, like nginx with http2 on.
+ * <p>
+ * Request headers are not decoded, the responses only use the static HPACK table, so the dynamic table of the client
+ * is never needed. Flow control is not enforced, the bodies are much smaller than the initial windows.
+ */
+final class Http2Connection {
+
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+  private static final int DATA = 0x0;
+  private static final int HEADERS = 0x1;
+  private static final int SETTINGS = 0x4;
+  private static final int PING = 0x6;
+  private static final int GOAWAY = 0x7;
+  private static final int CONTINUATION = 0x9;
+  private static final int END_STREAM = 0x1;
+  private static final int ACK = 0x1;
+  private static final int END_HEADERS = 0x4;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  // the nginx default of http2_max_concurrent_streams
+  private static final int MAX_CONCURRENT_STREAMS = 128;
+  private static final int MAX_FRAME_SIZE = 16384;
+
+  private final DataInputStream in;
+  private final OutputStream out;
+  private final Executor executor;
+  private final byte[] headerBlock;
+  private final byte[] body;
+
+  /**
+   * @param headerBlock HPACK encoded response headers, see {@link #headerBlock(int)}
+   */
+  Http2Connection(final InputStream in, final OutputStream out, final Executor executor, final byte[] headerBlock,
+                  final byte[] body) {
+    this.in = new DataInputStream(in);
+    this.out = out;
+    this.executor = executor;
+    this.headerBlock = headerBlock;
+    this.body = body;
+  }
+
+  /**
+   * @return :status 200, content-type application/json and content-length, as literals without indexing of static
+   * table names
+   */
+  static byte[] headerBlock(final int contentLength) {
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    // indexed :status 200
+    block.write(0x88);
+    literal(block, 31, "application/json");
+    literal(block, 28, Integer.toString(contentLength));
+    return block.toByteArray();
+  }
+
+  /**
+   * Serves the connection until the client closes it or sends GOAWAY.
+   *
+   * @param respond Called from a task of its own for every request stream, sends the response with
+   *                {@link #respond(int)} after e.g. a delay
+   */
+  void serve(final StreamHandler respond) throws IOException {
+    byte[] preface = new byte[PREFACE.length];
+    in.readFully(preface);
+    if (!Arrays.equals(preface, PREFACE)) {
+      throw new IOException("no HTTP/2 connection preface");
+    }
+    byte[] settings = new byte[6];
+    settings[1] = SETTINGS_MAX_CONCURRENT_STREAMS;
+    settings[5] = (byte) MAX_CONCURRENT_STREAMS;
+    writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+
+    while (true) {
+      int length;
+      try {
+        length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+      } catch (EOFException e) {
+        return;
+      }
+      int type = in.readUnsignedByte();
+      int flags = in.readUnsignedByte();
+      int streamId = in.readInt() & 0x7fffffff;
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+
+      switch (type) {
+        case SETTINGS:
+          if ((flags & ACK) == 0) {
+            writeFrame(SETTINGS, ACK, 0, payload, 0, 0);
+          }
+          break;
+        case PING:
+          if ((flags & ACK) == 0) {
+            writeFrame(PING, ACK, 0, payload, 0, payload.length);
+          }
+          break;
+        case HEADERS:
+        case CONTINUATION:
+          // a GET ends its stream with its headers
+          if ((flags & END_HEADERS) != 0) {
+            executor.execute(() -> respond.respond(streamId));
+          }
+          break;
+        case GOAWAY:
+          return;
+        default:
+          // WINDOW_UPDATE, PRIORITY, RST_STREAM and request bodies need no answer
+      }
+    }
+  }
+
+  /**
+   * Sends the response of a stream, the body in frames of at most the default maximum frame size.
+   */
+  void respond(final int streamId) throws IOException {
+    synchronized (out) {
+      writeFrame(HEADERS, END_HEADERS, streamId, headerBlock, 0, headerBlock.length);
+      int offset = 0;
+      do {
+        int length = Math.min(MAX_FRAME_SIZE, body.length - offset);
+        writeFrame(DATA, offset + length == body.length ? END_STREAM : 0, streamId, body, offset, length);
+        offset += length;
+      } while (offset < body.length);
+      out.flush();
+    }
+  }
+
+  private void writeFrame(final int type, final int flags, final int streamId, final byte[] payload, final int offset,
+                          final int length) throws IOException {
+    byte[] header = {
+      (byte) (length >>> 16), (byte) (length >>> 8), (byte) length,
+      (byte) type, (byte) flags,
+      (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId};
+    synchronized (out) {
+      out.write(header);
+      out.write(payload, offset, length);
+      if (type != HEADERS && type != DATA) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Literal header field without indexing, with the name of a static table entry and a value of less than 127 bytes.
+   */
+  private static void literal(final ByteArrayOutputStream block, final int nameIndex, final String value) {
+    // 4 bit prefix, 15 and the rest as a 7 bit continuation for the indexes above 14
+    block.write(0x0f);
+    block.write(nameIndex - 15);
+    byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+    block.write(bytes.length);
+    block.write(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Answers a request stream.
+   */
+  interface StreamHandler {
+
+    void respond(int streamId);
+  }
+}
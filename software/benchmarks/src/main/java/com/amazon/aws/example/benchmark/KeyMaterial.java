@@ -0,0 +1,36 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.KeyProfile;
+
+/**
+ * Key algorithms the benchmarks generate certificates for, as keytool key options.
+ */
+public enum KeyMaterial {
+  RSA_2048(KeyProfile.RSA, "-keyalg", "RSA", "-keysize", "2048"),
+  RSA_4096(KeyProfile.RSA, "-keyalg", "RSA", "-keysize", "4096"),
+  EC_P256(KeyProfile.ECDSA_P256, "-keyalg", "EC", "-groupname", "secp256r1"),
+  EC_P384(KeyProfile.ECDSA_P384, "-keyalg", "EC", "-groupname", "secp384r1"),
+  ED25519(KeyProfile.ED25519, "-keyalg", "Ed25519");
+
+  private final KeyProfile keyProfile;
+  private final String[] keytoolOptions;
+
+  KeyMaterial(final KeyProfile keyProfile, final String... keytoolOptions) {
+    this.keyProfile = keyProfile;
+    this.keytoolOptions = keytoolOptions;
+  }
+
+  /**
+   * @return the profile of scripts/1-create-certificates.sh that creates certificates of this algorithm
+   */
+  public KeyProfile getKeyProfile() {
+    return keyProfile;
+  }
+
+  String[] getKeytoolOptions() {
+    return keytoolOptions.clone();
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.KeyMaterialReloader;
+import com.amazon.aws.lambda.layer.LatencyHistogram;
+import com.amazon.aws.lambda.layer.ReloadableKeyManager;
+import com.amazon.aws.lambda.layer.ReloadableTrustManager;
+import com.amazon.aws.lambda.layer.TrustAndKeyStore;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that rotating the client key material never blocks the request path: one thread opens new mTLS connections
+ * to the {@link MtlsServer} and sends requests over a kept-alive connection, first without and then while a second
+ * thread keeps replacing the client keystore and runs {@link KeyMaterialReloader#check()}. The keystore alternates
+ * between the JKS, PKCS12 and PEM encoding of the fixture client certificate, so every check swaps in a new
+ * {@link ReloadableKeyManager} snapshot while handshakes are running.
+ * <p>
+ * The exit code is 1 if a handshake or request failed, a reload failed, no rotation happened, or the p99 latency of
+ * handshakes or requests during the rotation is more than --max-p99-ratio times the p99 without rotation. Run from the
+ * software directory after mvn package, all options are optional:
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar com.amazon.aws.example.benchmark.KeyRotationCheck --requests=2000
+ * --warmup=500 --rotate-every-millis=2 --max-p99-ratio=2
+ */
+public final class KeyRotationCheck {
+
+  private KeyRotationCheck() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    Map<String, String> options = options(args);
+    int requests = Integer.parseInt(options.getOrDefault("requests", "2000"));
+    int warmUp = Integer.parseInt(options.getOrDefault("warmup", "500"));
+    long rotateEveryMillis = Long.parseLong(options.getOrDefault("rotate-every-millis", "2"));
+    double maxP99Ratio = Double.parseDouble(options.getOrDefault("max-p99-ratio", "2"));
+
+    try (CertificateFixture fixture = CertificateFixture.create(KeyMaterial.EC_P256);
+         MtlsServer server = MtlsServer.start(fixture)) {
+
+      List<Path> encodings = List.of(fixture.getClientKeyStore(), fixture.getClientKeyStorePkcs12(),
+        fixture.getClientKeyStorePem());
+      Path keyStore = fixture.getDirectory().resolve("rotating_keystore");
+      Files.copy(encodings.get(0), keyStore);
+
+      ReloadableKeyManager keyManager = new ReloadableKeyManager(keyStore.toString(),
+        () -> CertificateFixture.PASSWORD);
+      ReloadableTrustManager trustManager = new ReloadableTrustManager(fixture.getClientTrustStore().toString(),
+        () -> CertificateFixture.PASSWORD);
+      SSLContext sslContext = new TrustAndKeyStore() {
+      }.getSSLContext(keyManager, trustManager);
+
+      HttpClient client = HttpClient.newBuilder().sslContext(sslContext).build();
+      HttpRequest request = HttpRequest.newBuilder(
+        URI.create("https://" + CertificateFixture.SERVER_HOST_NAME + ":" + server.getPort() + "/")).build();
+
+      // the background thread of the reloader stays idle, the rotating thread triggers every check itself
+      try (KeyMaterialReloader reloader = KeyMaterialReloader.builder()
+        .watch(keyManager, trustManager)
+        .invalidate(sslContext.getClientSessionContext())
+        .interval(Duration.ofHours(1))
+        .log(System.out::println)
+        .start()) {
+
+        run(sslContext, client, request, server.getPort(), warmUp, new LatencyHistogram(), new LatencyHistogram());
+
+        LatencyHistogram baselineHandshakes = new LatencyHistogram();
+        LatencyHistogram baselineRequests = new LatencyHistogram();
+        long baselineErrors = run(sslContext, client, request, server.getPort(), requests, baselineHandshakes,
+          baselineRequests);
+
+        AtomicBoolean rotating = new AtomicBoolean(true);
+        LongAdder rotations = new LongAdder();
+        Thread rotator = new Thread(() -> {
+          int next = 1;
+          try {
+            while (rotating.get()) {
+              Path staged = fixture.getDirectory().resolve("rotating_keystore.tmp");
+              Files.copy(encodings.get(next), staged, StandardCopyOption.REPLACE_EXISTING);
+              Files.move(staged, keyStore, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+              next = (next + 1) % encodings.size();
+              long reloads = reloader.getReloadCount();
+              reloader.check();
+              if (reloader.getReloadCount() > reloads) {
+                rotations.increment();
+              }
+              Thread.sleep(rotateEveryMillis);
+            }
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }, "key-rotation");
+        rotator.start();
+
+        LatencyHistogram rotatingHandshakes = new LatencyHistogram();
+        LatencyHistogram rotatingRequests = new LatencyHistogram();
+        long rotatingErrors;
+        try {
+          rotatingErrors = run(sslContext, client, request, server.getPort(), requests, rotatingHandshakes,
+            rotatingRequests);
+        } finally {
+          rotating.set(false);
+          rotator.join();
+        }
+
+        System.out.printf("%-30s %10s %10s %10s %8s%n", "", "p50 ms", "p99 ms", "max ms", "errors");
+        print("handshakes", baselineHandshakes, baselineErrors);
+        print("handshakes while rotating", rotatingHandshakes, rotatingErrors);
+        print("requests", baselineRequests, baselineErrors);
+        print("requests while rotating", rotatingRequests, rotatingErrors);
+        System.out.println("rotations: " + rotations.sum() + ", failed reloads: " + reloader.getFailureCount());
+
+        boolean passed = baselineErrors == 0 && rotatingErrors == 0 && reloader.getFailureCount() == 0
+          && rotations.sum() > 0
+          && p99Millis(rotatingHandshakes) <= maxP99Ratio * p99Millis(baselineHandshakes)
+          && p99Millis(rotatingRequests) <= maxP99Ratio * p99Millis(baselineRequests);
+        if (!passed) {
+          System.out.println("FAILED: errors, failed reloads, no rotation or p99 above " + maxP99Ratio
+            + " times the p99 without rotation");
+          System.exit(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Alternates a new connection with a full handshake and a request over the kept-alive connection of the client.
+   *
+   * @return number of failed handshakes and requests
+   */
+  private static long run(final SSLContext sslContext, final HttpClient client, final HttpRequest request,
+                          final int port, final int iterations, final LatencyHistogram handshakes,
+                          final LatencyHistogram requests) {
+    long errors = 0;
+    for (int i = 0; i < iterations; i++) {
+      try {
+        long start = System.nanoTime();
+        Handshakes.fetch(sslContext, port, false);
+        handshakes.recordNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        requests.recordNanos(System.nanoTime() - start);
+        if (response.statusCode() != 200) {
+          errors++;
+        }
+      } catch (Exception e) {
+        errors++;
+      }
+    }
+    return errors;
+  }
+
+  private static void print(final String name, final LatencyHistogram histogram, final long errors) {
+    System.out.printf("%-30s %10.3f %10.3f %10.3f %8d%n", name,
+      histogram.getValueAtPercentile(50).toNanos() / 1e6, p99Millis(histogram),
+      histogram.getMax().toNanos() / 1e6, errors);
+  }
+
+  private static double p99Millis(final LatencyHistogram histogram) {
+    return histogram.getValueAtPercentile(99).toNanos() / 1e6;
+  }
+
+  /**
+   * @return --name=value arguments by name
+   */
+  private static Map<String, String> options(final String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("expected --name=value, got " + arg);
+      }
+      options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+    return options;
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.KeyStoreContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing cost of the client keystore in JKS, PKCS12 and PEM form, and of a JKS keystore decoded from the base64 value
+ * of a secret store with {@link KeyStoreContent#decode}. The content is read once during setup, so only decoding, key
+ * unwrapping and certificate parsing are measured.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar KeyStoreLoadingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyStoreLoadingBenchmark {
+
+  @Param({"RSA_2048", "RSA_4096", "EC_P256", "EC_P384", "ED25519"})
+  public KeyMaterial keyMaterial;
+
+  @Param({"JKS", "PKCS12", "PEM", "JKS_BASE64"})
+  public String format;
+
+  private CertificateFixture fixture;
+  private byte[] content;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(keyMaterial);
+    content = Files.readAllBytes(file());
+    if ("JKS_BASE64".equals(format)) {
+      content = Base64.getMimeEncoder().encode(content);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public KeyStore load() throws Exception {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+    if ("PEM".equals(format)) {
+      return KeyStoreContent.of("client", content).toKeyStore(CertificateFixture.PASSWORD);
+    }
+    KeyStore keyStore;
+    if ("JKS_BASE64".equals(format)) {
+      keyStore = KeyStoreContent.decode("client", ByteBuffer.wrap(content)).toKeyStore(CertificateFixture.PASSWORD);
+    } else {
+      keyStore = KeyStore.getInstance(format);
+      keyStore.load(new ByteArrayInputStream(content), password);
+    }
+    // keystores decrypt the private key only on access, the PEM path has already decoded it
+    keyStore.getKey("lambda", password);
+    return keyStore;
+  }
+
+  private Path file() {
+    switch (format) {
+      case "JKS":
+      case "JKS_BASE64":
+        return fixture.getClientKeyStore();
+      case "PKCS12":
+        return fixture.getClientKeyStorePkcs12();
+      case "PEM":
+        return fixture.getClientKeyStorePem();
+      default:
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+  }
+}
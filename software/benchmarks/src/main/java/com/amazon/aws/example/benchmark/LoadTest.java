@@ -0,0 +1,221 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local load test of the five handler variants against in-process stand-ins for the backend services and Parameter
+ * Store, without deploying the stack.
+ * <p>
+ * The backend stand-ins mirror backend-service-1/conf.d/default.conf: mTLS with ssl_verify_client on and
+ * ssl_verify_depth 1, demo.json as the response, and a 75 second keepalive_timeout. Every variant runs in a JVM of
+ * its own, with the shaded jar of its module and the environment the stack gives the function, pointed at the
+ * stand-ins, so init time and static state are measured like in a new execution environment. For each variant it
+ * reports the init time of the handler (class loading and constructor, without the JVM start), the first invocation,
+ * the throughput and the p50, p99 and p99.9 latency of the invocations. 0-lambda-no-mtls presents no client
+ * certificate, its requests are expected to fail.
+ * <p>
+ * Concurrent invocations share one handler instance, while Lambda runs one invocation per execution environment at a
+ * time; a concurrency of 1 matches a single warm environment. The exit code is 1 if a variant other than
+ * 0-lambda-no-mtls had errors or a p99 above --max-p99-millis, so the load test can gate performance changes.
+ * <p>
+ * Run from the software directory after mvn package, all options are optional:
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar com.amazon.aws.example.benchmark.LoadTest --concurrency=4 --requests=5000
+ * --warmup=500 --variants=1,2,3,4 --max-p99-millis=50
+ */
+public final class LoadTest {
+
+  private static final String HANDLER = "com.amazon.aws.example.AppClient";
+  private static final String KEYSTORE_PARAMETER = "/DEV/APP/CLIENT/KEYSTORE/1";
+  private static final String TRUSTSTORE_PARAMETER = "/DEV/APP/CLIENT/TRUSTSTORE";
+  private static final Duration KEEPALIVE_TIMEOUT = Duration.ofSeconds(75);
+  private static final Duration PARAMETER_STORE_LATENCY = Duration.ofMillis(20);
+  private static final long VARIANT_TIMEOUT_MINUTES = 30;
+
+  private enum Variant {
+    NO_MTLS("0-lambda-no-mtls", "lambda-no-mtls"),
+    LAMBDA_ONLY("1-lambda-only", "lambda-only"),
+    SEPARATE_LAYER("2-lambda-using-separate-layer", "lambda-using-separate-layer"),
+    PARAMETER_STORE("3-lambda-using-parameter-store", "lambda-using-parameter-store"),
+    MULTIPLE_CERTIFICATES("4-lambda-using-multiple-certificates", "lambda-using-multiple-certificates");
+
+    private final String module;
+    private final String artifact;
+
+    Variant(final String module, final String artifact) {
+      this.module = module;
+      this.artifact = artifact;
+    }
+  }
+
+  private LoadTest() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    Map<String, String> options = options(args);
+    int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1"));
+    int requests = Integer.parseInt(options.getOrDefault("requests", "2000"));
+    int warmUp = Integer.parseInt(options.getOrDefault("warmup", "200"));
+    double maxP99Millis = Double.parseDouble(options.getOrDefault("max-p99-millis", "Infinity"));
+    boolean verbose = Boolean.parseBoolean(options.getOrDefault("verbose", "false"));
+    Path softwareDirectory = Paths.get(options.getOrDefault("software-dir", "."));
+    List<Variant> variants = new ArrayList<>();
+    for (String index : options.getOrDefault("variants", "0,1,2,3,4").split(",")) {
+      variants.add(Variant.values()[Integer.parseInt(index.trim())]);
+    }
+
+    try (CertificateFixture fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+         MtlsServer backendService1 = MtlsServer.start(fixture, KEEPALIVE_TIMEOUT);
+         MtlsServer backendService2 = MtlsServer.start(fixture, KEEPALIVE_TIMEOUT);
+         LocalParameterStore parameterStore = LocalParameterStore.start(PARAMETER_STORE_LATENCY)) {
+
+      parameterStore
+        .put("/DEV/APP/CLIENT/KEYSTORE/PASSWORD", CertificateFixture.PASSWORD)
+        .put("/DEV/APP/CLIENT/TRUSTSTORE/PASSWORD", CertificateFixture.PASSWORD)
+        .put(KEYSTORE_PARAMETER, base64(fixture.getClientKeyStore()))
+        .put(TRUSTSTORE_PARAMETER, base64(fixture.getClientTrustStore()));
+
+      // the content of the certificate layers, both backends trust the same fixture CA
+      Path layer = Files.createDirectories(fixture.getDirectory().resolve("opt"));
+      Files.copy(fixture.getClientKeyStore(), layer.resolve("client_keystore_1.jks"));
+      Files.copy(fixture.getClientKeyStore(), layer.resolve("client_keystore_2.jks"));
+      Files.copy(fixture.getClientTrustStore(), layer.resolve("client_truststore.jks"));
+
+      System.out.printf(Locale.ROOT, "concurrency=%d requests=%d warmup=%d%n", concurrency, requests, warmUp);
+      System.out.printf(Locale.ROOT, "%-38s %9s %9s %9s %8s %8s %8s %8s %7s%n", "variant", "init ms", "first ms",
+        "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+
+      boolean passed = true;
+      for (Variant variant : variants) {
+        Path jar = softwareDirectory.resolve(variant.module).resolve("target").resolve(variant.artifact + ".jar");
+        if (!Files.exists(jar)) {
+          throw new IllegalStateException(jar + " not found, run mvn package in the software directory first");
+        }
+        List<String> command = new ArrayList<>(List.of(
+          Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+          "-cp", jar + File.pathSeparator + System.getProperty("java.class.path")));
+        Map<String, String> environment = new HashMap<>(Map.of(
+          "AWS_LAMBDA_FUNCTION_NAME", variant.artifact,
+          "AWS_REGION", "us-east-1",
+          "AWS_ACCESS_KEY_ID", "local",
+          "AWS_SECRET_ACCESS_KEY", "local",
+          "BACKEND_SERVICE_1_HOST_NAME", CertificateFixture.SERVER_HOST_NAME,
+          "BACKEND_SERVICE_1_PORT", Integer.toString(backendService1.getPort()),
+          "BACKEND_SERVICE_2_HOST_NAME", CertificateFixture.SERVER_HOST_NAME,
+          "BACKEND_SERVICE_2_PORT", Integer.toString(backendService2.getPort()),
+          "SSM_ENDPOINT", parameterStore.getEndpoint().toString()));
+
+        switch (variant) {
+          case NO_MTLS:
+            // trusts the backend, but has no client certificate to present
+            command.add("-Djavax.net.ssl.trustStore=" + fixture.getClientTrustStore());
+            command.add("-Djavax.net.ssl.trustStorePassword=" + CertificateFixture.PASSWORD);
+            environment.put("BACKEND_SERVICE_1_HOST_NAME", hostAndPort(backendService1));
+            break;
+          case LAMBDA_ONLY:
+          case SEPARATE_LAYER:
+            // the JAVA_TOOL_OPTIONS of the functions
+            command.add("-Djavax.net.ssl.keyStore=" + fixture.getClientKeyStore());
+            command.add("-Djavax.net.ssl.keyStorePassword=" + CertificateFixture.PASSWORD);
+            command.add("-Djavax.net.ssl.trustStore=" + fixture.getClientTrustStore());
+            command.add("-Djavax.net.ssl.trustStorePassword=" + CertificateFixture.PASSWORD);
+            environment.put("BACKEND_SERVICE_1_HOST_NAME", hostAndPort(backendService1));
+            break;
+          case PARAMETER_STORE:
+            environment.put("KEYSTORE_PARAMETER", KEYSTORE_PARAMETER);
+            environment.put("TRUSTSTORE_PARAMETER", TRUSTSTORE_PARAMETER);
+            break;
+          default:
+            environment.put("CERTIFICATE_DIRECTORY", layer.toString());
+        }
+        command.addAll(List.of(LoadTestDriver.class.getName(), HANDLER, Integer.toString(concurrency),
+          Integer.toString(requests), Integer.toString(warmUp)));
+
+        Map<String, Double> result = run(command, environment, verbose);
+        System.out.printf(Locale.ROOT, "%-38s %9.1f %9.1f %9.1f %8.3f %8.3f %8.3f %8.3f %7.0f%n", variant.module,
+          result.get("init"), result.get("first"), result.get("throughput"), result.get("p50"), result.get("p99"),
+          result.get("p999"), result.get("max"), result.get("errors"));
+        if (variant != Variant.NO_MTLS && (result.get("errors") > 0 || result.get("p99") > maxP99Millis)) {
+          passed = false;
+        }
+      }
+      if (!passed) {
+        System.out.println("FAILED: errors or p99 above " + maxP99Millis + " ms");
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * @return the values of the result line of the driver
+   */
+  private static Map<String, Double> run(final List<String> command, final Map<String, String> environment,
+                                         final boolean verbose) throws IOException, InterruptedException {
+    ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+    builder.environment().putAll(environment);
+    Process process = builder.start();
+
+    Map<String, Double> result = new HashMap<>();
+    try (BufferedReader out = new BufferedReader(
+      new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = out.readLine()) != null) {
+        if (line.startsWith(LoadTestDriver.RESULT_PREFIX)) {
+          for (String value : line.substring(LoadTestDriver.RESULT_PREFIX.length()).split(" ")) {
+            String[] pair = value.split("=", 2);
+            result.put(pair[0], Double.parseDouble(pair[1]));
+          }
+        } else if (verbose) {
+          System.out.println(line);
+        }
+      }
+    }
+    if (!process.waitFor(VARIANT_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+      process.destroyForcibly();
+    }
+    if (result.isEmpty()) {
+      throw new IllegalStateException("no result from " + command + ", exit code " + process.exitValue());
+    }
+    return result;
+  }
+
+  private static String hostAndPort(final MtlsServer server) {
+    return CertificateFixture.SERVER_HOST_NAME + ":" + server.getPort();
+  }
+
+  private static String base64(final Path file) throws IOException {
+    return Base64.getEncoder().encodeToString(Files.readAllBytes(file));
+  }
+
+  /**
+   * @return --name=value arguments by name
+   */
+  private static Map<String, String> options(final String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("expected --name=value, got " + arg);
+      }
+      options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+    return options;
+  }
+}
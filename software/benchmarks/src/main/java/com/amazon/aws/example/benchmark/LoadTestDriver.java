@@ -0,0 +1,110 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.LatencyHistogram;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs in the JVM of one handler variant started by {@link LoadTest}: creates the handler like the Lambda runtime
+ * does during init, invokes it once, then with synthetic API Gateway events from concurrent threads, and prints the
+ * result as one line starting with {@link #RESULT_PREFIX}.
+ * <p>
+ * Arguments: handler class, concurrency, requests, warm-up requests.
+ */
+final class LoadTestDriver {
+
+  static final String RESULT_PREFIX = "LOADTEST ";
+  // the timeout of the functions in InfrastructureStack
+  private static final Duration FUNCTION_TIMEOUT = Duration.ofSeconds(10);
+
+  private LoadTestDriver() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    String handlerClass = args[0];
+    int concurrency = Integer.parseInt(args[1]);
+    int requests = Integer.parseInt(args[2]);
+    int warmUp = Integer.parseInt(args[3]);
+
+    // class loading, static initializers and the constructor, what the function init does besides starting the JVM
+    long start = System.nanoTime();
+    @SuppressWarnings("unchecked")
+    RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler =
+      (RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>) Class.forName(handlerClass)
+        .getDeclaredConstructor()
+        .newInstance();
+    long init = System.nanoTime() - start;
+
+    APIGatewayProxyRequestEvent event = LocalContext.proxyEvent();
+    LongAdder errors = new LongAdder();
+    start = System.nanoTime();
+    invoke(handler, event, errors);
+    long first = System.nanoTime() - start;
+
+    run(handler, event, concurrency, warmUp, new LatencyHistogram(), new LongAdder());
+    LatencyHistogram latencies = new LatencyHistogram();
+    long elapsed = run(handler, event, concurrency, requests, latencies, errors);
+
+    // LambdaRuntime.getLogger() outside of Lambda prints without a line separator
+    System.out.println();
+    System.out.println(RESULT_PREFIX + String.format(Locale.ROOT,
+      "init=%.3f first=%.3f throughput=%.1f p50=%.3f p99=%.3f p999=%.3f max=%.3f errors=%d",
+      millis(init), millis(first), requests * 1e9 / elapsed,
+      millis(latencies.getValueAtPercentile(50).toNanos()), millis(latencies.getValueAtPercentile(99).toNanos()),
+      millis(latencies.getValueAtPercentile(99.9).toNanos()), millis(latencies.getMax().toNanos()), errors.sum()));
+    System.exit(0);
+  }
+
+  /**
+   * @return elapsed nanoseconds until all requests were answered
+   */
+  private static long run(final RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler,
+                          final APIGatewayProxyRequestEvent event, final int concurrency, final int requests,
+                          final LatencyHistogram latencies, final LongAdder errors) throws InterruptedException {
+
+    AtomicInteger remaining = new AtomicInteger(requests);
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long start = System.nanoTime();
+    for (int i = 0; i < concurrency; i++) {
+      executor.execute(() -> {
+        while (remaining.getAndDecrement() > 0) {
+          long invocation = System.nanoTime();
+          invoke(handler, event, errors);
+          latencies.recordNanos(System.nanoTime() - invocation);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    return System.nanoTime() - start;
+  }
+
+  private static void invoke(final RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler,
+                             final APIGatewayProxyRequestEvent event, final LongAdder errors) {
+    try {
+      APIGatewayProxyResponseEvent response =
+        handler.handleRequest(event, LocalContext.start(FUNCTION_TIMEOUT, LocalContext.DISCARDING));
+      if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+        errors.increment();
+      }
+    } catch (RuntimeException e) {
+      errors.increment();
+    }
+  }
+
+  private static double millis(final long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Lambda context of a local invocation, with the remaining time counting down from the function timeout.
+ */
+final class LocalContext implements Context {
+
+  static final LambdaLogger DISCARDING = new LambdaLogger() {
+    @Override
+    public void log(final String message) {
+    }
+
+    @Override
+    public void log(final byte[] message) {
+    }
+  };
+
+  static final LambdaLogger PRINTING = new LambdaLogger() {
+    @Override
+    public void log(final String message) {
+      System.out.println(message);
+    }
+
+    @Override
+    public void log(final byte[] message) {
+      System.out.write(message, 0, message.length);
+      System.out.println();
+    }
+  };
+
+  private final long deadline;
+  private final LambdaLogger logger;
+
+  private LocalContext(final Duration timeout, final LambdaLogger logger) {
+    this.deadline = System.currentTimeMillis() + timeout.toMillis();
+    this.logger = logger;
+  }
+
+  /**
+   * @param timeout Function timeout, the invocation starts now
+   * @param logger  Receives the log lines of the handler
+   * @return the context of one invocation
+   */
+  static LocalContext start(final Duration timeout, final LambdaLogger logger) {
+    return new LocalContext(timeout, logger);
+  }
+
+  /**
+   * @return an API Gateway proxy event of typical size, a GET of /lambda-only from curl
+   */
+  static APIGatewayProxyRequestEvent proxyEvent() {
+    return new APIGatewayProxyRequestEvent()
+      .withResource("/lambda-only")
+      .withPath("/lambda-only")
+      .withHttpMethod("GET")
+      .withHeaders(Map.of(
+        "Accept", "*/*",
+        "CloudFront-Forwarded-Proto", "https",
+        "CloudFront-Is-Desktop-Viewer", "true",
+        "CloudFront-Viewer-Country", "DE",
+        "Host", "abcdef1234.execute-api.eu-central-1.amazonaws.com",
+        "User-Agent", "curl/7.79.1",
+        "Via", "2.0 0123456789abcdef0123456789abcdef.cloudfront.net (CloudFront)",
+        "X-Amz-Cf-Id", "Qb2lyE3n3ngEo1NZQ4a3jYf5rFJPKXbF6lG1vYy9xgwL6UZ0u4Q4jw==",
+        "X-Amzn-Trace-Id", "Root=1-63a1b2c3-0123456789abcdef01234567",
+        "X-Forwarded-For", "198.51.100.1, 130.176.0.1"))
+      .withRequestContext(new APIGatewayProxyRequestEvent.ProxyRequestContext()
+        .withAccountId("123456789012")
+        .withApiId("abcdef1234")
+        .withResourceId("a1b2c3")
+        .withResourcePath("/lambda-only")
+        .withHttpMethod("GET")
+        .withPath("/prod/lambda-only")
+        .withStage("prod")
+        .withRequestId("c6af9ac6-7b61-11e6-9a41-93e8deadbeef")
+        .withIdentity(new APIGatewayProxyRequestEvent.RequestIdentity()
+          .withSourceIp("198.51.100.1")
+          .withUserAgent("curl/7.79.1")));
+  }
+
+  @Override
+  public String getAwsRequestId() {
+    return "c6af9ac6-7b61-11e6-9a41-93e8deadbeef";
+  }
+
+  @Override
+  public String getLogGroupName() {
+    return "/aws/lambda/local";
+  }
+
+  @Override
+  public String getLogStreamName() {
+    return "local";
+  }
+
+  @Override
+  public String getFunctionName() {
+    return "local";
+  }
+
+  @Override
+  public String getFunctionVersion() {
+    return "$LATEST";
+  }
+
+  @Override
+  public String getInvokedFunctionArn() {
+    return "arn:aws:lambda:eu-central-1:123456789012:function:local";
+  }
+
+  @Override
+  public CognitoIdentity getIdentity() {
+    return null;
+  }
+
+  @Override
+  public ClientContext getClientContext() {
+    return null;
+  }
+
+  @Override
+  public int getRemainingTimeInMillis() {
+    return (int) Math.max(0, deadline - System.currentTimeMillis());
+  }
+
+  @Override
+  public int getMemoryLimitInMB() {
+    return 1024;
+  }
+
+  @Override
+  public LambdaLogger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,217 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the OCSP responder and CRL distribution point of the fixture root CA, over plain HTTP like
+ * the real ones: / answers OCSP requests, POST or GET, with responses signed by the CA, GET /crl returns its CRL.
+ * Every certificate is good unless {@link #revoke(BigInteger) revoked}; while {@link #setUnavailable(boolean)
+ * unavailable}, OCSP requests get tryLater and the CRL an HTTP 503. The requests are counted, to tell cached statuses
+ * from fetches. Point a RevocationTrustManager at it with its responder and CRL URIs, a function with
+ * REVOCATION_OCSP_RESPONDER and REVOCATION_CRL_URL, or a JSSE server that staples with jdk.tls.stapling.responderURI
+ * and jdk.tls.stapling.responderOverride.
+ */
+public final class LocalOcspResponder implements AutoCloseable {
+
+  private static final String BASIC_RESPONSE = "1.3.6.1.5.5.7.48.1.1";
+  private static final byte[] TRY_LATER = {0x30, 0x03, 0x0a, 0x01, 0x03};
+
+  private final HttpServer server;
+  private final X509Certificate caCertificate;
+  private final PrivateKey caKey;
+  private final Duration validity;
+  private final Map<BigInteger, ZonedDateTime> revoked = new ConcurrentHashMap<>();
+  private volatile boolean unavailable;
+  private final LongAdder ocspRequests = new LongAdder();
+  private final LongAdder crlRequests = new LongAdder();
+
+  private LocalOcspResponder(final HttpServer server, final X509Certificate caCertificate, final PrivateKey caKey,
+                             final Duration validity) {
+    this.server = server;
+    this.caCertificate = caCertificate;
+    this.caKey = caKey;
+    this.validity = validity;
+  }
+
+  /**
+   * @param fixture  Fixture whose root CA signs the responses and the CRL
+   * @param validity Time from thisUpdate to nextUpdate of every response and CRL
+   * @return started stand-in listening on an ephemeral port of localhost
+   */
+  public static LocalOcspResponder start(final CertificateFixture fixture, final Duration validity) throws Exception {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+    KeyStore ca = KeyStore.getInstance(fixture.getDirectory().resolve("rootCA.p12").toFile(), password);
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    LocalOcspResponder responder = new LocalOcspResponder(server, (X509Certificate) ca.getCertificate("rootCA"),
+      (PrivateKey) ca.getKey("rootCA", password), validity);
+    server.createContext("/", responder::handle);
+    server.start();
+    return responder;
+  }
+
+  public URI getOcspUri() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+  }
+
+  public URI getCrlUri() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/crl");
+  }
+
+  /**
+   * @param serialNumber Serial number of a certificate issued by the root CA, revoked from now on
+   */
+  public LocalOcspResponder revoke(final BigInteger serialNumber) {
+    revoked.put(serialNumber, ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(1));
+    return this;
+  }
+
+  public void setUnavailable(final boolean unavailable) {
+    this.unavailable = unavailable;
+  }
+
+  public long getOcspRequests() {
+    return ocspRequests.sum();
+  }
+
+  public long getCrlRequests() {
+    return crlRequests.sum();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    byte[] body;
+    String contentType;
+    if (exchange.getRequestURI().getPath().equals("/crl")) {
+      crlRequests.increment();
+      if (unavailable) {
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+        return;
+      }
+      body = generate(this::crl);
+      contentType = "application/pkix-crl";
+    } else {
+      ocspRequests.increment();
+      // small requests come as GET with the base64 of the request as the path, RFC 6960 appendix A
+      byte[] request = exchange.getRequestMethod().equals("GET")
+        ? Base64.getDecoder().decode(URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(1),
+        StandardCharsets.US_ASCII))
+        : exchange.getRequestBody().readAllBytes();
+      body = unavailable ? TRY_LATER : generate(() -> ocspResponse(request));
+      contentType = "application/ocsp-response";
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static byte[] generate(final Callable<byte[]> generator) throws IOException {
+    try {
+      return generator.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * @return a successful response with the status of every certificate of the request, signed by the CA itself
+   */
+  private byte[] ocspResponse(final byte[] request) throws Exception {
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    List<byte[]> responses = new ArrayList<>();
+    for (ByteBuffer certId : certIds(request)) {
+      // CertID ::= SEQUENCE { hashAlgorithm, issuerNameHash, issuerKeyHash, serialNumber }
+      ByteBuffer fields = DerCodec.content(certId.duplicate());
+      DerCodec.next(fields);
+      DerCodec.next(fields);
+      DerCodec.next(fields);
+      BigInteger serialNumber = new BigInteger(DerCodec.bytes(DerCodec.content(fields)));
+      ZonedDateTime revocationTime = revoked.get(serialNumber);
+      byte[] status = revocationTime == null
+        ? new byte[]{(byte) 0x80, 0x00}
+        : DerCodec.tagged(0xa1, DerCodec.generalizedTime(revocationTime));
+      responses.add(DerCodec.sequence(DerCodec.bytes(certId), status, DerCodec.generalizedTime(now.minusMinutes(1)),
+        DerCodec.tagged(0xa0, DerCodec.generalizedTime(now.plus(validity)))));
+    }
+    byte[] responseData = DerCodec.sequence(
+      DerCodec.tagged(0xa1, caCertificate.getSubjectX500Principal().getEncoded()),
+      DerCodec.generalizedTime(now),
+      DerCodec.sequence(responses.toArray(new byte[0][])));
+    byte[] basicResponse = DerCodec.sequence(responseData, DerCodec.signatureAlgorithm(caKey),
+      DerCodec.signature(caKey, responseData));
+    return DerCodec.sequence(new byte[]{0x0a, 0x01, 0x00}, DerCodec.tagged(0xa0,
+      DerCodec.sequence(DerCodec.oid(BASIC_RESPONSE), DerCodec.tagged(0x04, basicResponse))));
+  }
+
+  /**
+   * @return the CertIDs of an OCSP request, whole DER elements
+   */
+  private static List<ByteBuffer> certIds(final byte[] request) {
+    // OCSPRequest ::= SEQUENCE { tbsRequest SEQUENCE { [0] version, [1] requestorName, requestList, [2] ... } }
+    ByteBuffer tbsRequest = DerCodec.content(DerCodec.content(ByteBuffer.wrap(request)));
+    while (DerCodec.tag(tbsRequest) != DerCodec.SEQUENCE) {
+      DerCodec.next(tbsRequest);
+    }
+    ByteBuffer requestList = DerCodec.content(tbsRequest);
+    List<ByteBuffer> certIds = new ArrayList<>();
+    while (requestList.hasRemaining()) {
+      // Request ::= SEQUENCE { reqCert CertID, [0] singleRequestExtensions }
+      certIds.add(DerCodec.next(DerCodec.content(requestList)));
+    }
+    return certIds;
+  }
+
+  private byte[] crl() throws Exception {
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    List<byte[]> entries = new ArrayList<>();
+    for (Map.Entry<BigInteger, ZonedDateTime> entry : revoked.entrySet()) {
+      entries.add(DerCodec.sequence(DerCodec.integer(entry.getKey()), DerCodec.utcTime(entry.getValue())));
+    }
+    List<byte[]> fields = new ArrayList<>(List.of(
+      DerCodec.integer(BigInteger.ONE),
+      DerCodec.signatureAlgorithm(caKey),
+      caCertificate.getSubjectX500Principal().getEncoded(),
+      DerCodec.utcTime(now.minusMinutes(1)),
+      DerCodec.utcTime(now.plus(validity))));
+    if (!entries.isEmpty()) {
+      fields.add(DerCodec.sequence(entries.toArray(new byte[0][])));
+    }
+    byte[] tbsCertList = DerCodec.sequence(fields.toArray(new byte[0][]));
+    return DerCodec.sequence(tbsCertList, DerCodec.signatureAlgorithm(caKey), DerCodec.signature(caKey, tbsCertList));
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ssm.SsmClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for Parameter Store: answers GetParameters of the AWS JSON protocol over plain HTTP with a fixed
+ * latency, and counts the calls. Point an SsmClient at it with {@link #newSsmClient()}, or a function with the
+ * SSM_ENDPOINT environment variable.
+ */
+public final class LocalParameterStore implements AutoCloseable {
+
+  private static final Pattern NAMES = Pattern.compile("\"Names\"\\s*:\\s*\\[(.*?)]", Pattern.DOTALL);
+  private static final Pattern STRING = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+  private final HttpServer server;
+  private final Map<String, String> parameters = new ConcurrentHashMap<>();
+  private final Duration latency;
+  private final LongAdder calls = new LongAdder();
+
+  private LocalParameterStore(final HttpServer server, final Duration latency) {
+    this.server = server;
+    this.latency = latency;
+  }
+
+  /**
+   * @param latency Time every call takes, e.g. the round trip to Parameter Store in the region of the function
+   * @return started stand-in listening on an ephemeral port of localhost
+   */
+  public static LocalParameterStore start(final Duration latency) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    LocalParameterStore store = new LocalParameterStore(server, latency);
+    server.createContext("/", store::handle);
+    server.start();
+    return store;
+  }
+
+  public LocalParameterStore put(final String name, final String value) {
+    parameters.put(name, value);
+    return this;
+  }
+
+  public URI getEndpoint() {
+    return URI.create("http://localhost:" + server.getAddress().getPort());
+  }
+
+  public SsmClient newSsmClient() {
+    return SsmClient.builder()
+      .region(Region.US_EAST_1)
+      .endpointOverride(getEndpoint())
+      .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+      .build();
+  }
+
+  public long getCallCount() {
+    return calls.sum();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    calls.increment();
+    String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+    String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    try {
+      Thread.sleep(latency.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (!"AmazonSSM.GetParameters".equals(target)) {
+      respond(exchange, 400, "{\"__type\":\"UnknownOperationException\"}");
+      return;
+    }
+
+    List<String> found = new ArrayList<>();
+    List<String> invalid = new ArrayList<>();
+    Matcher names = NAMES.matcher(request);
+    if (names.find()) {
+      Matcher name = STRING.matcher(names.group(1));
+      while (name.find()) {
+        String value = parameters.get(name.group(1));
+        if (value == null) {
+          invalid.add(quote(name.group(1)));
+        } else {
+          found.add(String.format("{\"Name\":%s,\"Type\":\"SecureString\",\"Value\":%s,\"Version\":1}",
+            quote(name.group(1)), quote(value)));
+        }
+      }
+    }
+    respond(exchange, 200, String.format("{\"Parameters\":[%s],\"InvalidParameters\":[%s]}",
+      String.join(",", found), String.join(",", invalid)));
+  }
+
+  private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static String quote(final String value) {
+    return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+}
@@ -0,0 +1,376 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the nginx backend services: serves demo.json over HTTP/1.1 with keep-alive, or HTTP/2 if
+ * started with http2 and negotiated with ALPN, like http2 on in the nginx configuration, and rejects
+ * clients without a certificate issued directly by the fixture root CA, like ssl_verify_client on with
+ * ssl_verify_depth 1 in backend-service-1/conf.d/default.conf. Like nginx for a static file, it sends ETag and
+ * Last-Modified and answers a matching If-None-Match or If-Modified-Since with a 304 without body. It can delay a share
+ * of the responses, like a backend task that stalls now and then.
+ */
+public final class MtlsServer implements AutoCloseable {
+
+  private static final int VERIFY_DEPTH = 1;
+
+  private final SSLServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final byte[] body;
+  private final Duration idleTimeout;
+  private final double slowShare;
+  private final Duration slowDelay;
+  private final String etag;
+  private final String lastModified;
+  private final byte[] http2Headers;
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder responses = new LongAdder();
+  private final LongAdder notModified = new LongAdder();
+
+  private MtlsServer(final SSLServerSocket serverSocket, final byte[] body, final Duration idleTimeout,
+                     final double slowShare, final Duration slowDelay) {
+    this.serverSocket = serverSocket;
+    this.body = body;
+    this.idleTimeout = idleTimeout;
+    this.slowShare = slowShare;
+    this.slowDelay = slowDelay;
+    // the format of nginx, modification time and length in hex
+    Instant modified = Instant.now();
+    this.etag = String.format("\"%x-%x\"", modified.getEpochSecond(), body.length);
+    this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atOffset(ZoneOffset.UTC));
+    this.http2Headers = Http2Connection.headerBlock(body.length);
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "mtls-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param fixture Certificates of the server and its trusted client CA
+   * @return started server listening on an ephemeral port of localhost
+   */
+  public static MtlsServer start(final CertificateFixture fixture) throws GeneralSecurityException, IOException {
+    return start(fixture.getServerKeyStore(), fixture.getServerTrustStore(), false, Duration.ZERO, 0, Duration.ZERO);
+  }
+
+  /**
+   * @param fixture     Certificates of the server and its trusted client CA
+   * @param idleTimeout Time after which an idle connection is closed, like the nginx keepalive_timeout
+   * @return started server listening on an ephemeral port of localhost
+   */
+  public static MtlsServer start(final CertificateFixture fixture, final Duration idleTimeout)
+    throws GeneralSecurityException, IOException {
+    return start(fixture.getServerKeyStore(), fixture.getServerTrustStore(), false, idleTimeout, 0, Duration.ZERO);
+  }
+
+  /**
+   * @param fixture   Certificates of the server and its trusted client CA
+   * @param slowShare Share of the responses that are delayed, chosen at random, e.g. 0.02
+   * @param slowDelay Delay of those responses, like a stalled task
+   * @return started server listening on an ephemeral port of localhost
+   */
+  public static MtlsServer start(final CertificateFixture fixture, final double slowShare, final Duration slowDelay)
+    throws GeneralSecurityException, IOException {
+    return start(fixture.getServerKeyStore(), fixture.getServerTrustStore(), false, Duration.ZERO, slowShare,
+      slowDelay);
+  }
+
+  /**
+   * @param fixture   Certificates of the server and its trusted client CA
+   * @param http2     True to offer h2 next to http/1.1 with ALPN; the HTTP/2 responses carry no validators
+   * @param slowShare Share of the responses that are delayed, chosen at random, 1 to delay all of them
+   * @param slowDelay Delay of those responses, e.g. the processing time of the backend
+   * @return started server listening on an ephemeral port of localhost
+   */
+  public static MtlsServer start(final CertificateFixture fixture, final boolean http2, final double slowShare,
+                                 final Duration slowDelay) throws GeneralSecurityException, IOException {
+    return start(fixture.getServerKeyStore(), fixture.getServerTrustStore(), http2, Duration.ZERO, slowShare,
+      slowDelay);
+  }
+
+  /**
+   * Runs the server in its own JVM, so that benchmarks measuring cold JSSE paths do not share loaded classes with it.
+   * Prints the port and serves until standard input is closed.
+   *
+   * @param args Server keystore and server truststore of a {@link CertificateFixture}
+   */
+  public static void main(final String[] args) throws GeneralSecurityException, IOException {
+    try (MtlsServer server = start(Paths.get(args[0]), Paths.get(args[1]), false, Duration.ZERO, 0,
+      Duration.ZERO)) {
+      System.out.println(server.getPort());
+      System.out.flush();
+      System.in.readAllBytes();
+    }
+  }
+
+  private static MtlsServer start(final Path keyStore, final Path trustStore, final boolean http2,
+                                  final Duration idleTimeout, final double slowShare, final Duration slowDelay)
+    throws GeneralSecurityException, IOException {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(KeyStore.getInstance(keyStore.toFile(), password), password);
+
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(KeyStore.getInstance(trustStore.toFile(), password));
+
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(kmf.getKeyManagers(), new TrustManager[]{
+      new VerifyDepthTrustManager((X509ExtendedTrustManager) tmf.getTrustManagers()[0], VERIFY_DEPTH)}, null);
+
+    SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+      .createServerSocket(0, 128, InetAddress.getByName(CertificateFixture.SERVER_HOST_NAME));
+    SSLParameters parameters = serverSocket.getSSLParameters();
+    parameters.setNeedClientAuth(true);
+    parameters.setApplicationProtocols(http2 ? new String[]{"h2", "http/1.1"} : new String[]{"http/1.1"});
+    serverSocket.setSSLParameters(parameters);
+
+    byte[] body;
+    try (InputStream demo = MtlsServer.class.getResourceAsStream("/demo.json")) {
+      body = demo.readAllBytes();
+    }
+
+    MtlsServer server = new MtlsServer(serverSocket, body, idleTimeout, slowShare, slowDelay);
+    server.executor.execute(server::accept);
+    return server;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return connections that completed the handshake, with a client certificate
+   */
+  public long getConnections() {
+    return connections.sum();
+  }
+
+  /**
+   * @return responses sent, with and without body
+   */
+  public long getResponses() {
+    return responses.sum();
+  }
+
+  /**
+   * @return 304 responses sent to conditional requests
+   */
+  public long getNotModified() {
+    return notModified.sum();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        executor.execute(() -> serve((SSLSocket) socket));
+      } catch (IOException e) {
+        // server socket closed
+      }
+    }
+  }
+
+  private void serve(final SSLSocket socket) {
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      // a read that times out closes the connection
+      socket.setSoTimeout((int) idleTimeout.toMillis());
+      socket.startHandshake();
+      connections.increment();
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      if ("h2".equals(socket.getApplicationProtocol())) {
+        serveHttp2(new Http2Connection(in, out, executor, http2Headers, body));
+        return;
+      }
+      boolean keepAlive = true;
+      while (keepAlive) {
+        String headers = readHeaders(in);
+        if (headers == null) {
+          return;
+        }
+        String lowerCase = headers.toLowerCase(Locale.ROOT);
+        keepAlive = !lowerCase.contains("connection: close");
+        delay();
+        // If-None-Match takes precedence, like in nginx
+        boolean unchanged = lowerCase.contains("if-none-match:")
+          ? headers.contains(etag)
+          : lowerCase.contains("if-modified-since:") && headers.contains(lastModified);
+        responses.increment();
+        if (unchanged) {
+          notModified.increment();
+        }
+        out.write(((unchanged ? "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n")
+          + "Content-Type: application/json\r\n"
+          + (unchanged ? "" : "Content-Length: " + body.length + "\r\n")
+          + "ETag: " + etag + "\r\n"
+          + "Last-Modified: " + lastModified + "\r\n"
+          + (keepAlive ? "" : "Connection: close\r\n")
+          + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        if (!unchanged) {
+          out.write(body);
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // client went away or failed the handshake
+    } catch (InterruptedException e) {
+      // server closed
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void serveHttp2(final Http2Connection connection) throws IOException {
+    connection.serve(streamId -> {
+      try {
+        delay();
+        connection.respond(streamId);
+        responses.increment();
+      } catch (IOException e) {
+        // client went away
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  private void delay() throws InterruptedException {
+    if (slowShare > 0 && ThreadLocalRandom.current().nextDouble() < slowShare) {
+      Thread.sleep(slowDelay.toMillis());
+    }
+  }
+
+  /**
+   * @return request line and headers, or null if the connection was closed before a request arrived
+   */
+  private static String readHeaders(final InputStream in) throws IOException {
+    StringBuilder headers = new StringBuilder();
+    int matched = 0;
+    int b;
+    while ((b = in.read()) != -1) {
+      headers.append((char) b);
+      matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+      if (matched == 4) {
+        return headers.toString();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Rejects client certificate chains with more certificates outside the truststore than the verify depth, like
+   * nginx: with depth 1 the client certificate has to be issued by a trusted CA, not by an intermediate CA.
+   */
+  private static final class VerifyDepthTrustManager extends X509ExtendedTrustManager {
+
+    private final X509ExtendedTrustManager delegate;
+    private final int depth;
+    private final Set<X500Principal> anchors = new HashSet<>();
+
+    private VerifyDepthTrustManager(final X509ExtendedTrustManager delegate, final int depth) {
+      this.delegate = delegate;
+      this.depth = depth;
+      for (X509Certificate anchor : delegate.getAcceptedIssuers()) {
+        anchors.add(anchor.getSubjectX500Principal());
+      }
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+      throws CertificateException {
+      delegate.checkClientTrusted(chain, authType, socket);
+      checkDepth(chain);
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+      throws CertificateException {
+      delegate.checkClientTrusted(chain, authType, engine);
+      checkDepth(chain);
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+      delegate.checkClientTrusted(chain, authType);
+      checkDepth(chain);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+      throws CertificateException {
+      delegate.checkServerTrusted(chain, authType, socket);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+      throws CertificateException {
+      delegate.checkServerTrusted(chain, authType, engine);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+      delegate.checkServerTrusted(chain, authType);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return delegate.getAcceptedIssuers();
+    }
+
+    private void checkDepth(final X509Certificate[] chain) throws CertificateException {
+      int untrusted = 0;
+      for (X509Certificate certificate : chain) {
+        if (!anchors.contains(certificate.getSubjectX500Principal())) {
+          untrusted++;
+        }
+      }
+      if (untrusted > depth) {
+        throw new CertificateException("client certificate chain exceeds verify depth " + depth);
+      }
+    }
+  }
+}
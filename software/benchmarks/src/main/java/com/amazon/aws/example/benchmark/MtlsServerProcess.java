@@ -0,0 +1,61 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * {@link MtlsServer} in a child JVM, for benchmarks that must start with no JSSE class loaded in their own JVM.
+ */
+public final class MtlsServerProcess implements AutoCloseable {
+
+  private static final String JAVA = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+  private final Process process;
+  private final int port;
+
+  private MtlsServerProcess(final Process process, final int port) {
+    this.process = process;
+    this.port = port;
+  }
+
+  /**
+   * @param fixture Certificates of the server and its trusted client CA
+   * @return started server, once it accepts connections
+   */
+  public static MtlsServerProcess start(final CertificateFixture fixture) throws IOException {
+    Process process = new ProcessBuilder(List.of(
+      JAVA,
+      "-cp", System.getProperty("java.class.path"),
+      MtlsServer.class.getName(),
+      fixture.getServerKeyStore().toString(),
+      fixture.getServerTrustStore().toString()))
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+
+    String port = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))
+      .readLine();
+    if (port == null) {
+      process.destroy();
+      throw new IOException("mTLS server process exited before it was listening");
+    }
+    return new MtlsServerProcess(process, Integer.parseInt(port.trim()));
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // closing standard input stops the server
+    process.getOutputStream().close();
+    process.destroy();
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.CoalescingHttpClient;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of 16 threads sending the same GET to a backend that takes 5 milliseconds per response, over HTTP/1.1
+ * and HTTP/2 and with and without a {@link CoalescingHttpClient}. Over HTTP/1.1 the client opens a handshaked
+ * connection per concurrent request, over HTTP/2 the requests are streams of one connection; with coalescing the
+ * concurrent requests share one response. The connections and responses of the server and the counters of the
+ * coalescing client are printed at the end of the trial.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar MultiplexingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class MultiplexingBenchmark {
+
+  private static final Duration RESPONSE_TIME = Duration.ofMillis(5);
+
+  @Param({"HTTP_1_1", "HTTP_2"})
+  public HttpClient.Version version;
+
+  @Param({"false", "true"})
+  public boolean coalescing;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private HttpClient httpClient;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServer.start(fixture, true, 1, RESPONSE_TIME);
+    URI uri = URI.create(String.format("https://%s:%d/", CertificateFixture.SERVER_HOST_NAME, server.getPort()));
+    request = HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(Duration.ofSeconds(5))
+      .GET()
+      .build();
+
+    SSLContext sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+
+    HttpClient client = HttpClient.newBuilder()
+      .version(version)
+      .connectTimeout(Duration.ofSeconds(5))
+      .sslContext(sslContext)
+      .build();
+    // one connection before the threads start, over HTTP/2 all of them share it
+    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+    if (response.version() != version) {
+      throw new IllegalStateException("the server answered with " + response.version() + " instead of " + version);
+    }
+    httpClient = coalescing ? CoalescingHttpClient.of(client) : client;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println("server connections=" + server.getConnections() + ", responses=" + server.getResponses()
+      + (coalescing ? ", " + httpClient : ""));
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public int request() throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body().length();
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.CachingHttpClient;
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a backend request through a {@link CachingHttpClient}: "off" sends every request with the full body,
+ * "revalidate" sends every request with If-None-Match and gets a 304 from the server, "fresh" answers from memory
+ * within the TTL. The counters of the cache and the 304 responses of the server are printed at the end of the trial.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar ResponseCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+  @Param({"off", "revalidate", "fresh"})
+  public String cache;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private CachingHttpClient httpClient;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServer.start(fixture);
+    URI uri = URI.create(String.format("https://%s:%d/", CertificateFixture.SERVER_HOST_NAME, server.getPort()));
+    request = HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(Duration.ofSeconds(5))
+      .GET()
+      .build();
+
+    SSLContext sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+
+    httpClient = CachingHttpClient.builder()
+      .delegate(HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .sslContext(sslContext)
+        .build())
+      .ttl("fresh".equals(cache) ? Duration.ofMinutes(1) : Duration.ZERO)
+      .maxBytes("off".equals(cache) ? 0 : 1024 * 1024)
+      .build();
+    httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println(httpClient + ", server responses=" + server.getResponses() + ", notModified="
+      + server.getNotModified());
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public int request() throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body().length();
+  }
+}
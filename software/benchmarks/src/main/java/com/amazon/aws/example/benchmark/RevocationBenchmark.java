@@ -0,0 +1,96 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.RevocationCache;
+import com.amazon.aws.lambda.layer.RevocationTrustManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the backend server chain, as done on every full handshake, without revocation checking and with a
+ * {@link RevocationTrustManager} checking OCSP responses or CRLs from a {@link LocalOcspResponder}. The status is
+ * fetched once during setup, hard-fail, and comes from the shared {@link RevocationCache} afterwards; the requests
+ * the responder got are printed at the end of the trial and stay at one, however many chains were validated.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar RevocationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RevocationBenchmark {
+
+  // what TLS 1.3 passes, the key exchange is not part of the certificate
+  private static final String AUTH_TYPE = "UNKNOWN";
+
+  @Param({"OFF", "OCSP", "CRL"})
+  public RevocationTrustManager.Mode revocation;
+
+  private CertificateFixture fixture;
+  private LocalOcspResponder responder;
+  private X509Certificate[] chain;
+  private X509TrustManager manager;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    responder = LocalOcspResponder.start(fixture, Duration.ofHours(1));
+    Certificate[] serverChain = KeyStore.getInstance(fixture.getServerKeyStore().toFile(), password)
+      .getCertificateChain("server");
+    chain = Arrays.copyOf(serverChain, serverChain.length, X509Certificate[].class);
+
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(KeyStore.getInstance(fixture.getClientTrustStore().toFile(), password));
+    X509ExtendedTrustManager delegate = (X509ExtendedTrustManager) tmf.getTrustManagers()[0];
+    manager = revocation == RevocationTrustManager.Mode.OFF ? delegate : RevocationTrustManager.builder()
+      .delegate(delegate)
+      .mode(revocation)
+      .softFail(false)
+      .ocspResponder(responder.getOcspUri())
+      .crlUri(responder.getCrlUri())
+      .build();
+    // fetches the status, the benchmark measures the cached one
+    manager.checkServerTrusted(chain, AUTH_TYPE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println("OCSP requests=" + responder.getOcspRequests() + ", CRL requests=" + responder.getCrlRequests()
+      + ", " + manager + ", " + RevocationCache.getInstance());
+    responder.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public X509Certificate[] checkServerTrusted() throws Exception {
+    manager.checkServerTrusted(chain, AUTH_TYPE);
+    return chain;
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steps between a parsed keystore and a usable SSLContext, as done on every cold start before the registry:
+ * key manager factory init, trust manager factory init and SSLContext init, compared with a cached registry lookup.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar SSLContextBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SSLContextBenchmark {
+
+  @Param({"RSA_2048", "RSA_4096", "EC_P256", "EC_P384", "ED25519"})
+  public KeyMaterial keyMaterial;
+
+  private CertificateFixture fixture;
+  private KeyStore keyStore;
+  private KeyStore trustStore;
+  private KeyManager[] keyManagers;
+  private TrustManager[] trustManagers;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+    fixture = CertificateFixture.create(keyMaterial);
+    keyStore = KeyStore.getInstance(fixture.getClientKeyStore().toFile(), password);
+    trustStore = KeyStore.getInstance(fixture.getClientTrustStore().toFile(), password);
+    keyManagers = keyManagerFactory().getKeyManagers();
+    trustManagers = trustManagerFactory().getTrustManagers();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public KeyManagerFactory keyManagerFactory() throws Exception {
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, CertificateFixture.PASSWORD.toCharArray());
+    return kmf;
+  }
+
+  @Benchmark
+  public TrustManagerFactory trustManagerFactory() throws Exception {
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(trustStore);
+    return tmf;
+  }
+
+  @Benchmark
+  public SSLContext sslContext() throws Exception {
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(keyManagers, trustManagers, null);
+    return sslContext;
+  }
+
+  @Benchmark
+  public SSLContext registryLookup() throws Exception {
+    return SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD);
+  }
+}
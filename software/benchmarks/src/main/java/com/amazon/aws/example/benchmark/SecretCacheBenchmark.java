@@ -0,0 +1,100 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.ParameterStoreLoader;
+import com.amazon.aws.lambda.layer.SecretCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.ssm.SsmClient;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until the keystore passwords are available during function init, from Parameter Store or from the encrypted
+ * cache file a previous init of the same execution environment left in /tmp. Parameter Store is a local stand-in with
+ * a fixed round trip of 30 ms; both passwords are fetched with one GetParameters call.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar SecretCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SecretCacheBenchmark {
+
+  private static final String KEYSTORE_PASSWORD = "/DEV/APP/CLIENT/KEYSTORE/PASSWORD";
+  private static final String TRUSTSTORE_PASSWORD = "/DEV/APP/CLIENT/TRUSTSTORE/PASSWORD";
+
+  @Param({"parameter-store", "file"})
+  public String source;
+
+  private LocalParameterStore parameterStore;
+  private SsmClient ssmClient;
+  private Path directory;
+  private Path file;
+  private SecretKey key;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    parameterStore = LocalParameterStore.start(Duration.ofMillis(30))
+      .put(KEYSTORE_PASSWORD, CertificateFixture.PASSWORD)
+      .put(TRUSTSTORE_PASSWORD, CertificateFixture.PASSWORD);
+    ssmClient = parameterStore.newSsmClient();
+    directory = Files.createTempDirectory("secret-cache");
+    file = directory.resolve("secrets.bin");
+    key = KeyGenerator.getInstance("AES").generateKey();
+
+    // the init before, which wrote the file
+    try (SecretCache cache = newSecretCache()) {
+      cache.getAll(List.of(KEYSTORE_PASSWORD, TRUSTSTORE_PASSWORD));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    System.out.println();
+    System.out.println("GetParameters calls: " + parameterStore.getCallCount());
+    ssmClient.close();
+    parameterStore.close();
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(directory);
+  }
+
+  @Benchmark
+  public Map<String, String> init() {
+    try (SecretCache cache = "file".equals(source) ? newSecretCache() : SecretCache.builder()
+      .loader(new ParameterStoreLoader(ssmClient))
+      .build()) {
+      return cache.getAll(List.of(KEYSTORE_PASSWORD, TRUSTSTORE_PASSWORD));
+    }
+  }
+
+  private SecretCache newSecretCache() {
+    return SecretCache.builder()
+      .loader(new ParameterStoreLoader(ssmClient))
+      .file(file, key)
+      .build();
+  }
+}
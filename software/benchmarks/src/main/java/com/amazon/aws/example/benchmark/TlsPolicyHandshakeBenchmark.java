@@ -0,0 +1,88 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.SSLContextRegistry;
+import com.amazon.aws.lambda.layer.TlsPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client handshake latency per {@link TlsPolicy} against an in-process mTLS endpoint, for full handshakes and for
+ * resumed sessions.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar TlsPolicyHandshakeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsPolicyHandshakeBenchmark {
+
+  @Param({"default", "tls12-fast", "tls12"})
+  public String policy;
+
+  @Param({"true", "false"})
+  public boolean resume;
+
+  private CertificateFixture fixture;
+  private MtlsServer server;
+  private SSLContext sslContext;
+
+  static TlsPolicy policy(final String name) {
+    switch (name) {
+      case "default":
+        return TlsPolicy.getDefault();
+      case "tls12":
+        return TlsPolicy.tls12();
+      case "tls12-fast":
+        return TlsPolicy.builder()
+          .protocols("TLSv1.2")
+          .cipherSuites("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256")
+          .build();
+      default:
+        throw new IllegalArgumentException("Unknown policy " + name);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    server = MtlsServer.start(fixture);
+    sslContext = SSLContextRegistry.getInstance().getSSLContext(
+      fixture.getClientKeyStore().toString(),
+      CertificateFixture.PASSWORD,
+      fixture.getClientTrustStore().toString(),
+      CertificateFixture.PASSWORD,
+      policy(policy));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public SSLSession handshake() throws Exception {
+    return Handshakes.fetch(sslContext, server.getPort(), resume);
+  }
+}
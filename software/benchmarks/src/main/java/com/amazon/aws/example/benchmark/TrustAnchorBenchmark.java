@@ -0,0 +1,106 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import com.amazon.aws.lambda.layer.IndexedTrustManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the backend server chain, as done on every full handshake, against truststores of 1, 100 and 5,000
+ * anchors: the fixture root CA followed by filler CAs from {@link TrustAnchors}. Compares the default trust manager
+ * with an {@link IndexedTrustManager}, with its cache of validated chains ("indexed") and without it, so every chain is
+ * validated against the candidate anchors ("indexed-uncached"). The time to build each trust manager from the
+ * truststore, once per cold start, is measured as well.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar TrustAnchorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrustAnchorBenchmark {
+
+  // what TLS 1.3 passes, the key exchange is not part of the certificate
+  private static final String AUTH_TYPE = "UNKNOWN";
+
+  @Param({"1", "100", "5000"})
+  public int anchors;
+
+  @Param({"default", "indexed", "indexed-uncached"})
+  public String trustManager;
+
+  private CertificateFixture fixture;
+  private KeyStore trustStore;
+  private X509Certificate[] chain;
+  private X509TrustManager manager;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    char[] password = CertificateFixture.PASSWORD.toCharArray();
+    fixture = CertificateFixture.create(KeyMaterial.RSA_2048);
+    trustStore = TrustAnchors.padded(KeyStore.getInstance(fixture.getClientTrustStore().toFile(), password), anchors);
+    Certificate[] serverChain = KeyStore.getInstance(fixture.getServerKeyStore().toFile(), password)
+      .getCertificateChain("server");
+    chain = Arrays.copyOf(serverChain, serverChain.length, X509Certificate[].class);
+    manager = build();
+    // the chain has to be valid, otherwise the benchmark measures exceptions
+    manager.checkServerTrusted(chain, AUTH_TYPE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    if (manager instanceof IndexedTrustManager) {
+      System.out.println();
+      System.out.println(manager);
+    }
+    fixture.close();
+  }
+
+  @Benchmark
+  public X509TrustManager build() throws Exception {
+    if (trustManager.startsWith("indexed")) {
+      return IndexedTrustManager.builder()
+        .trustStore(trustStore)
+        .maxCachedChains(trustManager.equals("indexed") ? 256 : 0)
+        .build();
+    }
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(trustStore);
+    for (TrustManager candidate : tmf.getTrustManagers()) {
+      if (candidate instanceof X509TrustManager) {
+        return (X509TrustManager) candidate;
+      }
+    }
+    throw new IllegalStateException("no X509TrustManager");
+  }
+
+  @Benchmark
+  public X509Certificate[] checkServerTrusted() throws Exception {
+    manager.checkServerTrusted(chain, AUTH_TYPE);
+    return chain;
+  }
+}
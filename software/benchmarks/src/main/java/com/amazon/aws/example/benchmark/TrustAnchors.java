@@ -0,0 +1,80 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.benchmark;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+
+/**
+ * Pads a truststore with self signed EC P-256 CA certificates, to measure trust managers against CA bundles of
+ * thousands of anchors. keytool takes a process per certificate, so the certificates are encoded with
+ * {@link DerCodec}, with the subject, validity, basic constraints and subject key identifier a CA bundle certificate
+ * has.
+ */
+final class TrustAnchors {
+
+  private static final String BASIC_CONSTRAINTS = "2.5.29.19";
+  private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+  private static final byte[] TRUE = {0x01, 0x01, (byte) 0xff};
+
+  private TrustAnchors() {
+  }
+
+  /**
+   * @param trustStore Truststore to copy, e.g. the fixture truststore with the root CA of the backends
+   * @param anchors    Certificates of the copy, the certificates of the truststore followed by filler CAs
+   * @return an in-memory copy of the truststore with the given number of certificates
+   */
+  static KeyStore padded(final KeyStore trustStore, final int anchors) throws Exception {
+    KeyStore padded = KeyStore.getInstance(KeyStore.getDefaultType());
+    padded.load(null, null);
+    for (String alias : Collections.list(trustStore.aliases())) {
+      padded.setCertificateEntry(alias, trustStore.getCertificate(alias));
+    }
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    for (int i = padded.size(); i < anchors; i++) {
+      padded.setCertificateEntry("filler-" + i, selfSigned("CN=Filler CA " + i + ", O=Benchmark", i,
+        generator.generateKeyPair()));
+    }
+    return padded;
+  }
+
+  private static X509Certificate selfSigned(final String subject, final int serial, final KeyPair keyPair)
+    throws Exception {
+    byte[] name = new X500Principal(subject).getEncoded();
+    byte[] algorithm = DerCodec.signatureAlgorithm(keyPair.getPrivate());
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    byte[] keyIdentifier = MessageDigest.getInstance("SHA-1").digest(keyPair.getPublic().getEncoded());
+
+    byte[] tbs = DerCodec.sequence(
+      DerCodec.tagged(0xa0, DerCodec.integer(BigInteger.TWO)),
+      DerCodec.integer(BigInteger.valueOf(serial + 1L)),
+      algorithm,
+      name,
+      DerCodec.sequence(DerCodec.utcTime(now.minusDays(1)), DerCodec.utcTime(now.plusYears(1))),
+      name,
+      keyPair.getPublic().getEncoded(),
+      DerCodec.tagged(0xa3, DerCodec.sequence(
+        // critical, cA true
+        DerCodec.sequence(DerCodec.oid(BASIC_CONSTRAINTS), TRUE, DerCodec.tagged(0x04, DerCodec.sequence(TRUE))),
+        DerCodec.sequence(DerCodec.oid(SUBJECT_KEY_IDENTIFIER),
+          DerCodec.tagged(0x04, DerCodec.tagged(0x04, keyIdentifier))))));
+
+    byte[] certificate = DerCodec.sequence(tbs, algorithm, DerCodec.signature(keyPair.getPrivate(), tbs));
+    return (X509Certificate) CertificateFactory.getInstance("X.509")
+      .generateCertificate(new ByteArrayInputStream(certificate));
+  }
+}
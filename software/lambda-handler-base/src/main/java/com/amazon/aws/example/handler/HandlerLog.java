@@ -0,0 +1,86 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.handler;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides per invocation whether a handler logs its diagnostics, so the event and the metrics are only turned into
+ * Strings for the invocations that are actually logged.
+ * <p>
+ * At level DEBUG every invocation is logged. Otherwise a fraction of the invocations, the sample rate, is logged as if
+ * the level was DEBUG, which keeps a steady trickle of full log lines at a fraction of the cost. Errors are always
+ * logged.
+ */
+public final class HandlerLog {
+
+  public enum Level {
+    ERROR, WARN, INFO, DEBUG
+  }
+
+  private final Level level;
+  private final double sampleRate;
+
+  private HandlerLog(final Level level, final double sampleRate) {
+    if (sampleRate < 0 || sampleRate > 1) {
+      throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+    }
+    this.level = level;
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * @param level      Level below which nothing is logged
+   * @param sampleRate Fraction of the invocations logged at DEBUG level, between 0 and 1
+   * @return the log settings
+   */
+  public static HandlerLog of(final Level level, final double sampleRate) {
+    return new HandlerLog(level, sampleRate);
+  }
+
+  /**
+   * Reads the level from LOG_LEVEL, or from AWS_LAMBDA_LOG_LEVEL of the Lambda advanced logging controls, INFO if
+   * neither is set, and the sample rate from LOG_SAMPLE_RATE, 0 if it is not set.
+   *
+   * @return the log settings of the function
+   */
+  public static HandlerLog fromEnvironment() {
+    Level level = Optional.ofNullable(System.getenv("LOG_LEVEL"))
+      .or(() -> Optional.ofNullable(System.getenv("AWS_LAMBDA_LOG_LEVEL")))
+      .map(HandlerLog::level)
+      .orElse(Level.INFO);
+    double sampleRate = Double.parseDouble(
+      Optional.ofNullable(System.getenv("LOG_SAMPLE_RATE")).orElse("0"));
+    return new HandlerLog(level, sampleRate);
+  }
+
+  public boolean isEnabled(final Level level) {
+    return this.level.compareTo(level) >= 0;
+  }
+
+  /**
+   * @return true if the current invocation logs at DEBUG level
+   */
+  public boolean sample() {
+    return level == Level.DEBUG || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("HandlerLog{level=%s, sampleRate=%s}", level, sampleRate);
+  }
+
+  private static Level level(final String name) {
+    switch (name.toUpperCase(Locale.ROOT)) {
+      case "TRACE":
+        return Level.DEBUG;
+      case "FATAL":
+        return Level.ERROR;
+      default:
+        return Level.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.example.handler;
+
+import com.amazon.aws.lambda.layer.CachingHttpClient;
+import com.amazon.aws.lambda.layer.CircuitBreaker;
+import com.amazon.aws.lambda.layer.CoalescingHttpClient;
+import com.amazon.aws.lambda.layer.Deadline;
+import com.amazon.aws.lambda.layer.EmbeddedMetrics;
+import com.amazon.aws.lambda.layer.RetryBudget;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Base of the API Gateway proxy handlers that forward an invocation to an mTLS backend.
+ * <p>
+ * The success path allocates little more than the response event and its body: backend requests are immutable and
+ * built once during init, the response headers are shared immutable maps, and the event and the diagnostics are only
+ * turned into Strings when {@link HandlerLog} samples the invocation. Errors are always logged.
+ * <p>
+ * Backend latencies are recorded in {@link EmbeddedMetrics}, which is flushed to the log once at the end of every
+ * invocation.
+ * <p>
+ * Backend calls run against the {@link Deadline} of the invocation, its remaining time minus DEADLINE_RESERVE_MILLIS
+ * (250 by default): a call gets its own timeout or the time left, whichever is shorter, and a backend that did not
+ * answer by then is turned into a 504 by {@link #timeout(HttpTimeoutException)} before Lambda stops the invocation.
+ * <p>
+ * Backend responses are cached in memory when RESPONSE_CACHE_MAX_BYTES is set, and revalidated with their ETag after
+ * RESPONSE_CACHE_TTL_SECONDS (60 by default), see {@link #withResponseCache(HttpClient)}.
+ * <p>
+ * The first backend response with another HTTP version than the client asks for is logged: a backend without HTTP/2
+ * answers with HTTP/1.1, and concurrent requests then need a handshaked connection each instead of sharing one.
+ */
+public abstract class ProxyHandler
+  implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+  protected static final Map<String, String> JSON_HEADERS = Map.of("Content-Type", "application/json");
+  protected static final Map<String, String> TEXT_HEADERS = Map.of("Content-Type", "text/plain");
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+  private static final HttpResponse.BodyHandler<String> STRING_BODY = HttpResponse.BodyHandlers.ofString();
+  private static final long DEADLINE_RESERVE_MILLIS = Long.parseLong(
+    Optional.ofNullable(System.getenv("DEADLINE_RESERVE_MILLIS")).orElse("250"));
+  private static final long RESPONSE_CACHE_MAX_BYTES = Long.parseLong(
+    Optional.ofNullable(System.getenv("RESPONSE_CACHE_MAX_BYTES")).orElse("0"));
+  private static final Duration RESPONSE_CACHE_TTL = Duration.ofSeconds(Long.parseLong(
+    Optional.ofNullable(System.getenv("RESPONSE_CACHE_TTL_SECONDS")).orElse("60")));
+
+  private final HandlerLog log;
+  private final EmbeddedMetrics metrics;
+  // one retry per ten requests, so retries cannot multiply the load on a failing backend
+  private final RetryBudget retryBudget = RetryBudget.of(0.1, 3);
+  private volatile boolean versionMismatchLogged;
+
+  protected ProxyHandler() {
+    this(HandlerLog.fromEnvironment(), EmbeddedMetrics.getInstance());
+  }
+
+  /**
+   * @param log     Decides which invocations are logged
+   * @param metrics Metrics flushed after every invocation, null to write none
+   */
+  protected ProxyHandler(final HandlerLog log, final EmbeddedMetrics metrics) {
+    this.log = log;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public final APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input,
+                                                          final Context context) {
+    boolean debug = log.sample();
+    if (debug) {
+      context.getLogger().log(input.toString());
+    }
+    try {
+      return respond(input, context, debug);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      context.getLogger().log(String.valueOf(e.getMessage()));
+      return error(e);
+    } catch (HttpTimeoutException e) {
+      context.getLogger().log(String.valueOf(e.getMessage()));
+      return timeout(e);
+    } catch (Exception e) {
+      context.getLogger().log(String.valueOf(e.getMessage()));
+      return error(e);
+    } finally {
+      if (metrics != null) {
+        metrics.flush(context.getLogger()::log);
+      }
+    }
+  }
+
+  /**
+   * @param input   Event of the invocation
+   * @param context Context of the invocation
+   * @param debug   True if the invocation is sampled, only then diagnostics are worth building and logging
+   * @return the response, errors are turned into a response by {@link #error(Exception)}
+   */
+  protected abstract APIGatewayProxyResponseEvent respond(APIGatewayProxyRequestEvent input, Context context,
+                                                          boolean debug) throws Exception;
+
+  /**
+   * @return the response for a failed invocation, a plain 500 that does not reveal the failure to the caller
+   */
+  protected APIGatewayProxyResponseEvent error(final Exception e) {
+    return text(500, "error");
+  }
+
+  /**
+   * @return the response for a backend that did not answer before its timeout or the deadline of the invocation, a
+   * plain 504
+   */
+  protected APIGatewayProxyResponseEvent timeout(final HttpTimeoutException e) {
+    return text(504, "timeout");
+  }
+
+  /**
+   * @return the settings that decide which invocations are logged
+   */
+  protected HandlerLog getLog() {
+    return log;
+  }
+
+  /**
+   * Sends the request within the deadline of the invocation. A request that failed without timing out, e.g. on a
+   * connection the backend had closed, is sent once more if the retry budget allows it and the time left is at least
+   * the time the failed attempt took.
+   *
+   * @return the backend response body as a 200 JSON response
+   * @throws HttpTimeoutException if the backend did not answer before its timeout or the deadline
+   */
+  protected APIGatewayProxyResponseEvent forward(final HttpClient client, final HttpRequest request,
+                                                 final Context context) throws IOException, InterruptedException {
+    Deadline deadline = deadline(context);
+    retryBudget.onRequest();
+    long start = System.nanoTime();
+    try {
+      try {
+        return json(200, send(client, deadline.bound(request), context));
+      } catch (IOException e) {
+        if (e instanceof HttpTimeoutException || e instanceof CircuitBreaker.OpenException
+          || deadline.remainingNanos() < System.nanoTime() - start || !retryBudget.tryRetry()) {
+          throw e;
+        }
+        return json(200, send(client, deadline.bound(request), context));
+      }
+    } finally {
+      if (metrics != null) {
+        metrics.recordRequest(request.uri(), System.nanoTime() - start);
+      }
+    }
+  }
+
+  private String send(final HttpClient client, final HttpRequest request, final Context context)
+    throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(request, STRING_BODY);
+    if (response.version() != client.version() && !versionMismatchLogged) {
+      versionMismatchLogged = true;
+      context.getLogger().log(String.format("%s answered with %s instead of %s, enable http2 for the backend",
+        request.uri().getHost(), response.version(), client.version()));
+    }
+    return response.body();
+  }
+
+  /**
+   * @return the retries of {@link #forward(HttpClient, HttpRequest, Context)} and their budget
+   */
+  protected RetryBudget getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * @return the time by which the backend calls of the invocation have to be done, the remaining time of the
+   * invocation minus the reserve for the response; public for streaming handlers that do not extend this class
+   */
+  public static Deadline deadline(final Context context) {
+    return Deadline.afterMillis(context.getRemainingTimeInMillis() - DEADLINE_RESERVE_MILLIS);
+  }
+
+  /**
+   * @param client Client of the backend requests
+   * @return the client behind a response cache of RESPONSE_CACHE_MAX_BYTES, which passes every request through unless
+   * the variable is set; the backends serve static JSON, so a cached response is revalidated with a 304 instead of
+   * being transferred again, and concurrent misses of the same response share one backend request
+   */
+  protected static CachingHttpClient withResponseCache(final HttpClient client) {
+    return CachingHttpClient.builder()
+      .delegate(RESPONSE_CACHE_MAX_BYTES > 0 ? CoalescingHttpClient.of(client) : client)
+      .ttl(RESPONSE_CACHE_TTL)
+      .maxBytes(RESPONSE_CACHE_MAX_BYTES)
+      .build();
+  }
+
+  /**
+   * @param uri Backend endpoint, build the request once and send it on every invocation
+   * @return an immutable GET request with the timeout of the handlers
+   */
+  protected static HttpRequest getRequest(final URI uri) {
+    return HttpRequest.newBuilder()
+      .uri(uri)
+      .timeout(REQUEST_TIMEOUT)
+      .GET()
+      .build();
+  }
+
+  protected static APIGatewayProxyResponseEvent json(final int statusCode, final String body) {
+    return new APIGatewayProxyResponseEvent()
+      .withStatusCode(statusCode)
+      .withHeaders(JSON_HEADERS)
+      .withBody(body);
+  }
+
+  protected static APIGatewayProxyResponseEvent text(final int statusCode, final String body) {
+    return new APIGatewayProxyResponseEvent()
+      .withStatusCode(statusCode)
+      .withHeaders(TEXT_HEADERS)
+      .withBody(body);
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outcome of one backend call of a {@link ScatterGather}.
+ */
+public final class BackendResult {
+
+  public enum Status {
+    /** The backend answered with a 2xx status code. */
+    OK,
+    /** The backend answered with another status code. */
+    HTTP_ERROR,
+    /** The backend did not answer within its timeout. */
+    TIMEOUT,
+    /** The connection or the TLS handshake failed. */
+    FAILED
+  }
+
+  private final String backend;
+  private final Status status;
+  private final int statusCode;
+  private final String body;
+  private final boolean json;
+  private final String error;
+  private final Duration elapsed;
+
+  private BackendResult(final String backend, final Status status, final int statusCode, final String body,
+                        final boolean json, final String error, final Duration elapsed) {
+    this.backend = backend;
+    this.status = status;
+    this.statusCode = statusCode;
+    this.body = body;
+    this.json = json;
+    this.error = error;
+    this.elapsed = elapsed;
+  }
+
+  static BackendResult response(final String backend, final int statusCode, final String body, final boolean json,
+                                final Duration elapsed) {
+    Status status = statusCode >= 200 && statusCode < 300 ? Status.OK : Status.HTTP_ERROR;
+    return new BackendResult(backend, status, statusCode, body, json, null, elapsed);
+  }
+
+  static BackendResult failure(final String backend, final Throwable throwable, final Duration elapsed) {
+    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+      ? throwable.getCause() : throwable;
+    Status status = cause instanceof HttpTimeoutException || cause instanceof TimeoutException
+      ? Status.TIMEOUT : Status.FAILED;
+    return new BackendResult(backend, status, 0, null, false, String.valueOf(cause), elapsed);
+  }
+
+  public String getBackend() {
+    return backend;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public boolean isOk() {
+    return status == Status.OK;
+  }
+
+  /**
+   * @return HTTP status code, 0 if the backend did not answer
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public Optional<String> getBody() {
+    return Optional.ofNullable(body);
+  }
+
+  public Optional<String> getError() {
+    return Optional.ofNullable(error);
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   * Writes {"backend":..,"status":..,"statusCode":..,"elapsedMillis":..,"body":..} with a JSON body embedded as is and
+   * any other body as a string, or "error" instead of the body if the backend did not answer.
+   *
+   * @param out Destination of the JSON object
+   */
+  public void writeJson(final Appendable out) throws IOException {
+    out.append("{\"backend\":");
+    Json.quote(out, backend);
+    out.append(",\"status\":\"").append(status.name()).append('"');
+    if (statusCode != 0) {
+      out.append(",\"statusCode\":").append(Integer.toString(statusCode));
+    }
+    out.append(",\"elapsedMillis\":").append(Long.toString(elapsed.toMillis()));
+    if (body != null) {
+      out.append(",\"body\":");
+      if (json && !body.isBlank()) {
+        out.append(body.strip());
+      } else {
+        Json.quote(out, body);
+      }
+    }
+    if (error != null) {
+      out.append(",\"error\":");
+      Json.quote(out, error);
+    }
+    out.append('}');
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s=%s(%dms)", backend, status, elapsed.toMillis());
+  }
+}
@@ -0,0 +1,448 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HttpClient that keeps the 200 responses to GET requests in memory, for backends that serve largely static content
+ * like demo.json.
+ * <p>
+ * Responses are keyed by backend (host:port), path and the request headers, so requests with e.g. a different Accept
+ * header do not share a response, and a Vary on request headers is honored. A response younger than the TTL is
+ * answered from memory without a backend request. An older one is revalidated with If-None-Match and
+ * If-Modified-Since, from the ETag and Last-Modified headers nginx sends for static files: on a 304 the cached body is
+ * answered with the headers of the 304 merged in, and the TTL starts again, so the backend sends headers only. A
+ * response without either header is fetched again after the TTL.
+ * <p>
+ * The cache holds at most maxBytes, bodies plus an estimate of keys and headers; the least recently used responses are
+ * evicted first. With maxBytes 0, the default, every request goes to the delegate unchanged. Responses with
+ * Cache-Control no-store or Vary * are not kept.
+ * <p>
+ * The delegate receives cacheable requests with a byte array body handler, and the caller's body handler is applied
+ * to the bytes afterwards as a {@link ReplayedResponse}. Requests with other methods or a push promise handler go to
+ * the delegate unchanged.
+ */
+public final class CachingHttpClient extends HttpClient {
+
+  // object headers, the entry, the map node and the header map besides their content
+  private static final int ENTRY_OVERHEAD_BYTES = 256;
+  private static final HttpResponse.BodyHandler<byte[]> BYTES = HttpResponse.BodyHandlers.ofByteArray();
+
+  private final HttpClient delegate;
+  private final long ttlNanos;
+  private final long maxBytes;
+  // guarded by itself, in access order for the LRU eviction
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder revalidations = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  private CachingHttpClient(final Builder builder) {
+    this.delegate = builder.delegate;
+    this.ttlNanos = builder.ttl.toNanos();
+    this.maxBytes = builder.maxBytes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return responses answered from memory without a backend request
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return responses the backend sent with their body
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return responses the backend confirmed with a 304, without sending the body again
+   */
+  public long getRevalidations() {
+    return revalidations.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return body bytes answered from memory instead of being transferred, by hits and revalidations
+   */
+  public long getBytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /**
+   * @return estimated size of the cached responses
+   */
+  public long getBytes() {
+    synchronized (entries) {
+      return bytes;
+    }
+  }
+
+  public int getEntries() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Removes every cached response, e.g. after the backend content was deployed again.
+   */
+  public void invalidate() {
+    synchronized (entries) {
+      entries.clear();
+      bytes = 0;
+    }
+  }
+
+  @Override
+  public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> responseBodyHandler)
+    throws IOException, InterruptedException {
+
+    if (!isCacheable(request)) {
+      return delegate.send(request, responseBodyHandler);
+    }
+    String key = key(request);
+    Entry entry = fresh(key);
+    if (entry != null) {
+      return Futures.awaitResponse(replay(request, entry, responseBodyHandler));
+    }
+    entry = stale(key);
+    HttpResponse<byte[]> response = delegate.send(conditional(request, entry), BYTES);
+    return Futures.awaitResponse(completed(request, key, entry, response, responseBodyHandler));
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return sendAsync(request, responseBodyHandler, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+    final HttpRequest request,
+    final HttpResponse.BodyHandler<T> responseBodyHandler,
+    final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+
+    if (pushPromiseHandler != null || !isCacheable(request)) {
+      return pushPromiseHandler == null
+        ? delegate.sendAsync(request, responseBodyHandler)
+        : delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+    }
+    String key = key(request);
+    Entry entry = fresh(key);
+    if (entry != null) {
+      return replay(request, entry, responseBodyHandler);
+    }
+    Entry stale = stale(key);
+    return delegate.sendAsync(conditional(request, stale), BYTES)
+      .thenCompose(response -> completed(request, key, stale, response, responseBodyHandler));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CachingHttpClient{entries=%d, bytes=%d, hits=%d, misses=%d, revalidations=%d, "
+        + "evictions=%d, bytesSaved=%d}", getEntries(), getBytes(), getHits(), getMisses(), getRevalidations(),
+      getEvictions(), getBytesSaved());
+  }
+
+  private boolean isCacheable(final HttpRequest request) {
+    return maxBytes > 0 && "GET".equals(request.method());
+  }
+
+  /**
+   * @return the key of the request, the backend with path and query of its URI followed by its headers, whose map is
+   * sorted by name
+   */
+  private static String key(final HttpRequest request) {
+    URI uri = request.uri();
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    String key = Peers.of(uri) + path + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+    Map<String, List<String>> headers = request.headers().map();
+    return headers.isEmpty() ? key : key + " " + headers;
+  }
+
+  /**
+   * @return the entry if it is younger than the TTL, counted as a hit
+   */
+  private Entry fresh(final String key) {
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry == null || System.nanoTime() - entry.storedNanos >= ttlNanos) {
+      return null;
+    }
+    hits.increment();
+    bytesSaved.add(entry.body.length);
+    return entry;
+  }
+
+  /**
+   * @return the entry if it can be revalidated
+   */
+  private Entry stale(final String key) {
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    return entry != null && (entry.etag != null || entry.lastModified != null) ? entry : null;
+  }
+
+  /**
+   * @return the request with the validators of the entry in place of the ones the caller set, the request itself if
+   * there is no entry
+   */
+  private static HttpRequest conditional(final HttpRequest request, final Entry entry) {
+    if (entry == null) {
+      return request;
+    }
+    HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+      .GET()
+      .expectContinue(request.expectContinue());
+    request.timeout().ifPresent(builder::timeout);
+    request.version().ifPresent(builder::version);
+    request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+    if (entry.etag != null) {
+      builder.setHeader("If-None-Match", entry.etag);
+    }
+    if (entry.lastModified != null) {
+      builder.setHeader("If-Modified-Since", entry.lastModified);
+    }
+    return builder.build();
+  }
+
+  private <T> CompletableFuture<HttpResponse<T>> completed(final HttpRequest request, final String key,
+                                                          final Entry stale, final HttpResponse<byte[]> response,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    if (response.statusCode() == 304 && stale != null) {
+      revalidations.increment();
+      bytesSaved.add(stale.body.length);
+      Entry entry = store(key, stale.body, updated(stale.headers, response.headers()), stale.version);
+      return replay(request, entry != null ? entry : stale, responseBodyHandler);
+    }
+    misses.increment();
+    if (response.statusCode() == 200) {
+      store(key, response.body(), response.headers(), response.version());
+    }
+    return ReplayedResponse.replay(request, response, responseBodyHandler);
+  }
+
+  /**
+   * @return the stored headers with the ones of the 304 in their place, except Content-Length, which is the one of the
+   * stored body
+   */
+  private static HttpHeaders updated(final HttpHeaders stored, final HttpHeaders notModified) {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    headers.putAll(stored.map());
+    notModified.map().forEach((name, values) -> {
+      if (!"Content-Length".equalsIgnoreCase(name)) {
+        headers.put(name, values);
+      }
+    });
+    return HttpHeaders.of(headers, (name, value) -> true);
+  }
+
+  /**
+   * Stores the response under the key, or removes the previous one if the response must not be kept.
+   *
+   * @return the new entry, null if the response was not kept
+   */
+  private Entry store(final String key, final byte[] body, final HttpHeaders headers, final Version version) {
+    boolean noStore = headers.allValues("Cache-Control").stream()
+      .anyMatch(value -> value.toLowerCase(Locale.ROOT).contains("no-store"))
+      || headers.allValues("Vary").stream().anyMatch(value -> value.contains("*"));
+    long size = ENTRY_OVERHEAD_BYTES + 2L * key.length() + body.length;
+    for (Map.Entry<String, List<String>> header : headers.map().entrySet()) {
+      for (String value : header.getValue()) {
+        size += 2L * (header.getKey().length() + value.length());
+      }
+    }
+    if (noStore || size > maxBytes) {
+      synchronized (entries) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+          bytes -= previous.size;
+        }
+      }
+      return null;
+    }
+    Entry entry = new Entry(body, headers, version, size);
+    synchronized (entries) {
+      Entry previous = entries.put(key, entry);
+      if (previous != null) {
+        bytes -= previous.size;
+      }
+      bytes += size;
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        bytes -= eldest.next().size;
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+    return entry;
+  }
+
+  private static <T> CompletableFuture<HttpResponse<T>> replay(final HttpRequest request, final Entry entry,
+                                                              final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return ReplayedResponse.replay(request, 200, entry.headers, entry.version, Optional.empty(), entry.body,
+      responseBodyHandler);
+  }
+
+  // the settings are the ones of the delegate client
+
+  @Override
+  public Optional<CookieHandler> cookieHandler() {
+    return delegate.cookieHandler();
+  }
+
+  @Override
+  public Optional<Duration> connectTimeout() {
+    return delegate.connectTimeout();
+  }
+
+  @Override
+  public Redirect followRedirects() {
+    return delegate.followRedirects();
+  }
+
+  @Override
+  public Optional<ProxySelector> proxy() {
+    return delegate.proxy();
+  }
+
+  @Override
+  public SSLContext sslContext() {
+    return delegate.sslContext();
+  }
+
+  @Override
+  public SSLParameters sslParameters() {
+    return delegate.sslParameters();
+  }
+
+  @Override
+  public Optional<Authenticator> authenticator() {
+    return delegate.authenticator();
+  }
+
+  @Override
+  public Version version() {
+    return delegate.version();
+  }
+
+  @Override
+  public Optional<Executor> executor() {
+    return delegate.executor();
+  }
+
+  /**
+   * A cached 200 response, the validators are sent when it is revalidated.
+   */
+  private static final class Entry {
+
+    private final byte[] body;
+    private final HttpHeaders headers;
+    private final Version version;
+    private final String etag;
+    private final String lastModified;
+    private final long size;
+    private final long storedNanos = System.nanoTime();
+
+    private Entry(final byte[] body, final HttpHeaders headers, final Version version, final long size) {
+      this.body = body;
+      this.headers = headers;
+      this.version = version;
+      this.etag = headers.firstValue("ETag").orElse(null);
+      this.lastModified = headers.firstValue("Last-Modified").orElse(null);
+      this.size = size;
+    }
+  }
+
+  public static final class Builder {
+
+    private HttpClient delegate;
+    private Duration ttl = Duration.ofMinutes(1);
+    private long maxBytes;
+
+    private Builder() {
+    }
+
+    /**
+     * @param delegate Client that sends the requests that are not answered from memory
+     * @return this builder
+     */
+    public Builder delegate(final HttpClient delegate) {
+      this.delegate = delegate;
+      return this;
+    }
+
+    /**
+     * @param ttl Age after which a response is revalidated, 1 minute by default; zero revalidates every request
+     * @return this builder
+     */
+    public Builder ttl(final Duration ttl) {
+      if (ttl.isNegative()) {
+        throw new IllegalArgumentException("ttl must not be negative");
+      }
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * @param maxBytes Upper bound of the cached bodies plus an estimate of keys and headers, 0 by default, which
+     *                 sends every request to the delegate
+     * @return this builder
+     */
+    public Builder maxBytes(final long maxBytes) {
+      if (maxBytes < 0) {
+        throw new IllegalArgumentException("maxBytes must not be negative");
+      }
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    public CachingHttpClient build() {
+      if (delegate == null) {
+        throw new IllegalStateException("CachingHttpClient needs a delegate client");
+      }
+      return new CachingHttpClient(this);
+    }
+  }
+}
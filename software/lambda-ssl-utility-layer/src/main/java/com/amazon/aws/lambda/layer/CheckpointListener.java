@@ -0,0 +1,24 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+/**
+ * Callbacks around a checkpoint of the execution environment, with the same contract as org.crac.Resource. Register
+ * an implementation with {@link Checkpoints#register(CheckpointListener)}.
+ */
+public interface CheckpointListener {
+
+  /**
+   * Called before the snapshot is taken. Close connections and drop state that must not be shared by the restored
+   * copies of this environment.
+   */
+  default void beforeCheckpoint() throws Exception {
+  }
+
+  /**
+   * Called in every restored copy before it serves requests. Rebuild what was dropped before the checkpoint.
+   */
+  default void afterRestore() throws Exception {
+  }
+}
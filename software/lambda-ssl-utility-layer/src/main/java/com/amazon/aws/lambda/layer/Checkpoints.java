@@ -0,0 +1,73 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registers {@link CheckpointListener}s with the checkpoint/restore API of the runtime, as used by Lambda SnapStart
+ * and CRaC enabled JDKs.
+ * <p>
+ * The org.crac and jdk.crac APIs are looked up by reflection, so the layer neither ships nor requires the org.crac
+ * library. On a plain JDK registration is a no-op and the listeners are never called.
+ */
+public final class Checkpoints {
+
+  private static final List<String> PACKAGES = List.of("org.crac", "jdk.crac");
+
+  // the CRaC global context only holds weak references to its resources
+  private static final List<Object> RESOURCES = new CopyOnWriteArrayList<>();
+
+  private Checkpoints() {
+  }
+
+  /**
+   * @param listener Callbacks to run before a checkpoint and after a restore
+   * @return true if the runtime supports checkpoints and the listener was registered
+   */
+  public static boolean register(final CheckpointListener listener) {
+    for (String api : PACKAGES) {
+      try {
+        Class<?> resource = Class.forName(api + ".Resource");
+        Object context = Class.forName(api + ".Core").getMethod("getGlobalContext").invoke(null);
+        Object proxy = Proxy.newProxyInstance(
+          Checkpoints.class.getClassLoader(),
+          new Class<?>[]{resource},
+          invocationHandler(listener));
+        Class.forName(api + ".Context").getMethod("register", resource).invoke(context, proxy);
+        RESOURCES.add(proxy);
+        return true;
+      } catch (ClassNotFoundException e) {
+        // API not available in this runtime, try the next one
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Failed to register checkpoint listener with " + api, e);
+      }
+    }
+    return false;
+  }
+
+  private static InvocationHandler invocationHandler(final CheckpointListener listener) {
+    return (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "beforeCheckpoint":
+          listener.beforeCheckpoint();
+          return null;
+        case "afterRestore":
+          listener.afterRestore();
+          return null;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return listener.toString();
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    };
+  }
+}
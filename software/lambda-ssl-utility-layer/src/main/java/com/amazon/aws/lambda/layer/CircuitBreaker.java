@@ -0,0 +1,139 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker of one backend: after failureThreshold consecutive failures it opens and rejects every request for
+ * openDuration, so an unhealthy backend costs an invocation an exception instead of a full request timeout. After
+ * openDuration a single trial request is let through; its success closes the breaker, its failure opens it again.
+ */
+public final class CircuitBreaker {
+
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder opened = new LongAdder();
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+
+  private CircuitBreaker(final Builder builder) {
+    this.failureThreshold = builder.failureThreshold;
+    this.openNanos = builder.openDuration.toNanos();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return true if a request may be sent, its outcome has to be reported with {@link #onSuccess()} or
+   * {@link #onFailure()}
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (System.nanoTime() - openedAt >= openNanos) {
+          state = State.HALF_OPEN;
+          return true;
+        }
+        break;
+      default:
+        // the trial request is still in flight
+    }
+    rejected.increment();
+    return false;
+  }
+
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    state = State.CLOSED;
+  }
+
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+      opened.increment();
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return requests rejected while the breaker was open
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return times the breaker opened
+   */
+  public long getOpened() {
+    return opened.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("{state=%s, opened=%d, rejected=%d}", getState(), getOpened(), getRejected());
+  }
+
+  /**
+   * Thrown instead of sending a request while the circuit breaker of its backend is open.
+   */
+  public static final class OpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OpenException(final String backend) {
+      super("circuit breaker of " + backend + " is open");
+    }
+  }
+
+  public static final class Builder {
+
+    private int failureThreshold = 5;
+    private Duration openDuration = Duration.ofSeconds(10);
+
+    private Builder() {
+    }
+
+    /**
+     * @param failureThreshold Consecutive failures that open the breaker
+     * @return this builder
+     */
+    public Builder failureThreshold(final int failureThreshold) {
+      if (failureThreshold < 1) {
+        throw new IllegalArgumentException("failureThreshold must be at least 1");
+      }
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    /**
+     * @param openDuration Time the breaker rejects requests before it lets a trial request through
+     * @return this builder
+     */
+    public Builder openDuration(final Duration openDuration) {
+      this.openDuration = openDuration;
+      return this;
+    }
+
+    public CircuitBreaker build() {
+      return new CircuitBreaker(this);
+    }
+  }
+}
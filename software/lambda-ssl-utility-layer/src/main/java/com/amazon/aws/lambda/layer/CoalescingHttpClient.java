@@ -0,0 +1,234 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HttpClient that sends identical GET requests only once while one of them is in flight (single flight): a request
+ * with the same URI and headers as a request that has not been answered yet waits for that response instead of
+ * being sent, e.g. when the cached response of many concurrent callers expires at the same time.
+ * <p>
+ * The shared request is sent with a byte array body handler, and the body handler of every caller is applied to the
+ * bytes as a {@link ReplayedResponse}. A caller that joins a request in flight still gets its own timeout, but
+ * cancelling a caller does not cancel the shared request, the other callers may still wait for it. Requests with other
+ * methods or a push promise handler go to the delegate unchanged.
+ */
+public final class CoalescingHttpClient extends HttpClient {
+
+  private static final HttpResponse.BodyHandler<byte[]> BYTES = HttpResponse.BodyHandlers.ofByteArray();
+
+  private final HttpClient delegate;
+  private final ConcurrentMap<Key, CompletableFuture<HttpResponse<byte[]>>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  private CoalescingHttpClient(final HttpClient delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @param delegate Client that sends the requests
+   */
+  public static CoalescingHttpClient of(final HttpClient delegate) {
+    return new CoalescingHttpClient(Objects.requireNonNull(delegate, "delegate"));
+  }
+
+  /**
+   * @return GET requests, including the ones that joined a request in flight
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return GET requests answered with the response of a request in flight, without being sent
+   */
+  public long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  /**
+   * @return requests in flight that further identical requests would join
+   */
+  public int getInFlight() {
+    return inFlight.size();
+  }
+
+  @Override
+  public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> responseBodyHandler)
+    throws IOException, InterruptedException {
+    if (!"GET".equals(request.method())) {
+      return delegate.send(request, responseBodyHandler);
+    }
+    return Futures.awaitResponse(sendAsync(request, responseBodyHandler));
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return sendAsync(request, responseBodyHandler, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+    final HttpRequest request,
+    final HttpResponse.BodyHandler<T> responseBodyHandler,
+    final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+
+    if (pushPromiseHandler != null || !"GET".equals(request.method())) {
+      return pushPromiseHandler == null
+        ? delegate.sendAsync(request, responseBodyHandler)
+        : delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+    }
+    requests.increment();
+    Key key = new Key(request.uri(), request.headers());
+    CompletableFuture<HttpResponse<byte[]>> started = new CompletableFuture<>();
+    CompletableFuture<HttpResponse<byte[]>> shared = inFlight.putIfAbsent(key, started);
+    if (shared == null) {
+      CompletableFuture<HttpResponse<byte[]>> sent;
+      try {
+        sent = delegate.sendAsync(request, BYTES);
+      } catch (RuntimeException e) {
+        sent = CompletableFuture.failedFuture(e);
+      }
+      sent.whenComplete((response, e) -> {
+        // later requests are sent again, only requests in flight are shared
+        inFlight.remove(key, started);
+        if (e != null) {
+          started.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        } else {
+          started.complete(response);
+        }
+      });
+      return started.thenCompose(response -> ReplayedResponse.replay(request, response, responseBodyHandler));
+    }
+    coalesced.increment();
+    CompletableFuture<HttpResponse<T>> response =
+      shared.thenCompose(received -> ReplayedResponse.replay(request, received, responseBodyHandler));
+    if (request.timeout().isEmpty()) {
+      return response;
+    }
+    // the shared request runs with the timeout of the caller that sent it
+    return response
+      .orTimeout(request.timeout().get().toNanos(), TimeUnit.NANOSECONDS)
+      .handle((value, e) -> {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TimeoutException) {
+          throw new CompletionException(new HttpTimeoutException("request timed out"));
+        }
+        if (cause != null) {
+          throw new CompletionException(cause);
+        }
+        return value;
+      });
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CoalescingHttpClient{requests=%d, coalesced=%d, inFlight=%d}", getRequests(),
+      getCoalesced(), getInFlight());
+  }
+
+  // the settings are the ones of the delegate client
+
+  @Override
+  public Optional<CookieHandler> cookieHandler() {
+    return delegate.cookieHandler();
+  }
+
+  @Override
+  public Optional<Duration> connectTimeout() {
+    return delegate.connectTimeout();
+  }
+
+  @Override
+  public Redirect followRedirects() {
+    return delegate.followRedirects();
+  }
+
+  @Override
+  public Optional<ProxySelector> proxy() {
+    return delegate.proxy();
+  }
+
+  @Override
+  public SSLContext sslContext() {
+    return delegate.sslContext();
+  }
+
+  @Override
+  public SSLParameters sslParameters() {
+    return delegate.sslParameters();
+  }
+
+  @Override
+  public Optional<Authenticator> authenticator() {
+    return delegate.authenticator();
+  }
+
+  @Override
+  public Version version() {
+    return delegate.version();
+  }
+
+  @Override
+  public Optional<Executor> executor() {
+    return delegate.executor();
+  }
+
+  /**
+   * Requests are identical if their URI and headers are; the timeout is not part of the key, the copies the deadline
+   * of each invocation makes of a request still share.
+   */
+  private static final class Key {
+
+    private final URI uri;
+    private final HttpHeaders headers;
+
+    private Key(final URI uri, final HttpHeaders headers) {
+      this.uri = uri;
+      this.headers = headers;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return uri.equals(key.uri) && headers.equals(key.headers);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * uri.hashCode() + headers.hashCode();
+    }
+  }
+}
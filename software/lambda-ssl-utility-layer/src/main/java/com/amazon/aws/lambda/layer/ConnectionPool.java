@@ -0,0 +1,597 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps a warm set of mTLS connections per backend, with one HttpClient per backend behind a single routing client.
+ * <p>
+ * The connection pool of HttpClient is not visible, and it keeps idle connections far longer than nginx
+ * (keepalive_timeout) or a load balancer do. A connection the backend closed while the function was frozen then
+ * costs the next invocation a failed attempt or a new handshake. This pool works around it per backend:
+ * <ul>
+ *   <li>it opens the configured number of connections when it starts, with concurrent requests</li>
+ *   <li>while the execution environment is running, a background thread sends requests over the idle connections
+ *   shortly before the backend idle timeout, which resets the idle timer of the backend</li>
+ *   <li>a backend that was idle for longer than its idle timeout minus the refresh margin, typically because the
+ *   environment was frozen, gets a new HttpClient before the next request, instead of a request on a dead
+ *   connection</li>
+ * </ul>
+ * The client factory gets an SSLContext per backend that wraps the one of the pool and counts the connections its
+ * clients open, so connections of other clients with the same SSLContext, e.g. a hedge client, are not counted as
+ * reconnects of the pool. A replaced client is closed in the background where HttpClient is AutoCloseable, on Java 21
+ * and later, which still completes its requests in flight; on older runtimes it stops once it is no longer referenced.
+ * With HTTP/2 every request to a backend shares one connection, so more than one connection per backend only applies
+ * to HTTP/1.1 backends.
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+  private final ConcurrentMap<String, Backend> backends = new ConcurrentHashMap<>();
+  private final SSLContext sslContext;
+  private final Function<SSLContext, HttpClient> clientFactory;
+  private final int connections;
+  private final Duration warmUpTimeout;
+  private final long keepAliveNanos;
+  private final long refreshNanos;
+  private final ScheduledExecutorService scheduler;
+  private final HttpClient httpClient = new RoutingHttpClient();
+
+  private ConnectionPool(final Builder builder) {
+    this.sslContext = builder.sslContext;
+    this.clientFactory = builder.clientFactory;
+    this.connections = builder.connections;
+    this.warmUpTimeout = builder.warmUpTimeout;
+    this.keepAliveNanos = builder.idleTimeout.minus(builder.refreshMargin).toNanos();
+    this.refreshNanos = builder.idleTimeout.minus(builder.refreshMargin.multipliedBy(2)).toNanos();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "connection-pool");
+      thread.setDaemon(true);
+      return thread;
+    });
+    for (URI uri : builder.uris) {
+      backend(uri);
+    }
+    warm();
+
+    // checking twice per margin never misses the refresh window of one margin
+    long interval = Math.max(100, builder.refreshMargin.toMillis() / 2);
+    scheduler.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return client that sends every request through the pool of its backend, share it like any other HttpClient
+   */
+  public HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Opens the configured number of connections to every backend, e.g. again after a checkpoint restore.
+   *
+   * @return number of warm-up requests that were answered
+   */
+  public int warm() {
+    List<CompletableFuture<Integer>> warmed = new ArrayList<>();
+    for (Backend backend : backends.values()) {
+      warmed.add(CompletableFuture.supplyAsync(backend::warm));
+    }
+    return warmed.stream()
+      .mapToInt(CompletableFuture::join)
+      .sum();
+  }
+
+  /**
+   * Replaces the client of every backend, so no connection of the current clients is used again. Call it before a
+   * checkpoint, a restored snapshot must not reuse connections of the original environment.
+   */
+  public void reset() {
+    backends.values().forEach(Backend::replaceClient);
+  }
+
+  /**
+   * @return counters per backend, keyed by host:port, ordered by backend
+   */
+  public Map<String, Backend> getBackends() {
+    return new TreeMap<>(backends);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    for (Backend backend : backends.values()) {
+      close(backend.getClient());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("ConnectionPool{");
+    String separator = "";
+    for (Map.Entry<String, Backend> entry : getBackends().entrySet()) {
+      builder.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+      separator = ", ";
+    }
+    return builder.append('}').toString();
+  }
+
+  private void refresh() {
+    for (Backend backend : backends.values()) {
+      try {
+        backend.refreshIfDue();
+      } catch (RuntimeException e) {
+        // keep the scheduler alive, the next request reconnects if the connections are gone
+      }
+    }
+  }
+
+  private Backend backend(final URI uri) {
+    String peer = Peers.of(uri);
+    Backend backend = backends.get(peer);
+    return backend != null ? backend : backends.computeIfAbsent(peer, created -> new Backend(uri));
+  }
+
+  private static void close(final HttpClient client) {
+    if (client instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) client).close();
+      } catch (Exception e) {
+        // the client is not used any more either way
+      }
+    }
+  }
+
+  private Backend anyBackend() {
+    return backends.values().iterator().next();
+  }
+
+  public final class Backend {
+
+    private final Priming priming;
+    private final SSLContext backendContext;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder warmConnections = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private HttpClient client;
+    private long connectionsAtClient;
+    private long lastUsed;
+    private int inFlight;
+
+    private Backend(final URI uri) {
+      Priming.Builder priming = Priming.builder().timeout(warmUpTimeout);
+      for (int i = 0; i < connections; i++) {
+        priming.uri(uri);
+      }
+      this.priming = priming.build();
+      this.backendContext = new CountingSSLContext(sslContext, connectionsOpened);
+      replaceClient();
+    }
+
+    /**
+     * @return connections opened by the current client of the backend, or 0 once they are past the keep-alive
+     */
+    public synchronized long getPoolSize() {
+      return isExpired() ? 0 : openedConnections() - connectionsAtClient;
+    }
+
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    /**
+     * @return requests served on a connection that was already open
+     */
+    public long getReuses() {
+      return Math.max(0, getRequests() - getReconnects());
+    }
+
+    /**
+     * @return connections opened by requests instead of by warm-up, each of them cost the request a handshake
+     */
+    public long getReconnects() {
+      return Math.max(0, openedConnections() - warmConnections.sum());
+    }
+
+    /**
+     * @return times the idle connections were kept alive by the background thread
+     */
+    public long getRefreshes() {
+      return refreshes.sum();
+    }
+
+    /**
+     * @return times the client was replaced because its connections were past the keep-alive
+     */
+    public long getExpirations() {
+      return expirations.sum();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{pool=%d, requests=%d, reuses=%d, reconnects=%d, refreshes=%d, expirations=%d}",
+        getPoolSize(), getRequests(), getReuses(), getReconnects(), getRefreshes(), getExpirations());
+    }
+
+    private synchronized void replaceClient() {
+      HttpClient replaced = client;
+      client = clientFactory.apply(backendContext);
+      connectionsAtClient = openedConnections();
+      lastUsed = System.nanoTime();
+      if (replaced != null) {
+        closeLater(replaced);
+      }
+    }
+
+    private void closeLater(final HttpClient replaced) {
+      if (!(replaced instanceof AutoCloseable)) {
+        return;
+      }
+      try {
+        // closing waits for the requests in flight, e.g. the ones still running when reset is called
+        scheduler.execute(() -> close(replaced));
+      } catch (RejectedExecutionException e) {
+        // the pool is closed, close waits on the calling thread
+        close(replaced);
+      }
+    }
+
+    private int warm() {
+      long before = openedConnections();
+      HttpClient warmClient = acquire();
+      try {
+        return priming.prime(warmClient);
+      } finally {
+        release();
+        warmConnections.add(openedConnections() - before);
+      }
+    }
+
+    private void refreshIfDue() {
+      HttpClient refreshClient;
+      synchronized (this) {
+        long idle = System.nanoTime() - lastUsed;
+        if (inFlight > 0 || idle < refreshNanos || idle >= keepAliveNanos) {
+          return;
+        }
+        refreshClient = acquire();
+      }
+      long before = openedConnections();
+      try {
+        priming.prime(refreshClient);
+        refreshes.increment();
+      } finally {
+        release();
+        warmConnections.add(openedConnections() - before);
+      }
+    }
+
+    private synchronized HttpClient acquire() {
+      if (inFlight == 0 && isExpired()) {
+        expirations.increment();
+        replaceClient();
+      }
+      inFlight++;
+      return client;
+    }
+
+    private synchronized void release() {
+      inFlight--;
+      lastUsed = System.nanoTime();
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - lastUsed >= keepAliveNanos;
+    }
+
+    private long openedConnections() {
+      return connectionsOpened.sum();
+    }
+
+    private synchronized HttpClient getClient() {
+      return client;
+    }
+  }
+
+  /**
+   * Routes every request to the client of its backend and keeps track of the idle time of the backend.
+   */
+  private final class RoutingHttpClient extends HttpClient {
+
+    @Override
+    public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> responseBodyHandler)
+      throws IOException, InterruptedException {
+
+      Backend backend = backend(request.uri());
+      HttpClient client = backend.acquire();
+      backend.requests.increment();
+      try {
+        return client.send(request, responseBodyHandler);
+      } finally {
+        backend.release();
+      }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                            final HttpResponse.BodyHandler<T> responseBodyHandler) {
+      return sendAsync(request, responseBodyHandler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+      final HttpRequest request,
+      final HttpResponse.BodyHandler<T> responseBodyHandler,
+      final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+
+      Backend backend = backend(request.uri());
+      HttpClient client = backend.acquire();
+      backend.requests.increment();
+      CompletableFuture<HttpResponse<T>> response;
+      try {
+        response = client.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+      } catch (RuntimeException | Error e) {
+        // e.g. IllegalArgumentException for an unsupported request, no future completes to release the client
+        backend.release();
+        throw e;
+      }
+      return response.whenComplete((r, e) -> backend.release());
+    }
+
+    // the settings are the same for every backend, they all come from the client factory
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+      return anyBackend().getClient().cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+      return anyBackend().getClient().connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+      return anyBackend().getClient().followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+      return anyBackend().getClient().proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+      return anyBackend().getClient().sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+      return anyBackend().getClient().sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+      return anyBackend().getClient().authenticator();
+    }
+
+    @Override
+    public Version version() {
+      return anyBackend().getClient().version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+      return anyBackend().getClient().executor();
+    }
+  }
+
+  /**
+   * SSLContext of the clients of one backend: everything is done by the context of the pool, engines for a peer, one
+   * per connection, are counted as well.
+   */
+  private static final class CountingSSLContext extends SSLContext {
+
+    private CountingSSLContext(final SSLContext delegate, final LongAdder connections) {
+      super(new Spi(delegate, connections), delegate.getProvider(), delegate.getProtocol());
+    }
+
+    private static final class Spi extends SSLContextSpi {
+
+      private final SSLContext delegate;
+      private final LongAdder connections;
+
+      private Spi(final SSLContext delegate, final LongAdder connections) {
+        this.delegate = delegate;
+        this.connections = connections;
+      }
+
+      @Override
+      protected void engineInit(final KeyManager[] keyManagers, final TrustManager[] trustManagers,
+                                final SecureRandom secureRandom) throws KeyManagementException {
+        throw new KeyManagementException("The SSLContext of a connection pool backend is initialized by the pool");
+      }
+
+      @Override
+      protected SSLEngine engineCreateSSLEngine() {
+        return delegate.createSSLEngine();
+      }
+
+      @Override
+      protected SSLEngine engineCreateSSLEngine(final String host, final int port) {
+        connections.increment();
+        return delegate.createSSLEngine(host, port);
+      }
+
+      @Override
+      protected SSLSocketFactory engineGetSocketFactory() {
+        return delegate.getSocketFactory();
+      }
+
+      @Override
+      protected SSLServerSocketFactory engineGetServerSocketFactory() {
+        return delegate.getServerSocketFactory();
+      }
+
+      @Override
+      protected SSLSessionContext engineGetServerSessionContext() {
+        return delegate.getServerSessionContext();
+      }
+
+      @Override
+      protected SSLSessionContext engineGetClientSessionContext() {
+        return delegate.getClientSessionContext();
+      }
+
+      @Override
+      protected SSLParameters engineGetDefaultSSLParameters() {
+        return delegate.getDefaultSSLParameters();
+      }
+
+      @Override
+      protected SSLParameters engineGetSupportedSSLParameters() {
+        return delegate.getSupportedSSLParameters();
+      }
+    }
+  }
+
+  public static final class Builder {
+
+    private final Set<URI> uris = new LinkedHashSet<>();
+    private SSLContext sslContext;
+    private Function<SSLContext, HttpClient> clientFactory;
+    private int connections = 1;
+    private Duration idleTimeout = Duration.ofSeconds(75);
+    private Duration refreshMargin = Duration.ofSeconds(5);
+    private Duration warmUpTimeout = Duration.ofSeconds(2);
+
+    private Builder() {
+    }
+
+    /**
+     * @param uri Backend endpoint that is cheap to GET, used to open and to refresh connections
+     * @return this builder
+     */
+    public Builder backend(final URI uri) {
+      this.uris.add(uri);
+      return this;
+    }
+
+    /**
+     * @param sslContext SSLContext of the connections, e.g. from {@link TrustAndKeyStore}; its sessions are shared
+     *                   with other clients using it
+     * @return this builder
+     */
+    public Builder sslContext(final SSLContext sslContext) {
+      this.sslContext = sslContext;
+      return this;
+    }
+
+    /**
+     * @param clientFactory Creates the HttpClient of a backend from the SSLContext it is given, which counts the
+     *                      connections of the backend; called again whenever a client is replaced
+     * @return this builder
+     */
+    public Builder clientFactory(final Function<SSLContext, HttpClient> clientFactory) {
+      this.clientFactory = clientFactory;
+      return this;
+    }
+
+    /**
+     * @param connections Connections opened per backend when the pool starts and kept alive afterwards
+     * @return this builder
+     */
+    public Builder connections(final int connections) {
+      if (connections < 1) {
+        throw new IllegalArgumentException("connections must be at least 1");
+      }
+      this.connections = connections;
+      return this;
+    }
+
+    /**
+     * @param idleTimeout Time after which the backend closes an idle connection, 75 seconds for the nginx default
+     *                    keepalive_timeout
+     * @return this builder
+     */
+    public Builder idleTimeout(final Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    /**
+     * @param refreshMargin Safety margin before the idle timeout; connections are refreshed within the margin before
+     *                      it and are not used any more once they are inside the margin
+     * @return this builder
+     */
+    public Builder refreshMargin(final Duration refreshMargin) {
+      this.refreshMargin = refreshMargin;
+      return this;
+    }
+
+    /**
+     * @param warmUpTimeout Maximum time to wait for each warm-up request, keep it well below the init timeout
+     * @return this builder
+     */
+    public Builder warmUpTimeout(final Duration warmUpTimeout) {
+      this.warmUpTimeout = warmUpTimeout;
+      return this;
+    }
+
+    /**
+     * Opens the connections to every backend and starts the background refresh.
+     */
+    public ConnectionPool start() {
+      if (uris.isEmpty() || sslContext == null || clientFactory == null) {
+        throw new IllegalStateException(
+          "ConnectionPool needs at least one backend, an SSLContext and a client factory");
+      }
+      if (idleTimeout.compareTo(refreshMargin.multipliedBy(2)) <= 0) {
+        throw new IllegalStateException("idleTimeout must be longer than twice the refreshMargin");
+      }
+      return new ConnectionPool(this);
+    }
+  }
+}
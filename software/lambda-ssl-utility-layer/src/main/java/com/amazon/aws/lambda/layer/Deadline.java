@@ -0,0 +1,106 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Point in time by which the backend calls of an invocation have to be done, e.g. the remaining time of the Lambda
+ * invocation minus a reserve for writing the response.
+ * <p>
+ * A backend call gets its own timeout or the time left, whichever is shorter, so a retry or a second call never runs
+ * past the invocation and a handler still has time to answer with a degraded response instead of being stopped by
+ * the Lambda timeout. Requests are only copied when the time left is shorter than their own timeout.
+ */
+public final class Deadline {
+
+  private final long deadlineNanos;
+
+  private Deadline(final long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @param millis Time left from now, e.g. Context.getRemainingTimeInMillis() minus a reserve
+   */
+  public static Deadline afterMillis(final long millis) {
+    return new Deadline(System.nanoTime() + Math.max(0, millis) * 1_000_000);
+  }
+
+  public static Deadline after(final Duration duration) {
+    return afterMillis(duration.toMillis());
+  }
+
+  /**
+   * @return nanoseconds left, zero or negative once the deadline passed
+   */
+  public long remainingNanos() {
+    return deadlineNanos - System.nanoTime();
+  }
+
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, remainingNanos()));
+  }
+
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  /**
+   * @param timeout Timeout of the call on its own
+   * @return the timeout, or the time left if that is shorter
+   * @throws ExceededException if no time is left
+   */
+  public Duration timeout(final Duration timeout) throws ExceededException {
+    long remaining = remainingNanos();
+    if (remaining <= 0) {
+      throw new ExceededException();
+    }
+    return remaining < timeout.toNanos() ? Duration.ofNanos(remaining) : timeout;
+  }
+
+  /**
+   * @param request Request built once, with the timeout of the call on its own
+   * @return the request itself if its timeout ends before the deadline, a copy with the time left as timeout otherwise
+   * @throws ExceededException if no time is left
+   */
+  public HttpRequest bound(final HttpRequest request) throws ExceededException {
+    long remaining = remainingNanos();
+    if (remaining <= 0) {
+      throw new ExceededException();
+    }
+    Optional<Duration> timeout = request.timeout();
+    if (timeout.isPresent() && timeout.get().toNanos() <= remaining) {
+      return request;
+    }
+    HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+      .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()))
+      .expectContinue(request.expectContinue())
+      .timeout(Duration.ofNanos(remaining));
+    request.version().ifPresent(builder::version);
+    request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+    return builder.build();
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline{remaining=" + remaining().toMillis() + "ms}";
+  }
+
+  /**
+   * Thrown instead of starting a call after the deadline passed. It is an HttpTimeoutException, so it is handled like
+   * a backend that did not answer in time.
+   */
+  public static final class ExceededException extends HttpTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ExceededException() {
+      super("deadline exceeded");
+    }
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The few DER structures of certificates and OCSP the layer reads or writes itself, without a dependency: key
+ * identifiers, the OCSP responder and CRL distribution point of a certificate, OCSP requests and the next update of
+ * OCSP responses.
+ */
+final class Der {
+
+  static final int OCTET_STRING = 0x04;
+  static final int SEQUENCE = 0x30;
+  static final int CONTEXT_0 = 0x80;
+  private static final int BIT_STRING = 0x03;
+  private static final int OID = 0x06;
+  private static final int ENUMERATED = 0x0a;
+  private static final int GENERALIZED_TIME = 0x18;
+  private static final int CONSTRUCTED_CONTEXT_0 = 0xa0;
+  private static final int URI_NAME = 0x86;
+  private static final String AUTHORITY_INFO_ACCESS = "1.3.6.1.5.5.7.1.1";
+  private static final String CRL_DISTRIBUTION_POINTS = "2.5.29.31";
+  // id-ad-ocsp 1.3.6.1.5.5.7.48.1 and id-sha1 1.3.14.3.2.26, encoded
+  private static final byte[] OCSP_ACCESS_METHOD = {0x2b, 0x06, 0x01, 0x05, 0x05, 0x07, 0x30, 0x01};
+  private static final byte[] SHA1_ALGORITHM = {0x30, 0x09, 0x06, 0x05, 0x2b, 0x0e, 0x03, 0x02, 0x1a, 0x05, 0x00};
+  // GeneralizedTime without the optional fraction of seconds and the Z, always UTC in DER
+  private static final DateTimeFormatter GENERALIZED_TIME_SECONDS = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+  private Der() {
+  }
+
+  /**
+   * @param extension DER extension value, an OCTET STRING around the extension
+   * @param tag       Tag of the key identifier: 0x04 in a subject key identifier, the OCTET STRING itself; 0x80 in
+   *                  an authority key identifier, the first element of its SEQUENCE
+   * @return the key identifier, null if the extension is missing or has none
+   */
+  static byte[] keyIdentifier(final byte[] extension, final int tag) {
+    if (extension == null) {
+      return null;
+    }
+    try {
+      ByteBuffer der = element(ByteBuffer.wrap(extension), OCTET_STRING);
+      if (tag == CONTEXT_0) {
+        der = element(der, SEQUENCE);
+      }
+      return bytes(element(der, tag));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      // not what RFC 5280 describes, the certificate is still found by its names
+      return null;
+    }
+  }
+
+  /**
+   * @return the first OCSP responder of the authority information access extension, null if there is none
+   */
+  static URI ocspResponder(final X509Certificate certificate) {
+    byte[] extension = certificate.getExtensionValue(AUTHORITY_INFO_ACCESS);
+    if (extension == null) {
+      return null;
+    }
+    try {
+      ByteBuffer accessDescriptions = element(element(ByteBuffer.wrap(extension), OCTET_STRING), SEQUENCE);
+      while (accessDescriptions.hasRemaining()) {
+        ByteBuffer accessDescription = element(accessDescriptions, SEQUENCE);
+        ByteBuffer method = element(accessDescription, OID);
+        if (method.equals(ByteBuffer.wrap(OCSP_ACCESS_METHOD)) && tag(accessDescription) == URI_NAME) {
+          return uri(element(accessDescription, URI_NAME));
+        }
+      }
+      return null;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the first URI of the CRL distribution points extension, null if there is none
+   */
+  static URI crlDistributionPoint(final X509Certificate certificate) {
+    byte[] extension = certificate.getExtensionValue(CRL_DISTRIBUTION_POINTS);
+    if (extension == null) {
+      return null;
+    }
+    try {
+      ByteBuffer distributionPoints = element(element(ByteBuffer.wrap(extension), OCTET_STRING), SEQUENCE);
+      while (distributionPoints.hasRemaining()) {
+        ByteBuffer distributionPoint = element(distributionPoints, SEQUENCE);
+        if (!distributionPoint.hasRemaining() || tag(distributionPoint) != CONSTRUCTED_CONTEXT_0) {
+          continue;
+        }
+        ByteBuffer name = element(distributionPoint, CONSTRUCTED_CONTEXT_0);
+        if (tag(name) != CONSTRUCTED_CONTEXT_0) {
+          // a name relative to the CRL issuer, not a location
+          continue;
+        }
+        ByteBuffer fullName = element(name, CONSTRUCTED_CONTEXT_0);
+        while (fullName.hasRemaining()) {
+          int tag = tag(fullName);
+          ByteBuffer generalName = element(fullName, tag);
+          if (tag == URI_NAME) {
+            return uri(generalName);
+          }
+        }
+      }
+      return null;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param certificate Certificate whose status is asked for
+   * @param issuer      Certificate of its issuer
+   * @return an unsigned OCSP request without extensions, with a SHA-1 CertID like the JDK uses to match responses
+   */
+  static byte[] ocspRequest(final X509Certificate certificate, final X509Certificate issuer)
+    throws GeneralSecurityException {
+    MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+    byte[] issuerNameHash = sha1.digest(issuer.getSubjectX500Principal().getEncoded());
+    // the key bits of the subjectPublicKeyInfo, without the algorithm and the unused bits byte
+    ByteBuffer publicKeyInfo = element(ByteBuffer.wrap(issuer.getPublicKey().getEncoded()), SEQUENCE);
+    element(publicKeyInfo, SEQUENCE);
+    ByteBuffer publicKey = element(publicKeyInfo, BIT_STRING);
+    publicKey.get();
+    byte[] issuerKeyHash = sha1.digest(bytes(publicKey));
+
+    byte[] certId = encode(SEQUENCE, SHA1_ALGORITHM, encode(OCTET_STRING, issuerNameHash),
+      encode(OCTET_STRING, issuerKeyHash), encode(0x02, certificate.getSerialNumber().toByteArray()));
+    // OCSPRequest, TBSRequest, requestList, Request
+    return encode(SEQUENCE, encode(SEQUENCE, encode(SEQUENCE, encode(SEQUENCE, certId))));
+  }
+
+  /**
+   * @param response DER encoded OCSP response with a basic response, as fetched or stapled
+   * @return the earliest nextUpdate of its single responses, null if none has one or the response cannot be read
+   */
+  static Instant ocspNextUpdate(final byte[] response) {
+    try {
+      // OCSPResponse, responseBytes, BasicOCSPResponse, ResponseData
+      ByteBuffer ocspResponse = element(ByteBuffer.wrap(response), SEQUENCE);
+      element(ocspResponse, ENUMERATED);
+      ByteBuffer responseBytes = element(element(ocspResponse, CONSTRUCTED_CONTEXT_0), SEQUENCE);
+      element(responseBytes, OID);
+      ByteBuffer responseData = element(element(element(responseBytes, OCTET_STRING), SEQUENCE), SEQUENCE);
+      if (tag(responseData) == CONSTRUCTED_CONTEXT_0) {
+        // version
+        element(responseData, CONSTRUCTED_CONTEXT_0);
+      }
+      // responderID, producedAt
+      element(responseData, tag(responseData));
+      element(responseData, GENERALIZED_TIME);
+
+      Instant earliest = null;
+      ByteBuffer responses = element(responseData, SEQUENCE);
+      while (responses.hasRemaining()) {
+        // SingleResponse: certID, certStatus, thisUpdate, nextUpdate [0] EXPLICIT OPTIONAL
+        ByteBuffer singleResponse = element(responses, SEQUENCE);
+        element(singleResponse, SEQUENCE);
+        element(singleResponse, tag(singleResponse));
+        element(singleResponse, GENERALIZED_TIME);
+        if (singleResponse.hasRemaining() && tag(singleResponse) == CONSTRUCTED_CONTEXT_0) {
+          Instant nextUpdate = generalizedTime(element(element(singleResponse, CONSTRUCTED_CONTEXT_0),
+            GENERALIZED_TIME));
+          if (earliest == null || nextUpdate.isBefore(earliest)) {
+            earliest = nextUpdate;
+          }
+        }
+      }
+      return earliest;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException
+             | DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the content of the DER element at the position of the buffer, which has to have the given tag; the
+   * position of the buffer moves past the element
+   */
+  static ByteBuffer element(final ByteBuffer der, final int tag) {
+    if ((der.get() & 0xff) != tag) {
+      throw new IllegalArgumentException("unexpected tag");
+    }
+    int length = der.get() & 0xff;
+    if (length > 0x80) {
+      int bytes = length & 0x7f;
+      length = 0;
+      for (int i = 0; i < bytes; i++) {
+        length = length << 8 | der.get() & 0xff;
+      }
+    }
+    ByteBuffer content = der.slice();
+    content.limit(length);
+    der.position(der.position() + length);
+    return content;
+  }
+
+  static byte[] encode(final int tag, final byte[]... contents) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (byte[] bytes : contents) {
+      content.writeBytes(bytes);
+    }
+    int length = content.size();
+    ByteArrayOutputStream der = new ByteArrayOutputStream(length + 4);
+    der.write(tag);
+    if (length < 0x80) {
+      der.write(length);
+    } else if (length < 0x100) {
+      der.write(0x81);
+      der.write(length);
+    } else {
+      der.write(0x82);
+      der.write(length >>> 8);
+      der.write(length);
+    }
+    der.writeBytes(content.toByteArray());
+    return der.toByteArray();
+  }
+
+  private static int tag(final ByteBuffer der) {
+    return der.get(der.position()) & 0xff;
+  }
+
+  private static byte[] bytes(final ByteBuffer content) {
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
+    return bytes;
+  }
+
+  private static Instant generalizedTime(final ByteBuffer content) {
+    String time = new String(bytes(content), StandardCharsets.US_ASCII);
+    if (time.length() < 14) {
+      throw new IllegalArgumentException("GeneralizedTime without seconds");
+    }
+    return LocalDateTime.parse(time.substring(0, 14), GENERALIZED_TIME_SECONDS).toInstant(ZoneOffset.UTC);
+  }
+
+  private static URI uri(final ByteBuffer content) {
+    try {
+      return URI.create(new String(bytes(content), StandardCharsets.US_ASCII));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Process wide metrics of the function, written as CloudWatch Embedded Metric Format (EMF) documents, one log line
+ * each, so CloudWatch extracts them from the log stream without a PutMetricData call.
+ * <p>
+ * The request path only records: a request latency is one {@link LatencyHistogram} increment, handshakes and TLS
+ * bytes are counted by {@link HandshakeMetrics}. {@link #flush(Consumer)}, called once at the end of every
+ * invocation, writes what changed since the previous flush:
+ * <ul>
+ *   <li>per backend, with the dimensions FunctionName and Backend (host:port): RequestLatency, Requests,
+ *   NewConnections, FullHandshakes, ResumedHandshakes, HandshakeTime, ConnectionReuseRatio, BytesSent and
+ *   BytesReceived</li>
+ *   <li>per init stage, with the dimensions FunctionName and Stage, once after the init: InitStageDuration</li>
+ *   <li>with the dimension FunctionName: KeyStoreParseTime, whenever a keystore was parsed</li>
+ * </ul>
+ * Latencies are written as arrays of values in milliseconds, at the precision of the histogram buckets, so CloudWatch
+ * computes percentiles across invocations. EMF takes at most 100 values per metric and document; an invocation with
+ * more requests to one backend writes the first 100.
+ * <p>
+ * A flush reuses its buffers and the list of backends, which is only rebuilt when a backend appears, so besides the
+ * Strings handed to the sink it allocates nothing.
+ */
+public final class EmbeddedMetrics {
+
+  private static final EmbeddedMetrics INSTANCE = new EmbeddedMetrics(
+    Optional.ofNullable(System.getenv("METRICS_NAMESPACE")).orElse("ServerlessMutualTls"),
+    Optional.ofNullable(System.getenv("AWS_LAMBDA_FUNCTION_NAME")).orElse("local"));
+  private static final int MAX_VALUES = 100;
+
+  // the JSON of the namespace and the function name, quoted once instead of on every flush
+  private final String namespace;
+  private final String functionName;
+  private final ConcurrentMap<String, LatencyHistogram> requests = new ConcurrentHashMap<>();
+  private final Queue<Map.Entry<String, Duration>> initStages = new ConcurrentLinkedQueue<>();
+  private final LatencyHistogram keyStoreParseTime = new LatencyHistogram();
+  private final long[] keyStoreParseTimeSeen = new long[LatencyHistogram.bucketCount()];
+  // guarded by the lock of flush
+  private final List<Peer> peers = new ArrayList<>();
+  private final Map<String, Peer> peersByName = new HashMap<>();
+  private int knownRequestPeers;
+  private int knownHandshakePeers;
+  private final StringBuilder document = new StringBuilder(1024);
+  private final StringBuilder directive = new StringBuilder(512);
+  private final StringBuilder line = new StringBuilder(2048);
+  private final LatencyHistogram.BucketConsumer valueWriter = this::appendValues;
+  private int written;
+
+  EmbeddedMetrics(final String namespace, final String functionName) {
+    this.namespace = quote(namespace);
+    this.functionName = quote(functionName);
+  }
+
+  public static EmbeddedMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records the latency of one backend request, without allocating once the URI is known.
+   *
+   * @param uri   Request URI, the backend is its host and port
+   * @param nanos Time from sending the request until the response was complete
+   */
+  public void recordRequest(final URI uri, final long nanos) {
+    String peer = Peers.of(uri);
+    LatencyHistogram histogram = requests.get(peer);
+    if (histogram == null) {
+      histogram = requests.computeIfAbsent(peer, created -> new LatencyHistogram());
+    }
+    histogram.recordNanos(nanos);
+  }
+
+  /**
+   * Records the duration of an init stage, written once with the next flush.
+   */
+  public void initStage(final String name, final Duration duration) {
+    initStages.add(Map.entry(name, duration));
+  }
+
+  /**
+   * Records the duration of every finished stage of the pipeline, written once with the next flush.
+   */
+  public void initStages(final InitPipeline pipeline) {
+    for (InitPipeline.Stage stage : pipeline.getStages()) {
+      initStage(stage.getName(), stage.getDuration());
+    }
+  }
+
+  /**
+   * @return request latencies per backend, keyed by host:port, ordered by backend
+   */
+  public Map<String, LatencyHistogram> getRequestLatencies() {
+    return new TreeMap<>(requests);
+  }
+
+  /**
+   * Writes every document with changes since the previous flush, call it once at the end of an invocation.
+   *
+   * @param sink Receives each document as one line, e.g. the Lambda logger
+   */
+  public synchronized void flush(final Consumer<String> sink) {
+    long timestamp = System.currentTimeMillis();
+    try {
+      Map.Entry<String, Duration> stage;
+      while ((stage = initStages.poll()) != null) {
+        begin("Stage");
+        metric("InitStageDuration", "Milliseconds");
+        document.append(",\"Stage\":");
+        Json.quote(document, stage.getKey());
+        document.append(",\"InitStageDuration\":");
+        appendThousandths(stage.getValue().toNanos() / 1000);
+        end(timestamp, sink);
+      }
+
+      begin(null);
+      if (values("KeyStoreParseTime", keyStoreParseTime, keyStoreParseTimeSeen) > 0) {
+        end(timestamp, sink);
+      }
+
+      updatePeers(HandshakeMetrics.getInstance());
+      for (int i = 0; i < peers.size(); i++) {
+        writeBackend(peers.get(i), timestamp, sink);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EmbeddedMetrics" + getRequestLatencies();
+  }
+
+  void keyStoreParsed(final long nanos) {
+    keyStoreParseTime.recordNanos(nanos);
+  }
+
+  /**
+   * Adds the backends that appeared since the previous flush, a cheap size check unless there are new ones.
+   */
+  private void updatePeers(final HandshakeMetrics handshakeMetrics) {
+    int requestPeers = requests.size();
+    int handshakePeers = handshakeMetrics.backendCount();
+    if (requestPeers == knownRequestPeers && handshakePeers == knownHandshakePeers) {
+      return;
+    }
+    knownRequestPeers = requestPeers;
+    knownHandshakePeers = handshakePeers;
+    requests.forEach((name, histogram) -> peer(name).latency = histogram);
+    handshakeMetrics.backends().forEach((name, backend) -> peer(name).backend = backend);
+  }
+
+  private Peer peer(final String name) {
+    Peer peer = peersByName.get(name);
+    if (peer == null) {
+      peer = new Peer(name);
+      peersByName.put(name, peer);
+      peers.add(peer);
+    }
+    return peer;
+  }
+
+  private void writeBackend(final Peer previous, final long timestamp, final Consumer<String> sink) {
+
+    LatencyHistogram latency = previous.latency;
+    HandshakeMetrics.Backend handshakes = previous.backend;
+
+    begin("Backend");
+    document.append(",\"Backend\":").append(previous.quotedName);
+
+    long requestCount = latency == null ? 0 : values("RequestLatency", latency, previous.requests);
+    boolean changed = requestCount > 0;
+    if (requestCount > 0) {
+      count("Requests", "Count", requestCount);
+    }
+    if (handshakes != null) {
+      long connections = handshakes.getConnections() - previous.connections;
+      long full = handshakes.getFullHandshakes() - previous.fullHandshakes;
+      long sent = handshakes.getBytesSent() - previous.bytesSent;
+      long received = handshakes.getBytesReceived() - previous.bytesReceived;
+      previous.connections += connections;
+      previous.fullHandshakes += full;
+      previous.bytesSent += sent;
+      previous.bytesReceived += received;
+
+      if (connections > 0) {
+        count("NewConnections", "Count", connections);
+        count("FullHandshakes", "Count", full);
+        count("ResumedHandshakes", "Count", Math.max(0, connections - full));
+      }
+      // handshake samples are consumed from the histogram, so they alone are reason enough to write the document
+      changed |= values("HandshakeTime", handshakes.getHandshakeTime(), previous.handshakes) > 0;
+      if (requestCount > 0) {
+        // requests that did not need a connection of their own, 1.0 when every request reused one
+        metric("ConnectionReuseRatio", "None");
+        document.append(",\"ConnectionReuseRatio\":");
+        appendThousandths(Math.max(0, requestCount - connections) * 1000 / requestCount);
+      }
+      if (sent > 0 || received > 0) {
+        count("BytesSent", "Bytes", sent);
+        count("BytesReceived", "Bytes", received);
+      }
+      changed |= connections > 0 || sent > 0 || received > 0;
+    }
+    if (changed) {
+      end(timestamp, sink);
+    }
+  }
+
+  private void begin(final String dimension) {
+    document.setLength(0);
+    directive.setLength(0);
+    document.append(",\"FunctionName\":").append(functionName);
+    directive.append("{\"Namespace\":").append(namespace);
+    directive.append(",\"Dimensions\":[[\"FunctionName\"");
+    if (dimension != null) {
+      directive.append(",\"").append(dimension).append('"');
+    }
+    directive.append("]],\"Metrics\":[");
+  }
+
+  private void metric(final String name, final String unit) {
+    if (directive.charAt(directive.length() - 1) == '}') {
+      directive.append(',');
+    }
+    directive.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+  }
+
+  private void count(final String name, final String unit, final long value) {
+    metric(name, unit);
+    document.append(",\"").append(name).append("\":").append(value);
+  }
+
+  /**
+   * Appends the values recorded since the previous flush as an array of milliseconds.
+   *
+   * @return the number of new values, nothing is appended if there are none
+   */
+  private long values(final String name, final LatencyHistogram histogram, final long[] seen) {
+    int start = document.length();
+    document.append(",\"").append(name).append("\":[");
+    written = 0;
+    long count = histogram.changesSince(seen, valueWriter);
+    if (count == 0) {
+      document.setLength(start);
+      return 0;
+    }
+    document.append(']');
+    metric(name, "Milliseconds");
+    return count;
+  }
+
+  private void appendValues(final long micros, final long added) {
+    for (long i = 0; i < added && written < MAX_VALUES; i++, written++) {
+      if (written > 0) {
+        document.append(',');
+      }
+      appendThousandths(micros);
+    }
+  }
+
+  private void end(final long timestamp, final Consumer<String> sink) {
+    line.setLength(0);
+    line.append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+      .append(",\"CloudWatchMetrics\":[").append(directive).append("]}]}")
+      .append(document)
+      .append('}');
+    sink.accept(line.toString());
+  }
+
+  /**
+   * Appends a number with three decimals without formatting, e.g. microseconds as milliseconds.
+   */
+  private void appendThousandths(final long thousandths) {
+    document.append(thousandths / 1000).append('.');
+    long fraction = thousandths % 1000;
+    if (fraction < 100) {
+      document.append('0');
+    }
+    if (fraction < 10) {
+      document.append('0');
+    }
+    document.append(fraction);
+  }
+
+  private static String quote(final String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    try {
+      Json.quote(quoted, value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return quoted.toString();
+  }
+
+  /**
+   * A backend with its request latencies and handshake counters, and their values as of the previous flush.
+   */
+  private static final class Peer {
+
+    private final String quotedName;
+    private LatencyHistogram latency;
+    private HandshakeMetrics.Backend backend;
+    private final long[] requests = new long[LatencyHistogram.bucketCount()];
+    private final long[] handshakes = new long[LatencyHistogram.bucketCount()];
+    private long connections;
+    private long fullHandshakes;
+    private long bytesSent;
+    private long bytesReceived;
+
+    private Peer(final String name) {
+      this.quotedName = quote(name);
+    }
+  }
+}
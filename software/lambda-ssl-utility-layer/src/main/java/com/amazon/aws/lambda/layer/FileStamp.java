@@ -0,0 +1,52 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Size and modification time of a file, the cheap stat check done before a keystore is read and digested again.
+ */
+final class FileStamp {
+
+  private final long size;
+  private final long lastModified;
+
+  private FileStamp(final long size, final long lastModified) {
+    this.size = size;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * @return the stamp of the file when the content was read from it
+   */
+  static FileStamp of(final KeyStoreContent content) {
+    return new FileStamp(content.getSize(), content.getLastModified());
+  }
+
+  static FileStamp of(final String path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+    return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FileStamp)) {
+      return false;
+    }
+    FileStamp that = (FileStamp) o;
+    return size == that.size && lastModified == that.lastModified;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide, per backend counters of new TLS connections, full handshakes, handshake durations and TLS bytes
+ * transferred, for every SSLContext built by this layer.
+ * <p>
+ * A connection counts as a full handshake when the server certificate chain is verified by the trust manager, which
+ * JSSE skips when it resumes a cached session or a TLS 1.3 pre-shared key. Every other connection was resumed.
+ */
+public final class HandshakeMetrics {
+
+  private static final HandshakeMetrics INSTANCE = new HandshakeMetrics();
+
+  private final ConcurrentMap<String, Backend> backends = new ConcurrentHashMap<>();
+
+  private HandshakeMetrics() {
+  }
+
+  public static HandshakeMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return counters per backend, keyed by host:port, ordered by backend
+   */
+  public Map<String, Backend> getBackends() {
+    return new TreeMap<>(backends);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("HandshakeMetrics{");
+    String separator = "";
+    for (Map.Entry<String, Backend> entry : getBackends().entrySet()) {
+      builder.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+      separator = ", ";
+    }
+    return builder.append('}').toString();
+  }
+
+  int backendCount() {
+    return backends.size();
+  }
+
+  /**
+   * @return live view of the counters per backend, without the copy of {@link #getBackends()}
+   */
+  Map<String, Backend> backends() {
+    return Collections.unmodifiableMap(backends);
+  }
+
+  Backend connection(final String host, final int port) {
+    Backend backend = backend(host, port);
+    backend.connections.increment();
+    return backend;
+  }
+
+  void fullHandshake(final String host, final int port) {
+    backend(host, port).fullHandshakes.increment();
+  }
+
+  private Backend backend(final String host, final int port) {
+    return backends.computeIfAbsent(host + ":" + port, peer -> new Backend());
+  }
+
+  public static final class Backend {
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LatencyHistogram handshakeTime = new LatencyHistogram();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    private Backend() {
+    }
+
+    public long getConnections() {
+      return connections.sum();
+    }
+
+    public long getFullHandshakes() {
+      return fullHandshakes.sum();
+    }
+
+    public long getResumedHandshakes() {
+      return Math.max(0, getConnections() - getFullHandshakes());
+    }
+
+    /**
+     * @return durations of the full and resumed handshakes, from the ClientHello until the handshake finished
+     */
+    public LatencyHistogram getHandshakeTime() {
+      return handshakeTime;
+    }
+
+    /**
+     * @return TLS bytes written to the backend, including handshakes and record framing
+     */
+    public long getBytesSent() {
+      return bytesSent.sum();
+    }
+
+    /**
+     * @return TLS bytes read from the backend, including handshakes and record framing
+     */
+    public long getBytesReceived() {
+      return bytesReceived.sum();
+    }
+
+    void handshake(final long nanos) {
+      handshakeTime.recordNanos(nanos);
+    }
+
+    void sent(final long bytes) {
+      if (bytes > 0) {
+        bytesSent.add(bytes);
+      }
+    }
+
+    void received(final long bytes) {
+      if (bytes > 0) {
+        bytesReceived.add(bytes);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{full=%d, resumed=%d}", getFullHandshakes(), getResumedHandshakes());
+    }
+  }
+}
@@ -0,0 +1,539 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * HttpClient that cuts the latency tail of a backend with hedged requests and fails fast while the backend is
+ * unhealthy.
+ * <p>
+ * A GET or HEAD request that has no response after the configured percentile of the latencies of its backend, e.g.
+ * p95, is sent a second time over the hedge client. The first response wins, the other exchange is cancelled. The hedge
+ * client should be a second HttpClient with the same SSLContext: it has a connection of its own, which the network
+ * load balancer may route to another task, while a hedge over the same HTTP/2 connection reaches the same task. At
+ * most maxHedgeRatio of the requests are hedged, so a slow backend does not get twice the load. The hedges are
+ * counted against the requests of a sliding window with a {@link RetryBudget}, 10 seconds by default, so a long
+ * healthy period does not leave budget for hedging every request once the backend turns slow.
+ * <p>
+ * Every backend has a {@link CircuitBreaker}; an exception or a 5xx response of the winning exchange counts as a
+ * failure. While the breaker is open, requests fail with {@link CircuitBreaker.OpenException} without being sent.
+ * <p>
+ * Both exchanges use the same body handler, so use this client only with body handlers that can be applied twice,
+ * like the ones of {@link HttpResponse.BodyHandlers}; not with a handler that streams into an invocation response.
+ * Cancelling aborts the losing exchange on Java 16 and later; on Java 11 it runs to its end in the background and its
+ * response is discarded.
+ */
+public final class HedgingHttpClient extends HttpClient implements AutoCloseable {
+
+  // percentiles of fewer latencies are noise, the maximum delay applies until then
+  private static final long MIN_SAMPLES = 20;
+  private static final long DELAY_UPDATE_INTERVAL = 16;
+  private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD");
+
+  private final HttpClient primary;
+  private final HttpClient hedge;
+  private final double percentile;
+  private final long minDelayNanos;
+  private final long maxDelayNanos;
+  private final double maxHedgeRatio;
+  private final Duration hedgeBudgetWindow;
+  private final Supplier<CircuitBreaker> circuitBreakerFactory;
+  private final ConcurrentMap<String, Backend> backends = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+
+  private HedgingHttpClient(final Builder builder) {
+    this.primary = builder.primary;
+    this.hedge = builder.hedge != null ? builder.hedge : builder.primary;
+    this.percentile = builder.percentile;
+    this.minDelayNanos = builder.minHedgeDelay.toNanos();
+    this.maxDelayNanos = builder.maxHedgeDelay.toNanos();
+    this.maxHedgeRatio = builder.maxHedgeRatio;
+    this.hedgeBudgetWindow = builder.hedgeBudgetWindow;
+    this.circuitBreakerFactory = builder.circuitBreakerFactory;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "hedging-http-client");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Sends the request over the primary and the hedge client concurrently, so both have an established connection.
+   * Best effort, like {@link Priming}.
+   *
+   * @return number of clients that got a response
+   */
+  public int prime(final HttpRequest request) {
+    List<CompletableFuture<HttpResponse<Void>>> primed = new ArrayList<>(2);
+    primed.add(primary.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    if (hedge != primary) {
+      primed.add(hedge.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    }
+    int answered = 0;
+    for (CompletableFuture<HttpResponse<Void>> response : primed) {
+      try {
+        response.join();
+        answered++;
+      } catch (CompletionException e) {
+        // the first invocation connects again
+      }
+    }
+    return answered;
+  }
+
+  /**
+   * @return counters per backend, keyed by host:port, ordered by backend
+   */
+  public Map<String, Backend> getBackends() {
+    return new TreeMap<>(backends);
+  }
+
+  @Override
+  public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> responseBodyHandler)
+    throws IOException, InterruptedException {
+
+    CompletableFuture<HttpResponse<T>> response = sendAsync(request, responseBodyHandler);
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+                                                          final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return sendAsync(request, responseBodyHandler, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+    final HttpRequest request,
+    final HttpResponse.BodyHandler<T> responseBodyHandler,
+    final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+
+    Backend backend = backend(request.uri());
+    if (!backend.circuitBreaker.tryAcquire()) {
+      return CompletableFuture.failedFuture(new CircuitBreaker.OpenException(backend.peer));
+    }
+    backend.requests.increment();
+    backend.hedgeBudget.onRequest();
+    Exchange<T> exchange = new Exchange<>(backend, request, responseBodyHandler, pushPromiseHandler);
+    exchange.send(primary, false);
+    if (IDEMPOTENT_METHODS.contains(request.method())) {
+      exchange.scheduleHedge(backend.hedgeDelayNanos);
+    }
+    return exchange.result;
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("HedgingHttpClient{");
+    String separator = "";
+    for (Map.Entry<String, Backend> entry : getBackends().entrySet()) {
+      builder.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+      separator = ", ";
+    }
+    return builder.append('}').toString();
+  }
+
+  private Backend backend(final URI uri) {
+    String peer = Peers.of(uri);
+    Backend backend = backends.get(peer);
+    return backend != null ? backend : backends.computeIfAbsent(peer, Backend::new);
+  }
+
+  // the settings are the ones of the primary client
+
+  @Override
+  public Optional<CookieHandler> cookieHandler() {
+    return primary.cookieHandler();
+  }
+
+  @Override
+  public Optional<Duration> connectTimeout() {
+    return primary.connectTimeout();
+  }
+
+  @Override
+  public Redirect followRedirects() {
+    return primary.followRedirects();
+  }
+
+  @Override
+  public Optional<ProxySelector> proxy() {
+    return primary.proxy();
+  }
+
+  @Override
+  public SSLContext sslContext() {
+    return primary.sslContext();
+  }
+
+  @Override
+  public SSLParameters sslParameters() {
+    return primary.sslParameters();
+  }
+
+  @Override
+  public Optional<Authenticator> authenticator() {
+    return primary.authenticator();
+  }
+
+  @Override
+  public Version version() {
+    return primary.version();
+  }
+
+  @Override
+  public Optional<Executor> executor() {
+    return primary.executor();
+  }
+
+  public final class Backend {
+
+    private final String peer;
+    private final CircuitBreaker circuitBreaker = circuitBreakerFactory.get();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final RetryBudget hedgeBudget = RetryBudget.of(maxHedgeRatio, 0, hedgeBudgetWindow);
+    private final AtomicLong samples = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private volatile long hedgeDelayNanos = maxDelayNanos;
+
+    private Backend(final String peer) {
+      this.peer = peer;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+      return circuitBreaker;
+    }
+
+    /**
+     * @return latencies of the successful requests, as seen by the caller
+     */
+    public LatencyHistogram getLatencies() {
+      return latencies;
+    }
+
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    /**
+     * @return requests that were sent a second time
+     */
+    public long getHedges() {
+      return hedges.sum();
+    }
+
+    /**
+     * @return requests that were not hedged because the hedge budget of the window was used up
+     */
+    public long getHedgesDenied() {
+      return hedgeBudget.getDenied();
+    }
+
+    /**
+     * @return hedged requests answered by the hedge first
+     */
+    public long getHedgeWins() {
+      return hedgeWins.sum();
+    }
+
+    public Duration getHedgeDelay() {
+      return Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{requests=%d, hedges=%d, hedgesDenied=%d, hedgeWins=%d, hedgeDelay=%.3fms, "
+        + "circuitBreaker=%s}", getRequests(), getHedges(), getHedgesDenied(), getHedgeWins(),
+        hedgeDelayNanos / 1_000_000.0, circuitBreaker);
+    }
+
+    private boolean tryHedge() {
+      if (!hedgeBudget.tryRetry()) {
+        return false;
+      }
+      hedges.increment();
+      return true;
+    }
+
+    private void succeeded(final long nanos) {
+      latencies.recordNanos(nanos);
+      long count = samples.incrementAndGet();
+      if (count >= MIN_SAMPLES && count % DELAY_UPDATE_INTERVAL == 0) {
+        long delay = latencies.getValueAtPercentile(percentile).toNanos();
+        hedgeDelayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, delay));
+      }
+    }
+  }
+
+  /**
+   * One request and its attempts, the first response that is not a failure completes the result.
+   */
+  private final class Exchange<T> {
+
+    private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+    private final List<CompletableFuture<HttpResponse<T>>> attempts = new ArrayList<>(2);
+    private final Backend backend;
+    private final HttpRequest request;
+    private final HttpResponse.BodyHandler<T> bodyHandler;
+    private final HttpResponse.PushPromiseHandler<T> pushPromiseHandler;
+    private final long start = System.nanoTime();
+    private Future<?> hedgeTimer;
+    private int pending;
+    private boolean reported;
+
+    private Exchange(final Backend backend, final HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler,
+                     final HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+      this.backend = backend;
+      this.request = request;
+      this.bodyHandler = bodyHandler;
+      this.pushPromiseHandler = pushPromiseHandler;
+      // a caller that gives up, e.g. with orTimeout, cancels every attempt and counts as a failure
+      result.whenComplete((response, e) -> {
+        cancelAttempts();
+        synchronized (this) {
+          if (reported) {
+            return;
+          }
+          reported = true;
+        }
+        backend.circuitBreaker.onFailure();
+      });
+    }
+
+    private void send(final HttpClient client, final boolean isHedge) {
+      synchronized (this) {
+        if (result.isDone()) {
+          return;
+        }
+        pending++;
+      }
+      CompletableFuture<HttpResponse<T>> attempt = pushPromiseHandler == null
+        ? client.sendAsync(request, bodyHandler)
+        : client.sendAsync(request, bodyHandler, pushPromiseHandler);
+      synchronized (this) {
+        attempts.add(attempt);
+      }
+      attempt.whenComplete((response, e) -> completed(attempt, response, e, isHedge));
+      if (result.isDone() && !attempt.isDone()) {
+        attempt.cancel(true);
+      }
+    }
+
+    private synchronized void scheduleHedge(final long delayNanos) {
+      if (result.isDone()) {
+        return;
+      }
+      hedgeTimer = scheduler.schedule(() -> {
+        if (!result.isDone() && backend.tryHedge()) {
+          send(hedge, true);
+        }
+      }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void completed(final CompletableFuture<HttpResponse<T>> attempt, final HttpResponse<T> response,
+                           final Throwable e, final boolean isHedge) {
+      boolean failed = e != null || response.statusCode() >= 500;
+      synchronized (this) {
+        pending--;
+        // a failed attempt waits for the other one, if there is another one in flight
+        if (reported || result.isDone() || (failed && pending > 0)) {
+          return;
+        }
+        reported = true;
+      }
+      if (failed) {
+        backend.circuitBreaker.onFailure();
+      } else {
+        backend.circuitBreaker.onSuccess();
+        backend.succeeded(System.nanoTime() - start);
+        if (isHedge) {
+          backend.hedgeWins.increment();
+        }
+      }
+      if (e != null) {
+        result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+      } else {
+        result.complete(response);
+      }
+    }
+
+    private void cancelAttempts() {
+      List<CompletableFuture<HttpResponse<T>>> losers;
+      synchronized (this) {
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        losers = new ArrayList<>(attempts);
+      }
+      for (CompletableFuture<HttpResponse<T>> attempt : losers) {
+        if (!attempt.isDone()) {
+          attempt.cancel(true);
+        }
+      }
+    }
+  }
+
+  public static final class Builder {
+
+    private HttpClient primary;
+    private HttpClient hedge;
+    private double percentile = 95;
+    private Duration minHedgeDelay = Duration.ofMillis(10);
+    private Duration maxHedgeDelay = Duration.ofSeconds(1);
+    private double maxHedgeRatio = 0.1;
+    private Duration hedgeBudgetWindow = Duration.ofSeconds(10);
+    private Supplier<CircuitBreaker> circuitBreakerFactory = () -> CircuitBreaker.builder().build();
+
+    private Builder() {
+    }
+
+    /**
+     * @param primary Client of the first attempt of every request
+     * @return this builder
+     */
+    public Builder primary(final HttpClient primary) {
+      this.primary = primary;
+      return this;
+    }
+
+    /**
+     * @param hedge Client of the hedged attempts, with the same SSLContext as the primary but its own connections;
+     *              the primary client if not set
+     * @return this builder
+     */
+    public Builder hedge(final HttpClient hedge) {
+      this.hedge = hedge;
+      return this;
+    }
+
+    /**
+     * @param percentile Percentile of the backend latencies after which a request is hedged, 95 by default
+     * @return this builder
+     */
+    public Builder hedgeAfterPercentile(final double percentile) {
+      if (percentile <= 0 || percentile >= 100) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      }
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * @param minHedgeDelay Lower bound of the hedge delay, so fast backends are not hedged on jitter
+     * @return this builder
+     */
+    public Builder minHedgeDelay(final Duration minHedgeDelay) {
+      this.minHedgeDelay = minHedgeDelay;
+      return this;
+    }
+
+    /**
+     * @param maxHedgeDelay Upper bound of the hedge delay, and the delay until enough latencies were recorded
+     * @return this builder
+     */
+    public Builder maxHedgeDelay(final Duration maxHedgeDelay) {
+      this.maxHedgeDelay = maxHedgeDelay;
+      return this;
+    }
+
+    /**
+     * @param maxHedgeRatio Maximum share of the requests to a backend that are hedged, 0.1 by default
+     * @return this builder
+     */
+    public Builder maxHedgeRatio(final double maxHedgeRatio) {
+      if (maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+        throw new IllegalArgumentException("maxHedgeRatio must be between 0 and 1");
+      }
+      this.maxHedgeRatio = maxHedgeRatio;
+      return this;
+    }
+
+    /**
+     * @param hedgeBudgetWindow Time over which the requests and hedges of a backend are counted for maxHedgeRatio,
+     *                          10 seconds by default
+     * @return this builder
+     */
+    public Builder hedgeBudgetWindow(final Duration hedgeBudgetWindow) {
+      if (hedgeBudgetWindow.isNegative() || hedgeBudgetWindow.isZero()) {
+        throw new IllegalArgumentException("hedgeBudgetWindow must be positive");
+      }
+      this.hedgeBudgetWindow = hedgeBudgetWindow;
+      return this;
+    }
+
+    /**
+     * @param circuitBreakerFactory Creates the circuit breaker of each backend
+     * @return this builder
+     */
+    public Builder circuitBreaker(final Supplier<CircuitBreaker> circuitBreakerFactory) {
+      this.circuitBreakerFactory = circuitBreakerFactory;
+      return this;
+    }
+
+    public HedgingHttpClient build() {
+      if (primary == null) {
+        throw new IllegalStateException("HedgingHttpClient needs a primary client");
+      }
+      if (minHedgeDelay.compareTo(maxHedgeDelay) > 0) {
+        throw new IllegalStateException("minHedgeDelay must not be longer than maxHedgeDelay");
+      }
+      return new HedgingHttpClient(this);
+    }
+  }
+}
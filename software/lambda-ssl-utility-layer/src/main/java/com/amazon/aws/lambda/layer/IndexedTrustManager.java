@@ -0,0 +1,411 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trust manager for truststores with many anchors, e.g. an enterprise CA bundle, that gives the same results as the
+ * default PKIX trust manager with less work per full handshake:
+ * <ul>
+ *   <li>the anchors are indexed by subject and subject key identifier, so a server chain is validated by a default
+ *   trust manager over the few anchors that can have issued it, found through the issuer and authority key
+ *   identifier of its certificates, instead of over the whole bundle</li>
+ *   <li>validated server chains are remembered, keyed by the SHA-256 of the chain from the leaf together with the
+ *   auth type, the peer host and the endpoint identification algorithm, until the first certificate of the chain
+ *   expires or the TTL passes, whichever comes first; a remembered chain is accepted without a signature check</li>
+ * </ul>
+ * A chain without a candidate anchor, or one the candidates reject, is validated by a default trust manager over all
+ * anchors, so failures carry the same exceptions as without the index; that manager is only built when it is needed.
+ * Failures are never remembered. Client certificates are checked by the default manager over all anchors as well.
+ */
+public final class IndexedTrustManager extends X509ExtendedTrustManager {
+
+  private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+  private static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+  // candidate sets come from the chains of the backends, a few per truststore
+  private static final int MAX_CANDIDATE_MANAGERS = 64;
+
+  private final KeyStore trustStore;
+  private final X509Certificate[] anchors;
+  private final Set<X509Certificate> anchorSet;
+  private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+  private final Map<ByteBuffer, List<X509Certificate>> byKeyIdentifier = new HashMap<>();
+  private final ConcurrentMap<Set<X509Certificate>, X509ExtendedTrustManager> candidateManagers =
+    new ConcurrentHashMap<>();
+  private volatile X509ExtendedTrustManager allAnchors;
+  private final int maxCachedChains;
+  private final long ttlMillis;
+  // guarded by itself, in access order for the LRU eviction
+  private final LinkedHashMap<ByteBuffer, Long> validChains = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder validations = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+
+  private IndexedTrustManager(final Builder builder) throws GeneralSecurityException {
+    this.trustStore = builder.trustStore;
+    this.maxCachedChains = builder.maxCachedChains;
+    this.ttlMillis = builder.ttl.toMillis();
+    Set<X509Certificate> certificates = new LinkedHashSet<>();
+    // like the default trust manager: trusted certificate entries and the certificates of key entries
+    for (String alias : Collections.list(trustStore.aliases())) {
+      Certificate certificate = trustStore.getCertificate(alias);
+      if (certificate instanceof X509Certificate) {
+        certificates.add((X509Certificate) certificate);
+      }
+    }
+    for (X509Certificate anchor : certificates) {
+      bySubject.computeIfAbsent(anchor.getSubjectX500Principal(), subject -> new ArrayList<>(1)).add(anchor);
+      byte[] keyIdentifier =
+        Der.keyIdentifier(anchor.getExtensionValue(SUBJECT_KEY_IDENTIFIER), Der.OCTET_STRING);
+      if (keyIdentifier != null) {
+        byKeyIdentifier.computeIfAbsent(ByteBuffer.wrap(keyIdentifier), key -> new ArrayList<>(1)).add(anchor);
+      }
+    }
+    this.anchors = certificates.toArray(new X509Certificate[0]);
+    this.anchorSet = new HashSet<>(certificates);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int getAnchors() {
+    return anchors.length;
+  }
+
+  /**
+   * @return server chains accepted because they were validated before
+   */
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  /**
+   * @return server chains that were validated, over the candidate anchors or all of them
+   */
+  public long getValidations() {
+    return validations.sum();
+  }
+
+  /**
+   * @return server chains that were validated over all anchors, because no candidate anchor was found or the
+   * candidates rejected them
+   */
+  public long getFallbacks() {
+    return fallbacks.sum();
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    checkServerTrusted(chain, authType, engine != null ? engine.getHandshakeSession() : null,
+      engine != null ? engine.getSSLParameters() : null,
+      manager -> manager.checkServerTrusted(chain, authType, engine));
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    SSLSocket sslSocket = socket instanceof SSLSocket ? (SSLSocket) socket : null;
+    checkServerTrusted(chain, authType, sslSocket != null ? sslSocket.getHandshakeSession() : null,
+      sslSocket != null ? sslSocket.getSSLParameters() : null,
+      manager -> manager.checkServerTrusted(chain, authType, socket));
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    checkServerTrusted(chain, authType, null, null, manager -> manager.checkServerTrusted(chain, authType));
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    allAnchors().checkClientTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    allAnchors().checkClientTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    allAnchors().checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return anchors.clone();
+  }
+
+  @Override
+  public String toString() {
+    int cached;
+    synchronized (validChains) {
+      cached = validChains.size();
+    }
+    return String.format("IndexedTrustManager{anchors=%d, cachedChains=%d, cacheHits=%d, validations=%d, "
+      + "fallbacks=%d}", anchors.length, cached, getCacheHits(), getValidations(), getFallbacks());
+  }
+
+  /**
+   * Accepts a remembered chain, otherwise validates it over the candidate anchors and then over all anchors.
+   *
+   * @param check Calls the overload of the default trust manager that matches the one called on this manager
+   */
+  private void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLSession session,
+                                  final SSLParameters parameters, final ServerCheck check)
+    throws CertificateException {
+    ByteBuffer key = key(chain, authType, session, parameters);
+    if (isValidated(key)) {
+      return;
+    }
+    validations.increment();
+    X509ExtendedTrustManager candidates = candidates(chain);
+    if (candidates != null) {
+      try {
+        check.check(candidates);
+        validated(key, chain);
+        return;
+      } catch (CertificateException e) {
+        // validated again over all anchors below, which gives the result of the default trust manager
+      }
+    }
+    fallbacks.increment();
+    check.check(allAnchors());
+    validated(key, chain);
+  }
+
+  /**
+   * @return the SHA-256 of the chain and of everything else the result of the default trust manager depends on
+   */
+  private ByteBuffer key(final X509Certificate[] chain, final String authType, final SSLSession session,
+                         final SSLParameters parameters) throws CertificateException {
+    if (maxCachedChains == 0 || chain == null) {
+      return null;
+    }
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new CertificateException(e);
+    }
+    for (X509Certificate certificate : chain) {
+      digest.update(certificate.getEncoded());
+    }
+    update(digest, authType);
+    update(digest, session != null ? session.getPeerHost() : null);
+    update(digest, parameters != null ? parameters.getEndpointIdentificationAlgorithm() : null);
+    return ByteBuffer.wrap(digest.digest());
+  }
+
+  private static void update(final MessageDigest digest, final String value) {
+    // 0 separates the values, and stands for a missing one
+    digest.update((byte) 0);
+    if (value != null) {
+      digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private boolean isValidated(final ByteBuffer key) {
+    if (key == null) {
+      return false;
+    }
+    Long validUntil;
+    synchronized (validChains) {
+      validUntil = validChains.get(key);
+      if (validUntil != null && System.currentTimeMillis() >= validUntil) {
+        validChains.remove(key);
+        validUntil = null;
+      }
+    }
+    if (validUntil == null) {
+      return false;
+    }
+    cacheHits.increment();
+    return true;
+  }
+
+  private void validated(final ByteBuffer key, final X509Certificate[] chain) {
+    if (key == null) {
+      return;
+    }
+    long validUntil = System.currentTimeMillis() + ttlMillis;
+    for (X509Certificate certificate : chain) {
+      validUntil = Math.min(validUntil, certificate.getNotAfter().getTime());
+    }
+    synchronized (validChains) {
+      validChains.put(key, validUntil);
+      if (validChains.size() > maxCachedChains) {
+        validChains.remove(validChains.keySet().iterator().next());
+      }
+    }
+  }
+
+  /**
+   * @return a default trust manager over the anchors that can have issued a certificate of the chain, or that are
+   * part of it, null if there are none
+   */
+  private X509ExtendedTrustManager candidates(final X509Certificate[] chain) throws CertificateException {
+    if (chain == null) {
+      return null;
+    }
+    Set<X509Certificate> candidates = new LinkedHashSet<>();
+    for (X509Certificate certificate : chain) {
+      if (anchorSet.contains(certificate)) {
+        candidates.add(certificate);
+      }
+      byte[] keyIdentifier = Der.keyIdentifier(
+        certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER), Der.CONTEXT_0);
+      if (keyIdentifier != null) {
+        candidates.addAll(byKeyIdentifier.getOrDefault(ByteBuffer.wrap(keyIdentifier), List.of()));
+      }
+      candidates.addAll(bySubject.getOrDefault(certificate.getIssuerX500Principal(), List.of()));
+    }
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    X509ExtendedTrustManager manager = candidateManagers.get(candidates);
+    if (manager == null) {
+      try {
+        manager = newTrustManager(candidates);
+      } catch (GeneralSecurityException | IOException e) {
+        throw new CertificateException(e);
+      }
+      if (candidateManagers.size() < MAX_CANDIDATE_MANAGERS) {
+        candidateManagers.putIfAbsent(candidates, manager);
+      }
+    }
+    return manager;
+  }
+
+  private X509ExtendedTrustManager allAnchors() throws CertificateException {
+    X509ExtendedTrustManager manager = allAnchors;
+    if (manager == null) {
+      synchronized (this) {
+        manager = allAnchors;
+        if (manager == null) {
+          try {
+            manager = newTrustManager(trustStore);
+          } catch (GeneralSecurityException e) {
+            throw new CertificateException(e);
+          }
+          allAnchors = manager;
+        }
+      }
+    }
+    return manager;
+  }
+
+  private static X509ExtendedTrustManager newTrustManager(final Set<X509Certificate> anchors)
+    throws GeneralSecurityException, IOException {
+    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    keyStore.load(null, null);
+    int i = 0;
+    for (X509Certificate anchor : anchors) {
+      keyStore.setCertificateEntry("anchor-" + i++, anchor);
+    }
+    return newTrustManager(keyStore);
+  }
+
+  private static X509ExtendedTrustManager newTrustManager(final KeyStore keyStore) throws GeneralSecurityException {
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(keyStore);
+    for (TrustManager trustManager : tmf.getTrustManagers()) {
+      if (trustManager instanceof X509ExtendedTrustManager) {
+        return (X509ExtendedTrustManager) trustManager;
+      }
+    }
+    throw new GeneralSecurityException("No X509ExtendedTrustManager found");
+  }
+
+  @FunctionalInterface
+  private interface ServerCheck {
+    void check(X509ExtendedTrustManager manager) throws CertificateException;
+  }
+
+  public static final class Builder {
+
+    private KeyStore trustStore;
+    private int maxCachedChains = 256;
+    private Duration ttl = Duration.ofHours(1);
+
+    private Builder() {
+    }
+
+    /**
+     * @param trustStore Loaded truststore, its certificates are the anchors
+     * @return this builder
+     */
+    public Builder trustStore(final KeyStore trustStore) {
+      this.trustStore = trustStore;
+      return this;
+    }
+
+    /**
+     * @param maxCachedChains Validated server chains that are remembered, 256 by default; 0 validates every chain
+     * @return this builder
+     */
+    public Builder maxCachedChains(final int maxCachedChains) {
+      if (maxCachedChains < 0) {
+        throw new IllegalArgumentException("maxCachedChains must not be negative");
+      }
+      this.maxCachedChains = maxCachedChains;
+      return this;
+    }
+
+    /**
+     * @param ttl Time a validated chain is remembered at most, 1 hour by default, less if a certificate of the chain
+     *            expires earlier
+     * @return this builder
+     */
+    public Builder ttl(final Duration ttl) {
+      if (ttl.isNegative()) {
+        throw new IllegalArgumentException("ttl must not be negative");
+      }
+      this.ttl = ttl;
+      return this;
+    }
+
+    public IndexedTrustManager build() throws GeneralSecurityException {
+      if (trustStore == null) {
+        throw new IllegalStateException("IndexedTrustManager needs a truststore");
+      }
+      return new IndexedTrustManager(this);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the steps of a function init as a dependency graph on a bounded thread pool, so independent steps such as the
+ * Parameter Store lookup and the keystore file reads overlap, and a step waits only for the steps it really needs.
+ * <p>
+ * Every stage records when its dependencies were done, when it started and how long it ran. {@link #toString()} shows
+ * the critical path, the chain of stages that determined the total init time.
+ */
+public final class InitPipeline implements AutoCloseable {
+
+  private final ExecutorService executor;
+  private final long createdNanos = System.nanoTime();
+  private final Map<CompletableFuture<?>, Stage> stages = new ConcurrentHashMap<>();
+
+  /**
+   * @param threads Maximum number of stages running at the same time
+   */
+  public InitPipeline(final int threads) {
+    AtomicInteger count = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "init-pipeline-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param name         Stage name for the timings
+   * @param task         Step to run; values of the dependencies are available through join() without blocking
+   * @param dependencies Stages that have to complete before this one starts
+   * @return result of the step, failed if the step or one of its dependencies failed
+   */
+  public <T> CompletableFuture<T> stage(final String name, final Task<T> task,
+                                        final CompletableFuture<?>... dependencies) {
+    List<Stage> upstream = new ArrayList<>();
+    for (CompletableFuture<?> dependency : dependencies) {
+      upstream.add(stages.get(dependency));
+    }
+    Stage stage = new Stage(name, upstream);
+
+    CompletableFuture<T> result = CompletableFuture.allOf(dependencies)
+      .thenApplyAsync(ignored -> stage.run(task), executor);
+    stages.put(result, stage);
+    return result;
+  }
+
+  /**
+   * @return the value of a stage, rethrowing its checked exception as it was thrown
+   */
+  public <T> T await(final CompletableFuture<T> stage) throws GeneralSecurityException, IOException {
+    return Futures.await(stage);
+  }
+
+  /**
+   * @return finished stages ordered by start time
+   */
+  public List<Stage> getStages() {
+    return stages.values().stream()
+      .filter(Stage::isDone)
+      .sorted(Comparator.comparingLong(stage -> stage.startNanos))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * @return the stage that finished last, preceded by the dependency that finished last, and so on
+   */
+  public List<Stage> getCriticalPath() {
+    List<Stage> path = new ArrayList<>();
+    Stage stage = last(getStages());
+    while (stage != null) {
+      path.add(0, stage);
+      stage = last(stage.dependencies);
+    }
+    return path;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    List<Stage> critical = getCriticalPath();
+    long total = critical.isEmpty() ? 0 : critical.get(critical.size() - 1).endNanos - createdNanos;
+    return String.format("InitPipeline{total=%dms, criticalPath=%s, stages=%s}",
+      Duration.ofNanos(total).toMillis(), critical, getStages());
+  }
+
+  private static Stage last(final List<Stage> stages) {
+    return stages.stream()
+      .filter(stage -> stage != null && stage.isDone())
+      .max(Comparator.comparingLong(stage -> stage.endNanos))
+      .orElse(null);
+  }
+
+  @FunctionalInterface
+  public interface Task<T> {
+    T run() throws Exception;
+  }
+
+  /**
+   * Timings of one stage, relative to the creation of the pipeline.
+   */
+  public final class Stage {
+
+    private final String name;
+    private final List<Stage> dependencies;
+    private final long submittedNanos = System.nanoTime();
+    private volatile long readyNanos;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    private Stage(final String name, final List<Stage> dependencies) {
+      this.name = name;
+      this.dependencies = dependencies;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return time from pipeline creation until the stage started running
+     */
+    public Duration getStart() {
+      return Duration.ofNanos(startNanos - createdNanos);
+    }
+
+    /**
+     * @return time the stage waited for a free thread after its dependencies were done
+     */
+    public Duration getQueued() {
+      return Duration.ofNanos(startNanos - readyNanos);
+    }
+
+    public Duration getDuration() {
+      return Duration.ofNanos(endNanos - startNanos);
+    }
+
+    private boolean isDone() {
+      return endNanos != 0;
+    }
+
+    private <T> T run(final Task<T> task) {
+      readyNanos = dependencies.stream()
+        .mapToLong(dependency -> dependency == null ? submittedNanos : dependency.endNanos)
+        .reduce(submittedNanos, Math::max);
+      startNanos = System.nanoTime();
+      try {
+        return task.run();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      } finally {
+        endNanos = System.nanoTime();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s@%d+%dms", name, getStart().toMillis(), getDuration().toMillis());
+    }
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escapes UTF-8 bytes for the inside of a JSON string while they pass through. Multi-byte UTF-8 sequences never
+ * contain bytes below 0x80, so escaping byte by byte is safe and needs no decoding.
+ */
+final class JsonStringOutputStream extends FilterOutputStream {
+
+  private static final byte[] QUOTE = {'\\', '"'};
+  private static final byte[] BACKSLASH = {'\\', '\\'};
+  private static final byte[] NEWLINE = {'\\', 'n'};
+  private static final byte[] RETURN = {'\\', 'r'};
+  private static final byte[] TAB = {'\\', 't'};
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  // unicode escape of the other control characters, the two last hex digits are filled in per character
+  private final byte[] unicode = {'\\', 'u', '0', '0', '0', '0'};
+
+  JsonStringOutputStream(final OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    byte[] escaped = escape((byte) b);
+    if (escaped == null) {
+      out.write(b);
+    } else {
+      out.write(escaped);
+    }
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    int run = off;
+    for (int i = off; i < off + len; i++) {
+      byte[] escaped = escape(b[i]);
+      if (escaped != null) {
+        out.write(b, run, i - run);
+        out.write(escaped);
+        run = i + 1;
+      }
+    }
+    out.write(b, run, off + len - run);
+  }
+
+  /**
+   * @return the escape sequence of the byte, valid until the next call, or null if it can be written as is
+   */
+  private byte[] escape(final byte b) {
+    switch (b) {
+      case '"':
+        return QUOTE;
+      case '\\':
+        return BACKSLASH;
+      case '\n':
+        return NEWLINE;
+      case '\r':
+        return RETURN;
+      case '\t':
+        return TAB;
+      default:
+        if (b < 0 || b >= 0x20) {
+          return null;
+        }
+        unicode[4] = HEX[b >> 4];
+        unicode[5] = HEX[b & 0xf];
+        return unicode;
+    }
+  }
+}
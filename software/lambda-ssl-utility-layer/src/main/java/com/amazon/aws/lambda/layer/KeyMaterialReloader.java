@@ -0,0 +1,155 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLSessionContext;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Periodically checks {@link Reloadable} key and trust managers for changes on a background daemon thread.
+ * <p>
+ * Every tick does a stat check of the watched files. An optional version supplier, e.g. the versions of the
+ * /DEV/APP/CLIENT parameters in Parameter Store, forces a full rebuild when it reports a new value, because a rotated
+ * password does not change the files. After a swap the cached client sessions are invalidated, so the next connection
+ * performs a full handshake with the new material instead of resuming a session negotiated with the old one.
+ * Failed reloads keep the previous material in place and are logged with their cause to the log of the builder,
+ * e.g. the Lambda logger of the function, which is required so the lines follow the log settings of the function.
+ */
+public final class KeyMaterialReloader implements AutoCloseable {
+
+  private final List<Reloadable> reloadables;
+  private final Supplier<?> version;
+  private final List<SSLSessionContext> sessionContexts;
+  private final Consumer<String> log;
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder reloads = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private volatile Object lastVersion;
+
+  private KeyMaterialReloader(final Builder builder) {
+    this.reloadables = List.copyOf(builder.reloadables);
+    this.version = builder.version;
+    this.sessionContexts = List.copyOf(builder.sessionContexts);
+    this.log = builder.log;
+    this.lastVersion = version.get();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "key-material-reloader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = builder.interval.toMillis();
+    scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Runs one change check on the calling thread. Called by the background thread, exposed for callers that want to
+   * trigger a check explicitly.
+   */
+  public void check() {
+    try {
+      Object currentVersion = version.get();
+      boolean force = !Objects.equals(currentVersion, lastVersion);
+      boolean changed = false;
+      for (Reloadable reloadable : reloadables) {
+        changed |= reloadable.reload(force);
+      }
+      lastVersion = currentVersion;
+      if (changed) {
+        reloads.increment();
+        invalidateSessions();
+      }
+    } catch (Exception e) {
+      failures.increment();
+      log.accept("Reloading key material failed, keeping the previous material: " + e
+        + (e.getCause() == null ? "" : ", caused by " + e.getCause()));
+    }
+  }
+
+  public long getReloadCount() {
+    return reloads.sum();
+  }
+
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  private void invalidateSessions() {
+    sessionContexts.forEach(SessionResumption::invalidate);
+  }
+
+  public static final class Builder {
+
+    private final List<Reloadable> reloadables = new ArrayList<>();
+    private final List<SSLSessionContext> sessionContexts = new ArrayList<>();
+    private Supplier<?> version = () -> null;
+    private Duration interval = Duration.ofMinutes(1);
+    private Consumer<String> log;
+
+    private Builder() {
+    }
+
+    public Builder watch(final Reloadable... reloadables) {
+      Collections.addAll(this.reloadables, reloadables);
+      return this;
+    }
+
+    /**
+     * @param version Supplies a cheap version of the secrets the material depends on; a new value forces a rebuild
+     * @return this builder
+     */
+    public Builder version(final Supplier<?> version) {
+      this.version = version;
+      return this;
+    }
+
+    /**
+     * @param sessionContext Client session cache to invalidate after new material was swapped in
+     * @return this builder
+     */
+    public Builder invalidate(final SSLSessionContext sessionContext) {
+      this.sessionContexts.add(sessionContext);
+      return this;
+    }
+
+    public Builder interval(final Duration interval) {
+      this.interval = interval;
+      return this;
+    }
+
+    /**
+     * @param log Receives a line with the cause of every failed reload, e.g. LambdaRuntime.getLogger()::log
+     * @return this builder
+     */
+    public Builder log(final Consumer<String> log) {
+      this.log = Objects.requireNonNull(log);
+      return this;
+    }
+
+    public KeyMaterialReloader start() {
+      if (log == null) {
+        throw new IllegalStateException("KeyMaterialReloader needs a log for failed reloads");
+      }
+      return new KeyMaterialReloader(this);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Key algorithm of the client and backend certificates, as created by scripts/1-create-certificates.sh with the
+ * KEY_PROFILE environment variable.
+ * <p>
+ * Most of the client CPU time of a mutual handshake goes into the signature of the CertificateVerify message and the
+ * verification of the backend chain. ECDSA and Ed25519 keys make both considerably cheaper than RSA-2048. Ed25519
+ * certificates need Java 15 or later on both ends of the connection.
+ */
+public enum KeyProfile {
+
+  RSA("rsa", "_RSA_",
+    "rsa_pss_rsae_sha256", "rsa_pkcs1_sha256", "rsa_pss_rsae_sha384", "rsa_pkcs1_sha384"),
+  ECDSA_P256("ecdsa-p256", "_ECDSA_",
+    "ecdsa_secp256r1_sha256"),
+  ECDSA_P384("ecdsa-p384", "_ECDSA_",
+    "ecdsa_secp384r1_sha384"),
+  ED25519("ed25519", "_ECDSA_",
+    "ed25519");
+
+  private final String name;
+  private final String authentication;
+  private final List<String> signatureSchemes;
+
+  KeyProfile(final String name, final String authentication, final String... signatureSchemes) {
+    this.name = name;
+    this.authentication = authentication;
+    this.signatureSchemes = List.of(signatureSchemes);
+  }
+
+  /**
+   * @param name Profile name as used by KEY_PROFILE, e.g. ecdsa-p256
+   * @return the matching profile
+   */
+  public static KeyProfile of(final String name) {
+    return Arrays.stream(values())
+      .filter(profile -> profile.name.equalsIgnoreCase(name))
+      .findFirst()
+      .orElseThrow(() -> new IllegalArgumentException(String.format("Unknown key profile %s, expected one of %s",
+        name, Arrays.stream(values()).map(KeyProfile::getName).collect(Collectors.joining(", ")))));
+  }
+
+  /**
+   * @return the profile named by the KEY_PROFILE environment variable, if set
+   */
+  public static Optional<KeyProfile> fromEnvironment() {
+    return Optional.ofNullable(System.getenv("KEY_PROFILE")).map(KeyProfile::of);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return signature schemes that sign with keys of this profile, in order of preference
+   */
+  public List<String> getSignatureSchemes() {
+    return signatureSchemes;
+  }
+
+  /**
+   * @param cipherSuite Cipher suite name
+   * @return true if the suite can be negotiated with a backend certificate of this profile; TLS 1.3 suites always can
+   */
+  boolean isCompatible(final String cipherSuite) {
+    return !cipherSuite.contains("_WITH_") || cipherSuite.contains(authentication);
+  }
+}
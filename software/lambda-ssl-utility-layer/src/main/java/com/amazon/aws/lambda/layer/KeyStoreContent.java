@@ -0,0 +1,146 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Base64;
+
+/**
+ * Raw bytes of a keystore, read without knowing its password. Reading the content and parsing it with the password
+ * are separate steps, so the read can overlap with the password lookup.
+ * <p>
+ * The content is a JKS or PKCS12 keystore, or PEM: a certificate chain with an unencrypted PKCS#8 private key for key
+ * material, certificates only for trust material. It comes from a file in a layer, or straight from a secret store,
+ * e.g. a Parameter Store or Secrets Manager value holding the base64 of a keystore, so the certificates do not need a
+ * layer of their own and are never written to disk.
+ */
+public final class KeyStoreContent {
+
+  private final String name;
+  private final Path path;
+  private final long size;
+  private final long lastModified;
+  private final byte[] content;
+  private final boolean pem;
+
+  private KeyStoreContent(final String name, final Path path, final long lastModified, final byte[] content) {
+    this.name = name;
+    this.path = path;
+    this.size = content.length;
+    this.lastModified = lastModified;
+    this.content = content;
+    this.pem = PemKeyStore.isPem(content, 0, content.length);
+  }
+
+  /**
+   * @param pathToKeyStore Path to the JKS, PKCS12 or PEM file (/opt/xyz.jks)
+   * @return the current content of the file
+   */
+  public static KeyStoreContent read(final String pathToKeyStore) throws IOException {
+    Path path = path(pathToKeyStore);
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return new KeyStoreContent(
+      path.toString(),
+      path,
+      attributes.lastModifiedTime().toMillis(),
+      Files.readAllBytes(path));
+  }
+
+  /**
+   * @return the absolute path whose string is the name of the content read from the file
+   */
+  static Path path(final String pathToKeyStore) {
+    return Paths.get(pathToKeyStore).toAbsolutePath().normalize();
+  }
+
+  /**
+   * @param name    Name of the source, e.g. the name of the parameter, used in log output and as part of the cache key
+   * @param content JKS, PKCS12 or PEM content, owned by the returned instance afterwards
+   * @return content that was never a file
+   */
+  public static KeyStoreContent of(final String name, final byte[] content) {
+    return new KeyStoreContent(name, null, 0, content);
+  }
+
+  /**
+   * Decodes a secret store payload: PEM is taken as it is, anything else is the base64 of a JKS or PKCS12 keystore,
+   * decoded straight from the buffer. Line breaks in the base64 are allowed.
+   *
+   * @param name    Name of the source, e.g. the name of the parameter, used in log output and as part of the cache key
+   * @param payload PEM or base64 bytes, e.g. StandardCharsets.US_ASCII.encode(parameterValue); consumed by this call
+   * @return decoded content
+   */
+  public static KeyStoreContent decode(final String name, final ByteBuffer payload) {
+    // enough to look past leading whitespace for the start of a PEM block
+    byte[] head = new byte[Math.min(64, payload.remaining())];
+    payload.duplicate().get(head);
+
+    byte[] bytes;
+    if (PemKeyStore.isPem(head, 0, head.length)) {
+      bytes = new byte[payload.remaining()];
+      payload.get(bytes);
+    } else {
+      ByteBuffer decoded = Base64.getMimeDecoder().decode(payload);
+      bytes = new byte[decoded.remaining()];
+      decoded.get(bytes);
+    }
+    return of(name, bytes);
+  }
+
+  /**
+   * Parses the content. PEM content becomes an in-memory PKCS12 keystore, its private key is stored with the
+   * password.
+   *
+   * @param password Password of the keystore
+   * @return the loaded keystore
+   */
+  public KeyStore toKeyStore(final String password) throws GeneralSecurityException, IOException {
+    if (pem) {
+      return PemKeyStore.load(content, password.toCharArray());
+    }
+    // the JKS provider detects and reads PKCS12 content as well
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    keyStore.load(new ByteArrayInputStream(content), password.toCharArray());
+    return keyStore;
+  }
+
+  /**
+   * @return file path or name of the source
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return path of the file, or null if the content was not read from a file
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getLastModified() {
+    return lastModified;
+  }
+
+  byte[] getContent() {
+    return content;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s (%d bytes, modified %d)", name, size, lastModified);
+  }
+}
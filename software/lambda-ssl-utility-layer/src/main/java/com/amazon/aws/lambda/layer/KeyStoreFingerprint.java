@@ -0,0 +1,106 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Identifies a keystore by the file path or source name, size, modification time and SHA-256 digests of its content
+ * and of its password. The {@link KeyStoreContent} is kept so the keystore can be parsed without reading it a second
+ * time.
+ */
+final class KeyStoreFingerprint {
+
+  private final String name;
+  private final long size;
+  private final long lastModified;
+  private final byte[] digest;
+  private final byte[] passwordDigest;
+  private final KeyStoreContent content;
+
+  private KeyStoreFingerprint(final String name, final long size, final long lastModified, final byte[] digest,
+                              final byte[] passwordDigest, final KeyStoreContent content) {
+    this.name = name;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.digest = digest;
+    this.passwordDigest = passwordDigest;
+    this.content = content;
+  }
+
+  /**
+   * @param keyStore Content of the JKS, PKCS12 or PEM keystore
+   * @param password Password of the store, digested as well so different passwords never share an entry
+   * @return fingerprint of the content
+   */
+  static KeyStoreFingerprint of(final KeyStoreContent keyStore, final String password)
+    throws NoSuchAlgorithmException {
+
+    return new KeyStoreFingerprint(
+      keyStore.getName(),
+      keyStore.getSize(),
+      keyStore.getLastModified(),
+      MessageDigest.getInstance("SHA-256").digest(keyStore.getContent()),
+      digest(password),
+      keyStore
+    );
+  }
+
+  String getName() {
+    return name;
+  }
+
+  KeyStoreContent getContent() {
+    return content;
+  }
+
+  /**
+   * The stat check of {@link FileStamp}: a file whose size and modification time are unchanged is taken as unchanged,
+   * without reading and digesting it again.
+   *
+   * @param password Password the keystore is looked up with
+   * @return true if the keystore was read from a file that still has the same size and modification time, and the
+   * password is the same
+   */
+  boolean isCurrent(final String password) throws IOException, NoSuchAlgorithmException {
+    return content.getPath() != null
+      && FileStamp.of(content.getPath().toString()).equals(FileStamp.of(content))
+      && MessageDigest.isEqual(passwordDigest, digest(password));
+  }
+
+  private static byte[] digest(final String password) throws NoSuchAlgorithmException {
+    return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof KeyStoreFingerprint)) {
+      return false;
+    }
+    KeyStoreFingerprint that = (KeyStoreFingerprint) o;
+    return size == that.size
+      && lastModified == that.lastModified
+      && name.equals(that.name)
+      && Arrays.equals(digest, that.digest)
+      && Arrays.equals(passwordDigest, that.passwordDigest);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, size, lastModified) * 31 + Arrays.hashCode(digest);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s (%d bytes, modified %d)", name, size, lastModified);
+  }
+}
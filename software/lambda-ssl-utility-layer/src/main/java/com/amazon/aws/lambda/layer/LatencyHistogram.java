@@ -0,0 +1,152 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of HdrHistogram: every power of two of
+ * microseconds is split into 32 buckets, so any recorded value is known within about 3%, from 1 microsecond to
+ * about 12 days, in a fixed 9 KB array.
+ * <p>
+ * Recording is an index computation and a few atomic increments without allocation, cheap enough for every request.
+ * The counts only grow; {@link #changesSince(long[], BucketConsumer)} hands out what was recorded since the previous
+ * call, e.g. once per invocation for Embedded Metric Format. It returns after one read when nothing was recorded, and
+ * otherwise only scans the buckets up to the largest recorded value.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+  private static final long MAX_MICROS = (1L << 40) - 1;
+  private static final int BUCKETS = index(MAX_MICROS) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+  // incremented last, a reader that sees a value counted here also sees its bucket and the max
+  private final LongAdder recorded = new LongAdder();
+
+  /**
+   * @param nanos Latency in nanoseconds, e.g. the difference of two System.nanoTime() values
+   */
+  public void recordNanos(final long nanos) {
+    long micros = Math.min(MAX_MICROS, Math.max(0, nanos / 1000));
+    counts.incrementAndGet(index(micros));
+    max.accumulate(micros);
+    recorded.increment();
+  }
+
+  public void record(final Duration duration) {
+    recordNanos(duration.toNanos());
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  public Duration getMax() {
+    return Duration.ofNanos(max.get() * 1000);
+  }
+
+  /**
+   * @param percentile Percentile between 0 and 100, e.g. 99.9
+   * @return the value below which the given percentage of the recorded values are, zero if nothing was recorded
+   */
+  public Duration getValueAtPercentile(final double percentile) {
+    long count = getCount();
+    if (count == 0) {
+      return Duration.ZERO;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Duration.ofNanos(Math.min(highestEquivalent(i), max.get()) * 1000);
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Reports every bucket whose count grew since the counts in seen, and updates seen.
+   *
+   * @param seen     Counts seen by the previous call, of length {@link #bucketCount()}, initially all zero
+   * @param consumer Receives the value of each changed bucket in microseconds and the number of new values
+   * @return the number of new values
+   */
+  public long changesSince(final long[] seen, final BucketConsumer consumer) {
+    // the last element holds the number of recorded values at the previous call
+    long recordedNow = recorded.sum();
+    if (recordedNow == seen[BUCKETS]) {
+      return 0;
+    }
+    seen[BUCKETS] = recordedNow;
+    int last = index(max.get());
+    long total = 0;
+    for (int i = 0; i <= last; i++) {
+      long count = counts.get(i);
+      long added = count - seen[i];
+      if (added > 0) {
+        seen[i] = count;
+        total += added;
+        consumer.accept(medianEquivalent(i), added);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return the length of the arrays passed to {@link #changesSince(long[], BucketConsumer)}
+   */
+  public static int bucketCount() {
+    return BUCKETS + 1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("{count=%d, p50=%.3fms, p99=%.3fms, p999=%.3fms, max=%.3fms}", getCount(),
+      millis(getValueAtPercentile(50)), millis(getValueAtPercentile(99)), millis(getValueAtPercentile(99.9)),
+      millis(getMax()));
+  }
+
+  private static double millis(final Duration duration) {
+    return duration.toNanos() / 1_000_000.0;
+  }
+
+  private static int index(final long micros) {
+    // values below 64 get a bucket each, above that the 6 highest bits select the bucket
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS);
+    return shift * HALF_SUB_BUCKETS + (int) (micros >>> shift);
+  }
+
+  private static int shift(final int index) {
+    return index < 2 * HALF_SUB_BUCKETS ? 0 : index / HALF_SUB_BUCKETS - 1;
+  }
+
+  private static long lowestEquivalent(final int index) {
+    int shift = shift(index);
+    return (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+  }
+
+  private static long highestEquivalent(final int index) {
+    return lowestEquivalent(index) + (1L << shift(index)) - 1;
+  }
+
+  private static long medianEquivalent(final int index) {
+    return lowestEquivalent(index) + (1L << shift(index)) / 2;
+  }
+
+  @FunctionalInterface
+  public interface BucketConsumer {
+    void accept(long micros, long count);
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.SsmClientBuilder;
+import software.amazon.awssdk.services.ssm.model.GetParametersRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Loads the values of a {@link SecretCache} from Parameter Store, decrypted, with one GetParameters call per 10 names.
+ * <p>
+ * The layer does not contain the AWS SDK; a function that uses this class brings the ssm module itself.
+ */
+public final class ParameterStoreLoader implements SecretCache.Loader {
+
+  // GetParameters takes at most 10 names per call
+  private static final int MAX_NAMES_PER_CALL = 10;
+
+  private final SsmClient ssmClient;
+
+  /**
+   * @param ssmClient Client for Parameter Store, e.g. from {@link #newSsmClient()}
+   */
+  public ParameterStoreLoader(final SsmClient ssmClient) {
+    this.ssmClient = ssmClient;
+  }
+
+  /**
+   * @return a client for Parameter Store in the region of the function, or at the endpoint in the environment variable
+   * SSM_ENDPOINT, e.g. a local Parameter Store stand-in
+   */
+  public static SsmClient newSsmClient() {
+    SsmClientBuilder builder = SsmClient.builder()
+      .region(Region.of(System.getenv("AWS_REGION")));
+    Optional.ofNullable(System.getenv("SSM_ENDPOINT")).map(URI::create).ifPresent(builder::endpointOverride);
+    return builder.build();
+  }
+
+  @Override
+  public Map<String, String> load(final Set<String> names) {
+    Map<String, String> values = new HashMap<>();
+    List<String> batch = new ArrayList<>(names);
+    for (int i = 0; i < batch.size(); i += MAX_NAMES_PER_CALL) {
+      ssmClient.getParameters(GetParametersRequest.builder()
+          .names(batch.subList(i, Math.min(i + MAX_NAMES_PER_CALL, batch.size())))
+          .withDecryption(true)
+          .build())
+        .parameters()
+        .forEach(parameter -> values.put(parameter.name(), parameter.value()));
+    }
+    return values;
+  }
+}
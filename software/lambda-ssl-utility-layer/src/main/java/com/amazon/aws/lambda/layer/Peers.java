@@ -0,0 +1,40 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps request URIs to the host:port of their backend, the key of every per-backend counter of this layer. The
+ * host:port of a URI is built once and shared by all clients, so a request to a known URI allocates nothing for it.
+ */
+final class Peers {
+
+  // request URIs can come from the callers, e.g. the paths of a batch, beyond this host:port is built each time
+  private static final int MAX_URIS = 1024;
+  private static final ConcurrentMap<URI, String> PEERS = new ConcurrentHashMap<>();
+
+  private Peers() {
+  }
+
+  /**
+   * @return host:port of the URI, with the default port of its scheme if it has none
+   */
+  static String of(final URI uri) {
+    String peer = PEERS.get(uri);
+    if (peer == null) {
+      peer = uri.getHost() + ":" + port(uri);
+      if (PEERS.size() < MAX_URIS) {
+        PEERS.putIfAbsent(uri, peer);
+      }
+    }
+    return peer;
+  }
+
+  static int port(final URI uri) {
+    return uri.getPort() != -1 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Builds an in-memory keystore from PEM blocks, working on the bytes as they are: a certificate chain with an
+ * unencrypted PKCS#8 private key becomes a key entry, certificates alone become trusted certificate entries. The
+ * base64 of every block is decoded straight from the byte array, the private key never exists as a String and its
+ * DER encoding is cleared once the key is built. Content with more than one private key, or a key that does not
+ * belong to the first certificate, is rejected instead of failing later in the handshake.
+ */
+final class PemKeyStore {
+
+  static final String KEY_ALIAS = "client";
+
+  private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] KEY_PAIR_PROBE = "key pair check".getBytes(StandardCharsets.US_ASCII);
+
+  private PemKeyStore() {
+  }
+
+  /**
+   * @return true if the content starts with a PEM block, after optional whitespace
+   */
+  static boolean isPem(final byte[] content, final int offset, final int length) {
+    int i = offset;
+    while (i < offset + length && Character.isWhitespace(content[i])) {
+      i++;
+    }
+    return startsWith(content, i, offset + length, BEGIN);
+  }
+
+  static KeyStore load(final byte[] pem, final char[] password) throws GeneralSecurityException {
+    CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+    List<Certificate> chain = new ArrayList<>();
+    byte[] privateKey = null;
+
+    try {
+      int position = 0;
+      int begin;
+      while ((begin = indexOf(pem, BEGIN, position)) >= 0) {
+        int labelEnd = indexOf(pem, DASHES, begin + BEGIN.length);
+        int end = labelEnd < 0 ? -1 : indexOf(pem, END, labelEnd);
+        if (end < 0) {
+          throw new GeneralSecurityException("Unterminated PEM block at byte " + begin);
+        }
+        String label = new String(pem, begin + BEGIN.length, labelEnd - begin - BEGIN.length,
+          StandardCharsets.US_ASCII);
+        int bodyStart = labelEnd + DASHES.length;
+        byte[] der = decode(pem, bodyStart, end - bodyStart);
+
+        switch (label) {
+          case "CERTIFICATE":
+            chain.add(certificateFactory.generateCertificate(new ByteArrayInputStream(der)));
+            break;
+          case "PRIVATE KEY":
+            if (privateKey != null) {
+              Arrays.fill(der, (byte) 0);
+              throw new GeneralSecurityException("More than one private key in PEM content, expected one key with its "
+                + "certificate chain");
+            }
+            privateKey = der;
+            break;
+          case "RSA PRIVATE KEY":
+          case "EC PRIVATE KEY":
+          case "ENCRYPTED PRIVATE KEY":
+            Arrays.fill(der, (byte) 0);
+            throw new GeneralSecurityException(label + " is not supported, convert the key to unencrypted PKCS#8 with "
+              + "openssl pkcs8 -topk8 -nocrypt");
+          default:
+            // parameters and other blocks are not needed for TLS
+            Arrays.fill(der, (byte) 0);
+        }
+        int close = indexOf(pem, DASHES, end + END.length);
+        if (close < 0) {
+          throw new GeneralSecurityException("Unterminated PEM block at byte " + end);
+        }
+        position = close + DASHES.length;
+      }
+
+      if (chain.isEmpty()) {
+        throw new GeneralSecurityException("No certificate in PEM content");
+      }
+
+      KeyStore keyStore = KeyStore.getInstance("PKCS12");
+      try {
+        keyStore.load(null, null);
+      } catch (IOException e) {
+        throw new GeneralSecurityException(e);
+      }
+      if (privateKey == null) {
+        for (int i = 0; i < chain.size(); i++) {
+          keyStore.setCertificateEntry("trusted-" + i, chain.get(i));
+        }
+      } else {
+        PrivateKey key = KeyFactory.getInstance(chain.get(0).getPublicKey().getAlgorithm())
+          .generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+        checkKeyPair(key, chain.get(0));
+        keyStore.setKeyEntry(KEY_ALIAS, key, password, chain.toArray(new Certificate[0]));
+      }
+      return keyStore;
+    } finally {
+      if (privateKey != null) {
+        Arrays.fill(privateKey, (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Checks that the private key belongs to the public key of the certificate: RSA keys by their modulus, other keys by
+   * verifying a signature made with the private key.
+   */
+  private static void checkKeyPair(final PrivateKey privateKey, final Certificate certificate)
+    throws GeneralSecurityException {
+
+    PublicKey publicKey = certificate.getPublicKey();
+    boolean matches;
+    if (privateKey instanceof RSAKey && publicKey instanceof RSAKey) {
+      matches = ((RSAKey) privateKey).getModulus().equals(((RSAKey) publicKey).getModulus());
+    } else {
+      // EdDSA keys name their signature algorithm, EC and DSA keys need a digest
+      String algorithm = privateKey.getAlgorithm();
+      if ("EC".equals(algorithm) || "DSA".equals(algorithm)) {
+        algorithm = "SHA256with" + ("EC".equals(algorithm) ? "ECDSA" : "DSA");
+      }
+      Signature signature = Signature.getInstance(algorithm);
+      signature.initSign(privateKey);
+      signature.update(KEY_PAIR_PROBE);
+      byte[] signed = signature.sign();
+      signature.initVerify(publicKey);
+      signature.update(KEY_PAIR_PROBE);
+      matches = signature.verify(signed);
+    }
+    if (!matches) {
+      String subject = certificate instanceof X509Certificate
+        ? ((X509Certificate) certificate).getSubjectX500Principal().getName() : "the first certificate";
+      throw new GeneralSecurityException("The private key in PEM content does not belong to " + subject
+        + ", the first certificate has to be the one of the key");
+    }
+  }
+
+  private static byte[] decode(final byte[] pem, final int offset, final int length) {
+    // the MIME decoder skips line breaks and whitespace
+    ByteBuffer decoded = Base64.getMimeDecoder().decode(ByteBuffer.wrap(pem, offset, length));
+    byte[] der = new byte[decoded.remaining()];
+    decoded.get(der);
+    Arrays.fill(decoded.array(), (byte) 0);
+    return der;
+  }
+
+  private static int indexOf(final byte[] content, final byte[] pattern, final int from) {
+    for (int i = Math.max(0, from); i <= content.length - pattern.length; i++) {
+      if (startsWith(content, i, content.length, pattern)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(final byte[] content, final int offset, final int limit, final byte[] prefix) {
+    if (limit - offset < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (content[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
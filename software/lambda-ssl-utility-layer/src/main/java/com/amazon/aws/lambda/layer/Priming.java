@@ -0,0 +1,89 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends one request to every backend during function init, so that the first invocation finds the JSSE and
+ * java.net.http classes loaded, the SecureRandom seeded, the key material parsed and an established mTLS connection
+ * in the pool of the HttpClient.
+ * <p>
+ * Priming is best effort: a backend that is not reachable during init is skipped and connected on first use. After a
+ * checkpoint restore, prime a new HttpClient again, the connections of the snapshot are no longer usable.
+ */
+public final class Priming {
+
+  private final List<URI> uris;
+  private final Duration timeout;
+
+  private Priming(final Builder builder) {
+    this.uris = List.copyOf(builder.uris);
+    this.timeout = builder.timeout;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Sends the priming requests concurrently and waits for all of them.
+   *
+   * @param httpClient Client that serves the invocations afterwards
+   * @return number of backends that answered
+   */
+  public int prime(final HttpClient httpClient) {
+    List<CompletableFuture<Boolean>> responses = new ArrayList<>();
+    for (URI uri : uris) {
+      HttpRequest request = HttpRequest.newBuilder()
+        .uri(uri)
+        .timeout(timeout)
+        .GET()
+        .build();
+      responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .handle((response, e) -> e == null));
+    }
+    return (int) responses.stream()
+      .filter(CompletableFuture::join)
+      .count();
+  }
+
+  public static final class Builder {
+
+    private final List<URI> uris = new ArrayList<>();
+    private Duration timeout = Duration.ofSeconds(2);
+
+    private Builder() {
+    }
+
+    /**
+     * @param uri Backend endpoint that is cheap to GET, e.g. https://backend-service-1.com:443
+     * @return this builder
+     */
+    public Builder uri(final URI uri) {
+      this.uris.add(uri);
+      return this;
+    }
+
+    /**
+     * @param timeout Maximum time to wait for each backend, keep it well below the init timeout of the function
+     * @return this builder
+     */
+    public Builder timeout(final Duration timeout) {
+      this.timeout = timeout;
+      return this;
+    }
+
+    public Priming build() {
+      return new Priming(this);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes a backend response as an API Gateway proxy response to the output stream of a RequestStreamHandler, without
+ * decoding the body into a String and copying it into an APIGatewayProxyResponseEvent.
+ * <p>
+ * When the status line and headers arrive, the envelope up to the body string is written. Every ByteBuffer of the
+ * body is then escaped and written as it is received, and the envelope is closed when the body is complete. If the
+ * backend fails in the middle of the body, the envelope stays open; API Gateway then answers 502 instead of passing a
+ * truncated body on as a success.
+ * <p>
+ * The Lambda runtime still buffers the whole output stream and returns it when the handler returns, so the response
+ * does not reach the client earlier; what is saved is the String, the response event and its serialization. The 6 MB
+ * limit of a synchronous response applies to the escaped envelope, so a body close to it can fail after it was read.
+ */
+public final class ProxyResponseBodyHandler implements HttpResponse.BodyHandler<Void> {
+
+  private final OutputStream out;
+  private volatile boolean started;
+
+  /**
+   * @param out Output stream of the RequestStreamHandler
+   */
+  public ProxyResponseBodyHandler(final OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Writes a complete proxy response with a plain text body, e.g. when the backend could not be reached at all.
+   */
+  public static void writeResponse(final OutputStream out, final int statusCode, final String body)
+    throws IOException {
+    StringBuilder response = new StringBuilder();
+    head(response, statusCode, "text/plain");
+    Json.quote(response, body);
+    response.append('}');
+    out.write(response.toString().getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  /**
+   * @return true once the envelope has been started, after which no other response can be written
+   */
+  public boolean isStarted() {
+    return started;
+  }
+
+  @Override
+  public HttpResponse.BodySubscriber<Void> apply(final HttpResponse.ResponseInfo responseInfo) {
+    try {
+      StringBuilder envelope = new StringBuilder();
+      head(envelope, responseInfo.statusCode(),
+        responseInfo.headers().firstValue("Content-Type").orElse("application/json"));
+      envelope.append('"');
+      out.write(envelope.toString().getBytes(StandardCharsets.UTF_8));
+      started = true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new Subscriber(new JsonStringOutputStream(out));
+  }
+
+  private static void head(final StringBuilder out, final int statusCode, final String contentType)
+    throws IOException {
+    out.append("{\"statusCode\":").append(statusCode).append(",\"headers\":{\"Content-Type\":");
+    Json.quote(out, contentType);
+    out.append("},\"isBase64Encoded\":false,\"body\":");
+  }
+
+  private final class Subscriber implements HttpResponse.BodySubscriber<Void> {
+
+    private final OutputStream body;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    private Subscriber(final OutputStream body) {
+      this.body = body;
+    }
+
+    @Override
+    public CompletionStage<Void> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(final List<ByteBuffer> buffers) {
+      try {
+        for (ByteBuffer buffer : buffers) {
+          write(buffer);
+        }
+        subscription.request(1);
+      } catch (IOException e) {
+        subscription.cancel();
+        result.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      try {
+        out.write(new byte[]{'"', '}'});
+        out.flush();
+        result.complete(null);
+      } catch (IOException e) {
+        result.completeExceptionally(e);
+      }
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+      if (buffer.hasArray()) {
+        body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      } else {
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+        while (buffer.hasRemaining()) {
+          int length = Math.min(chunk.length, buffer.remaining());
+          buffer.get(chunk, 0, length);
+          body.write(chunk, 0, length);
+        }
+      }
+    }
+  }
+}
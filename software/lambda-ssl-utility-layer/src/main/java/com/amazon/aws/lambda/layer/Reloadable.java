@@ -0,0 +1,19 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * SSL material that can be rebuilt from its source and swapped in while connections are using it.
+ */
+public interface Reloadable {
+
+  /**
+   * @param force Rebuild even if the cheap change check reports no change, e.g. after a password rotation
+   * @return true if new material was swapped in
+   */
+  boolean reload(boolean force) throws GeneralSecurityException, IOException;
+}
@@ -0,0 +1,220 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.function.Supplier;
+
+/**
+ * Key manager backed by a keystore file that can be replaced at runtime.
+ * <p>
+ * {@link #reload(boolean)} builds the new key manager through the {@link SSLContextRegistry} on the calling thread and
+ * swaps in an immutable {@link Snapshot} holding it. Aliases handed out by this key manager are prefixed with the
+ * generation of the snapshot that chose them, and {@link #getCertificateChain(String)} and
+ * {@link #getPrivateKey(String)} resolve the alias against that same snapshot, so a swap in the middle of a handshake
+ * can never pair the key of one keystore with the chain of another. The snapshot replaced by the last swap stays
+ * reachable for handshakes that are still running. The generation only changes when new material is swapped in, and
+ * plain keystore aliases are still resolved against the current snapshot.
+ */
+public final class ReloadableKeyManager extends X509ExtendedKeyManager implements Reloadable {
+
+  private static final String ALIAS_SEPARATOR = ":";
+
+  private final String pathToKeystoreJKS;
+  private final Supplier<String> keyStorePassword;
+  private volatile Snapshot current;
+  private volatile FileStamp stamp;
+
+  /**
+   * @param pathToKeystoreJKS Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
+   * @param keyStorePassword  Supplies the current KeyStore Password on every reload
+   */
+  public ReloadableKeyManager(final String pathToKeystoreJKS, final Supplier<String> keyStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    this.pathToKeystoreJKS = pathToKeystoreJKS;
+    this.keyStorePassword = keyStorePassword;
+    reload(true);
+  }
+
+  /**
+   * Starts from a keystore file that was already read, e.g. ahead of time during init, instead of reading it again.
+   *
+   * @param keyStore         Content read from the keystore file that later reloads read again
+   * @param keyStorePassword Supplies the current KeyStore Password on every reload
+   */
+  public ReloadableKeyManager(final KeyStoreContent keyStore, final Supplier<String> keyStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    if (keyStore.getPath() == null) {
+      throw new IllegalArgumentException(keyStore.getName() + " was not read from a file, it cannot be reloaded");
+    }
+    this.pathToKeystoreJKS = keyStore.getPath().toString();
+    this.keyStorePassword = keyStorePassword;
+    swap(SSLContextRegistry.getInstance().getKeyManagers(keyStore, keyStorePassword.get()));
+    // the stamp of the content that was read, a change of the file since then is picked up by the next check
+    stamp = FileStamp.of(keyStore);
+  }
+
+  @Override
+  public synchronized boolean reload(final boolean force) throws GeneralSecurityException, IOException {
+    FileStamp fileStamp = FileStamp.of(pathToKeystoreJKS);
+    if (!force && fileStamp.equals(stamp)) {
+      return false;
+    }
+
+    boolean swapped = swap(SSLContextRegistry.getInstance()
+      .getKeyManagers(pathToKeystoreJKS, keyStorePassword.get()));
+    stamp = fileStamp;
+    return swapped;
+  }
+
+  /**
+   * @return true if the key manager is a new one and was swapped in, guarded by this
+   */
+  private boolean swap(final KeyManager[] keyManagers) throws GeneralSecurityException {
+    for (KeyManager keyManager : keyManagers) {
+      if (keyManager instanceof X509ExtendedKeyManager) {
+        // the registry hands out the same instance for unchanged content
+        Snapshot previous = current;
+        if (previous != null && previous.keyManager == keyManager) {
+          return false;
+        }
+        current = new Snapshot(previous, (X509ExtendedKeyManager) keyManager);
+        return true;
+      }
+    }
+    throw new GeneralSecurityException("No X509ExtendedKeyManager found for " + pathToKeystoreJKS);
+  }
+
+  @Override
+  public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+    Snapshot snapshot = current;
+    return snapshot.aliases(snapshot.keyManager.getClientAliases(keyType, issuers));
+  }
+
+  @Override
+  public String chooseClientAlias(final String[] keyType, final Principal[] issuers, final Socket socket) {
+    Snapshot snapshot = current;
+    return snapshot.alias(snapshot.keyManager.chooseClientAlias(keyType, issuers, socket));
+  }
+
+  @Override
+  public String chooseEngineClientAlias(final String[] keyType, final Principal[] issuers, final SSLEngine engine) {
+    Snapshot snapshot = current;
+    return snapshot.alias(snapshot.keyManager.chooseEngineClientAlias(keyType, issuers, engine));
+  }
+
+  @Override
+  public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+    Snapshot snapshot = current;
+    return snapshot.aliases(snapshot.keyManager.getServerAliases(keyType, issuers));
+  }
+
+  @Override
+  public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+    Snapshot snapshot = current;
+    return snapshot.alias(snapshot.keyManager.chooseServerAlias(keyType, issuers, socket));
+  }
+
+  @Override
+  public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine engine) {
+    Snapshot snapshot = current;
+    return snapshot.alias(snapshot.keyManager.chooseEngineServerAlias(keyType, issuers, engine));
+  }
+
+  @Override
+  public X509Certificate[] getCertificateChain(final String alias) {
+    Snapshot snapshot = snapshot(alias);
+    return snapshot == null ? null : snapshot.keyManager.getCertificateChain(unqualified(alias));
+  }
+
+  @Override
+  public PrivateKey getPrivateKey(final String alias) {
+    Snapshot snapshot = snapshot(alias);
+    return snapshot == null ? null : snapshot.keyManager.getPrivateKey(unqualified(alias));
+  }
+
+  /**
+   * @return the snapshot that handed out the alias, or null if it was replaced more than one swap ago
+   */
+  private Snapshot snapshot(final String alias) {
+    Snapshot snapshot = current;
+    int separator = alias == null ? -1 : alias.indexOf(ALIAS_SEPARATOR);
+    if (separator < 0) {
+      return snapshot;
+    }
+    long generation;
+    try {
+      generation = Long.parseLong(alias.substring(0, separator));
+    } catch (NumberFormatException e) {
+      // a plain keystore alias that happens to contain the separator
+      return snapshot;
+    }
+    if (generation == snapshot.generation) {
+      return snapshot;
+    }
+    Snapshot previous = snapshot.previous;
+    return previous != null && generation == previous.generation ? previous : null;
+  }
+
+  private static String unqualified(final String alias) {
+    int separator = alias == null ? -1 : alias.indexOf(ALIAS_SEPARATOR);
+    if (separator < 0) {
+      return alias;
+    }
+    for (int i = 0; i < separator; i++) {
+      if (!Character.isDigit(alias.charAt(i))) {
+        return alias;
+      }
+    }
+    return alias.substring(separator + 1);
+  }
+
+  /**
+   * Key manager of one generation of the keystore, together with the snapshot it replaced.
+   */
+  private static final class Snapshot {
+
+    private final long generation;
+    private final X509ExtendedKeyManager keyManager;
+    private final Snapshot previous;
+
+    private Snapshot(final Snapshot previous, final X509ExtendedKeyManager keyManager) {
+      this.generation = previous == null ? 0 : previous.generation + 1;
+      this.keyManager = keyManager;
+      // only the directly replaced snapshot is kept, older ones become unreachable
+      this.previous = previous == null ? null : new Snapshot(previous.generation, previous.keyManager);
+    }
+
+    private Snapshot(final long generation, final X509ExtendedKeyManager keyManager) {
+      this.generation = generation;
+      this.keyManager = keyManager;
+      this.previous = null;
+    }
+
+    private String alias(final String alias) {
+      return alias == null ? null : generation + ALIAS_SEPARATOR + alias;
+    }
+
+    private String[] aliases(final String[] aliases) {
+      if (aliases == null) {
+        return null;
+      }
+      String[] qualified = new String[aliases.length];
+      for (int i = 0; i < aliases.length; i++) {
+        qualified[i] = alias(aliases[i]);
+      }
+      return qualified;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Trust manager backed by a truststore file that can be replaced at runtime, the trust anchor counterpart of
+ * {@link ReloadableKeyManager}.
+ */
+public final class ReloadableTrustManager extends X509ExtendedTrustManager implements Reloadable {
+
+  private final String pathToTruststoreJKS;
+  private final Supplier<String> trustStorePassword;
+  private final AtomicReference<X509ExtendedTrustManager> delegate = new AtomicReference<>();
+  private volatile FileStamp stamp;
+
+  /**
+   * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
+   * @param trustStorePassword  Supplies the current TrustStore Password on every reload
+   */
+  public ReloadableTrustManager(final String pathToTruststoreJKS, final Supplier<String> trustStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    this.pathToTruststoreJKS = pathToTruststoreJKS;
+    this.trustStorePassword = trustStorePassword;
+    reload(true);
+  }
+
+  /**
+   * Starts from a truststore file that was already read, e.g. ahead of time during init, instead of reading it again.
+   *
+   * @param trustStore         Content read from the truststore file that later reloads read again
+   * @param trustStorePassword Supplies the current TrustStore Password on every reload
+   */
+  public ReloadableTrustManager(final KeyStoreContent trustStore, final Supplier<String> trustStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    if (trustStore.getPath() == null) {
+      throw new IllegalArgumentException(trustStore.getName() + " was not read from a file, it cannot be reloaded");
+    }
+    this.pathToTruststoreJKS = trustStore.getPath().toString();
+    this.trustStorePassword = trustStorePassword;
+    swap(SSLContextRegistry.getInstance().getTrustManagers(trustStore, trustStorePassword.get()));
+    // the stamp of the content that was read, a change of the file since then is picked up by the next check
+    stamp = FileStamp.of(trustStore);
+  }
+
+  @Override
+  public boolean reload(final boolean force) throws GeneralSecurityException, IOException {
+    FileStamp current = FileStamp.of(pathToTruststoreJKS);
+    if (!force && current.equals(stamp)) {
+      return false;
+    }
+
+    boolean swapped = swap(SSLContextRegistry.getInstance()
+      .getTrustManagers(pathToTruststoreJKS, trustStorePassword.get()));
+    stamp = current;
+    return swapped;
+  }
+
+  /**
+   * @return true if the trust manager is a new one and was swapped in
+   */
+  private boolean swap(final TrustManager[] trustManagers) throws GeneralSecurityException {
+    for (TrustManager trustManager : trustManagers) {
+      if (trustManager instanceof X509ExtendedTrustManager) {
+        return delegate.getAndSet((X509ExtendedTrustManager) trustManager) != trustManager;
+      }
+    }
+    throw new GeneralSecurityException("No X509ExtendedTrustManager found for " + pathToTruststoreJKS);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    delegate.get().checkClientTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    delegate.get().checkServerTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    delegate.get().checkClientTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    delegate.get().checkServerTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.get().checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.get().checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return delegate.get().getAcceptedIssuers();
+  }
+}
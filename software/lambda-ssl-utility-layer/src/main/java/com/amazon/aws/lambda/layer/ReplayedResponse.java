@@ -0,0 +1,142 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLSession;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response whose body is produced by the caller's body handler from bytes received before, e.g. a cached response or
+ * the response of a request shared by several callers. Any body handler works, also one that streams into an
+ * invocation response.
+ */
+final class ReplayedResponse<T> implements HttpResponse<T>, HttpResponse.ResponseInfo {
+
+  private final HttpRequest request;
+  private final int statusCode;
+  private final HttpHeaders headers;
+  private final HttpClient.Version version;
+  private final Optional<SSLSession> sslSession;
+  private T body;
+
+  private ReplayedResponse(final HttpRequest request, final int statusCode, final HttpHeaders headers,
+                           final HttpClient.Version version, final Optional<SSLSession> sslSession) {
+    this.request = request;
+    this.statusCode = statusCode;
+    this.headers = headers;
+    this.version = version;
+    this.sslSession = sslSession;
+  }
+
+  /**
+   * @param request Request of the caller
+   * @param bytes   Body received before, it is not modified
+   * @return the response of the caller, complete once its body handler has processed the bytes
+   */
+  static <T> CompletableFuture<HttpResponse<T>> replay(final HttpRequest request, final int statusCode,
+                                                      final HttpHeaders headers, final HttpClient.Version version,
+                                                      final Optional<SSLSession> sslSession, final byte[] bytes,
+                                                      final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    ReplayedResponse<T> response = new ReplayedResponse<>(request, statusCode, headers, version, sslSession);
+    HttpResponse.BodySubscriber<T> subscriber = responseBodyHandler.apply(response);
+    subscriber.onSubscribe(new ByteArraySubscription(subscriber, bytes));
+    return subscriber.getBody().toCompletableFuture().thenApply(value -> {
+      response.body = value;
+      return response;
+    });
+  }
+
+  /**
+   * @param request  Request of the caller
+   * @param received Response with the body as bytes, e.g. of another request to the same URI
+   * @return the response of the caller, complete once its body handler has processed the bytes
+   */
+  static <T> CompletableFuture<HttpResponse<T>> replay(final HttpRequest request,
+                                                      final HttpResponse<byte[]> received,
+                                                      final HttpResponse.BodyHandler<T> responseBodyHandler) {
+    return replay(request, received.statusCode(), received.headers(), received.version(), received.sslSession(),
+      received.body(), responseBodyHandler);
+  }
+
+  @Override
+  public int statusCode() {
+    return statusCode;
+  }
+
+  @Override
+  public HttpRequest request() {
+    return request;
+  }
+
+  @Override
+  public Optional<HttpResponse<T>> previousResponse() {
+    return Optional.empty();
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return headers;
+  }
+
+  @Override
+  public T body() {
+    return body;
+  }
+
+  @Override
+  public Optional<SSLSession> sslSession() {
+    return sslSession;
+  }
+
+  @Override
+  public URI uri() {
+    return request.uri();
+  }
+
+  @Override
+  public HttpClient.Version version() {
+    return version;
+  }
+
+  /**
+   * Publishes the bytes as one buffer on the first demand, then completes.
+   */
+  private static final class ByteArraySubscription implements Flow.Subscription {
+
+    private final HttpResponse.BodySubscriber<?> subscriber;
+    private final byte[] bytes;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private ByteArraySubscription(final HttpResponse.BodySubscriber<?> subscriber, final byte[] bytes) {
+      this.subscriber = subscriber;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n > 0 && done.compareAndSet(false, true)) {
+        if (bytes.length > 0) {
+          // read-only, the bytes are shared by every response
+          subscriber.onNext(List.of(ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+        }
+        subscriber.onComplete();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done.set(true);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits retries to a share of the requests, so that retries cannot multiply the load on a backend that is already
+ * failing: a retry is allowed while the retries stay below minRetries plus ratio times the requests.
+ * <p>
+ * Only the requests and retries of a sliding window count, 10 seconds unless given otherwise, kept in ten buckets
+ * that expire one after the other. A burst of failures therefore stops retries only until it leaves the window,
+ * instead of for the rest of the life of the environment.
+ */
+public final class RetryBudget {
+
+  private static final int BUCKETS = 10;
+  private static final Duration DEFAULT_WINDOW = Duration.ofSeconds(10);
+
+  private final double ratio;
+  private final int minRetries;
+  private final long bucketNanos;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder denied = new LongAdder();
+
+  // counts of the window, guarded by this
+  private final long[] bucketRequests = new long[BUCKETS];
+  private final long[] bucketRetries = new long[BUCKETS];
+  private long windowRequests;
+  private long windowRetries;
+  private long bucket;
+
+  private RetryBudget(final double ratio, final int minRetries, final Duration window) {
+    this.ratio = ratio;
+    this.minRetries = minRetries;
+    this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+    this.bucket = Math.floorDiv(System.nanoTime(), bucketNanos);
+  }
+
+  /**
+   * @param ratio      Share of the requests that may be retried, e.g. 0.1
+   * @param minRetries Retries allowed per window regardless of the number of requests, e.g. for the first invocations
+   */
+  public static RetryBudget of(final double ratio, final int minRetries) {
+    return of(ratio, minRetries, DEFAULT_WINDOW);
+  }
+
+  /**
+   * @param ratio      Share of the requests that may be retried, e.g. 0.1
+   * @param minRetries Retries allowed per window regardless of the number of requests, e.g. for the first invocations
+   * @param window     Time over which requests and retries are counted
+   */
+  public static RetryBudget of(final double ratio, final int minRetries, final Duration window) {
+    if (ratio < 0 || minRetries < 0) {
+      throw new IllegalArgumentException("ratio and minRetries must not be negative");
+    }
+    if (window.isNegative() || window.isZero()) {
+      throw new IllegalArgumentException("window must be positive");
+    }
+    return new RetryBudget(ratio, minRetries, window);
+  }
+
+  /**
+   * Counts a first attempt.
+   */
+  public void onRequest() {
+    requests.increment();
+    synchronized (this) {
+      int slot = advance();
+      bucketRequests[slot]++;
+      windowRequests++;
+    }
+  }
+
+  /**
+   * @return true if a retry is within the budget, it is counted then
+   */
+  public boolean tryRetry() {
+    synchronized (this) {
+      int slot = advance();
+      if (windowRetries >= minRetries + ratio * windowRequests) {
+        denied.increment();
+        return false;
+      }
+      bucketRetries[slot]++;
+      windowRetries++;
+    }
+    retries.increment();
+    return true;
+  }
+
+  /**
+   * Drops the buckets that left the window since the previous call.
+   *
+   * @return the bucket of the current time
+   */
+  private int advance() {
+    long now = Math.floorDiv(System.nanoTime(), bucketNanos);
+    for (long b = Math.max(bucket + 1, now - BUCKETS + 1); b <= now; b++) {
+      int slot = (int) Math.floorMod(b, (long) BUCKETS);
+      windowRequests -= bucketRequests[slot];
+      windowRetries -= bucketRetries[slot];
+      bucketRequests[slot] = 0;
+      bucketRetries[slot] = 0;
+    }
+    bucket = Math.max(bucket, now);
+    return (int) Math.floorMod(bucket, (long) BUCKETS);
+  }
+
+  /**
+   * @return first attempts since the budget was created, not only those of the window
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return retries since the budget was created, not only those of the window
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * @return retries that were not made because the budget was used up
+   */
+  public long getDenied() {
+    return denied.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RetryBudget{requests=%d, retries=%d, denied=%d}", getRequests(), getRetries(), getDenied());
+  }
+}
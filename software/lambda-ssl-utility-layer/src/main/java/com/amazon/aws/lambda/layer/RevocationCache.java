@@ -0,0 +1,373 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide cache of OCSP responses, per certificate, and CRLs, per URI, shared by every
+ * {@link RevocationTrustManager}, so a backend certificate's status is fetched once per execution environment no
+ * matter how many contexts or handshakes check it.
+ * <p>
+ * Fetches run on background threads: a handshake either uses what is cached or, if revocation checking fails hard
+ * without a cached status, waits for a single fetch shared with every concurrent handshake. A cached status is
+ * fetched again every REVOCATION_REFRESH_SECONDS (3600 by default), or at the next update of the OCSP response or CRL
+ * if that is earlier, as long as a handshake used it since the last fetch; unused statuses are dropped instead. A
+ * failed refresh keeps the previous status until the next attempt a minute later, the revocation checker rejects it
+ * once it is stale. After a failed first fetch, handshakes neither start nor wait for another one for a minute, so a
+ * responder that is down is not asked again by every handshake.
+ */
+public final class RevocationCache {
+
+  // statuses of the backend certificates and their issuers, a handful per function
+  private static final int MAX_ENTRIES = 1024;
+  private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(5);
+  private static final Duration RETRY = Duration.ofMinutes(1);
+  private static final RevocationCache INSTANCE = new RevocationCache(Duration.ofSeconds(Long.parseLong(
+    Optional.ofNullable(System.getenv("REVOCATION_REFRESH_SECONDS")).orElse("3600"))));
+
+  private final long refreshMillis;
+  private final ConcurrentMap<X509Certificate, Entry<byte[]>> ocspResponses = new ConcurrentHashMap<>();
+  private final ConcurrentMap<URI, Entry<X509CRL>> crls = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService fetcher = Executors.newScheduledThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "revocation-fetch");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // not on the fetcher threads, which block in send
+  private final HttpClient httpClient = HttpClient.newBuilder()
+    .connectTimeout(FETCH_TIMEOUT)
+    .build();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder fetches = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  private RevocationCache(final Duration refreshInterval) {
+    this.refreshMillis = refreshInterval.toMillis();
+  }
+
+  public static RevocationCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return requests for a status that was cached
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return requests for a status that was not cached yet
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return OCSP responses and CRLs fetched, including refreshes
+   */
+  public long getFetches() {
+    return fetches.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Drops every cached status, later handshakes fetch them again.
+   */
+  public void invalidate() {
+    ocspResponses.clear();
+    crls.clear();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RevocationCache{ocspResponses=%d, crls=%d, hits=%d, misses=%d, fetches=%d, failures=%d}",
+      ocspResponses.size(), crls.size(), getHits(), getMisses(), getFetches(), getFailures());
+  }
+
+  /**
+   * @return the cached DER encoded OCSP response for the certificate, null if there is none yet
+   */
+  byte[] getOcspResponse(final X509Certificate certificate) {
+    return get(ocspResponses, certificate);
+  }
+
+  /**
+   * @return the cached CRL of the URI, null if there is none yet
+   */
+  X509CRL getCrl(final URI uri) {
+    return get(crls, uri);
+  }
+
+  /**
+   * Fetches the OCSP response for the certificate in the background unless it is cached or being fetched.
+   */
+  void prefetchOcspResponse(final X509Certificate certificate, final X509Certificate issuer, final URI responder) {
+    Entry<byte[]> entry = entry(ocspResponses, certificate, () -> fetchOcspResponse(certificate, issuer, responder));
+    if (entry != null) {
+      entry.prefetch();
+    }
+  }
+
+  /**
+   * @return the cached OCSP response for the certificate, fetched first if there is none
+   */
+  byte[] awaitOcspResponse(final X509Certificate certificate, final X509Certificate issuer, final URI responder)
+    throws GeneralSecurityException, IOException {
+    Fetch<byte[]> fetch = () -> fetchOcspResponse(certificate, issuer, responder);
+    return await(entry(ocspResponses, certificate, fetch), fetch);
+  }
+
+  void prefetchCrl(final URI uri) {
+    Entry<X509CRL> entry = entry(crls, uri, () -> fetchCrl(uri));
+    if (entry != null) {
+      entry.prefetch();
+    }
+  }
+
+  X509CRL awaitCrl(final URI uri) throws GeneralSecurityException, IOException {
+    Fetch<X509CRL> fetch = () -> fetchCrl(uri);
+    return await(entry(crls, uri, fetch), fetch);
+  }
+
+  private <K, V> V get(final ConcurrentMap<K, Entry<V>> cache, final K key) {
+    Entry<V> entry = cache.get(key);
+    V value = entry != null ? entry.value : null;
+    if (value == null) {
+      misses.increment();
+      return null;
+    }
+    entry.lastUsed = System.currentTimeMillis();
+    hits.increment();
+    return value;
+  }
+
+  /**
+   * @return the entry of the key, created if there is room for it, null if the cache is full
+   */
+  private <K, V> Entry<V> entry(final ConcurrentMap<K, Entry<V>> cache, final K key, final Fetch<V> fetch) {
+    Entry<V> entry = cache.get(key);
+    if (entry == null && cache.size() < MAX_ENTRIES) {
+      entry = cache.computeIfAbsent(key, created -> new Entry<>(cache, key, fetch));
+    }
+    return entry;
+  }
+
+  private <V> V await(final Entry<V> entry, final Fetch<V> fetch) throws GeneralSecurityException, IOException {
+    if (entry == null) {
+      // the cache is full, the status is used for this handshake only
+      fetches.increment();
+      return fetch.fetch();
+    }
+    V value = entry.value;
+    if (value != null) {
+      return value;
+    }
+    Exception failure = entry.recentFailure();
+    if (failure != null) {
+      throw new IOException("The last fetch less than " + RETRY.toSeconds() + " seconds ago failed", failure);
+    }
+    return Futures.await(entry.load());
+  }
+
+  private byte[] fetchOcspResponse(final X509Certificate certificate, final X509Certificate issuer,
+                                   final URI responder) throws GeneralSecurityException, IOException {
+    HttpRequest request = HttpRequest.newBuilder(responder)
+      .timeout(FETCH_TIMEOUT)
+      .header("Content-Type", "application/ocsp-request")
+      .header("Accept", "application/ocsp-response")
+      .POST(HttpRequest.BodyPublishers.ofByteArray(Der.ocspRequest(certificate, issuer)))
+      .build();
+    byte[] response = send(request);
+    // OCSPResponse ::= SEQUENCE { responseStatus ENUMERATED, ... }, anything but successful carries no status
+    int status;
+    try {
+      ByteBuffer ocspResponse = Der.element(ByteBuffer.wrap(response), Der.SEQUENCE);
+      status = Der.element(ocspResponse, 0x0a).get();
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new IOException("OCSP responder " + responder + " sent no OCSP response", e);
+    }
+    if (status != 0) {
+      throw new IOException("OCSP responder " + responder + " answered with response status " + status);
+    }
+    return response;
+  }
+
+  private X509CRL fetchCrl(final URI uri) throws GeneralSecurityException, IOException {
+    HttpRequest request = HttpRequest.newBuilder(uri)
+      .timeout(FETCH_TIMEOUT)
+      .GET()
+      .build();
+    return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(send(request)));
+  }
+
+  private byte[] send(final HttpRequest request) throws IOException {
+    HttpResponse<byte[]> response;
+    try {
+      response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching " + request.uri(), e);
+    }
+    if (response.statusCode() != 200) {
+      throw new IOException(request.uri() + " answered with HTTP " + response.statusCode());
+    }
+    return response.body();
+  }
+
+  /**
+   * @return milliseconds until the value is fetched again
+   */
+  private long refreshDelay(final Object value) {
+    long delay = refreshMillis;
+    if (value instanceof X509CRL && ((X509CRL) value).getNextUpdate() != null) {
+      delay = Math.min(delay, ((X509CRL) value).getNextUpdate().getTime() - System.currentTimeMillis());
+    }
+    if (value instanceof byte[]) {
+      Instant nextUpdate = Der.ocspNextUpdate((byte[]) value);
+      if (nextUpdate != null) {
+        delay = Math.min(delay, nextUpdate.toEpochMilli() - System.currentTimeMillis());
+      }
+    }
+    return Math.max(delay, RETRY.toMillis());
+  }
+
+  @FunctionalInterface
+  private interface Fetch<V> {
+
+    V fetch() throws GeneralSecurityException, IOException;
+  }
+
+  /**
+   * A cached status, its fetch in flight and its next refresh.
+   */
+  private final class Entry<V> {
+
+    private final ConcurrentMap<?, Entry<V>> cache;
+    private final Object key;
+    private final Fetch<V> fetch;
+    private volatile V value;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile long lastFetched;
+    private volatile long lastFailed;
+    private volatile Exception lastFailure;
+    // guarded by this
+    private CompletableFuture<V> loading;
+
+    private Entry(final ConcurrentMap<?, Entry<V>> cache, final Object key, final Fetch<V> fetch) {
+      this.cache = cache;
+      this.key = key;
+      this.fetch = fetch;
+    }
+
+    /**
+     * Starts a fetch unless there is a value, a fetch in flight or a failed fetch less than the retry delay ago.
+     */
+    private void prefetch() {
+      if (value == null && recentFailure() == null) {
+        load();
+      }
+    }
+
+    /**
+     * @return the failure of the last fetch if it was less than the retry delay ago, otherwise null
+     */
+    private Exception recentFailure() {
+      Exception failure = lastFailure;
+      return failure != null && System.currentTimeMillis() - lastFailed < RETRY.toMillis() ? failure : null;
+    }
+
+    /**
+     * @return the fetch in flight, started if there is none
+     */
+    private synchronized CompletableFuture<V> load() {
+      if (loading == null) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        loading = future;
+        fetcher.execute(() -> run(future));
+      }
+      return loading;
+    }
+
+    private void run(final CompletableFuture<V> future) {
+      fetches.increment();
+      try {
+        V fetched = fetch.fetch();
+        value = fetched;
+        lastFetched = System.currentTimeMillis();
+        lastFailure = null;
+        fetcher.schedule(this::refresh, refreshDelay(fetched), TimeUnit.MILLISECONDS);
+        complete(future, fetched, null);
+      } catch (GeneralSecurityException | IOException | RuntimeException e) {
+        failures.increment();
+        lastFailed = System.currentTimeMillis();
+        lastFailure = e;
+        // a status that was never fetched is dropped after the retry delay unless a fetch brought it meanwhile, so
+        // a later handshake fetches it again
+        fetcher.schedule(value != null ? this::refresh : this::removeIfEmpty, RETRY.toMillis(),
+          TimeUnit.MILLISECONDS);
+        complete(future, null, e);
+      }
+    }
+
+    private void complete(final CompletableFuture<V> future, final V fetched, final Exception failure) {
+      synchronized (this) {
+        loading = null;
+      }
+      if (failure != null) {
+        future.completeExceptionally(failure);
+      } else {
+        future.complete(fetched);
+      }
+    }
+
+    private void refresh() {
+      if (cache.get(key) != this) {
+        return;
+      }
+      if (lastUsed < lastFetched) {
+        // no handshake used it since the last fetch
+        remove();
+        return;
+      }
+      load();
+    }
+
+    private void remove() {
+      cache.remove(key, this);
+    }
+
+    private synchronized void removeIfEmpty() {
+      // a fetch can only start while holding the lock
+      if (value == null && loading == null) {
+        remove();
+      }
+    }
+  }
+}
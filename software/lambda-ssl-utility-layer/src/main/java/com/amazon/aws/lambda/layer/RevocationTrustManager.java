@@ -0,0 +1,464 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the revocation status of the server certificates after the delegate trust manager accepted their chain,
+ * with a {@link PKIXRevocationChecker} that is only given statuses that are already at hand, so no handshake fetches
+ * an OCSP response or CRL over the network while the JDK checks would:
+ * <ul>
+ *   <li>an OCSP response the server stapled to the handshake is preferred; JSSE clients ask for one unless
+ *   jdk.tls.client.enableStatusRequestExtension is false</li>
+ *   <li>otherwise the OCSP response or CRL cached by the shared {@link RevocationCache}, which fetches and refreshes
+ *   them in the background</li>
+ *   <li>without either, soft-fail has the status fetched for the next handshakes and checks the other certificates
+ *   of the chain on their own; hard-fail waits for the fetch, which happens once per certificate, e.g. during the
+ *   priming of the connections at init</li>
+ * </ul>
+ * A revoked certificate is rejected either way. Soft-fail also accepts a chain whose status cannot be determined,
+ * e.g. a stale response or an unknown certificate, which hard-fail rejects. The OCSP responder and CRL come from the
+ * certificates, or from the configured URIs for a private CA whose certificates name none. Resumed sessions are not
+ * checked again, and client certificates are left to the delegate.
+ * <p>
+ * {@link #fromEnvironment(TrustManager[])} applies REVOCATION_CHECK (off, ocsp or crl; off by default),
+ * REVOCATION_SOFT_FAIL (true by default), REVOCATION_ONLY_END_ENTITY (false by default), REVOCATION_OCSP_RESPONDER
+ * and REVOCATION_CRL_URL.
+ */
+public final class RevocationTrustManager extends X509ExtendedTrustManager {
+
+  private final X509ExtendedTrustManager delegate;
+  private final Mode mode;
+  private final boolean softFail;
+  private final boolean onlyEndEntity;
+  private final URI ocspResponder;
+  private final URI crlUri;
+  private final RevocationCache cache = RevocationCache.getInstance();
+  private volatile Map<X500Principal, List<X509Certificate>> anchors;
+  private final LongAdder checked = new LongAdder();
+  private final LongAdder stapled = new LongAdder();
+  private final LongAdder unchecked = new LongAdder();
+  private final LongAdder undetermined = new LongAdder();
+  private final LongAdder revoked = new LongAdder();
+
+  private RevocationTrustManager(final Builder builder) {
+    this.delegate = builder.delegate;
+    this.mode = builder.mode;
+    this.softFail = builder.softFail;
+    this.onlyEndEntity = builder.onlyEndEntity;
+    this.ocspResponder = builder.ocspResponder;
+    this.crlUri = builder.crlUri;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Wraps the X509 trust managers as configured by the REVOCATION_* environment variables.
+   *
+   * @param trustManagers Trust managers that validate the chains
+   * @return the trust managers wrapped, or themselves if REVOCATION_CHECK is off
+   */
+  public static TrustManager[] fromEnvironment(final TrustManager[] trustManagers) {
+    Mode mode = Mode.valueOf(environment("REVOCATION_CHECK").orElse("off").toUpperCase(Locale.ROOT));
+    if (mode == Mode.OFF) {
+      return trustManagers;
+    }
+    TrustManager[] wrapped = trustManagers.clone();
+    for (int i = 0; i < wrapped.length; i++) {
+      if (wrapped[i] instanceof X509ExtendedTrustManager) {
+        wrapped[i] = builder()
+          .delegate((X509ExtendedTrustManager) wrapped[i])
+          .mode(mode)
+          .softFail(Boolean.parseBoolean(environment("REVOCATION_SOFT_FAIL").orElse("true")))
+          .onlyEndEntity(Boolean.parseBoolean(environment("REVOCATION_ONLY_END_ENTITY").orElse("false")))
+          .ocspResponder(environment("REVOCATION_OCSP_RESPONDER").map(URI::create).orElse(null))
+          .crlUri(environment("REVOCATION_CRL_URL").map(URI::create).orElse(null))
+          .build();
+      }
+    }
+    return wrapped;
+  }
+
+  /**
+   * @return chains whose revocation status was checked
+   */
+  public long getChecked() {
+    return checked.sum();
+  }
+
+  /**
+   * @return certificates checked with an OCSP response stapled by the server
+   */
+  public long getStapled() {
+    return stapled.sum();
+  }
+
+  /**
+   * @return chains accepted by soft-fail because the status of a certificate was not at hand yet, the certificates
+   * with a status were checked
+   */
+  public long getUnchecked() {
+    return unchecked.sum();
+  }
+
+  /**
+   * @return chains accepted by soft-fail although their status could not be determined
+   */
+  public long getUndetermined() {
+    return undetermined.sum();
+  }
+
+  public long getRevoked() {
+    return revoked.sum();
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    delegate.checkServerTrusted(chain, authType, engine);
+    checkRevocation(chain, engine != null ? engine.getHandshakeSession() : null);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    delegate.checkServerTrusted(chain, authType, socket);
+    checkRevocation(chain, socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.checkServerTrusted(chain, authType);
+    checkRevocation(chain, null);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    delegate.checkClientTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    delegate.checkClientTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return delegate.getAcceptedIssuers();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RevocationTrustManager{mode=%s, softFail=%s, checked=%d, stapled=%d, unchecked=%d, "
+        + "undetermined=%d, revoked=%d}", mode, softFail, getChecked(), getStapled(), getUnchecked(),
+      getUndetermined(), getRevoked());
+  }
+
+  private void checkRevocation(final X509Certificate[] chain, final SSLSession session) throws CertificateException {
+    Map<X500Principal, List<X509Certificate>> anchors = anchors();
+    // the trust anchor is not part of the certification path
+    List<X509Certificate> path = new ArrayList<>(Arrays.asList(chain));
+    while (!path.isEmpty() && isAnchor(anchors, path.get(path.size() - 1))) {
+      path.remove(path.size() - 1);
+    }
+    if (path.isEmpty()) {
+      return;
+    }
+    List<X509Certificate> pathAnchors = anchors.get(path.get(path.size() - 1).getIssuerX500Principal());
+    if (pathAnchors == null) {
+      throw new CertificateException("No trust anchor to check the revocation of "
+        + path.get(0).getSubjectX500Principal());
+    }
+    List<byte[]> stapledResponses = session instanceof ExtendedSSLSession
+      ? ((ExtendedSSLSession) session).getStatusResponses() : List.of();
+
+    Map<X509Certificate, byte[]> responses = new HashMap<>();
+    Set<CRL> crls = new LinkedHashSet<>();
+    List<Integer> withStatus = new ArrayList<>();
+    int certificates = onlyEndEntity ? 1 : path.size();
+    for (int i = 0; i < certificates; i++) {
+      X509Certificate certificate = path.get(i);
+      X509Certificate issuer = i + 1 < path.size() ? path.get(i + 1) : pathAnchors.get(0);
+      if (mode == Mode.OCSP) {
+        byte[] response = i < stapledResponses.size() && stapledResponses.get(i).length > 0
+          ? stapledResponses.get(i) : null;
+        if (response != null) {
+          stapled.increment();
+        } else {
+          response = ocspResponse(certificate, issuer);
+        }
+        if (response != null) {
+          responses.put(certificate, response);
+          withStatus.add(i);
+        }
+      } else {
+        X509CRL crl = crl(certificate);
+        if (crl != null) {
+          crls.add(crl);
+          withStatus.add(i);
+        }
+      }
+    }
+    if (withStatus.size() == certificates) {
+      checked.increment();
+      validate(path, pathAnchors, responses, crls, onlyEndEntity);
+      return;
+    }
+    // soft-fail only, hard-fail waited for the fetches or threw; a certificate with a status is still checked, as
+    // the end entity of the path from it to the trust anchor, so e.g. a stapled response that says revoked counts
+    unchecked.increment();
+    for (int i : withStatus) {
+      validate(path.subList(i, path.size()), pathAnchors, responses, crls, true);
+    }
+  }
+
+  private byte[] ocspResponse(final X509Certificate certificate, final X509Certificate issuer)
+    throws CertificateException {
+    byte[] response = cache.getOcspResponse(certificate);
+    if (response != null) {
+      return response;
+    }
+    URI responder = ocspResponder != null ? ocspResponder : Der.ocspResponder(certificate);
+    if (responder == null) {
+      return unavailable(certificate, "no OCSP responder");
+    }
+    if (softFail) {
+      cache.prefetchOcspResponse(certificate, issuer, responder);
+      return null;
+    }
+    try {
+      return cache.awaitOcspResponse(certificate, issuer, responder);
+    } catch (GeneralSecurityException | IOException e) {
+      throw new CertificateException("No OCSP response for " + certificate.getSubjectX500Principal(), e);
+    }
+  }
+
+  private X509CRL crl(final X509Certificate certificate) throws CertificateException {
+    URI uri = crlUri != null ? crlUri : Der.crlDistributionPoint(certificate);
+    if (uri == null) {
+      return unavailable(certificate, "no CRL distribution point");
+    }
+    X509CRL crl = cache.getCrl(uri);
+    if (crl != null) {
+      return crl;
+    }
+    if (softFail) {
+      cache.prefetchCrl(uri);
+      return null;
+    }
+    try {
+      return cache.awaitCrl(uri);
+    } catch (GeneralSecurityException | IOException e) {
+      throw new CertificateException("No CRL for " + certificate.getSubjectX500Principal(), e);
+    }
+  }
+
+  private <T> T unavailable(final X509Certificate certificate, final String reason) throws CertificateException {
+    if (softFail) {
+      return null;
+    }
+    throw new CertificateException("Cannot check the revocation of " + certificate.getSubjectX500Principal() + ": "
+      + reason);
+  }
+
+  /**
+   * @param endEntityOnly Check the first certificate of the path only
+   */
+  private void validate(final List<X509Certificate> path, final List<X509Certificate> pathAnchors,
+                        final Map<X509Certificate, byte[]> responses, final Set<CRL> crls,
+                        final boolean endEntityOnly) throws CertificateException {
+    try {
+      CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+      PKIXRevocationChecker checker = (PKIXRevocationChecker) validator.getRevocationChecker();
+      // only what was collected above, the checker must not fetch anything itself
+      Set<PKIXRevocationChecker.Option> options = EnumSet.of(PKIXRevocationChecker.Option.NO_FALLBACK);
+      if (mode == Mode.CRL) {
+        options.add(PKIXRevocationChecker.Option.PREFER_CRLS);
+      }
+      if (endEntityOnly) {
+        options.add(PKIXRevocationChecker.Option.ONLY_END_ENTITY);
+      }
+      checker.setOptions(options);
+      checker.setOcspResponses(responses);
+
+      Set<TrustAnchor> trustAnchors = new HashSet<>();
+      for (X509Certificate anchor : pathAnchors) {
+        trustAnchors.add(new TrustAnchor(anchor, null));
+      }
+      PKIXParameters parameters = new PKIXParameters(trustAnchors);
+      parameters.addCertPathChecker(checker);
+      if (!crls.isEmpty()) {
+        parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+      }
+      validator.validate(CertificateFactory.getInstance("X.509").generateCertPath(path), parameters);
+    } catch (CertPathValidatorException e) {
+      if (e.getReason() == CertPathValidatorException.BasicReason.REVOKED) {
+        revoked.increment();
+        throw new CertificateException(e.getMessage(), e);
+      }
+      if (!softFail) {
+        throw new CertificateException("Revocation status undetermined: " + e.getMessage(), e);
+      }
+      undetermined.increment();
+    } catch (GeneralSecurityException e) {
+      throw new CertificateException(e);
+    }
+  }
+
+  private static boolean isAnchor(final Map<X500Principal, List<X509Certificate>> anchors,
+                                  final X509Certificate certificate) {
+    List<X509Certificate> candidates = anchors.get(certificate.getSubjectX500Principal());
+    return candidates != null && candidates.contains(certificate);
+  }
+
+  /**
+   * @return the accepted issuers of the delegate by subject, indexed on the first check
+   */
+  private Map<X500Principal, List<X509Certificate>> anchors() {
+    Map<X500Principal, List<X509Certificate>> indexed = anchors;
+    if (indexed == null) {
+      indexed = new HashMap<>();
+      for (X509Certificate anchor : delegate.getAcceptedIssuers()) {
+        indexed.computeIfAbsent(anchor.getSubjectX500Principal(), subject -> new ArrayList<>(1)).add(anchor);
+      }
+      anchors = indexed;
+    }
+    return indexed;
+  }
+
+  private static Optional<String> environment(final String name) {
+    return Optional.ofNullable(System.getenv(name));
+  }
+
+  /**
+   * Where the revocation status comes from.
+   */
+  public enum Mode {
+    OFF,
+    OCSP,
+    CRL
+  }
+
+  public static final class Builder {
+
+    private X509ExtendedTrustManager delegate;
+    private Mode mode = Mode.OCSP;
+    private boolean softFail = true;
+    private boolean onlyEndEntity;
+    private URI ocspResponder;
+    private URI crlUri;
+
+    private Builder() {
+    }
+
+    /**
+     * @param delegate Trust manager that validates the chains before their revocation is checked
+     * @return this builder
+     */
+    public Builder delegate(final X509ExtendedTrustManager delegate) {
+      this.delegate = delegate;
+      return this;
+    }
+
+    /**
+     * @param mode OCSP responses, OCSP by default, or CRLs
+     * @return this builder
+     */
+    public Builder mode(final Mode mode) {
+      if (mode == Mode.OFF) {
+        throw new IllegalArgumentException("mode must be OCSP or CRL, use the delegate without revocation checking");
+      }
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * @param softFail Accept chains whose status is not at hand or cannot be determined, true by default
+     * @return this builder
+     */
+    public Builder softFail(final boolean softFail) {
+      this.softFail = softFail;
+      return this;
+    }
+
+    /**
+     * @param onlyEndEntity Check the server certificate only and not its intermediate CAs, false by default
+     * @return this builder
+     */
+    public Builder onlyEndEntity(final boolean onlyEndEntity) {
+      this.onlyEndEntity = onlyEndEntity;
+      return this;
+    }
+
+    /**
+     * @param ocspResponder OCSP responder for every certificate instead of the one in its authority information
+     *                      access extension, or null
+     * @return this builder
+     */
+    public Builder ocspResponder(final URI ocspResponder) {
+      this.ocspResponder = ocspResponder;
+      return this;
+    }
+
+    /**
+     * @param crlUri CRL for every certificate instead of the one in its CRL distribution points extension, or null
+     * @return this builder
+     */
+    public Builder crlUri(final URI crlUri) {
+      this.crlUri = crlUri;
+      return this;
+    }
+
+    public RevocationTrustManager build() {
+      if (delegate == null) {
+        throw new IllegalStateException("RevocationTrustManager needs a delegate trust manager");
+      }
+      return new RevocationTrustManager(this);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client side key manager that presents a different client certificate per backend, so a single SSLContext and a
+ * single HttpClient can talk to any number of mTLS backends.
+ * <p>
+ * The certificate is selected by the peer host and port of the connection. Connections to an unknown peer fall back
+ * to the first route whose keystore holds a certificate issued by one of the CAs the server accepts. Aliases handed
+ * out by this key manager are prefixed with the route index, because every keystore uses the same "lambda" alias.
+ */
+public final class RoutingKeyManager extends X509ExtendedKeyManager {
+
+  private static final String ALIAS_SEPARATOR = "/";
+
+  private final Map<String, Integer> routesByPeer;
+  private final List<X509ExtendedKeyManager> delegates;
+
+  private RoutingKeyManager(final Map<String, Integer> routesByPeer, final List<X509ExtendedKeyManager> delegates) {
+    this.routesByPeer = routesByPeer;
+    this.delegates = delegates;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public String chooseEngineClientAlias(final String[] keyType, final Principal[] issuers, final SSLEngine engine) {
+    Integer route = engine == null ? null : routesByPeer.get(peer(engine.getPeerHost(), engine.getPeerPort()));
+    if (route != null) {
+      return alias(route, delegates.get(route).chooseEngineClientAlias(keyType, issuers, engine));
+    }
+    for (int i = 0; i < delegates.size(); i++) {
+      String alias = delegates.get(i).chooseEngineClientAlias(keyType, issuers, engine);
+      if (alias != null) {
+        return alias(i, alias);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String chooseClientAlias(final String[] keyType, final Principal[] issuers, final Socket socket) {
+    Integer route = socket == null || socket.getInetAddress() == null
+      ? null
+      : routesByPeer.get(peer(socket.getInetAddress().getHostName(), socket.getPort()));
+    if (route != null) {
+      return alias(route, delegates.get(route).chooseClientAlias(keyType, issuers, socket));
+    }
+    for (int i = 0; i < delegates.size(); i++) {
+      String alias = delegates.get(i).chooseClientAlias(keyType, issuers, socket);
+      if (alias != null) {
+        return alias(i, alias);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+    List<String> aliases = new ArrayList<>();
+    for (int i = 0; i < delegates.size(); i++) {
+      String[] delegateAliases = delegates.get(i).getClientAliases(keyType, issuers);
+      if (delegateAliases != null) {
+        for (String alias : delegateAliases) {
+          aliases.add(alias(i, alias));
+        }
+      }
+    }
+    return aliases.isEmpty() ? null : aliases.toArray(new String[0]);
+  }
+
+  @Override
+  public X509Certificate[] getCertificateChain(final String alias) {
+    int separator = alias == null ? -1 : alias.indexOf(ALIAS_SEPARATOR);
+    if (separator < 0) {
+      return null;
+    }
+    return delegate(alias, separator).getCertificateChain(alias.substring(separator + 1));
+  }
+
+  @Override
+  public PrivateKey getPrivateKey(final String alias) {
+    int separator = alias == null ? -1 : alias.indexOf(ALIAS_SEPARATOR);
+    if (separator < 0) {
+      return null;
+    }
+    return delegate(alias, separator).getPrivateKey(alias.substring(separator + 1));
+  }
+
+  // this key manager is only used on the client side of a connection
+
+  @Override
+  public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+    return null;
+  }
+
+  @Override
+  public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+    return null;
+  }
+
+  @Override
+  public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine engine) {
+    return null;
+  }
+
+  private X509ExtendedKeyManager delegate(final String alias, final int separator) {
+    return delegates.get(Integer.parseInt(alias.substring(0, separator)));
+  }
+
+  private static String alias(final int route, final String alias) {
+    return alias == null ? null : route + ALIAS_SEPARATOR + alias;
+  }
+
+  private static String peer(final String host, final int port) {
+    return host + ":" + port;
+  }
+
+  public static final class Builder {
+
+    private final Map<String, Integer> routesByPeer = new LinkedHashMap<>();
+    private final List<X509ExtendedKeyManager> delegates = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * @param host        Host name of the backend, as used in the request URI
+     * @param port        Port of the backend
+     * @param keyManagers Key managers holding the client certificate presented to this backend
+     * @return this builder
+     */
+    public Builder route(final String host, final int port, final KeyManager[] keyManagers) {
+      for (KeyManager keyManager : keyManagers) {
+        if (keyManager instanceof X509ExtendedKeyManager) {
+          routesByPeer.put(peer(host, port), delegates.size());
+          delegates.add((X509ExtendedKeyManager) keyManager);
+          return this;
+        }
+      }
+      throw new IllegalArgumentException("No X509ExtendedKeyManager provided for " + peer(host, port));
+    }
+
+    public RoutingKeyManager build() {
+      return new RoutingKeyManager(Map.copyOf(routesByPeer), List.copyOf(delegates));
+    }
+  }
+}
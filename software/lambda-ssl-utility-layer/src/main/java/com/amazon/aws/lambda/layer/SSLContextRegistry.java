@@ -0,0 +1,306 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide cache of key managers, trust managers and SSLContexts built from keystore files or in-memory keystore
+ * content.
+ * <p>
+ * Entries are kept per file path or source name and carry the {@link KeyStoreFingerprint} they were built from, so a
+ * file is parsed and its PKIX setup is done only once per execution environment, no matter how many handlers or
+ * backends share it. A lookup by path only reads and digests the file when its size or modification time changed. A
+ * store whose content or password changed is built again on the next lookup and replaces the entry of the previous
+ * version, so rotated key material does not stay reachable from the registry. Concurrent lookups of the same entry
+ * wait for a single build.
+ * <p>
+ * A truststore with at least TRUST_INDEX_MIN_ANCHORS (50 by default) certificates, e.g. a CA bundle, gets an
+ * {@link IndexedTrustManager} instead of the default trust manager, which validates against the few anchors that can
+ * have issued a chain and remembers the chains it validated. REVOCATION_CHECK adds a {@link RevocationTrustManager}
+ * on top, which checks the revocation of the server certificates with cached or stapled statuses.
+ */
+public final class SSLContextRegistry {
+
+  private static final SSLContextRegistry INSTANCE = new SSLContextRegistry();
+  private static final int TRUST_INDEX_MIN_ANCHORS = Integer.parseInt(
+    Optional.ofNullable(System.getenv("TRUST_INDEX_MIN_ANCHORS")).orElse("50"));
+
+  // by store name, the SSLContexts by the names of both stores and the policy, one version of each
+  private final ConcurrentMap<String, Entry<KeyManager[]>> keyManagers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Entry<TrustManager[]>> trustManagers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, Entry<SSLContext>> sslContexts = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private SSLContextRegistry() {
+  }
+
+  public static SSLContextRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param pathToKeystoreJKS Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
+   * @param keyStorePassword  KeyStore Password
+   * @return key managers built from the keystore, shared with every other caller using the same file
+   */
+  public KeyManager[] getKeyManagers(final String pathToKeystoreJKS, final String keyStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    KeyManager[] current = current(keyManagers, KeyStoreContent.path(pathToKeystoreJKS).toString(), keyStorePassword);
+    return current != null ? current : getKeyManagers(KeyStoreContent.read(pathToKeystoreJKS), keyStorePassword);
+  }
+
+  /**
+   * @param keyStore         Keystore file content read ahead of the password lookup
+   * @param keyStorePassword KeyStore Password
+   * @return key managers built from the keystore, shared with every other caller using the same file
+   */
+  public KeyManager[] getKeyManagers(final KeyStoreContent keyStore, final String keyStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    return getKeyManagers(KeyStoreFingerprint.of(keyStore, keyStorePassword), keyStorePassword);
+  }
+
+  /**
+   * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
+   * @param trustStorePassword  TrustStore Password
+   * @return trust managers built from the truststore, shared with every other caller using the same file
+   */
+  public TrustManager[] getTrustManagers(final String pathToTruststoreJKS, final String trustStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    TrustManager[] current = current(trustManagers, KeyStoreContent.path(pathToTruststoreJKS).toString(),
+      trustStorePassword);
+    return current != null ? current : getTrustManagers(KeyStoreContent.read(pathToTruststoreJKS), trustStorePassword);
+  }
+
+  /**
+   * @param trustStore         Truststore file content read ahead of the password lookup
+   * @param trustStorePassword TrustStore Password
+   * @return trust managers built from the truststore, shared with every other caller using the same file
+   */
+  public TrustManager[] getTrustManagers(final KeyStoreContent trustStore, final String trustStorePassword)
+    throws GeneralSecurityException, IOException {
+
+    return getTrustManagers(KeyStoreFingerprint.of(trustStore, trustStorePassword), trustStorePassword);
+  }
+
+  /**
+   * @param pathToKeystoreJKS   Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
+   * @param keyStorePassword    KeyStore Password
+   * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
+   * @param trustStorePassword  TrustStore Password
+   * @return SSLContext using the default {@link TlsPolicy}, which can be used in HttpClient
+   */
+  public SSLContext getSSLContext(
+    final String pathToKeystoreJKS,
+    final String keyStorePassword,
+    final String pathToTruststoreJKS,
+    final String trustStorePassword
+  ) throws GeneralSecurityException, IOException {
+
+    return getSSLContext(pathToKeystoreJKS, keyStorePassword, pathToTruststoreJKS, trustStorePassword,
+      TlsPolicy.getDefault());
+  }
+
+  /**
+   * @param pathToKeystoreJKS   Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
+   * @param keyStorePassword    KeyStore Password
+   * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
+   * @param trustStorePassword  TrustStore Password
+   * @param tlsPolicy           Protocols, cipher suites, named groups and signature schemes of the context
+   * @return SSLContext which can be used in HttpClient
+   */
+  public SSLContext getSSLContext(
+    final String pathToKeystoreJKS,
+    final String keyStorePassword,
+    final String pathToTruststoreJKS,
+    final String trustStorePassword,
+    final TlsPolicy tlsPolicy
+  ) throws GeneralSecurityException, IOException {
+
+    SSLContext current = current(sslContexts, List.of(KeyStoreContent.path(pathToKeystoreJKS).toString(),
+      KeyStoreContent.path(pathToTruststoreJKS).toString(), tlsPolicy), keyStorePassword, trustStorePassword);
+    if (current != null) {
+      return current;
+    }
+    return getSSLContext(KeyStoreContent.read(pathToKeystoreJKS), keyStorePassword,
+      KeyStoreContent.read(pathToTruststoreJKS), trustStorePassword, tlsPolicy);
+  }
+
+  /**
+   * @param keyStoreContent    Keystore content, e.g. decoded from a Parameter Store or Secrets Manager value
+   * @param keyStorePassword   KeyStore Password
+   * @param trustStoreContent  Truststore content, e.g. decoded from a Parameter Store or Secrets Manager value
+   * @param trustStorePassword TrustStore Password
+   * @param tlsPolicy          Protocols, cipher suites, named groups and signature schemes of the context
+   * @return SSLContext which can be used in HttpClient
+   */
+  public SSLContext getSSLContext(
+    final KeyStoreContent keyStoreContent,
+    final String keyStorePassword,
+    final KeyStoreContent trustStoreContent,
+    final String trustStorePassword,
+    final TlsPolicy tlsPolicy
+  ) throws GeneralSecurityException, IOException {
+
+    KeyStoreFingerprint keyStore = KeyStoreFingerprint.of(keyStoreContent, keyStorePassword);
+    KeyStoreFingerprint trustStore = KeyStoreFingerprint.of(trustStoreContent, trustStorePassword);
+
+    return lookup(sslContexts, List.of(keyStore.getName(), trustStore.getName(), tlsPolicy),
+      List.of(keyStore, trustStore), () -> SSLContexts.newSSLContext(
+      getKeyManagers(keyStore, keyStorePassword),
+      getTrustManagers(trustStore, trustStorePassword),
+      tlsPolicy));
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Forgets every entry built from the named store, e.g. the keystore of an evicted tenant, so its key material is no
+   * longer reachable from the registry.
+   *
+   * @param name File path or source name of the store, {@link KeyStoreContent#getName()}
+   */
+  void remove(final String name) {
+    keyManagers.remove(name);
+    trustManagers.remove(name);
+    sslContexts.keySet().removeIf(key -> key.contains(name));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SSLContextRegistry{hits=%d, misses=%d}", getHitCount(), getMissCount());
+  }
+
+  private KeyManager[] getKeyManagers(final KeyStoreFingerprint fingerprint, final String password)
+    throws GeneralSecurityException, IOException {
+
+    return lookup(keyManagers, fingerprint.getName(), List.of(fingerprint), () -> {
+      KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      kmf.init(load(fingerprint, password), password.toCharArray());
+      return kmf.getKeyManagers();
+    });
+  }
+
+  private TrustManager[] getTrustManagers(final KeyStoreFingerprint fingerprint, final String password)
+    throws GeneralSecurityException, IOException {
+
+    return lookup(trustManagers, fingerprint.getName(), List.of(fingerprint), () -> {
+      KeyStore trustStore = load(fingerprint, password);
+      if (trustStore.size() >= TRUST_INDEX_MIN_ANCHORS) {
+        return RevocationTrustManager.fromEnvironment(
+          new TrustManager[]{IndexedTrustManager.builder().trustStore(trustStore).build()});
+      }
+      TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      tmf.init(trustStore);
+      return RevocationTrustManager.fromEnvironment(tmf.getTrustManagers());
+    });
+  }
+
+  private static KeyStore load(final KeyStoreFingerprint fingerprint, final String password)
+    throws GeneralSecurityException, IOException {
+
+    long start = System.nanoTime();
+    KeyStore keyStore = fingerprint.getContent().toKeyStore(password);
+    EmbeddedMetrics.getInstance().keyStoreParsed(System.nanoTime() - start);
+    return keyStore;
+  }
+
+  /**
+   * @param passwords Password of each store of the entry, in the order of its fingerprints
+   * @return the built value of the entry if all its stores are files that are unchanged on disk, without reading
+   * them, null if the stores have to be read
+   */
+  private <K, V> V current(final ConcurrentMap<K, Entry<V>> cache, final K key, final String... passwords)
+    throws GeneralSecurityException, IOException {
+
+    Entry<V> entry = cache.get(key);
+    if (entry == null || !entry.future.isDone() || entry.future.isCompletedExceptionally()) {
+      return null;
+    }
+    for (int i = 0; i < passwords.length; i++) {
+      if (!entry.fingerprints.get(i).isCurrent(passwords[i])) {
+        return null;
+      }
+    }
+    hits.increment();
+    return entry.future.join();
+  }
+
+  private <K, V> V lookup(final ConcurrentMap<K, Entry<V>> cache, final K key,
+                          final List<KeyStoreFingerprint> fingerprints, final Builder<V> builder)
+    throws GeneralSecurityException, IOException {
+
+    Entry<V> created = new Entry<>(fingerprints);
+    Entry<V> existing;
+    while (true) {
+      existing = cache.get(key);
+      if (existing != null && existing.fingerprints.equals(fingerprints)) {
+        break;
+      }
+      // a new version of the store replaces the entry of the previous one
+      if (existing == null ? cache.putIfAbsent(key, created) == null : cache.replace(key, existing, created)) {
+        existing = null;
+        break;
+      }
+    }
+
+    if (existing != null) {
+      hits.increment();
+      return Futures.await(existing.future);
+    }
+
+    misses.increment();
+    try {
+      V value = builder.build();
+      created.future.complete(value);
+      return value;
+    } catch (GeneralSecurityException | IOException | RuntimeException e) {
+      // do not cache failures, the next caller gets a fresh attempt
+      cache.remove(key, created);
+      created.future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Value built from one version of the stores, or being built.
+   */
+  private static final class Entry<V> {
+
+    private final List<KeyStoreFingerprint> fingerprints;
+    private final CompletableFuture<V> future = new CompletableFuture<>();
+
+    private Entry(final List<KeyStoreFingerprint> fingerprints) {
+      this.fingerprints = fingerprints;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Builder<V> {
+    V build() throws GeneralSecurityException, IOException;
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Single place where this layer creates SSLContexts, so all of them share the session settings and metrics.
+ * <p>
+ * All contexts draw from one DRBG, which is reseeded after a checkpoint restore, so restored copies of an execution
+ * environment do not generate the same handshake randoms and keys.
+ */
+final class SSLContexts {
+
+  private static final SecureRandom SECURE_RANDOM = newSecureRandom();
+
+  static {
+    Checkpoints.register(new CheckpointListener() {
+      @Override
+      public void afterRestore() {
+        SECURE_RANDOM.reseed();
+      }
+    });
+  }
+
+  private SSLContexts() {
+  }
+
+  static SSLContext newSSLContext(final KeyManager[] keyManagers, final TrustManager[] trustManagers,
+                                  final TlsPolicy tlsPolicy) throws GeneralSecurityException {
+
+    SSLContext sslContext = TrackingSSLContext.newInstance(tlsPolicy);
+    sslContext.init(keyManagers, trustManagers, SECURE_RANDOM);
+
+    return SessionResumption.getDefault().configure(sslContext);
+  }
+
+  private static SecureRandom newSecureRandom() {
+    try {
+      return SecureRandom.getInstance("DRBG");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("DRBG is available on every Java 9+ runtime", e);
+    }
+  }
+}
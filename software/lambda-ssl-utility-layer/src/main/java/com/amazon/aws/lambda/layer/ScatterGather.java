@@ -0,0 +1,243 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Calls any number of backends concurrently and hands out their results in completion order.
+ * <p>
+ * At most maxConcurrency requests are in flight; the next backend is called as soon as one answers. Every backend
+ * has its own timeout, and a backend that fails or times out yields a {@link BackendResult} with that status instead
+ * of failing the whole call, so callers can answer with the partial results. The requests are built once, when the
+ * ScatterGather is built.
+ * <p>
+ * A call gets its own timeout or the time left before the {@link Deadline}, whichever is shorter. When the deadline
+ * passes, the requests still in flight are cancelled and their backends, as well as those not called yet, yield a
+ * TIMEOUT result, so the caller answers in time with what it has. Cancelling aborts the exchanges on Java 16 and
+ * later; on Java 11, the runtime the functions are deployed with, they run to their end in the background, keep their
+ * connections busy until then and their responses are discarded.
+ */
+public final class ScatterGather {
+
+  private final List<Target> targets;
+  private final int maxConcurrency;
+
+  private ScatterGather(final Builder builder) {
+    this.targets = List.copyOf(builder.targets);
+    this.maxConcurrency = builder.maxConcurrency;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param httpClient Client with the SSLContext for the backends
+   * @param deadline   Time by which every backend has to have answered
+   * @param consumer   Receives every result on the calling thread as soon as it is available
+   * @return all results in completion order
+   */
+  public List<BackendResult> gather(final HttpClient httpClient, final Deadline deadline,
+                                    final Consumer<BackendResult> consumer) throws InterruptedException {
+
+    long start = System.nanoTime();
+    BlockingQueue<BackendResult> completed = new LinkedBlockingQueue<>();
+    Queue<CompletableFuture<?>> exchanges = new ConcurrentLinkedQueue<>();
+    Iterator<Target> pending = targets.iterator();
+    Runnable next = new Runnable() {
+      @Override
+      public void run() {
+        Target target;
+        synchronized (pending) {
+          if (!pending.hasNext()) {
+            return;
+          }
+          target = pending.next();
+        }
+        call(httpClient, target, deadline, exchanges).thenAccept(result -> {
+          completed.add(result);
+          run();
+        });
+      }
+    };
+    for (int i = 0; i < Math.min(maxConcurrency, targets.size()); i++) {
+      next.run();
+    }
+
+    List<BackendResult> results = new ArrayList<>(targets.size());
+    while (results.size() < targets.size()) {
+      BackendResult result = completed.poll(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+      if (result == null) {
+        expired(exchanges, results, Duration.ofNanos(System.nanoTime() - start), consumer);
+        break;
+      }
+      consumer.accept(result);
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Writes the results as a JSON array, each element as soon as its backend answered.
+   *
+   * @param httpClient Client with the SSLContext for the backends
+   * @param deadline   Time by which every backend has to have answered
+   * @param out        Destination of the JSON array
+   * @return all results in completion order
+   */
+  public List<BackendResult> writeJsonArray(final HttpClient httpClient, final Deadline deadline,
+                                            final Appendable out) throws IOException, InterruptedException {
+
+    out.append('[');
+    try {
+      List<BackendResult> results = gather(httpClient, deadline, new Consumer<>() {
+        private boolean first = true;
+
+        @Override
+        public void accept(final BackendResult result) {
+          try {
+            if (!first) {
+              out.append(',');
+            }
+            first = false;
+            result.writeJson(out);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+      out.append(']');
+      return results;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Cancels the requests still in flight, which only stops waiting for them on Java 11, and adds a TIMEOUT result for
+   * every backend without a result.
+   */
+  private void expired(final Queue<CompletableFuture<?>> exchanges, final List<BackendResult> results,
+                       final Duration elapsed, final Consumer<BackendResult> consumer) {
+    exchanges.forEach(exchange -> exchange.cancel(true));
+    Set<String> answered = new HashSet<>();
+    results.forEach(result -> answered.add(result.getBackend()));
+    for (Target target : targets) {
+      if (!answered.contains(target.name)) {
+        BackendResult result = BackendResult.failure(target.name, new Deadline.ExceededException(), elapsed);
+        consumer.accept(result);
+        results.add(result);
+      }
+    }
+  }
+
+  private static CompletableFuture<BackendResult> call(final HttpClient httpClient, final Target target,
+                                                       final Deadline deadline,
+                                                       final Queue<CompletableFuture<?>> exchanges) {
+    long start = System.nanoTime();
+    Duration timeout;
+    HttpRequest request;
+    try {
+      timeout = deadline.timeout(target.timeout);
+      request = deadline.bound(target.request);
+    } catch (Deadline.ExceededException e) {
+      return CompletableFuture.completedFuture(BackendResult.failure(target.name, e, Duration.ZERO));
+    }
+    CompletableFuture<HttpResponse<String>> exchange;
+    try {
+      exchange = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    } catch (RuntimeException e) {
+      // a failure result like any other, so the next backend is still called
+      exchange = CompletableFuture.failedFuture(e);
+    }
+    exchanges.add(exchange);
+    return exchange
+      .orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+      .handle((response, e) -> {
+        long nanos = System.nanoTime() - start;
+        EmbeddedMetrics.getInstance().recordRequest(target.request.uri(), nanos);
+        Duration elapsed = Duration.ofNanos(nanos);
+        if (e != null) {
+          return BackendResult.failure(target.name, e, elapsed);
+        }
+        boolean json = response.headers().firstValue("Content-Type")
+          .map(contentType -> contentType.startsWith("application/json"))
+          .orElse(false);
+        return BackendResult.response(target.name, response.statusCode(), response.body(), json, elapsed);
+      });
+  }
+
+  private static final class Target {
+
+    private final String name;
+    private final HttpRequest request;
+    private final Duration timeout;
+
+    private Target(final String name, final HttpRequest request, final Duration timeout) {
+      this.name = name;
+      this.request = request;
+      this.timeout = timeout;
+    }
+  }
+
+  public static final class Builder {
+
+    private final List<Target> targets = new ArrayList<>();
+    private int maxConcurrency = 8;
+
+    private Builder() {
+    }
+
+    /**
+     * @param name    Name of the backend in the results
+     * @param uri     Endpoint to GET
+     * @param timeout Time until the backend counts as timed out, including the connection and TLS handshake
+     * @return this builder
+     */
+    public Builder backend(final String name, final URI uri, final Duration timeout) {
+      HttpRequest request = HttpRequest.newBuilder()
+        .uri(uri)
+        .timeout(timeout)
+        .GET()
+        .build();
+      this.targets.add(new Target(name, request, timeout));
+      return this;
+    }
+
+    /**
+     * @param maxConcurrency Maximum number of backend requests in flight at the same time
+     * @return this builder
+     */
+    public Builder maxConcurrency(final int maxConcurrency) {
+      if (maxConcurrency < 1) {
+        throw new IllegalArgumentException("maxConcurrency must be at least 1");
+      }
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    public ScatterGather build() {
+      return new ScatterGather(this);
+    }
+  }
+}
@@ -0,0 +1,436 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches secrets, e.g. the keystore passwords in Parameter Store, with a time to live and stale-while-revalidate.
+ * <p>
+ * A value younger than the TTL is returned as is. An older value is still returned, without waiting, while one
+ * background load fetches it again; only a value older than the TTL plus the maximum staleness, or a name that was
+ * never loaded, makes the caller wait. Every load is a single batch call of the {@link Loader} for the requested names,
+ * the watched names and every cached name that was read since the previous load, so the secrets of all backends cost
+ * one round trip. A background thread reloads the watched names and the names read since the previous load every half
+ * TTL while the execution environment runs, so invocations normally only see fresh values. A name that is only read
+ * during init is not fetched again until it is read again, which keeps a large value like a keystore out of the
+ * refresh; a name whose rotation has to be noticed without a read, e.g. a keystore password behind
+ * {@link #getGeneration()}, is passed to {@link #watch(Collection)}.
+ * <p>
+ * Optionally the values are written to an AES-GCM encrypted file, e.g. in /tmp. A runtime that is initialized again
+ * in the same execution environment, after a failed init or a crash, starts from the file instead of a round trip.
+ * The TTL and staleness apply to the file content as well.
+ */
+public final class SecretCache implements AutoCloseable {
+
+  private final Loader loader;
+  private final long ttlMillis;
+  private final long maxAgeMillis;
+  private final SecretFile file;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  // cached names read since the previous load, a load fetches them again together with the watched names
+  private final Set<String> used = ConcurrentHashMap.newKeySet();
+  private final Set<String> watched = ConcurrentHashMap.newKeySet();
+  private final Object loadLock = new Object();
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private final AtomicLong generation = new AtomicLong();
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  private SecretCache(final Builder builder) {
+    this.loader = builder.loader;
+    this.ttlMillis = builder.ttl.toMillis();
+    this.maxAgeMillis = builder.ttl.plus(builder.maxStale).toMillis();
+    this.file = builder.file == null ? null : new SecretFile(builder.file, builder.key);
+    readFile();
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "secret-cache");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = Math.max(1, ttlMillis / 2);
+    scheduler.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param name Name of the secret, e.g. /DEV/APP/CLIENT/KEYSTORE/PASSWORD
+   * @return the cached value, loaded first if it is not cached or too old
+   */
+  public String get(final String name) {
+    return getAll(Set.of(name)).get(name);
+  }
+
+  /**
+   * @param names Names of the secrets, missing ones are loaded in one batch
+   * @return values by name
+   */
+  public Map<String, String> getAll(final Collection<String> names) {
+    Map<String, String> values = new LinkedHashMap<>();
+    Set<String> missing = new LinkedHashSet<>();
+    boolean stale = false;
+    long now = System.currentTimeMillis();
+
+    for (String name : names) {
+      Entry entry = entries.get(name);
+      long age = entry == null ? Long.MAX_VALUE : now - entry.loadedAt;
+      if (age >= maxAgeMillis) {
+        missing.add(name);
+      } else if (age >= ttlMillis) {
+        staleHits.increment();
+        stale = true;
+        used.add(name);
+        values.put(name, entry.value);
+      } else {
+        hits.increment();
+        used.add(name);
+        values.put(name, entry.value);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      misses.add(missing.size());
+      Map<String, String> loaded = load(missing);
+      for (String name : missing) {
+        values.put(name, loaded.get(name));
+      }
+    }
+    if (stale) {
+      refreshInBackground();
+    }
+    return values;
+  }
+
+  /**
+   * Starts loading the names in the background, e.g. as the first step of the function init.
+   */
+  public void prefetch(final Collection<String> names) {
+    scheduler.execute(() -> {
+      try {
+        getAll(names);
+      } catch (RuntimeException e) {
+        // the caller that needs the values gets the failure
+      }
+    });
+  }
+
+  /**
+   * Includes the names in every load, including the background refresh, whether they are read or not, so
+   * {@link #getGeneration()} changes when one of them is rotated.
+   *
+   * @param names Names of the secrets, e.g. the keystore passwords that a {@link KeyMaterialReloader} versions by the
+   *              generation
+   */
+  public void watch(final Collection<String> names) {
+    watched.addAll(names);
+  }
+
+  /**
+   * @return a number that changes whenever a load returned a changed value, usable as a version of the secrets
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getStaleHitCount() {
+    return staleHits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getLoadCount() {
+    return loads.sum();
+  }
+
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SecretCache{hits=%d, staleHits=%d, misses=%d, loads=%d, failures=%d}",
+      getHitCount(), getStaleHitCount(), getMissCount(), getLoadCount(), getFailureCount());
+  }
+
+  private void refresh() {
+    if (used.isEmpty() && watched.isEmpty()) {
+      return;
+    }
+    try {
+      load(Set.of());
+    } catch (RuntimeException e) {
+      // keep serving the cached values until they are too old
+    }
+  }
+
+  private void refreshInBackground() {
+    if (refreshing.compareAndSet(false, true)) {
+      try {
+        scheduler.execute(() -> {
+          try {
+            refresh();
+          } finally {
+            refreshing.set(false);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // closed, the values are only loaded when they are too old
+        refreshing.set(false);
+      }
+    }
+  }
+
+  /**
+   * Loads the names together with the watched names and every cached name read since the previous load, one load at a
+   * time.
+   */
+  private Map<String, String> load(final Set<String> names) {
+    synchronized (loadLock) {
+      // a load that finished while this one waited may have brought the values already
+      long now = System.currentTimeMillis();
+      Map<String, String> current = new HashMap<>();
+      for (String name : names) {
+        Entry entry = entries.get(name);
+        if (entry != null && now - entry.loadedAt < ttlMillis) {
+          current.put(name, entry.value);
+        }
+      }
+      if (!names.isEmpty() && current.size() == names.size()) {
+        return current;
+      }
+
+      Set<String> batch = new LinkedHashSet<>(names);
+      batch.addAll(watched);
+      batch.addAll(used);
+      if (batch.isEmpty()) {
+        return current;
+      }
+      // a read during the load marks the name again for the next one
+      used.removeAll(batch);
+      Map<String, String> loaded;
+      try {
+        loaded = loader.load(batch);
+      } catch (Exception e) {
+        failures.increment();
+        batch.stream().filter(entries::containsKey).forEach(used::add);
+        throw new IllegalStateException("Could not load secrets " + batch, e);
+      }
+      loads.increment();
+
+      for (String name : names) {
+        if (loaded.get(name) == null) {
+          failures.increment();
+          throw new IllegalStateException("Secret not found: " + name);
+        }
+      }
+
+      boolean changed = false;
+      long loadedAt = System.currentTimeMillis();
+      for (Map.Entry<String, String> value : loaded.entrySet()) {
+        Entry previous = entries.put(value.getKey(), new Entry(value.getValue(), loadedAt));
+        changed |= previous == null || !Objects.equals(previous.value, value.getValue());
+      }
+      if (changed) {
+        generation.incrementAndGet();
+      }
+      writeFile();
+      return loaded;
+    }
+  }
+
+  private void readFile() {
+    if (file == null) {
+      return;
+    }
+    try {
+      byte[] content = file.read();
+      if (content == null) {
+        return;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        entries.put(name, new Entry(new String(value, StandardCharsets.UTF_8), in.readLong()));
+      }
+    } catch (Exception e) {
+      // unreadable, written with another key or tampered with, start from the loader
+      entries.clear();
+      deleteFile();
+    }
+  }
+
+  private void writeFile() {
+    if (file == null) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(content);
+      Map<String, Entry> snapshot = new HashMap<>(entries);
+      out.writeInt(snapshot.size());
+      for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+        byte[] value = entry.getValue().value.getBytes(StandardCharsets.UTF_8);
+        out.writeUTF(entry.getKey());
+        out.writeInt(value.length);
+        out.write(value);
+        out.writeLong(entry.getValue().loadedAt);
+      }
+      out.flush();
+      file.write(content.toByteArray());
+    } catch (Exception e) {
+      // the file is an optimization, the values in memory are still valid
+      deleteFile();
+    }
+  }
+
+  private void deleteFile() {
+    try {
+      file.delete();
+    } catch (IOException e) {
+      // nothing left to do, the next write replaces it
+    }
+  }
+
+  /**
+   * Loads secrets by name, e.g. with GetParameters of Parameter Store.
+   */
+  @FunctionalInterface
+  public interface Loader {
+
+    /**
+     * @param names Names of the secrets to load in one batch
+     * @return values by name, names that do not exist are left out
+     */
+    Map<String, String> load(Set<String> names) throws Exception;
+  }
+
+  private static final class Entry {
+
+    private final String value;
+    private final long loadedAt;
+
+    private Entry(final String value, final long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  public static final class Builder {
+
+    private Loader loader;
+    private Duration ttl = Duration.ofMinutes(5);
+    private Duration maxStale = Duration.ofHours(1);
+    private Path file;
+    private SecretKey key;
+
+    private Builder() {
+    }
+
+    public Builder loader(final Loader loader) {
+      this.loader = loader;
+      return this;
+    }
+
+    /**
+     * @param ttl Age after which a value is loaded again, in the background
+     * @return this builder
+     */
+    public Builder ttl(final Duration ttl) {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * @param maxStale Time after the TTL during which the previous value is still returned while it is loaded again,
+     *                 e.g. while Parameter Store is not reachable
+     * @return this builder
+     */
+    public Builder maxStale(final Duration maxStale) {
+      this.maxStale = maxStale;
+      return this;
+    }
+
+    /**
+     * @param file Path of the encrypted cache file, e.g. /tmp/secrets.bin
+     * @param key  AES key the file is encrypted with; keep it out of the file system, e.g. in an environment variable
+     *             encrypted with a customer managed KMS key
+     * @return this builder
+     */
+    public Builder file(final Path file, final SecretKey key) {
+      this.file = Objects.requireNonNull(file);
+      this.key = Objects.requireNonNull(key);
+      return this;
+    }
+
+    /**
+     * Enables the encrypted cache file when the environment variable SECRET_CACHE_KEY holds a base64 encoded AES key,
+     * and leaves it disabled otherwise.
+     *
+     * @param file Path of the encrypted cache file, e.g. /tmp/secrets.bin
+     * @return this builder
+     */
+    public Builder fileFromEnvironment(final Path file) {
+      Optional.ofNullable(System.getenv("SECRET_CACHE_KEY"))
+        .map(key -> new SecretKeySpec(Base64.getDecoder().decode(key), "AES"))
+        .ifPresent(key -> file(file, key));
+      return this;
+    }
+
+    public SecretCache build() {
+      if (loader == null) {
+        throw new IllegalStateException("SecretCache needs a loader");
+      }
+      return new SecretCache(this);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A file encrypted with AES-GCM, readable only with the key that wrote it. The file is the random 12 byte nonce
+ * followed by the ciphertext and the authentication tag, so a modified or truncated file fails to decrypt instead of
+ * yielding wrong content.
+ */
+final class SecretFile {
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+  private static final byte[] ASSOCIATED_DATA = "SecretCache/1".getBytes(StandardCharsets.US_ASCII);
+  private static final SecureRandom NONCES = new SecureRandom();
+
+  private final Path path;
+  private final SecretKey key;
+
+  SecretFile(final Path path, final SecretKey key) {
+    this.path = path;
+    this.key = key;
+  }
+
+  /**
+   * @return the decrypted content, or null if the file does not exist
+   */
+  byte[] read() throws IOException, GeneralSecurityException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    byte[] file = Files.readAllBytes(path);
+    if (file.length < NONCE_LENGTH) {
+      throw new GeneralSecurityException("Truncated file " + path);
+    }
+    Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, file, 0, NONCE_LENGTH));
+    cipher.updateAAD(ASSOCIATED_DATA);
+    return cipher.doFinal(file, NONCE_LENGTH, file.length - NONCE_LENGTH);
+  }
+
+  /**
+   * Replaces the file atomically, readers see either the previous or the new content.
+   */
+  void write(final byte[] content) throws IOException, GeneralSecurityException {
+    byte[] nonce = new byte[NONCE_LENGTH];
+    NONCES.nextBytes(nonce);
+    Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+    cipher.updateAAD(ASSOCIATED_DATA);
+    byte[] ciphertext = cipher.doFinal(content);
+
+    byte[] file = Arrays.copyOf(nonce, NONCE_LENGTH + ciphertext.length);
+    System.arraycopy(ciphertext, 0, file, NONCE_LENGTH, ciphertext.length);
+
+    Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp",
+      PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    try {
+      Files.write(temporary, file);
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  Path getPath() {
+    return path;
+  }
+}
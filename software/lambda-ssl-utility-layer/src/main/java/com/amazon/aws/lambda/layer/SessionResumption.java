@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Client session cache settings applied to every SSLContext built by this layer, so connections opened by a warm
+ * execution environment resume an earlier session instead of paying for a full mutual handshake.
+ * <p>
+ * The defaults are read from the environment variables SSL_SESSION_CACHE_SIZE and SSL_SESSION_TIMEOUT_SECONDS. TLS 1.3
+ * contexts resume through pre-shared keys from session tickets. Stateless TLS 1.2 resumption with tickets is controlled
+ * by the jdk.tls.client.enableSessionTicketExtension system property, which JSSE reads once when its classes are
+ * initialized, usually by the first AWS SDK call; the stack sets it in JAVA_TOOL_OPTIONS instead of this class.
+ * Resumption is observable in {@link HandshakeMetrics}.
+ */
+public final class SessionResumption {
+
+  private static final SessionResumption DEFAULT = fromEnvironment();
+
+  private final int cacheSize;
+  private final Duration timeout;
+
+  private SessionResumption(final Builder builder) {
+    this.cacheSize = builder.cacheSize;
+    this.timeout = builder.timeout;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static SessionResumption getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Reads the cache size from SSL_SESSION_CACHE_SIZE, 20480 if it is not set, and the timeout from
+   * SSL_SESSION_TIMEOUT_SECONDS, 24 hours if it is not set.
+   *
+   * @return the session cache settings of the function
+   */
+  public static SessionResumption fromEnvironment() {
+    return new Builder()
+      .cacheSize(Integer.parseInt(environment("SSL_SESSION_CACHE_SIZE").orElse("20480")))
+      .timeout(Duration.ofSeconds(Long.parseLong(environment("SSL_SESSION_TIMEOUT_SECONDS").orElse("86400"))))
+      .build();
+  }
+
+  /**
+   * Sizes the client session cache of the given context.
+   *
+   * @param sslContext Initialized SSLContext
+   * @return the same SSLContext
+   */
+  public SSLContext configure(final SSLContext sslContext) {
+    SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+    sessionContext.setSessionCacheSize(cacheSize);
+    sessionContext.setSessionTimeout((int) timeout.toSeconds());
+    return sslContext;
+  }
+
+  /**
+   * Invalidates every cached session, so the next connection performs a full handshake.
+   *
+   * @param sessionContext Client session cache of an SSLContext
+   */
+  public static void invalidate(final SSLSessionContext sessionContext) {
+    for (byte[] id : Collections.list(sessionContext.getIds())) {
+      SSLSession session = sessionContext.getSession(id);
+      if (session != null) {
+        session.invalidate();
+      }
+    }
+  }
+
+  private static Optional<String> environment(final String name) {
+    return Optional.ofNullable(System.getenv(name));
+  }
+
+  public static final class Builder {
+
+    private int cacheSize = 20480;
+    private Duration timeout = Duration.ofHours(24);
+
+    private Builder() {
+    }
+
+    /**
+     * @param cacheSize Maximum number of cached client sessions, 0 for no limit
+     * @return this builder
+     */
+    public Builder cacheSize(final int cacheSize) {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * @param timeout How long a cached session can be resumed
+     * @return this builder
+     */
+    public Builder timeout(final Duration timeout) {
+      this.timeout = timeout;
+      return this;
+    }
+
+    public SessionResumption build() {
+      return new SessionResumption(this);
+    }
+  }
+}
@@ -0,0 +1,412 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Client certificates per tenant, e.g. one per partner, selected per request: the keystore of a tenant is loaded, and
+ * its SSLContext and HttpClient are built, on the first request of the tenant instead of during init, so hundreds of
+ * certificates need neither a layer nor a key manager each. Concurrent first requests of a tenant wait for a single
+ * build. A failed build is remembered for a short time, 30 seconds by default, and requests of the tenant fail the
+ * same way until then, so requests for unknown tenants, which callers choose, cannot make every request load a
+ * keystore, e.g. with a Parameter Store call that is throttled for the known tenants as well. At most maxTenants
+ * failures are remembered, the oldest are forgotten first.
+ * <p>
+ * At most maxTenants clients are kept, and at most maxBytes of estimated memory: the keystore content several times
+ * over for the parsed keys and certificates, plus a fixed estimate for the SSLContext, its session cache and the
+ * connection buffers of the HttpClient. The least recently used tenants are evicted first. An evicted tenant's cached
+ * sessions are invalidated, and its client is closed if it is AutoCloseable, e.g. an HttpClient on Java 21 or later,
+ * which still completes the requests in flight; on older runtimes the client stops once it is no longer referenced.
+ * Evicted clients are closed on a background thread, so no request waits for it.
+ */
+public final class TenantClients implements AutoCloseable {
+
+  // SSLContext, session cache, HttpClient with its selector and the buffers of one connection per backend
+  private static final long CLIENT_OVERHEAD_BYTES = 256 * 1024;
+  // keys, certificate chains and their parsed forms, relative to the keystore content
+  private static final int KEY_MATERIAL_FACTOR = 4;
+
+  private final KeyStoreLoader keyStoreLoader;
+  private final Supplier<String> keyStorePassword;
+  private final TrustManager[] trustManagers;
+  private final TlsPolicy tlsPolicy;
+  private final Function<SSLContext, HttpClient> clientFactory;
+  private final int maxTenants;
+  private final long maxBytes;
+  // guarded by itself, in access order for the LRU eviction; a tenant in its first build has an incomplete future
+  private final LinkedHashMap<String, CompletableFuture<Tenant>> tenants = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  // guarded by tenants, in insertion order, so the oldest failures are forgotten first
+  private final LinkedHashMap<String, Failure> failed = new LinkedHashMap<>();
+  private final long failureTtlNanos;
+  private final ExecutorService closer = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "tenant-clients");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder builds = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder failureHits = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private TenantClients(final Builder builder) {
+    this.keyStoreLoader = builder.keyStoreLoader;
+    this.keyStorePassword = builder.keyStorePassword;
+    this.trustManagers = builder.trustManagers;
+    this.tlsPolicy = builder.tlsPolicy;
+    this.clientFactory = builder.clientFactory;
+    this.maxTenants = builder.maxTenants;
+    this.maxBytes = builder.maxBytes;
+    this.failureTtlNanos = builder.failureTtl.toNanos();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param tenant Tenant of the request, e.g. from its path or a header; validate it before it names a keystore
+   * @return the client that presents the certificate of the tenant, built on the first request of the tenant
+   * @throws GeneralSecurityException if the keystore of the tenant cannot be parsed, now or by a recent build
+   * @throws IOException              if the keystore of the tenant cannot be loaded, now or by a recent build
+   */
+  public HttpClient getHttpClient(final String tenant) throws GeneralSecurityException, IOException {
+    CompletableFuture<Tenant> created = new CompletableFuture<>();
+    CompletableFuture<Tenant> existing;
+    synchronized (tenants) {
+      Failure failure = failed.get(tenant);
+      if (failure != null && System.nanoTime() - failure.failedAt < failureTtlNanos) {
+        existing = failure.build;
+        failureHits.increment();
+      } else {
+        failed.remove(tenant);
+        existing = tenants.putIfAbsent(tenant, created);
+        if (existing != null) {
+          hits.increment();
+        }
+      }
+    }
+    if (existing != null) {
+      return Futures.await(existing).client;
+    }
+
+    builds.increment();
+    Tenant built;
+    try {
+      built = build(tenant);
+    } catch (GeneralSecurityException | IOException | RuntimeException e) {
+      failures.increment();
+      created.completeExceptionally(e);
+      synchronized (tenants) {
+        tenants.remove(tenant, created);
+        failed.put(tenant, new Failure(created, System.nanoTime()));
+        Iterator<Failure> eldest = failed.values().iterator();
+        while (failed.size() > maxTenants) {
+          eldest.next();
+          eldest.remove();
+        }
+      }
+      throw e;
+    }
+    created.complete(built);
+    evict(tenant, built.size);
+    return built.client;
+  }
+
+  /**
+   * @return tenants with a client, including the ones in their first build
+   */
+  public int getTenants() {
+    synchronized (tenants) {
+      return tenants.size();
+    }
+  }
+
+  /**
+   * @return estimated memory of the clients that are built
+   */
+  public long getBytes() {
+    synchronized (tenants) {
+      return bytes;
+    }
+  }
+
+  /**
+   * @return requests of a tenant whose client was built or in its build already
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return first requests of a tenant, each of them loaded a keystore and built a client
+   */
+  public long getBuilds() {
+    return builds.sum();
+  }
+
+  /**
+   * @return builds that failed, e.g. for a tenant without a keystore
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * @return requests that failed with the failure of a recent build of their tenant, without a build of their own
+   */
+  public long getFailureHits() {
+    return failureHits.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Closes the client of every tenant and removes them, later requests build the clients again, also those of tenants
+   * whose build failed recently.
+   */
+  public void invalidate() {
+    List<Tenant> removed = new ArrayList<>();
+    synchronized (tenants) {
+      failed.clear();
+      Iterator<CompletableFuture<Tenant>> iterator = tenants.values().iterator();
+      while (iterator.hasNext()) {
+        CompletableFuture<Tenant> future = iterator.next();
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+          removed.add(future.join());
+          bytes -= future.join().size;
+          iterator.remove();
+        }
+      }
+    }
+    removed.forEach(this::closeLater);
+  }
+
+  @Override
+  public void close() {
+    invalidate();
+    closer.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TenantClients{tenants=%d, bytes=%d, hits=%d, builds=%d, failures=%d, failureHits=%d, "
+        + "evictions=%d}", getTenants(), getBytes(), getHits(), getBuilds(), getFailures(), getFailureHits(),
+      getEvictions());
+  }
+
+  private Tenant build(final String tenant) throws GeneralSecurityException, IOException {
+    KeyStoreContent keyStore = keyStoreLoader.load(tenant);
+    String password = keyStorePassword.get();
+    SSLContext sslContext = SSLContexts.newSSLContext(
+      SSLContextRegistry.getInstance().getKeyManagers(keyStore, password), trustManagers, tlsPolicy);
+    HttpClient client = clientFactory.apply(sslContext);
+    return new Tenant(keyStore.getName(), sslContext, client,
+      CLIENT_OVERHEAD_BYTES + KEY_MATERIAL_FACTOR * keyStore.getSize());
+  }
+
+  /**
+   * Adds a built client and evicts the least recently used other built clients while a bound is exceeded.
+   */
+  private void evict(final String built, final long size) {
+    List<Tenant> evicted = new ArrayList<>();
+    synchronized (tenants) {
+      bytes += size;
+      Iterator<Map.Entry<String, CompletableFuture<Tenant>>> eldest = tenants.entrySet().iterator();
+      while ((tenants.size() > maxTenants || bytes > maxBytes) && eldest.hasNext()) {
+        Map.Entry<String, CompletableFuture<Tenant>> entry = eldest.next();
+        CompletableFuture<Tenant> future = entry.getValue();
+        // tenants in their first build are not counted in bytes yet, their builders add them
+        if (!entry.getKey().equals(built) && future.isDone() && !future.isCompletedExceptionally()) {
+          Tenant tenant = future.join();
+          bytes -= tenant.size;
+          eldest.remove();
+          evicted.add(tenant);
+          evictions.increment();
+        }
+      }
+    }
+    evicted.forEach(this::closeLater);
+  }
+
+  private void closeLater(final Tenant tenant) {
+    closer.execute(() -> {
+      // the key managers of the tenant are built again if it comes back
+      SSLContextRegistry.getInstance().remove(tenant.keyStore);
+      SessionResumption.invalidate(tenant.sslContext.getClientSessionContext());
+      if (tenant.client instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) tenant.client).close();
+        } catch (Exception e) {
+          // the client is not used any more either way
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads the client keystore of a tenant, e.g. from a file per tenant or a Parameter Store value.
+   */
+  @FunctionalInterface
+  public interface KeyStoreLoader {
+
+    KeyStoreContent load(String tenant) throws IOException;
+  }
+
+  private static final class Tenant {
+
+    private final String keyStore;
+    private final SSLContext sslContext;
+    private final HttpClient client;
+    private final long size;
+
+    private Tenant(final String keyStore, final SSLContext sslContext, final HttpClient client, final long size) {
+      this.keyStore = keyStore;
+      this.sslContext = sslContext;
+      this.client = client;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A failed build, its exceptional future is what requests of the tenant get until it expires.
+   */
+  private static final class Failure {
+
+    private final CompletableFuture<Tenant> build;
+    private final long failedAt;
+
+    private Failure(final CompletableFuture<Tenant> build, final long failedAt) {
+      this.build = build;
+      this.failedAt = failedAt;
+    }
+  }
+
+  public static final class Builder {
+
+    private KeyStoreLoader keyStoreLoader;
+    private Supplier<String> keyStorePassword;
+    private TrustManager[] trustManagers;
+    private TlsPolicy tlsPolicy = TlsPolicy.getDefault();
+    private Function<SSLContext, HttpClient> clientFactory;
+    private int maxTenants = 100;
+    private long maxBytes = 32L * 1024 * 1024;
+    private Duration failureTtl = Duration.ofSeconds(30);
+
+    private Builder() {
+    }
+
+    /**
+     * @param keyStoreLoader Loads the keystore of a tenant on its first request
+     * @return this builder
+     */
+    public Builder keyStoreLoader(final KeyStoreLoader keyStoreLoader) {
+      this.keyStoreLoader = keyStoreLoader;
+      return this;
+    }
+
+    /**
+     * @param keyStorePassword Password of the tenant keystores, asked for on every build, e.g. from a
+     *                         {@link SecretCache}
+     * @return this builder
+     */
+    public Builder keyStorePassword(final Supplier<String> keyStorePassword) {
+      this.keyStorePassword = keyStorePassword;
+      return this;
+    }
+
+    /**
+     * @param trustManagers Trust managers shared by every tenant, the backends are the same for all of them
+     * @return this builder
+     */
+    public Builder trustManagers(final TrustManager... trustManagers) {
+      this.trustManagers = trustManagers.clone();
+      return this;
+    }
+
+    /**
+     * @param tlsPolicy Protocols, cipher suites, named groups and signature schemes of the contexts
+     * @return this builder
+     */
+    public Builder tlsPolicy(final TlsPolicy tlsPolicy) {
+      this.tlsPolicy = tlsPolicy;
+      return this;
+    }
+
+    /**
+     * @param clientFactory Creates the client of a tenant from its SSLContext
+     * @return this builder
+     */
+    public Builder clientFactory(final Function<SSLContext, HttpClient> clientFactory) {
+      this.clientFactory = clientFactory;
+      return this;
+    }
+
+    /**
+     * @param maxTenants Tenants whose clients are kept, 100 by default
+     * @return this builder
+     */
+    public Builder maxTenants(final int maxTenants) {
+      if (maxTenants < 1) {
+        throw new IllegalArgumentException("maxTenants must be at least 1");
+      }
+      this.maxTenants = maxTenants;
+      return this;
+    }
+
+    /**
+     * @param maxBytes Upper bound of the estimated memory of the clients, 32 MiB by default; the most recent client
+     *                 is kept even if it alone exceeds it
+     * @return this builder
+     */
+    public Builder maxBytes(final long maxBytes) {
+      if (maxBytes < 1) {
+        throw new IllegalArgumentException("maxBytes must be positive");
+      }
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * @param failureTtl Time during which requests of a tenant whose build failed fail without a build, 30 seconds by
+     *                   default; zero builds again on every request
+     * @return this builder
+     */
+    public Builder failureTtl(final Duration failureTtl) {
+      if (failureTtl.isNegative()) {
+        throw new IllegalArgumentException("failureTtl must not be negative");
+      }
+      this.failureTtl = failureTtl;
+      return this;
+    }
+
+    public TenantClients build() {
+      if (keyStoreLoader == null || keyStorePassword == null || trustManagers == null || clientFactory == null) {
+        throw new IllegalStateException("TenantClients needs a keystore loader, a password, trust managers and a "
+          + "client factory");
+      }
+      return new TenantClients(this);
+    }
+  }
+}
@@ -0,0 +1,282 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLParameters;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Protocol versions, cipher suite order, named groups and signature schemes used for connections to the backends.
+ * <p>
+ * The default policy prefers TLS 1.3 for its one round trip handshake and cheaper resumption and keeps TLS 1.2 as a
+ * fallback. Cipher suites are limited to ECDHE key exchange with AES-GCM and ChaCha20-Poly1305; AES-128-GCM comes
+ * first because the ARM_64 Lambda runtime accelerates it with the ARMv8 crypto extensions. Suites the JDK does not
+ * support are dropped when the policy is applied.
+ * <p>
+ * Named groups and signature schemes are set per connection through SSLParameters on runtimes that support it, Java
+ * 20 and later. Older runtimes, like the Java 11 runtime of the stack, only know the process-wide jdk.tls.namedGroups
+ * and jdk.tls.client.SignatureSchemes system properties, which JSSE reads once when its classes are initialized and
+ * which then apply to every TLS connection of the JVM, including those of the AWS SDK. On these runtimes the named
+ * groups and signature schemes of a policy are ignored and take no part in {@link #equals(Object)}; set the system
+ * properties in JAVA_TOOL_OPTIONS of the function to change them at start-up.
+ * <p>
+ * When the KEY_PROFILE environment variable names a {@link KeyProfile}, the default policy puts the signature schemes
+ * and TLS 1.2 cipher suites of that key algorithm first.
+ */
+public final class TlsPolicy {
+
+  // SSLParameters.setNamedGroups and setSignatureSchemes, null on runtimes before Java 20
+  private static final Method SET_NAMED_GROUPS = parametersMethod("setNamedGroups");
+  private static final Method SET_SIGNATURE_SCHEMES = parametersMethod("setSignatureSchemes");
+
+  private static final TlsPolicy BASELINE = builder()
+    .protocols("TLSv1.3", "TLSv1.2")
+    .cipherSuites(
+      "TLS_AES_128_GCM_SHA256",
+      "TLS_CHACHA20_POLY1305_SHA256",
+      "TLS_AES_256_GCM_SHA384",
+      "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+      "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+      "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+      "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+      "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+      "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384")
+    .namedGroups("x25519", "secp256r1", "secp384r1")
+    .signatureSchemes(
+      "ecdsa_secp256r1_sha256",
+      "ed25519",
+      "rsa_pss_rsae_sha256",
+      "rsa_pss_pss_sha256",
+      "rsa_pkcs1_sha256",
+      "ecdsa_secp384r1_sha384",
+      "rsa_pss_rsae_sha384",
+      "rsa_pkcs1_sha384")
+    .build();
+
+  private static final TlsPolicy DEFAULT = KeyProfile.fromEnvironment()
+    .map(TlsPolicy::forKeyProfile)
+    .orElse(BASELINE);
+
+  private static final TlsPolicy TLS_1_2 = builder()
+    .protocols("TLSv1.2")
+    .build();
+
+  private final List<String> protocols;
+  private final List<String> cipherSuites;
+  private final List<String> namedGroups;
+  private final List<String> signatureSchemes;
+
+  private TlsPolicy(final Builder builder) {
+    this.protocols = List.copyOf(builder.protocols);
+    this.cipherSuites = List.copyOf(builder.cipherSuites);
+    this.namedGroups = List.copyOf(builder.namedGroups);
+    this.signatureSchemes = List.copyOf(builder.signatureSchemes);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return TLS 1.3 with TLS 1.2 fallback and the fast cipher suites, named groups and signature schemes, ordered for
+   * the KEY_PROFILE environment variable if set
+   */
+  public static TlsPolicy getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param keyProfile Key algorithm of the client and backend certificates
+   * @return the default protocols and named groups with the signature schemes and cipher suites of the profile first
+   */
+  public static TlsPolicy forKeyProfile(final KeyProfile keyProfile) {
+    return builder()
+      .protocols(BASELINE.protocols.toArray(new String[0]))
+      .cipherSuites(preferFirst(BASELINE.cipherSuites, BASELINE.cipherSuites.stream()
+        .filter(keyProfile::isCompatible)
+        .collect(Collectors.toList())))
+      .namedGroups(BASELINE.namedGroups.toArray(new String[0]))
+      .signatureSchemes(preferFirst(BASELINE.signatureSchemes, keyProfile.getSignatureSchemes()))
+      .build();
+  }
+
+  /**
+   * @return TLS 1.2 only with the JDK default cipher suites, the behaviour before policies were introduced
+   */
+  public static TlsPolicy tls12() {
+    return TLS_1_2;
+  }
+
+  /**
+   * @param parameters Default or supported SSLParameters of an SSLContext
+   * @return copy of the parameters restricted and ordered by this policy
+   */
+  public SSLParameters apply(final SSLParameters parameters) {
+    SSLParameters result = new SSLParameters(
+      retain(parameters.getCipherSuites(), cipherSuites),
+      retain(parameters.getProtocols(), protocols));
+    result.setEndpointIdentificationAlgorithm(parameters.getEndpointIdentificationAlgorithm());
+    result.setServerNames(parameters.getServerNames());
+    result.setApplicationProtocols(parameters.getApplicationProtocols());
+    result.setNeedClientAuth(parameters.getNeedClientAuth());
+    if (!parameters.getNeedClientAuth()) {
+      result.setWantClientAuth(parameters.getWantClientAuth());
+    }
+    set(SET_NAMED_GROUPS, result, namedGroups);
+    set(SET_SIGNATURE_SCHEMES, result, signatureSchemes);
+    return result;
+  }
+
+  /**
+   * @return true if this runtime applies the named groups and signature schemes of a policy per connection
+   */
+  private static boolean isPerConnectionGroupsSupported() {
+    return SET_NAMED_GROUPS != null && SET_SIGNATURE_SCHEMES != null;
+  }
+
+  /**
+   * @return the SSLContext protocol that enables every protocol version of this policy
+   */
+  String getContextProtocol() {
+    return protocols.size() == 1 ? protocols.get(0) : "TLS";
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TlsPolicy)) {
+      return false;
+    }
+    TlsPolicy that = (TlsPolicy) o;
+    // policies that only differ in settings the runtime ignores build the same SSLContext
+    return protocols.equals(that.protocols)
+      && cipherSuites.equals(that.cipherSuites)
+      && (!isPerConnectionGroupsSupported()
+      || namedGroups.equals(that.namedGroups) && signatureSchemes.equals(that.signatureSchemes));
+  }
+
+  @Override
+  public int hashCode() {
+    return isPerConnectionGroupsSupported()
+      ? Objects.hash(protocols, cipherSuites, namedGroups, signatureSchemes)
+      : Objects.hash(protocols, cipherSuites);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TlsPolicy{protocols=%s, cipherSuites=%s, namedGroups=%s, signatureSchemes=%s}",
+      protocols, cipherSuites, namedGroups, signatureSchemes);
+  }
+
+  /**
+   * @return the preferred values that are available, in preferred order, or all available values without preference
+   */
+  private static String[] retain(final String[] available, final List<String> preferred) {
+    if (preferred.isEmpty()) {
+      return available;
+    }
+    List<String> availableValues = Arrays.asList(available);
+    List<String> result = new ArrayList<>();
+    for (String value : preferred) {
+      if (availableValues.contains(value)) {
+        result.add(value);
+      }
+    }
+    return result.toArray(new String[0]);
+  }
+
+  /**
+   * @return the preferred values followed by the remaining values, each in their original order
+   */
+  private static String[] preferFirst(final List<String> values, final List<String> preferred) {
+    List<String> result = new ArrayList<>(preferred);
+    for (String value : values) {
+      if (!result.contains(value)) {
+        result.add(value);
+      }
+    }
+    return result.toArray(new String[0]);
+  }
+
+  private static void set(final Method setter, final SSLParameters parameters, final List<String> values) {
+    if (setter == null || values.isEmpty()) {
+      return;
+    }
+    try {
+      setter.invoke(parameters, (Object) values.toArray(new String[0]));
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Failed to call SSLParameters." + setter.getName(), e);
+    }
+  }
+
+  private static Method parametersMethod(final String name) {
+    try {
+      return SSLParameters.class.getMethod(name, String[].class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  public static final class Builder {
+
+    private final List<String> protocols = new ArrayList<>();
+    private final List<String> cipherSuites = new ArrayList<>();
+    private final List<String> namedGroups = new ArrayList<>();
+    private final List<String> signatureSchemes = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * @param protocols Enabled protocol versions, e.g. TLSv1.3
+     * @return this builder
+     */
+    public Builder protocols(final String... protocols) {
+      this.protocols.addAll(Arrays.asList(protocols));
+      return this;
+    }
+
+    /**
+     * @param cipherSuites Enabled cipher suites in order of preference, empty for the JDK defaults
+     * @return this builder
+     */
+    public Builder cipherSuites(final String... cipherSuites) {
+      this.cipherSuites.addAll(Arrays.asList(cipherSuites));
+      return this;
+    }
+
+    /**
+     * @param namedGroups Key exchange groups in order of preference, empty for the JDK defaults
+     * @return this builder
+     */
+    public Builder namedGroups(final String... namedGroups) {
+      this.namedGroups.addAll(Arrays.asList(namedGroups));
+      return this;
+    }
+
+    /**
+     * @param signatureSchemes Signature schemes in order of preference, empty for the JDK defaults
+     * @return this builder
+     */
+    public Builder signatureSchemes(final String... signatureSchemes) {
+      this.signatureSchemes.addAll(Arrays.asList(signatureSchemes));
+      return this;
+    }
+
+    public TlsPolicy build() {
+      if (protocols.isEmpty()) {
+        throw new IllegalStateException("A TLS policy needs at least one protocol");
+      }
+      return new TlsPolicy(this);
+    }
+  }
+}
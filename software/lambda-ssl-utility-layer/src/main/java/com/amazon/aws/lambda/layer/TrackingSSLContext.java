@@ -0,0 +1,107 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * SSLContext that restricts its default parameters and engines to a {@link TlsPolicy} and records every new client
+ * connection, every full handshake, the handshake durations and the bytes transferred in {@link HandshakeMetrics}.
+ * HttpClient takes its SSLParameters from {@link #getDefaultSSLParameters()} and creates one SSLEngine per connection,
+ * so engines are counted as connections and wrapped to time the handshake, and the trust managers passed to init are
+ * wrapped to count certificate verifications.
+ */
+final class TrackingSSLContext extends SSLContext {
+
+  private TrackingSSLContext(final SSLContext delegate, final TlsPolicy tlsPolicy) {
+    super(new Spi(delegate, tlsPolicy), delegate.getProvider(), delegate.getProtocol());
+  }
+
+  static SSLContext newInstance(final TlsPolicy tlsPolicy) throws NoSuchAlgorithmException {
+    return new TrackingSSLContext(SSLContext.getInstance(tlsPolicy.getContextProtocol()), tlsPolicy);
+  }
+
+  private static final class Spi extends SSLContextSpi {
+
+    private final SSLContext delegate;
+    private final TlsPolicy tlsPolicy;
+
+    private Spi(final SSLContext delegate, final TlsPolicy tlsPolicy) {
+      this.delegate = delegate;
+      this.tlsPolicy = tlsPolicy;
+    }
+
+    @Override
+    protected void engineInit(final KeyManager[] keyManagers, final TrustManager[] trustManagers,
+                              final SecureRandom secureRandom) throws KeyManagementException {
+      TrustManager[] tracking = trustManagers == null ? null : trustManagers.clone();
+      if (tracking != null) {
+        for (int i = 0; i < tracking.length; i++) {
+          if (tracking[i] instanceof X509ExtendedTrustManager) {
+            tracking[i] = new TrackingTrustManager((X509ExtendedTrustManager) tracking[i]);
+          }
+        }
+      }
+      delegate.init(keyManagers, tracking, secureRandom);
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine() {
+      return withPolicy(delegate.createSSLEngine());
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine(final String host, final int port) {
+      HandshakeMetrics.Backend backend = HandshakeMetrics.getInstance().connection(host, port);
+      return new TrackingSSLEngine(withPolicy(delegate.createSSLEngine(host, port)), backend);
+    }
+
+    @Override
+    protected SSLSocketFactory engineGetSocketFactory() {
+      return delegate.getSocketFactory();
+    }
+
+    @Override
+    protected SSLServerSocketFactory engineGetServerSocketFactory() {
+      return delegate.getServerSocketFactory();
+    }
+
+    @Override
+    protected SSLSessionContext engineGetServerSessionContext() {
+      return delegate.getServerSessionContext();
+    }
+
+    @Override
+    protected SSLSessionContext engineGetClientSessionContext() {
+      return delegate.getClientSessionContext();
+    }
+
+    @Override
+    protected SSLParameters engineGetDefaultSSLParameters() {
+      return tlsPolicy.apply(delegate.getDefaultSSLParameters());
+    }
+
+    @Override
+    protected SSLParameters engineGetSupportedSSLParameters() {
+      return delegate.getSupportedSSLParameters();
+    }
+
+    private SSLEngine withPolicy(final SSLEngine engine) {
+      engine.setSSLParameters(tlsPolicy.apply(engine.getSSLParameters()));
+      return engine;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * SSLEngine of one client connection that records the handshake duration and the TLS bytes sent and received in
+ * {@link HandshakeMetrics}. The handshake runs from the first wrap, the ClientHello, until the engine reports it
+ * FINISHED; bytes are the network bytes produced by wrap and consumed by unwrap, including the TLS framing.
+ */
+final class TrackingSSLEngine extends SSLEngine {
+
+  private final SSLEngine delegate;
+  private final HandshakeMetrics.Backend backend;
+  private long handshakeStart;
+  private boolean handshakeRecorded;
+
+  TrackingSSLEngine(final SSLEngine delegate, final HandshakeMetrics.Backend backend) {
+    super(delegate.getPeerHost(), delegate.getPeerPort());
+    this.delegate = delegate;
+    this.backend = backend;
+  }
+
+  @Override
+  public SSLEngineResult wrap(final ByteBuffer src, final ByteBuffer dst) throws SSLException {
+    startHandshake();
+    return sent(delegate.wrap(src, dst));
+  }
+
+  @Override
+  public SSLEngineResult wrap(final ByteBuffer[] srcs, final ByteBuffer dst) throws SSLException {
+    startHandshake();
+    return sent(delegate.wrap(srcs, dst));
+  }
+
+  @Override
+  public SSLEngineResult wrap(final ByteBuffer[] srcs, final int offset, final int length, final ByteBuffer dst)
+    throws SSLException {
+    startHandshake();
+    return sent(delegate.wrap(srcs, offset, length, dst));
+  }
+
+  @Override
+  public SSLEngineResult unwrap(final ByteBuffer src, final ByteBuffer dst) throws SSLException {
+    return received(delegate.unwrap(src, dst));
+  }
+
+  @Override
+  public SSLEngineResult unwrap(final ByteBuffer src, final ByteBuffer[] dsts) throws SSLException {
+    return received(delegate.unwrap(src, dsts));
+  }
+
+  @Override
+  public SSLEngineResult unwrap(final ByteBuffer src, final ByteBuffer[] dsts, final int offset, final int length)
+    throws SSLException {
+    return received(delegate.unwrap(src, dsts, offset, length));
+  }
+
+  private synchronized void startHandshake() {
+    if (handshakeStart == 0) {
+      handshakeStart = System.nanoTime();
+    }
+  }
+
+  private SSLEngineResult sent(final SSLEngineResult result) {
+    backend.sent(result.bytesProduced());
+    finished(result);
+    return result;
+  }
+
+  private SSLEngineResult received(final SSLEngineResult result) {
+    backend.received(result.bytesConsumed());
+    finished(result);
+    return result;
+  }
+
+  private void finished(final SSLEngineResult result) {
+    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+      synchronized (this) {
+        // TLS 1.3 session tickets after the handshake report FINISHED again
+        if (handshakeRecorded || handshakeStart == 0) {
+          return;
+        }
+        handshakeRecorded = true;
+      }
+      backend.handshake(System.nanoTime() - handshakeStart);
+    }
+  }
+
+  @Override
+  public Runnable getDelegatedTask() {
+    return delegate.getDelegatedTask();
+  }
+
+  @Override
+  public void closeInbound() throws SSLException {
+    delegate.closeInbound();
+  }
+
+  @Override
+  public boolean isInboundDone() {
+    return delegate.isInboundDone();
+  }
+
+  @Override
+  public void closeOutbound() {
+    delegate.closeOutbound();
+  }
+
+  @Override
+  public boolean isOutboundDone() {
+    return delegate.isOutboundDone();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return delegate.getSupportedCipherSuites();
+  }
+
+  @Override
+  public String[] getEnabledCipherSuites() {
+    return delegate.getEnabledCipherSuites();
+  }
+
+  @Override
+  public void setEnabledCipherSuites(final String[] suites) {
+    delegate.setEnabledCipherSuites(suites);
+  }
+
+  @Override
+  public String[] getSupportedProtocols() {
+    return delegate.getSupportedProtocols();
+  }
+
+  @Override
+  public String[] getEnabledProtocols() {
+    return delegate.getEnabledProtocols();
+  }
+
+  @Override
+  public void setEnabledProtocols(final String[] protocols) {
+    delegate.setEnabledProtocols(protocols);
+  }
+
+  @Override
+  public SSLSession getSession() {
+    return delegate.getSession();
+  }
+
+  @Override
+  public SSLSession getHandshakeSession() {
+    return delegate.getHandshakeSession();
+  }
+
+  @Override
+  public void beginHandshake() throws SSLException {
+    startHandshake();
+    delegate.beginHandshake();
+  }
+
+  @Override
+  public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+    return delegate.getHandshakeStatus();
+  }
+
+  @Override
+  public void setUseClientMode(final boolean mode) {
+    delegate.setUseClientMode(mode);
+  }
+
+  @Override
+  public boolean getUseClientMode() {
+    return delegate.getUseClientMode();
+  }
+
+  @Override
+  public void setNeedClientAuth(final boolean need) {
+    delegate.setNeedClientAuth(need);
+  }
+
+  @Override
+  public boolean getNeedClientAuth() {
+    return delegate.getNeedClientAuth();
+  }
+
+  @Override
+  public void setWantClientAuth(final boolean want) {
+    delegate.setWantClientAuth(want);
+  }
+
+  @Override
+  public boolean getWantClientAuth() {
+    return delegate.getWantClientAuth();
+  }
+
+  @Override
+  public void setEnableSessionCreation(final boolean flag) {
+    delegate.setEnableSessionCreation(flag);
+  }
+
+  @Override
+  public boolean getEnableSessionCreation() {
+    return delegate.getEnableSessionCreation();
+  }
+
+  @Override
+  public SSLParameters getSSLParameters() {
+    return delegate.getSSLParameters();
+  }
+
+  @Override
+  public void setSSLParameters(final SSLParameters params) {
+    delegate.setSSLParameters(params);
+  }
+
+  @Override
+  public String getApplicationProtocol() {
+    return delegate.getApplicationProtocol();
+  }
+
+  @Override
+  public String getHandshakeApplicationProtocol() {
+    return delegate.getHandshakeApplicationProtocol();
+  }
+
+  @Override
+  public void setHandshakeApplicationProtocolSelector(final BiFunction<SSLEngine, List<String>, String> selector) {
+    delegate.setHandshakeApplicationProtocolSelector(selector);
+  }
+
+  @Override
+  public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+    return delegate.getHandshakeApplicationProtocolSelector();
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+}
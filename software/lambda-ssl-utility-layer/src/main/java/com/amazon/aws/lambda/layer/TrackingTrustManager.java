@@ -0,0 +1,67 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package com.amazon.aws.lambda.layer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Counts server certificate verifications, i.e. full handshakes, in {@link HandshakeMetrics}.
+ */
+final class TrackingTrustManager extends X509ExtendedTrustManager {
+
+  private final X509ExtendedTrustManager delegate;
+
+  TrackingTrustManager(final X509ExtendedTrustManager delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    if (engine != null) {
+      HandshakeMetrics.getInstance().fullHandshake(engine.getPeerHost(), engine.getPeerPort());
+    }
+    delegate.checkServerTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    if (socket != null && socket.getInetAddress() != null) {
+      HandshakeMetrics.getInstance().fullHandshake(socket.getInetAddress().getHostName(), socket.getPort());
+    }
+    delegate.checkServerTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine)
+    throws CertificateException {
+    delegate.checkClientTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket)
+    throws CertificateException {
+    delegate.checkClientTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+    delegate.checkClientTrusted(chain, authType);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return delegate.getAcceptedIssuers();
+  }
+}
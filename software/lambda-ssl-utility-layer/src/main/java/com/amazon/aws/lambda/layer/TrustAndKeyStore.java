@@ -3,17 +3,28 @@
 
 package com.amazon.aws.lambda.layer;
 
-import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.TrustManager;
 import java.io.IOException;
-import java.nio.file.Paths;
-import java.security.*;
-import java.security.cert.CertificateException;
+import java.security.GeneralSecurityException;
 
 public interface TrustAndKeyStore {
 
   /**
+   * Override to connect with a different protocol and cipher suite policy, e.g. {@link TlsPolicy#tls12()}. The
+   * default policy follows the {@link KeyProfile} named by the KEY_PROFILE environment variable.
+   *
+   * @return TlsPolicy applied to every SSLContext built by this interface
+   */
+  default TlsPolicy getTlsPolicy() {
+    return TlsPolicy.getDefault();
+  }
+
+  /**
+   * Builds the SSLContext through the {@link SSLContextRegistry}, so repeated calls with unchanged keystore files
+   * return the already initialized context instead of parsing the files again.
+   *
    * @param pathToKeystoreJKS   Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
    * @param keyStorePassword    KeyStore Password
    * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
@@ -25,33 +36,103 @@ public interface TrustAndKeyStore {
     final String keyStorePassword,
     final String pathToTruststoreJKS,
     final String trustStorePassword
-  ) throws
-    CertificateException,
-    KeyStoreException,
-    IOException,
-    NoSuchAlgorithmException,
-    UnrecoverableKeyException,
-    KeyManagementException {
-
-    KeyStore keyStore = KeyStore.getInstance(
-      Paths.get(pathToKeystoreJKS).toFile(),
-      keyStorePassword.toCharArray()
+  ) throws GeneralSecurityException, IOException {
+
+    return SSLContextRegistry.getInstance().getSSLContext(
+      pathToKeystoreJKS,
+      keyStorePassword,
+      pathToTruststoreJKS,
+      trustStorePassword,
+      getTlsPolicy()
     );
+  }
 
-    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-    kmf.init(keyStore, keyStorePassword.toCharArray());
+  /**
+   * Builds the SSLContext from keystores that were never files, e.g. decoded from Parameter Store or Secrets Manager
+   * values with {@link KeyStoreContent#decode}, so the certificates need no layer.
+   *
+   * @param keyStore           Keystore content, JKS, PKCS12 or PEM
+   * @param keyStorePassword   KeyStore Password
+   * @param trustStore         Truststore content, JKS, PKCS12 or PEM
+   * @param trustStorePassword TrustStore Password
+   * @return SSLContext which can be used in HttpClient
+   */
+  default SSLContext getSSLContext(
+    final KeyStoreContent keyStore,
+    final String keyStorePassword,
+    final KeyStoreContent trustStore,
+    final String trustStorePassword
+  ) throws GeneralSecurityException, IOException {
 
-    KeyStore trustStore = KeyStore.getInstance(
-      Paths.get(pathToTruststoreJKS).toFile(),
-      trustStorePassword.toCharArray()
+    return SSLContextRegistry.getInstance().getSSLContext(
+      keyStore,
+      keyStorePassword,
+      trustStore,
+      trustStorePassword,
+      getTlsPolicy()
     );
+  }
+
+  /**
+   * Builds one SSLContext that presents the client certificate chosen by the given key manager, typically a
+   * {@link RoutingKeyManager} serving several backends from a single HttpClient.
+   *
+   * @param keyManager          Key manager selecting the client certificate per connection
+   * @param pathToTruststoreJKS Provide the path to truststore JKS file in the layer zip (/opt/abc.jks)
+   * @param trustStorePassword  TrustStore Password
+   * @return SSLContext which can be used in HttpClient
+   */
+  default SSLContext getSSLContext(
+    final KeyManager keyManager,
+    final String pathToTruststoreJKS,
+    final String trustStorePassword
+  ) throws GeneralSecurityException, IOException {
+
+    return SSLContexts.newSSLContext(
+      new KeyManager[]{keyManager},
+      SSLContextRegistry.getInstance().getTrustManagers(pathToTruststoreJKS, trustStorePassword),
+      getTlsPolicy());
+  }
 
-    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-    tmf.init(trustStore);
+  /**
+   * Builds an SSLContext around the given managers, typically a {@link ReloadableKeyManager} and a
+   * {@link ReloadableTrustManager} whose material can be rotated without rebuilding the context.
+   *
+   * @param keyManager   Key manager selecting the client certificate per connection
+   * @param trustManager Trust manager verifying the backend certificates
+   * @return SSLContext which can be used in HttpClient
+   */
+  default SSLContext getSSLContext(
+    final KeyManager keyManager,
+    final TrustManager trustManager
+  ) throws GeneralSecurityException {
 
-    SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-    sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    return SSLContexts.newSSLContext(new KeyManager[]{keyManager}, new TrustManager[]{trustManager}, getTlsPolicy());
+  }
+
+  /**
+   * @param pathToKeystoreJKS Provide the path to keystore JKS file in the layer zip (/opt/xyz.jks)
+   * @param keyStorePassword  KeyStore Password
+   * @return KeyManagers which can be added as a route to a {@link RoutingKeyManager}
+   */
+  default KeyManager[] getKeyManagers(
+    final String pathToKeystoreJKS,
+    final String keyStorePassword
+  ) throws GeneralSecurityException, IOException {
+
+    return SSLContextRegistry.getInstance().getKeyManagers(pathToKeystoreJKS, keyStorePassword);
+  }
+
+  /**
+   * @param keyStore         Keystore content, JKS, PKCS12 or PEM
+   * @param keyStorePassword KeyStore Password
+   * @return KeyManagers which can be added as a route to a {@link RoutingKeyManager}
+   */
+  default KeyManager[] getKeyManagers(
+    final KeyStoreContent keyStore,
+    final String keyStorePassword
+  ) throws GeneralSecurityException, IOException {
 
-    return sslContext;
+    return SSLContextRegistry.getInstance().getKeyManagers(keyStore, keyStorePassword);
   }
 }